@@ -383,6 +383,7 @@ public class DataImportActivity extends FragmentActivity {
                     !name.endsWith(KMLManager.EXTENSION) &&
                     !name.endsWith(KMLManager.ZIP_EXTENSION) &&
                     !name.endsWith(GPXManager.EXTENSION) &&
+                    !name.endsWith(GPXManager.GZIP_EXTENSION) &&
                     !name.endsWith(".mbtiles") &&
                     !name.endsWith(".sqlitedb")) {
                 logger.warn("Unsupported file format");
@@ -424,8 +425,12 @@ public class DataImportActivity extends FragmentActivity {
             }
             File destination = new File(dir, filename);
             if (destination.exists()) {
-                String ext = filename.substring(filename.lastIndexOf("."));
-                filename = filename.replace(ext, "-" + SUFFIX_FORMAT.format(new Date()) + ext);
+                // compound extension should be kept intact to be recognized by data manager
+                int dot = filename.toLowerCase().endsWith(GPXManager.GZIP_EXTENSION) ?
+                        filename.length() - GPXManager.GZIP_EXTENSION.length() : filename.lastIndexOf('.');
+                if (dot < 0)
+                    dot = filename.length();
+                filename = filename.substring(0, dot) + "-" + SUFFIX_FORMAT.format(new Date()) + filename.substring(dot);
                 destination = new File(dir, filename);
             }
             return destination;
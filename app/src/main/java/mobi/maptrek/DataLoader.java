@@ -18,8 +18,10 @@ package mobi.maptrek;
 
 import android.content.Context;
 import android.os.FileObserver;
-import android.util.Pair;
+import android.os.Handler;
+import android.os.Looper;
 
+import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
 
 import org.slf4j.Logger;
@@ -29,10 +31,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import mobi.maptrek.data.source.FileDataSource;
 import mobi.maptrek.io.DataFilenameFilter;
@@ -47,12 +58,18 @@ import mobi.maptrek.util.ProgressListener;
 class DataLoader extends AsyncTaskLoader<List<FileDataSource>> {
     private static final Logger logger = LoggerFactory.getLogger(DataLoader.class);
     private static final String DO_NOT_LOAD_FLAG = ".do_not_load";
+    private static final int LOADER_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final long CANCEL_CHECK_INTERVAL = 100; // milliseconds
 
     // We hold a reference to the Loader’s data here.
     private List<FileDataSource> mData;
     private final Set<String> mFiles = new HashSet<>();
 
-    private ProgressListener mProgressListener;
+    private final List<FileDataSource> mPartialData = new ArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile ExecutorService mExecutor;
+
+    private volatile ProgressListener mProgressListener;
     private FileObserver mObserver;
 
     DataLoader(Context ctx) {
@@ -106,77 +123,184 @@ class DataLoader extends AsyncTaskLoader<List<FileDataSource>> {
         File[] files = dataDir.listFiles(new DataFilenameFilter());
         if (files == null)
             return null;
+        pruneStatisticsCache(files);
         List<FileDataSource> data = new ArrayList<>();
-        List<Pair<File, Boolean>> loadFiles = new ArrayList<>();
+        List<File> loadFiles = new ArrayList<>();
 
         int maxProgress = 0;
         for (File file : files) {
             String path = file.getAbsolutePath();
             synchronized (mFiles) {
-                if (!mFiles.contains(path)) {
-                    File loadFlagFile = new File(path + DO_NOT_LOAD_FLAG);
-                    boolean loadFlag = loadFlagFile.exists();
-                    if (!loadFlag)
-                        maxProgress = (int) (maxProgress + file.length());
-                    loadFiles.add(new Pair<>(file, loadFlag));
-                }
+                if (mFiles.contains(path))
+                    continue;
+            }
+            File loadFlagFile = new File(path + DO_NOT_LOAD_FLAG);
+            if (loadFlagFile.exists()) {
+                logger.debug("  skip -> {}", file.getName());
+                FileDataSource source = new FileDataSource();
+                source.name = file.getName().substring(0, file.getName().lastIndexOf("."));
+                source.path = path;
+                data.add(source);
+            } else {
+                maxProgress = (int) (maxProgress + file.length());
+                loadFiles.add(file);
             }
         }
+        // Most recent files are loaded first as they are most probably needed by user
+        Collections.sort(loadFiles, (lhs, rhs) -> Long.compare(rhs.lastModified(), lhs.lastModified()));
 
         if (mProgressListener != null)
             mProgressListener.onProgressStarted(maxProgress);
 
-        int progress = 0;
-
-        for (Pair<File, Boolean> pair : loadFiles) {
-            if (isLoadInBackgroundCanceled()) {
-                logger.debug("loadInBackgroundCanceled");
-                return null;
+        if (loadFiles.isEmpty())
+            return data;
+
+        // Skipped sources do not need loading and are shown at once
+        for (FileDataSource source : data)
+            deliverPartialResult(source);
+        data.clear();
+
+        AtomicLong progress = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(LOADER_THREADS, loadFiles.size()));
+        mExecutor = executor;
+        CompletionService<FileDataSource> completionService = new ExecutorCompletionService<>(executor);
+        for (File file : loadFiles)
+            completionService.submit(() -> loadFile(file, progress));
+
+        try {
+            int pending = loadFiles.size();
+            long reportedProgress = 0L;
+            while (pending > 0) {
+                if (isLoadInBackgroundCanceled()) {
+                    logger.debug("loadInBackgroundCanceled");
+                    return null;
+                }
+                Future<FileDataSource> future = completionService.poll(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                // progress of all loader threads is reported only by this thread
+                long currentProgress = progress.get();
+                if (currentProgress > reportedProgress) {
+                    reportedProgress = currentProgress;
+                    ProgressListener listener = mProgressListener;
+                    if (listener != null) {
+                        //TODO Divide progress by 1024
+                        listener.onProgressChanged((int) currentProgress);
+                    }
+                }
+                if (future == null)
+                    continue;
+                pending--;
+                FileDataSource source = future.get();
+                if (source == null)
+                    continue;
+                if (pending > 0)
+                    deliverPartialResult(source);
+                else
+                    data.add(source);
             }
-            File file = pair.first;
-            boolean loadFlag = pair.second;
+        } catch (InterruptedException e) {
+            logger.debug("loadInBackgroundInterrupted");
+            return null;
+        } catch (ExecutionException e) {
+            // loadFile() does not throw
+            logger.error("Loader error", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            mExecutor = null;
+        }
+        return data;
+    }
 
-            logger.debug("  {} -> {}", (loadFlag ? "skip" : "load"), file.getName());
+    @Override
+    public void cancelLoadInBackground() {
+        ExecutorService executor = mExecutor;
+        if (executor != null)
+            executor.shutdownNow();
+    }
 
-            if (loadFlag) {
-                FileDataSource source = new FileDataSource();
-                source.name = file.getName().substring(0, file.getName().lastIndexOf("."));
+    /**
+     * Loads single file, called concurrently by loader threads. File parsers must not share
+     * any mutable state, e.g. static date formats.
+     */
+    @Nullable
+    private FileDataSource loadFile(File file, AtomicLong progress) {
+        if (isLoadInBackgroundCanceled())
+            return null;
+        logger.debug("  load -> {}", file.getName());
+        long[] fileProgress = new long[1];
+        try {
+            MonitoredInputStream inputStream = new MonitoredInputStream(new FileInputStream(file));
+            inputStream.addChangeListener(location -> {
+                progress.addAndGet(location - fileProgress[0]);
+                fileProgress[0] = location;
+            });
+            Manager manager = Manager.getDataManager(file.getName());
+            if (manager instanceof TrackManager)
+                ((TrackManager) manager).setStatisticsCacheDir(getStatisticsCacheDir());
+            if (manager != null) {
+                FileDataSource source = manager.loadData(inputStream, file.getAbsolutePath());
                 source.path = file.getAbsolutePath();
-                data.add(source);
-            } else {
-                try {
-                    MonitoredInputStream inputStream = new MonitoredInputStream(new FileInputStream(file));
-                    final int finalProgress = progress;
-                    inputStream.addChangeListener(location -> {
-                        if (mProgressListener != null) {
-                            //TODO Divide progress by 1024
-                            mProgressListener.onProgressChanged(finalProgress + (int) location);
-                        }
-                    });
-                    Manager manager = Manager.getDataManager(file.getName());
-                    if (manager != null) {
-                        FileDataSource source = manager.loadData(inputStream, file.getAbsolutePath());
-                        source.path = file.getAbsolutePath();
-                        if (source.name == null || "".equals(source.name)) {
-                            String fileName = file.getName();
-                            source.name = fileName.substring(0, fileName.lastIndexOf("."));
-                        }
-                        source.setLoaded();
-                        data.add(source);
+                if (source.name == null || "".equals(source.name)) {
+                    String fileName = file.getName();
+                    source.name = fileName.substring(0, fileName.lastIndexOf("."));
+                }
+                source.setLoaded();
 
-                        if (manager instanceof TrackManager) {
-                            //noinspection ResultOfMethodCallIgnored
-                            file.setLastModified(source.tracks.get(0).getLastPoint().time);
-                        }
-                    }
-                } catch (Exception e) {
-                    //TODO Notify user about a problem
-                    logger.error("File error: " + file.getAbsolutePath(), e);
+                if (manager instanceof TrackManager) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.setLastModified(source.tracks.get(0).getLastPoint().time);
                 }
-                progress += file.length();
+                return source;
             }
+        } catch (Exception e) {
+            //TODO Notify user about a problem
+            logger.error("File error: " + file.getAbsolutePath(), e);
+        } finally {
+            progress.addAndGet(file.length() - fileProgress[0]);
         }
-        return data;
+        return null;
+    }
+
+    private File getStatisticsCacheDir() {
+        return new File(getContext().getCacheDir(), TrackManager.STATISTICS_CACHE);
+    }
+
+    /**
+     * Removes cached statistics of deleted and renamed tracks.
+     */
+    private void pruneStatisticsCache(File[] files) {
+        File cacheDir = getStatisticsCacheDir();
+        if (!cacheDir.isDirectory())
+            return;
+        List<String> paths = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().toLowerCase().endsWith(TrackManager.EXTENSION))
+                paths.add(file.getAbsolutePath());
+        }
+        TrackManager.pruneStatisticsCache(cacheDir, paths);
+    }
+
+    /**
+     * Delivers loaded source to the client without waiting for other files. Sources loaded
+     * close in time are delivered together.
+     */
+    private void deliverPartialResult(FileDataSource source) {
+        synchronized (mPartialData) {
+            mPartialData.add(source);
+            if (mPartialData.size() > 1)
+                return; // delivery is already scheduled
+        }
+        mMainHandler.post(() -> {
+            List<FileDataSource> data;
+            synchronized (mPartialData) {
+                data = new ArrayList<>(mPartialData);
+                mPartialData.clear();
+            }
+            if (isReset() || isAbandoned())
+                return;
+            mergeData(data);
+            if (isStarted())
+                super.deliverResult(mData);
+        });
     }
 
     @Override
@@ -191,6 +315,13 @@ class DataLoader extends AsyncTaskLoader<List<FileDataSource>> {
             return;
         }
 
+        mergeData(data);
+
+        if (isStarted())
+            super.deliverResult(mData);
+    }
+
+    private void mergeData(List<FileDataSource> data) {
         synchronized (mFiles) {
             if (mData == null) {
                 mData = data;
@@ -207,9 +338,6 @@ class DataLoader extends AsyncTaskLoader<List<FileDataSource>> {
                 mFiles.add(source.path);
             }
         }
-
-        if (isStarted())
-            super.deliverResult(mData);
     }
 
     @Override
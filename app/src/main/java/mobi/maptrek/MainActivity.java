@@ -140,6 +140,8 @@ import org.oscim.layers.Layer;
 import org.oscim.layers.PathLayer;
 import org.oscim.layers.TileGridLayer;
 import org.oscim.layers.tile.MapTile;
+import org.oscim.layers.tile.TileLayer;
+import org.oscim.layers.tile.TileManager;
 import org.oscim.layers.tile.bitmap.BitmapTileLayer;
 import org.oscim.layers.tile.buildings.S3DBLayer;
 import org.oscim.layers.tile.vector.OsmTileLayer;
@@ -646,7 +648,17 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
             mNativeTileSource = new MapTrekTileSource(mDetailedMapDatabase);
             mNativeTileSource.setContoursEnabled(Configuration.getContoursEnabled());
             mBaseLayer = new MapTrekTileLayer(mMap, mNativeTileSource, this);
+            mBaseLayer.setLoadingPriority(TileLayer.PRIORITY_HIGH);
             mMap.setBaseMap(mBaseLayer); // will go to base group
+            mBaseLayer.getManager().events.bind(new TileManager.Listener() {
+                @Override
+                public void onTileManagerEvent(Event event, MapTile tile) {
+                    if (event == TileManager.TILE_LOADED) {
+                        MapTrek.traceStartup("first tile loaded");
+                        mBaseLayer.getManager().events.unbind(this);
+                    }
+                }
+            });
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
@@ -676,8 +688,11 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
 
         mLabelTileLoaderHook = new LabelTileLoaderHook(mShieldFactory, mOsmcSymbolFactory);
         String language = Configuration.getLanguage();
-        if (!"none".equals(language))
+        if (!"none".equals(language)) {
             mLabelTileLoaderHook.setPreferredLanguage(language);
+            if (mNativeTileSource != null)
+                mNativeTileSource.setPreferredLanguage(language);
+        }
         if (mBaseLayer != null) {
             mLabelsLayer = new LabelLayer(mMap, mBaseLayer, mLabelTileLoaderHook);
             layers.add(mLabelsLayer, MAP_LABELS);
@@ -839,6 +854,7 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         */
 
         mStartTime = SystemClock.uptimeMillis();
+        MapTrek.traceStartup("main activity created");
 
         onNewIntent(getIntent());
 
@@ -941,6 +957,8 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         // Start loading user data
         DataLoader loader = (DataLoader) LoaderManager.getInstance(this).initLoader(0, null, this);
         loader.setProgressHandler(mProgressHandler);
+        // combined progress of all concurrent map imports
+        mapIndexViewModel.nativeIndex.setImportProgressListener(mProgressHandler);
 
         ContextCompat.registerReceiver(this, mBroadcastReceiver, new IntentFilter(MapWorker.BROADCAST_MAP_STARTED), ContextCompat.RECEIVER_NOT_EXPORTED);
         ContextCompat.registerReceiver(this, mBroadcastReceiver, new IntentFilter(MapWorker.BROADCAST_MAP_ADDED), ContextCompat.RECEIVER_NOT_EXPORTED);
@@ -1106,6 +1124,7 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         if (loader != null) {
             ((DataLoader) loader).setProgressHandler(null);
         }
+        mapIndexViewModel.nativeIndex.setImportProgressListener(null);
     }
 
     @Override
@@ -1284,11 +1303,10 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
             builder.setItems(R.array.language_array, (dialog, which) -> {
                 String[] languageCodes = getResources().getStringArray(R.array.language_code_array);
                 String language = languageCodes[which];
-                if ("none".equals(language)) {
-                    mLabelTileLoaderHook.setPreferredLanguage(null);
-                } else {
-                    mLabelTileLoaderHook.setPreferredLanguage(language);
-                }
+                String preferredLanguage = "none".equals(language) ? null : language;
+                mLabelTileLoaderHook.setPreferredLanguage(preferredLanguage);
+                if (mNativeTileSource != null)
+                    mNativeTileSource.setPreferredLanguage(preferredLanguage);
                 mMap.clearMap();
                 Configuration.setLanguage(language);
             });
@@ -4127,9 +4145,15 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             logger.debug("Broadcast: {}", action);
+            // map import progress is reported by map index, only hillshade progress is tracked here
+            boolean hillshade = intent.getBooleanExtra(MapWorker.EXTRA_HILLSHADE, false);
             if (MapWorker.BROADCAST_MAP_ADDED.equals(action) || MapWorker.BROADCAST_MAP_REMOVED.equals(action)) {
-                if (mProgressHandler != null && MapWorker.BROADCAST_MAP_ADDED.equals(action))
+                if (mProgressHandler != null && MapWorker.BROADCAST_MAP_ADDED.equals(action) && hillshade)
                     mProgressHandler.onProgressFinished();
+                if (mNativeTileSource != null) {
+                    mNativeTileSource.invalidateCache();
+                    mNativeTileSource.invalidateNames();
+                }
                 mMap.clearMap();
             }
             if (MapWorker.BROADCAST_MAP_STARTED.equals(action)) {
@@ -4138,7 +4162,7 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
                 if (extras == null)
                     return;
                 UUID id = (UUID) extras.getSerializable(MapWorker.EXTRA_UUID);
-                if (id == null)
+                if (id == null || !hillshade)
                     return;
                 if (mProgressHandler != null)
                     mProgressHandler.onProgressStarted(100);
@@ -4154,7 +4178,7 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
                         });
             }
             if (MapWorker.BROADCAST_MAP_FAILED.equals(action)) {
-                if (mProgressHandler != null)
+                if (mProgressHandler != null && hillshade)
                     mProgressHandler.onProgressFinished();
                 final Bundle extras = intent.getExtras();
                 String title = extras != null ? extras.getString(MapWorker.EXTRA_TITLE) : getString(R.string.map);
@@ -4528,6 +4552,8 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
     public void onAmenityKindVisibilityChanged() {
         Configuration.saveKindZoomState();
         Tags.recalculateTypeZooms();
+        if (mNativeTileSource != null)
+            mNativeTileSource.invalidateCache();
         mMap.clearMap();
     }
 
@@ -4652,6 +4678,8 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         if (level > TRIM_MEMORY_MODERATE) {
             mShieldFactory.dispose();
             mOsmcSymbolFactory.dispose();
+            if (mNativeTileSource != null)
+                mNativeTileSource.trimCache();
             mMap.clearMap();
         }
     }
@@ -4711,6 +4739,8 @@ public class MainActivity extends AppCompatActivity implements ILocationListener
         float mapScale = Themes.MAP_SCALE_SIZES[Configuration.getMapUserScale()];
         CanvasAdapter.textScale = fontSize / mapScale;
         CanvasAdapter.userScale = mapScale;
+        if (mNativeTileSource != null)
+            mNativeTileSource.invalidateCache(); // amenity zooms could change
         mMap.setTheme(ThemeLoader.load(themeFile), true);
         mShieldFactory.setFontSize(fontSize);
         mShieldFactory.dispose();
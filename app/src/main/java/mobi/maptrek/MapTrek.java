@@ -31,6 +31,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatDelegate;
@@ -96,6 +97,7 @@ public class MapTrek extends Application {
     private static final String DEBUG_PATH = "debug.log";
 
     private static MapTrek mSelf;
+    private static final long mStartTime = SystemClock.elapsedRealtime();
     private File mExceptionLog;
     private DefaultExceptionHandler mExceptionHandler;
 
@@ -110,6 +112,7 @@ public class MapTrek extends Application {
     private MapIndex mExtraMapIndex;
     private MapTrekDatabaseHelper mDetailedMapHelper;
     private SQLiteDatabase mDetailedMapDatabase;
+    private boolean mFreshMapDatabase;
     private HillshadeDatabaseHelper mHillshadeHelper;
     private SQLiteDatabase mHillshadeDatabase;
     private WaypointDbDataSource mWaypointDbDataSource;
@@ -164,10 +167,11 @@ public class MapTrek extends Application {
 
         TextStyle.MAX_TEXT_WIDTH = (int) (density * 220);
 
-        // Configure work manager to execute one job at a time to import and remove maps sequentially
+        // Configure work manager to execute several jobs at a time, map database modifications
+        // are serialized by map import queue
         androidx.work.Configuration configuration =
                 new androidx.work.Configuration.Builder()
-                        .setExecutor(Executors.newFixedThreadPool(1))
+                        .setExecutor(Executors.newFixedThreadPool(3))
                         .build();
         WorkManager.initialize(getApplicationContext(), configuration);
 
@@ -181,6 +185,7 @@ public class MapTrek extends Application {
         if (BuildConfig.DEBUG) {
             findDebugMaps();
         }
+        traceStartup("application created");
     }
 
     private void initializeSettings() {
@@ -210,6 +215,13 @@ public class MapTrek extends Application {
         return mSelf;
     }
 
+    /**
+     * Logs time elapsed since application process start, used to trace startup stages.
+     */
+    public static void traceStartup(String stage) {
+        logger.info("Startup: {} in {} ms", stage, SystemClock.elapsedRealtime() - mStartTime);
+    }
+
     /** @noinspection unused*/
     public void restart(@NonNull Context context, Class<?> cls) {
         Intent intent = new Intent(context, cls);
@@ -265,8 +277,9 @@ public class MapTrek extends Application {
                     mUserNotification = getString(R.string.msgMapDatabaseError);
                 }
             }
-            if (fresh && mDetailedMapDatabase != null)
-                MapTrekDatabaseHelper.createFtsTable(mDetailedMapDatabase);
+            // full text index is created by map index in background
+            mFreshMapDatabase = fresh && mDetailedMapDatabase != null;
+            traceStartup("maps database opened");
         }
         return mDetailedMapDatabase;
     }
@@ -314,6 +327,10 @@ public class MapTrek extends Application {
         if (mIndex == null)
             try {
                 mIndex = new Index(this, getDetailedMapDatabase(), getHillshadeDatabase());
+                if (mFreshMapDatabase) {
+                    mIndex.createFullTextIndex();
+                    mFreshMapDatabase = false;
+                }
             } catch (IOException e) {
                 logger.error("Couldn't open map database", e);
             }
@@ -40,6 +40,7 @@ public class Route implements Parcelable {
     public double distance;
     public boolean removed = false;
     private BoundingBox mBox = null;
+    private RouteIndex mIndex = null;
 
     public RouteStyle style = new RouteStyle();
     public DataSource source; // back reference to it's source
@@ -94,34 +95,17 @@ public class Route implements Parcelable {
             addInstruction(instruction);
             return;
         }
-        int after = instructions.size() - 1;
-        double xtk = Double.MAX_VALUE;
-        synchronized (instructions) {
-            for (int i = 0; i < instructions.size() - 1; i++) {
-                double distance = instruction.vincentyDistance(instructions.get(i + 1));
-                double bearing1 = instruction.bearingTo(instructions.get(i + 1));
-                double dtk1 = instructions.get(i).bearingTo(instructions.get(i + 1));
-                double cxtk1 = Math.abs(Geo.xtk(distance, dtk1, bearing1));
-                double bearing2 = instruction.bearingTo(instructions.get(i));
-                double dtk2 = instructions.get(i + 1).bearingTo(instructions.get(i));
-                double cxtk2 = Math.abs(Geo.xtk(distance, dtk2, bearing2));
-
-                if (cxtk2 != Double.POSITIVE_INFINITY && cxtk1 < xtk) {
-                    xtk = cxtk1;
-                    after = i;
-                }
-            }
-        }
+        int after = getNearestSegment(instruction);
         instructions.add(after + 1, instruction);
         lastInstruction = instructions.get(instructions.size() - 1);
-        distance = distanceBetween(0, instructions.size() - 1);
+        updateDistance();
         notifyChanged();
     }
 
     public void insertInstruction(int after, Instruction waypoint) {
         instructions.add(after + 1, waypoint);
         lastInstruction = instructions.get(instructions.size() - 1);
-        distance = distanceBetween(0, instructions.size() - 1);
+        updateDistance();
         notifyChanged();
     }
 
@@ -129,7 +113,7 @@ public class Route implements Parcelable {
         instructions.remove(instruction);
         if (instructions.size() > 0) {
             lastInstruction = instructions.get(instructions.size() - 1);
-            distance = distanceBetween(0, instructions.size() - 1);
+            updateDistance();
         } else {
             lastInstruction = null;
             distance = 0f;
@@ -150,47 +134,57 @@ public class Route implements Parcelable {
         notifyChanged();
     }
 
+    /**
+     * Returns distance along the route between instructions, indexes are clamped to route bounds.
+     */
     public double distanceBetween(int first, int last) {
-        double dist = 0.0;
-        int lastIndex = instructions.size() - 1;
         synchronized (instructions) {
-            for (int i = first; i < last; i++) {
-                if (i >= 0 && i < lastIndex)
-                    dist += instructions.get(i).vincentyDistance(instructions.get(i + 1));
-            }
+            RouteIndex index = getIndex();
+            first = Math.max(first, 0);
+            last = Math.min(last, index.size() - 1);
+            if (last <= first)
+                return 0.0;
+            return index.getDistance(last) - index.getDistance(first);
         }
-        return dist;
     }
 
     public double course(int prev, int next) {
         synchronized (instructions) {
+            if (next == prev + 1)
+                return getIndex().getCourse(prev);
+            if (next == prev - 1)
+                return getIndex().getReverseCourse(next);
             return instructions.get(prev).bearingTo(instructions.get(next));
         }
     }
 
     public Instruction getNearestInstruction(GeoPoint point) {
         synchronized (instructions) {
-            // try fast
-            if (instructions.size() == 0)
-                return null;
-            if (instructions.size() == 1)
-                return instructions.get(0);
-            for (Instruction instruction : instructions) {
-                if (point.latitudeE6 == instruction.latitudeE6
-                        && point.longitudeE6 == instruction.longitudeE6)
-                    return instruction;
-            }
-            // try slow
-            int index = instructions.size() - 1;
-            double distance = point.vincentyDistance(instructions.get(index));
-            for (int i = index - 1; i >= 0; i--) {
-                double d = point.vincentyDistance(instructions.get(i));
-                if (d < distance) {
-                    distance = d;
-                    index = i;
-                }
-            }
-            return instructions.get(index);
+            int index = getIndex().getNearestPoint(point.latitudeE6, point.longitudeE6);
+            return index >= 0 ? instructions.get(index) : null;
+        }
+    }
+
+    /**
+     * Returns index of first instruction of route segment nearest to specified point or -1
+     * if route has less than two instructions.
+     */
+    public int getNearestSegment(GeoPoint point) {
+        synchronized (instructions) {
+            return getIndex().getNearestSegment(point.latitudeE6, point.longitudeE6);
+        }
+    }
+
+    /**
+     * Returns cross track distance from specified point to route segment between specified
+     * adjacent points (in any direction), negative if point is to the right of the segment.
+     * Returns NEGATIVE_INFINITY if point is past the end of the segment, see
+     * {@link Geo#xtk(double, double, double)}.
+     */
+    public double getCrossTrackDistance(GeoPoint point, int prev, int next) {
+        synchronized (instructions) {
+            Instruction target = instructions.get(next);
+            return Geo.xtk(point.vincentyDistance(target), course(prev, next), point.bearingTo(target));
         }
     }
 
@@ -316,7 +310,20 @@ public class Route implements Parcelable {
         updateListener = null;
     }
 
+    private RouteIndex getIndex() {
+        if (mIndex == null)
+            mIndex = new RouteIndex(instructions);
+        return mIndex;
+    }
+
+    private void updateDistance() {
+        mIndex = null;
+        distance = distanceBetween(0, instructions.size() - 1);
+    }
+
     private void notifyChanged() {
+        mIndex = null;
+        mBox = null;
         if (updateListener != null)
             updateListener.onRouteChanged();
     }
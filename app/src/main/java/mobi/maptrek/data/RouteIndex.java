@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.data;
+
+import java.util.List;
+
+/**
+ * Immutable route geometry index. Keeps cumulative distances and segment courses, so that they
+ * are not recalculated on every location fix, and a hierarchy of segment bounding boxes for
+ * nearest point and nearest segment lookups. Boxes are built over consecutive segments, which
+ * are spatially coherent in routes, and are stored in flat arrays level by level.
+ * Spatial queries measure distances in equirectangular projection centered at query point,
+ * which is precise enough to compare distances to nearby route segments.
+ */
+final class RouteIndex {
+    private static final int LEAF_SIZE = 8;
+
+    private final int mSize;
+    private final int[] mLatitudes;
+    private final int[] mLongitudes;
+    // distance from first point to each point
+    private final double[] mDistances;
+    // bearings from each point to next point and back
+    private final double[] mCourses;
+    private final double[] mReverseCourses;
+    // minLatitude, minLongitude, maxLatitude, maxLongitude of each node
+    private final int[] mBoxes;
+    // first node of each level, level 0 contains leaves
+    private final int[] mLevels;
+
+    // query state
+    private double mScale;
+    private int mLatitudeE6;
+    private int mLongitudeE6;
+    private double mBest;
+    private int mBestIndex;
+
+    /**
+     * Should be called while synchronized on route instructions.
+     */
+    RouteIndex(List<? extends Route.Instruction> instructions) {
+        mSize = instructions.size();
+        mLatitudes = new int[mSize];
+        mLongitudes = new int[mSize];
+        mDistances = new double[mSize];
+        int segments = Math.max(mSize - 1, 0);
+        mCourses = new double[segments];
+        mReverseCourses = new double[segments];
+        for (int i = 0; i < mSize; i++) {
+            Route.Instruction instruction = instructions.get(i);
+            mLatitudes[i] = instruction.latitudeE6;
+            mLongitudes[i] = instruction.longitudeE6;
+            if (i > 0) {
+                Route.Instruction previous = instructions.get(i - 1);
+                mDistances[i] = mDistances[i - 1] + previous.vincentyDistance(instruction);
+                mCourses[i - 1] = previous.bearingTo(instruction);
+                mReverseCourses[i - 1] = instruction.bearingTo(previous);
+            }
+        }
+
+        int levels = 0;
+        int nodes = 0;
+        for (int count = (segments + LEAF_SIZE - 1) / LEAF_SIZE; count > 0; count = count > 1 ? (count + 1) / 2 : 0) {
+            nodes += count;
+            levels++;
+        }
+        mLevels = new int[levels + 1];
+        mBoxes = new int[nodes * 4];
+        int count = (segments + LEAF_SIZE - 1) / LEAF_SIZE;
+        for (int node = 0; node < count; node++) {
+            int first = node * LEAF_SIZE;
+            int last = Math.min(first + LEAF_SIZE, segments);
+            int offset = node * 4;
+            mBoxes[offset] = mBoxes[offset + 2] = mLatitudes[first];
+            mBoxes[offset + 1] = mBoxes[offset + 3] = mLongitudes[first];
+            for (int i = first + 1; i <= last; i++)
+                extend(offset, mLatitudes[i], mLongitudes[i], mLatitudes[i], mLongitudes[i]);
+        }
+        for (int level = 1; level < levels; level++) {
+            int start = mLevels[level - 1];
+            mLevels[level] = start + count;
+            for (int node = 0; node < (count + 1) / 2; node++) {
+                int offset = (mLevels[level] + node) * 4;
+                int child = (start + node * 2) * 4;
+                System.arraycopy(mBoxes, child, mBoxes, offset, 4);
+                if (node * 2 + 1 < count)
+                    extend(offset, mBoxes[child + 4], mBoxes[child + 5], mBoxes[child + 6], mBoxes[child + 7]);
+            }
+            count = (count + 1) / 2;
+        }
+        mLevels[levels] = nodes;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns distance along route from first point to point with specified index.
+     */
+    double getDistance(int index) {
+        return mDistances[index];
+    }
+
+    /**
+     * Returns course from point with specified index to next point.
+     */
+    double getCourse(int index) {
+        return mCourses[index];
+    }
+
+    /**
+     * Returns course from point next to specified index back to that point.
+     */
+    double getReverseCourse(int index) {
+        return mReverseCourses[index];
+    }
+
+    /**
+     * Returns index of route point nearest to specified location or -1 if route is empty.
+     */
+    synchronized int getNearestPoint(int latitudeE6, int longitudeE6) {
+        if (mSize < 2)
+            return mSize - 1;
+        find(latitudeE6, longitudeE6, false);
+        return mBestIndex;
+    }
+
+    /**
+     * Returns index of first point of route segment nearest to specified location or -1 if route
+     * has no segments.
+     */
+    synchronized int getNearestSegment(int latitudeE6, int longitudeE6) {
+        if (mSize < 2)
+            return -1;
+        find(latitudeE6, longitudeE6, true);
+        return mBestIndex;
+    }
+
+    private void find(int latitudeE6, int longitudeE6, boolean segments) {
+        mLatitudeE6 = latitudeE6;
+        mLongitudeE6 = longitudeE6;
+        mScale = Math.cos(Math.toRadians(latitudeE6 / 1E6));
+        mBest = Double.POSITIVE_INFINITY;
+        mBestIndex = -1;
+        int top = mLevels.length - 2;
+        for (int node = 0; node < mLevels[top + 1] - mLevels[top]; node++)
+            search(top, node, segments);
+    }
+
+    private void search(int level, int node, boolean segments) {
+        if (getBoxDistance(mLevels[level] + node) >= mBest)
+            return;
+        if (level == 0) {
+            int first = node * LEAF_SIZE;
+            int last = Math.min(first + LEAF_SIZE, mSize - 1);
+            for (int i = first; i < last; i++) {
+                if (segments) {
+                    double d = getSegmentDistance(i);
+                    if (d < mBest) {
+                        mBest = d;
+                        mBestIndex = i;
+                    }
+                } else {
+                    checkPoint(i);
+                }
+            }
+            if (!segments)
+                checkPoint(last);
+            return;
+        }
+        int child = node * 2;
+        int count = mLevels[level] - mLevels[level - 1];
+        if (child + 1 < count && getBoxDistance(mLevels[level - 1] + child + 1) < getBoxDistance(mLevels[level - 1] + child)) {
+            search(level - 1, child + 1, segments);
+            search(level - 1, child, segments);
+        } else {
+            search(level - 1, child, segments);
+            if (child + 1 < count)
+                search(level - 1, child + 1, segments);
+        }
+    }
+
+    private void checkPoint(int index) {
+        double dx = (mLongitudes[index] - mLongitudeE6) * mScale;
+        double dy = mLatitudes[index] - mLatitudeE6;
+        double d = dx * dx + dy * dy;
+        if (d < mBest) {
+            mBest = d;
+            mBestIndex = index;
+        }
+    }
+
+    /**
+     * Returns squared distance from query point to segment starting at specified index.
+     */
+    private double getSegmentDistance(int index) {
+        double x1 = (mLongitudes[index] - mLongitudeE6) * mScale;
+        double y1 = mLatitudes[index] - mLatitudeE6;
+        double dx = (mLongitudes[index + 1] - mLongitudes[index]) * mScale;
+        double dy = mLatitudes[index + 1] - mLatitudes[index];
+        double length = dx * dx + dy * dy;
+        double t = length > 0.0 ? -(x1 * dx + y1 * dy) / length : 0.0;
+        if (t < 0.0)
+            t = 0.0;
+        else if (t > 1.0)
+            t = 1.0;
+        double x = x1 + t * dx;
+        double y = y1 + t * dy;
+        return x * x + y * y;
+    }
+
+    /**
+     * Returns squared distance from query point to node bounding box.
+     */
+    private double getBoxDistance(int node) {
+        int offset = node * 4;
+        double dx = 0.0, dy = 0.0;
+        if (mLatitudeE6 < mBoxes[offset])
+            dy = mBoxes[offset] - mLatitudeE6;
+        else if (mLatitudeE6 > mBoxes[offset + 2])
+            dy = mLatitudeE6 - mBoxes[offset + 2];
+        if (mLongitudeE6 < mBoxes[offset + 1])
+            dx = (mBoxes[offset + 1] - mLongitudeE6) * mScale;
+        else if (mLongitudeE6 > mBoxes[offset + 3])
+            dx = (mLongitudeE6 - mBoxes[offset + 3]) * mScale;
+        return dx * dx + dy * dy;
+    }
+
+    private void extend(int offset, int minLatitudeE6, int minLongitudeE6, int maxLatitudeE6, int maxLongitudeE6) {
+        if (minLatitudeE6 < mBoxes[offset])
+            mBoxes[offset] = minLatitudeE6;
+        if (minLongitudeE6 < mBoxes[offset + 1])
+            mBoxes[offset + 1] = minLongitudeE6;
+        if (maxLatitudeE6 > mBoxes[offset + 2])
+            mBoxes[offset + 2] = maxLatitudeE6;
+        if (maxLongitudeE6 > mBoxes[offset + 3])
+            mBoxes[offset + 3] = maxLongitudeE6;
+    }
+}
@@ -19,8 +19,10 @@ package mobi.maptrek.data;
 import org.oscim.core.BoundingBox;
 import org.oscim.core.GeoPoint;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 import mobi.maptrek.data.source.DataSource;
 import mobi.maptrek.data.style.TrackStyle;
@@ -33,21 +35,26 @@ public class Track {
     public TrackStyle style = new TrackStyle();
     public DataSource source; // back reference to it's source
 
-    public final List<TrackPoint> points = new ArrayList<>();
+    /**
+     * Track points. Points are stored in primitive arrays, list elements are created on access,
+     * use indexed accessors (getLatitudeE6() and others) when iterating large tracks. Access should
+     * be synchronized on this list.
+     */
+    public final List<TrackPoint> points = new PointList();
+    private final PointList mPoints = (PointList) points;
     private TrackPoint mLastTrackPoint;
     private float mDistance = Float.NaN;
-    private BoundingBox mBox = null;
+    private final TrackStatistics mStatistics = new TrackStatistics();
 
     public BoundingBox getBoundingBox() {
         //TODO Honor empty track
-        if (mBox == null) {
-            mBox = new BoundingBox();
-            synchronized (points) {
-                for (TrackPoint point : points)
-                    mBox.extend(point.latitudeE6, point.longitudeE6);
-            }
+        synchronized (points) {
+            mStatistics.update(this);
+            if (mStatistics.pointCount == 0)
+                return new BoundingBox();
+            return new BoundingBox(mStatistics.minLatitudeE6, mStatistics.minLongitudeE6,
+                    mStatistics.maxLatitudeE6, mStatistics.maxLongitudeE6);
         }
-        return mBox;
     }
 
     public class TrackPoint extends GeoPoint {
@@ -80,9 +87,17 @@ public class Track {
     }
 
     public synchronized void copyFrom(Track track) {
-        points.clear();
-        points.addAll(track.points);
-        mLastTrackPoint = track.getLastPoint();
+        synchronized (track.points) {
+            synchronized (points) {
+                mPoints.copyFrom(track.mPoints);
+                // statistics are valid for copied points if they are valid for original ones
+                if (track.mStatistics.generation == track.mPoints.generation) {
+                    mStatistics.copyFrom(track.mStatistics);
+                    mStatistics.generation = mPoints.generation;
+                }
+            }
+            mLastTrackPoint = track.getLastPoint();
+        }
         name = track.name;
         description = track.description;
         track.style.copy(style);
@@ -90,14 +105,13 @@ public class Track {
     }
 
     public void addPoint(boolean continuous, int latE6, int lonE6, float elev, float speed, float bearing, float accuracy, long time) {
-        TrackPoint previous = mLastTrackPoint;
-        if (mLastTrackPoint == null)
-            mDistance = 0f;
+        TrackPoint previous = getLastPoint();
         mLastTrackPoint = new TrackPoint(continuous, latE6, lonE6, elev, speed, bearing, accuracy, time);
-        if (previous != null)
+        // known distance is maintained, otherwise it is taken from statistics
+        if (previous != null && !Float.isNaN(mDistance))
             mDistance = (float) (mDistance + previous.vincentyDistance(mLastTrackPoint));
         synchronized (points) {
-            points.add(mLastTrackPoint);
+            mPoints.add(continuous, latE6, lonE6, elev, speed, bearing, accuracy, time);
         }
     }
 
@@ -106,36 +120,201 @@ public class Track {
      * mixed with addPoint.
      */
     public void addPointFast(boolean continuous, int latE6, int lonE6, float elev, float speed, float bearing, float accuracy, long time) {
-        mLastTrackPoint = new TrackPoint(continuous, latE6, lonE6, elev, speed, bearing, accuracy, time);
+        // last point is created on request
+        mLastTrackPoint = null;
         synchronized (points) {
-            points.add(mLastTrackPoint);
+            mPoints.add(continuous, latE6, lonE6, elev, speed, bearing, accuracy, time);
         }
     }
 
+    /**
+     * Sets known track distance so that it is not recalculated, subsequent points added with
+     * addPoint increase it.
+     */
+    public void setDistance(float distance) {
+        mDistance = distance;
+    }
+
     public float getDistance() {
-        if (Float.isNaN(mDistance)) {
-            mDistance = 0f;
-            synchronized (points) {
-                TrackPoint previous = mLastTrackPoint;
-                if (points.size() > 1) {
-                    for (int i = points.size() - 2; i >= 0; i--) {
-                        TrackPoint current = points.get(i);
-                        mDistance = (float) (mDistance + previous.vincentyDistance(current));
-                        previous = current;
-                    }
-                }
-            }
+        if (!Float.isNaN(mDistance))
+            return mDistance;
+        synchronized (points) {
+            mStatistics.update(this);
+            return mStatistics.distance;
+        }
+    }
+
+    /**
+     * Returns snapshot of track statistics. Statistics are calculated on first request and then
+     * updated only with appended points.
+     */
+    public TrackStatistics getStatistics() {
+        synchronized (points) {
+            mStatistics.update(this);
+            return new TrackStatistics(mStatistics);
+        }
+    }
+
+    /**
+     * Sets previously calculated statistics, e.g. stored in track file. Statistics are ignored
+     * if they do not correspond to track points.
+     */
+    public void setStatistics(TrackStatistics statistics) {
+        synchronized (points) {
+            if (statistics.pointCount != mPoints.size)
+                return;
+            mStatistics.copyFrom(statistics);
+            mStatistics.generation = mPoints.generation;
         }
-        return mDistance;
     }
 
     public synchronized void clear() {
-        points.clear();
+        synchronized (points) {
+            points.clear();
+        }
         mLastTrackPoint = null;
         mDistance = Float.NaN;
     }
 
     public TrackPoint getLastPoint() {
+        if (mLastTrackPoint == null) {
+            synchronized (points) {
+                if (mPoints.size > 0)
+                    mLastTrackPoint = mPoints.get(mPoints.size - 1);
+            }
+        }
         return mLastTrackPoint;
     }
+
+    /*
+     * Indexed point accessors, should be called while synchronized on points.
+     */
+
+    public int getLatitudeE6(int index) {
+        return mPoints.latitudes[index];
+    }
+
+    public int getLongitudeE6(int index) {
+        return mPoints.longitudes[index];
+    }
+
+    public boolean isContinuous(int index) {
+        return mPoints.continuity[index];
+    }
+
+    public float getElevation(int index) {
+        return mPoints.elevations[index];
+    }
+
+    public float getSpeed(int index) {
+        return mPoints.speeds[index];
+    }
+
+    public float getBearing(int index) {
+        return mPoints.bearings[index];
+    }
+
+    public float getAccuracy(int index) {
+        return mPoints.accuracies[index];
+    }
+
+    public long getTime(int index) {
+        return mPoints.times[index];
+    }
+
+    /**
+     * Returns number that changes when points are cleared or replaced, appending points does
+     * not change it. Should be called while synchronized on points.
+     */
+    public int getGeneration() {
+        return mPoints.generation;
+    }
+
+    /**
+     * Column oriented point storage, takes about 37 bytes per point instead of about 60 bytes
+     * for point objects. Points are appended only.
+     */
+    private class PointList extends AbstractList<TrackPoint> implements RandomAccess {
+        private static final int INITIAL_CAPACITY = 64;
+
+        int size;
+        int generation;
+        int[] latitudes = new int[INITIAL_CAPACITY];
+        int[] longitudes = new int[INITIAL_CAPACITY];
+        boolean[] continuity = new boolean[INITIAL_CAPACITY];
+        float[] elevations = new float[INITIAL_CAPACITY];
+        float[] speeds = new float[INITIAL_CAPACITY];
+        float[] bearings = new float[INITIAL_CAPACITY];
+        float[] accuracies = new float[INITIAL_CAPACITY];
+        long[] times = new long[INITIAL_CAPACITY];
+
+        @Override
+        public TrackPoint get(int index) {
+            if (index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return new TrackPoint(continuity[index], latitudes[index], longitudes[index],
+                    elevations[index], speeds[index], bearings[index], accuracies[index], times[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean add(TrackPoint point) {
+            add(point.continuous, point.latitudeE6, point.longitudeE6, point.elevation,
+                    point.speed, point.bearing, point.accuracy, point.time);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            modCount++;
+            generation++;
+            size = 0;
+        }
+
+        void add(boolean continuous, int latE6, int lonE6, float elev, float speed, float bearing, float accuracy, long time) {
+            modCount++;
+            if (size == times.length)
+                grow(size + (size >> 1));
+            continuity[size] = continuous;
+            latitudes[size] = latE6;
+            longitudes[size] = lonE6;
+            elevations[size] = elev;
+            speeds[size] = speed;
+            bearings[size] = bearing;
+            accuracies[size] = accuracy;
+            times[size] = time;
+            size++;
+        }
+
+        void copyFrom(PointList other) {
+            modCount++;
+            generation++;
+            if (other.size > times.length)
+                grow(other.size);
+            System.arraycopy(other.continuity, 0, continuity, 0, other.size);
+            System.arraycopy(other.latitudes, 0, latitudes, 0, other.size);
+            System.arraycopy(other.longitudes, 0, longitudes, 0, other.size);
+            System.arraycopy(other.elevations, 0, elevations, 0, other.size);
+            System.arraycopy(other.speeds, 0, speeds, 0, other.size);
+            System.arraycopy(other.bearings, 0, bearings, 0, other.size);
+            System.arraycopy(other.accuracies, 0, accuracies, 0, other.size);
+            System.arraycopy(other.times, 0, times, 0, other.size);
+            size = other.size;
+        }
+
+        private void grow(int capacity) {
+            continuity = Arrays.copyOf(continuity, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            elevations = Arrays.copyOf(elevations, capacity);
+            speeds = Arrays.copyOf(speeds, capacity);
+            bearings = Arrays.copyOf(bearings, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+    }
 }
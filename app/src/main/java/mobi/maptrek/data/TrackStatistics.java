@@ -0,0 +1,318 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.data;
+
+import org.oscim.core.GeoPoint;
+
+import java.util.Arrays;
+
+/**
+ * Track statistics accumulated in single pass over track points. Statistics are owned by track
+ * and updated with appended points, track returns snapshot copies which can be used without
+ * synchronization. Fields should not be modified outside of track and track file manager.
+ */
+public class TrackStatistics {
+    /**
+     * Minimum elevation change counted as gain or loss, filters GPS elevation noise.
+     */
+    public static final float ELEVATION_THRESHOLD = 5f;
+    /**
+     * Minimum speed (m/s) between consecutive points counted as movement.
+     */
+    public static final float MOVING_SPEED = 0.5f;
+    /**
+     * Speed histogram bin width (m/s), last bin collects all higher speeds.
+     */
+    public static final float SPEED_BIN = 0.2f;
+    public static final int SPEED_BINS = 250;
+
+    public int pointCount;
+    public int segmentCount;
+    public float distance;
+    public long movingTime;
+    public float elevationGain;
+    public float elevationLoss;
+    public float minElevation = Float.NaN;
+    public float maxElevation = Float.NaN;
+    public float maxSpeed = Float.NaN;
+    public double speedSum;
+    public int speedCount;
+    public int minLatitudeE6 = Integer.MAX_VALUE;
+    public int minLongitudeE6 = Integer.MAX_VALUE;
+    public int maxLatitudeE6 = Integer.MIN_VALUE;
+    public int maxLongitudeE6 = Integer.MIN_VALUE;
+    public final int[] speedHistogram = new int[SPEED_BINS];
+    // last elevation at which gain or loss was counted
+    public float elevationReference = Float.NaN;
+
+    // points generation statistics correspond to
+    int generation;
+
+    public TrackStatistics() {
+    }
+
+    public TrackStatistics(TrackStatistics other) {
+        copyFrom(other);
+    }
+
+    public boolean hasElevation() {
+        return !Float.isNaN(maxElevation);
+    }
+
+    public boolean hasSpeed() {
+        return speedCount > 0;
+    }
+
+    public float getAverageSpeed() {
+        return speedCount > 0 ? (float) (speedSum / speedCount) : Float.NaN;
+    }
+
+    /**
+     * Returns average speed while moving or NaN if track has no time.
+     */
+    public float getMovingSpeed() {
+        return movingTime > 0L ? distance / (movingTime / 1000f) : Float.NaN;
+    }
+
+    /**
+     * Returns speed below which specified fraction (0..1) of point speeds fall, precision is
+     * limited by histogram bin width.
+     */
+    public float getSpeedPercentile(float fraction) {
+        if (speedCount == 0)
+            return Float.NaN;
+        long target = (long) Math.ceil(fraction * speedCount);
+        long count = 0;
+        for (int i = 0; i < SPEED_BINS - 1; i++) {
+            count += speedHistogram[i];
+            if (count >= target && count > 0)
+                return Math.min((i + 0.5f) * SPEED_BIN, maxSpeed);
+        }
+        return maxSpeed;
+    }
+
+    public void copyFrom(TrackStatistics other) {
+        pointCount = other.pointCount;
+        segmentCount = other.segmentCount;
+        distance = other.distance;
+        movingTime = other.movingTime;
+        elevationGain = other.elevationGain;
+        elevationLoss = other.elevationLoss;
+        minElevation = other.minElevation;
+        maxElevation = other.maxElevation;
+        maxSpeed = other.maxSpeed;
+        speedSum = other.speedSum;
+        speedCount = other.speedCount;
+        minLatitudeE6 = other.minLatitudeE6;
+        minLongitudeE6 = other.minLongitudeE6;
+        maxLatitudeE6 = other.maxLatitudeE6;
+        maxLongitudeE6 = other.maxLongitudeE6;
+        System.arraycopy(other.speedHistogram, 0, speedHistogram, 0, SPEED_BINS);
+        elevationReference = other.elevationReference;
+        generation = other.generation;
+    }
+
+    void reset() {
+        copyFrom(new TrackStatistics());
+    }
+
+    /**
+     * Accumulates points appended since last update, statistics are recalculated from scratch
+     * if points were replaced. Should be called while synchronized on track points.
+     */
+    void update(Track track) {
+        int size = track.points.size();
+        int trackGeneration = track.getGeneration();
+        if (generation != trackGeneration || pointCount > size) {
+            reset();
+            generation = trackGeneration;
+        }
+        if (pointCount == size)
+            return;
+
+        GeoPoint previous = null;
+        long previousTime = 0L;
+        if (pointCount > 0) {
+            previous = new GeoPoint(track.getLatitudeE6(pointCount - 1), track.getLongitudeE6(pointCount - 1));
+            previousTime = track.getTime(pointCount - 1);
+        }
+        for (int i = pointCount; i < size; i++) {
+            int latitudeE6 = track.getLatitudeE6(i);
+            int longitudeE6 = track.getLongitudeE6(i);
+            boolean continuous = track.isContinuous(i);
+            long time = track.getTime(i);
+
+            if (latitudeE6 < minLatitudeE6)
+                minLatitudeE6 = latitudeE6;
+            if (latitudeE6 > maxLatitudeE6)
+                maxLatitudeE6 = latitudeE6;
+            if (longitudeE6 < minLongitudeE6)
+                minLongitudeE6 = longitudeE6;
+            if (longitudeE6 > maxLongitudeE6)
+                maxLongitudeE6 = longitudeE6;
+
+            if (i == 0 || !continuous)
+                segmentCount++;
+
+            GeoPoint current = new GeoPoint(latitudeE6, longitudeE6);
+            double delta = 0.0;
+            long duration = 0L;
+            if (previous != null) {
+                delta = previous.vincentyDistance(current);
+                distance += delta;
+                if (continuous && time > 0L && previousTime > 0L)
+                    duration = time - previousTime;
+            }
+            if (duration > 0L && delta / (duration / 1000.0) >= MOVING_SPEED)
+                movingTime += duration;
+
+            float speed = track.getSpeed(i);
+            if (Float.isNaN(speed) && duration > 0L)
+                speed = (float) (delta / (duration / 1000.0));
+            if (speed >= 0f && !Float.isInfinite(speed)) {
+                speedSum += speed;
+                speedCount++;
+                if (!(speed <= maxSpeed))
+                    maxSpeed = speed;
+                speedHistogram[Math.min((int) (speed / SPEED_BIN), SPEED_BINS - 1)]++;
+            }
+
+            float elevation = track.getElevation(i);
+            // zero elevation is used as missing value by some sources
+            if (!Float.isNaN(elevation) && elevation != 0f) {
+                if (!(elevation >= minElevation))
+                    minElevation = elevation;
+                if (!(elevation <= maxElevation))
+                    maxElevation = elevation;
+                if (Float.isNaN(elevationReference)) {
+                    elevationReference = elevation;
+                } else if (elevation - elevationReference >= ELEVATION_THRESHOLD) {
+                    elevationGain += elevation - elevationReference;
+                    elevationReference = elevation;
+                } else if (elevationReference - elevation >= ELEVATION_THRESHOLD) {
+                    elevationLoss += elevationReference - elevation;
+                    elevationReference = elevation;
+                }
+            }
+
+            previous = current;
+            previousTime = time;
+        }
+        pointCount = size;
+    }
+
+    /**
+     * Returns track elevation series reduced to at most maxSize samples.
+     */
+    public static Series getElevationSeries(Track track, int maxSize) {
+        return getSeries(track, maxSize, false);
+    }
+
+    /**
+     * Returns track speed series reduced to at most maxSize samples. Missing speeds are derived
+     * from neighbour points.
+     */
+    public static Series getSpeedSeries(Track track, int maxSize) {
+        return getSeries(track, maxSize, true);
+    }
+
+    /**
+     * Reduces series by splitting points into buckets and keeping minimum and maximum value
+     * of each bucket, so that peaks are preserved.
+     */
+    private static Series getSeries(Track track, int maxSize, boolean speed) {
+        synchronized (track.points) {
+            int size = track.points.size();
+            Series series = new Series(Math.min(size, maxSize));
+            int bucketSize = size > maxSize ? (size + maxSize / 2 - 1) / (maxSize / 2) : 1;
+            for (int start = 0; start < size; start += bucketSize) {
+                int end = Math.min(start + bucketSize, size);
+                int minIndex = -1, maxIndex = -1;
+                float min = Float.NaN, max = Float.NaN;
+                for (int i = start; i < end; i++) {
+                    float value = speed ? getSpeed(track, i) : track.getElevation(i);
+                    if (Float.isNaN(value) || Float.isInfinite(value) || !speed && value == 0f)
+                        continue;
+                    if (!(value >= min)) {
+                        min = value;
+                        minIndex = i;
+                    }
+                    if (!(value <= max)) {
+                        max = value;
+                        maxIndex = i;
+                    }
+                }
+                if (minIndex < 0)
+                    continue;
+                if (minIndex < maxIndex) {
+                    series.add(track.getTime(minIndex), min);
+                    series.add(track.getTime(maxIndex), max);
+                } else if (minIndex > maxIndex) {
+                    series.add(track.getTime(maxIndex), max);
+                    series.add(track.getTime(minIndex), min);
+                } else {
+                    series.add(track.getTime(minIndex), min);
+                }
+            }
+            return series;
+        }
+    }
+
+    /**
+     * Returns recorded point speed or speed derived from previous point using equirectangular
+     * distance approximation, which is precise enough for neighbour points.
+     */
+    private static float getSpeed(Track track, int index) {
+        float speed = track.getSpeed(index);
+        if (!Float.isNaN(speed) || index == 0 || !track.isContinuous(index))
+            return speed;
+        long duration = track.getTime(index) - track.getTime(index - 1);
+        if (duration <= 0L || track.getTime(index - 1) <= 0L)
+            return Float.NaN;
+        double latitude = Math.toRadians((track.getLatitudeE6(index) + track.getLatitudeE6(index - 1)) / 2e6);
+        double dy = track.getLatitudeE6(index) - track.getLatitudeE6(index - 1);
+        double dx = (track.getLongitudeE6(index) - track.getLongitudeE6(index - 1)) * Math.cos(latitude);
+        // meters per microdegree
+        double distance = Math.sqrt(dx * dx + dy * dy) * 0.111195;
+        return (float) (distance / (duration / 1000.0));
+    }
+
+    /**
+     * Chart series stored in primitive arrays.
+     */
+    public static class Series {
+        public long[] times;
+        public float[] values;
+        public int size;
+
+        Series(int capacity) {
+            times = new long[capacity];
+            values = new float[capacity];
+        }
+
+        void add(long time, float value) {
+            if (size == times.length) {
+                int capacity = Math.max(size * 2, 16);
+                times = Arrays.copyOf(times, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+        }
+    }
+}
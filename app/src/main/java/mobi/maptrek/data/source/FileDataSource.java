@@ -51,7 +51,7 @@ public class FileDataSource extends MemoryDataSource {
         String lowerPath = path.toLowerCase();
         if (lowerPath.endsWith(KMLManager.EXTENSION))
             return FORMAT_KML;
-        if (lowerPath.endsWith(GPXManager.EXTENSION))
+        if (lowerPath.endsWith(GPXManager.EXTENSION) || lowerPath.endsWith(GPXManager.GZIP_EXTENSION))
             return FORMAT_GPX;
         return DataSource.FORMAT_NONE;
     }
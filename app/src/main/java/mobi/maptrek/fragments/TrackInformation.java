@@ -64,26 +64,22 @@ import mobi.maptrek.MapHolder;
 import mobi.maptrek.MapTrek;
 import mobi.maptrek.R;
 import mobi.maptrek.data.Track;
+import mobi.maptrek.data.TrackStatistics;
 import mobi.maptrek.data.style.MarkerStyle;
 import mobi.maptrek.location.ILocationService;
 import mobi.maptrek.location.ITrackingListener;
 import mobi.maptrek.location.LocationService;
 import mobi.maptrek.util.HelperUtils;
-import mobi.maptrek.util.MeanValue;
 import mobi.maptrek.util.StringFormatter;
 
 public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemClickListener {
+    // maximum number of chart samples, charts are too slow to render all points of long tracks
+    private static final int CHART_SIZE = 1000;
+
     private Track mTrack;
     private boolean mIsCurrent;
 
-    int mSegmentCount = 0;
-    float mPrevElevation = Float.NaN;
-    float mElevationGain = 0;
-    float mElevationLoss = 0;
-    float mMinElevation = Float.MAX_VALUE;
-    float mMaxElevation = Float.MIN_VALUE;
-    float mMaxSpeed = 0;
-    private MeanValue mSpeedMeanValue;
+    private TrackStatistics mStatistics;
 
     private LineData mElevationData;
     private LineData mSpeedData;
@@ -296,69 +292,10 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
             timeRow.setVisibility(View.GONE);
         }
 
-        // Gather statistics
-        mSpeedMeanValue = new MeanValue();
-        boolean hasElevation = false;
-        boolean hasSpeed = false;
-        ArrayList<Entry> elevationValues = new ArrayList<>();
-        ArrayList<Entry> speedValues = new ArrayList<>();
-        ArrayList<String> xValues = new ArrayList<>();
-
-        Track.TrackPoint ptp = null;
-        long startTime = ftp.time;
-        int i = 0;
-        mSegmentCount = 1;
-        for (Track.TrackPoint point : mTrack.points) {
-            if (!point.continuous)
-                mSegmentCount++;
-
-            int offset = (int) (point.time - startTime) / 1000;
-            xValues.add("+" + DateUtils.formatElapsedTime(offset));
-
-            if (!Float.isNaN(point.elevation)) {
-                elevationValues.add(new Entry(point.elevation, i));
-
-                if (point.elevation < mMinElevation && point.elevation != 0)
-                    mMinElevation = point.elevation;
-                if (point.elevation > mMaxElevation)
-                    mMaxElevation = point.elevation;
-
-                if (point.elevation != 0) {
-                    hasElevation = true;
-                    if (!Float.isNaN(mPrevElevation)) {
-                        float diff = point.elevation - mPrevElevation;
-                        if (diff > 0)
-                            mElevationGain += diff;
-                        if (diff < 0)
-                            mElevationLoss -= diff;
-                    }
-                    mPrevElevation = point.elevation;
-                }
-            }
-
-            float speed = Float.NaN;
-            if (Float.isNaN(point.speed)) {
-                if (hasTime) {
-                    if (ptp != null) {
-                        speed = ((float) point.vincentyDistance(ptp)) / ((point.time - ptp.time) / 1000f);
-                    } else {
-                        speed = 0f;
-                    }
-                }
-            } else {
-                speed = point.speed;
-            }
-            if (!Float.isNaN(speed) && !Float.isInfinite(speed)) {
-                speedValues.add(new Entry(speed * StringFormatter.speedFactor, i));
-                mSpeedMeanValue.addValue(speed);
-                if (speed > mMaxSpeed)
-                    mMaxSpeed = speed;
-                hasSpeed = true;
-            }
-
-            ptp = point;
-            i++;
-        }
+        // Statistics are calculated once per track and then updated with new points
+        mStatistics = mTrack.getStatistics();
+        boolean hasElevation = mStatistics.hasElevation();
+        boolean hasSpeed = mStatistics.hasSpeed();
         updateTrackInformation(activity, resources);
 
         View statisticsHeader = rootView.findViewById(R.id.statisticsHeader);
@@ -379,6 +316,13 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
 
         View elevationHeader = rootView.findViewById(R.id.elevationHeader);
         if (hasElevation) {
+            TrackStatistics.Series series = TrackStatistics.getElevationSeries(mTrack, CHART_SIZE);
+            ArrayList<Entry> elevationValues = new ArrayList<>(series.size);
+            ArrayList<String> xValues = new ArrayList<>(series.size);
+            for (int i = 0; i < series.size; i++) {
+                elevationValues.add(new Entry(series.values[i], i));
+                xValues.add(getTimeOffset(series.times[i]));
+            }
             LineDataSet elevationLine = new LineDataSet(elevationValues, "Elevation");
             elevationLine.setAxisDependency(YAxis.AxisDependency.LEFT);
             elevationLine.setDrawFilled(true);
@@ -411,6 +355,13 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
 
         View speedHeader = rootView.findViewById(R.id.speedHeader);
         if (hasSpeed) {
+            TrackStatistics.Series series = TrackStatistics.getSpeedSeries(mTrack, CHART_SIZE);
+            ArrayList<Entry> speedValues = new ArrayList<>(series.size);
+            ArrayList<String> xValues = new ArrayList<>(series.size);
+            for (int i = 0; i < series.size; i++) {
+                speedValues.add(new Entry(series.values[i] * StringFormatter.speedFactor, i));
+                xValues.add(getTimeOffset(series.times[i]));
+            }
             LineDataSet speedLine = new LineDataSet(speedValues, "Speed");
             speedLine.setAxisDependency(YAxis.AxisDependency.LEFT);
             speedLine.setDrawCircles(false);
@@ -445,8 +396,9 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
         Track.TrackPoint ltp = mTrack.getLastPoint();
 
         int pointCount = mTrack.points.size();
+        int segmentCount = mStatistics.segmentCount;
         mPointCountView.setText(resources.getQuantityString(R.plurals.numberOfPoints, pointCount, pointCount));
-        mSegmentCountView.setText(resources.getQuantityString(R.plurals.numberOfSegments, mSegmentCount, mSegmentCount));
+        mSegmentCountView.setText(resources.getQuantityString(R.plurals.numberOfSegments, segmentCount, segmentCount));
 
         String distance = StringFormatter.distanceHP(mTrack.getDistance());
         mDistanceView.setText(distance);
@@ -468,16 +420,20 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
     }
 
     private void updateTrackStatistics(Resources resources) {
-        mSegmentCountView.setText(resources.getQuantityString(R.plurals.numberOfSegments, mSegmentCount, mSegmentCount));
-        mMaxElevationView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.max_elevation), StringFormatter.elevationH(mMaxElevation)));
-        mElevationGainView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.elevation_gain), StringFormatter.elevationH(mElevationGain)));
-        mMinElevationView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.min_elevation), StringFormatter.elevationH(mMinElevation)));
-        mElevationLossView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.elevation_loss), StringFormatter.elevationH(mElevationLoss)));
-        float averageSpeed = mSpeedMeanValue.getMeanValue();
-        mMaxSpeedView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.max_speed), StringFormatter.speedH(mMaxSpeed)));
+        mMaxElevationView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.max_elevation), StringFormatter.elevationH(mStatistics.maxElevation)));
+        mElevationGainView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.elevation_gain), StringFormatter.elevationH(mStatistics.elevationGain)));
+        mMinElevationView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.min_elevation), StringFormatter.elevationH(mStatistics.minElevation)));
+        mElevationLossView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.elevation_loss), StringFormatter.elevationH(mStatistics.elevationLoss)));
+        float averageSpeed = mStatistics.getAverageSpeed();
+        mMaxSpeedView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.max_speed), StringFormatter.speedH(mStatistics.maxSpeed)));
         mAverageSpeedView.setText(String.format(Locale.getDefault(), "%s: %s", resources.getString(R.string.average_speed), StringFormatter.speedH(averageSpeed)));
     }
 
+    private String getTimeOffset(long time) {
+        long offset = (time - mTrack.points.get(0).time) / 1000;
+        return "+" + DateUtils.formatElapsedTime(offset);
+    }
+
     private void setEditorMode(boolean enabled) {
         ViewGroup rootView = (ViewGroup) requireView();
         Activity activity = requireActivity();
@@ -540,18 +496,9 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
 
     private final ITrackingListener mTrackingListener = new ITrackingListener() {
         public void onNewPoint(boolean continuous, double lat, double lon, float elev, float speed, float trk, float accuracy, long time) {
-            if (!continuous)
-                mSegmentCount++;
-            if (elev < mMinElevation && elev != 0)
-                mMinElevation = elev;
-            if (elev > mMaxElevation)
-                mMaxElevation = elev;
-            mSpeedMeanValue.addValue(speed);
-            if (speed > mMaxSpeed)
-                mMaxSpeed = speed;
-
-            int offset = (int) (time - mTrack.points.get(0).time) / 1000;
-            String xValue = "+" + DateUtils.formatElapsedTime(offset);
+            mStatistics = mTrack.getStatistics();
+
+            String xValue = getTimeOffset(time);
             if (mElevationData != null) {
                 int count = mElevationData.getDataSets().get(0).getEntryCount();
                 mElevationData.addEntry(new Entry(elev, count), 0);
@@ -560,7 +507,7 @@ public class TrackInformation extends Fragment implements PopupMenu.OnMenuItemCl
             if (mSpeedData != null) {
                 int count = mSpeedData.getDataSets().get(0).getEntryCount();
                 mSpeedData.addEntry(new Entry(speed * StringFormatter.speedFactor, count), 0);
-                //mSpeedData.addXValue(xValue); they appear to share the same array
+                mSpeedData.addXValue(xValue);
             }
 
             if (isVisible()) {
@@ -25,7 +25,8 @@ public class DataFilenameFilter implements FilenameFilter {
     public boolean accept(final File dir, final String filename) {
         String lc = filename.toLowerCase();
         return lc.endsWith(TrackManager.EXTENSION) || lc.endsWith(GPXManager.EXTENSION)
-                || lc.endsWith(KMLManager.EXTENSION) || lc.endsWith(KMLManager.ZIP_EXTENSION);
+                || lc.endsWith(GPXManager.GZIP_EXTENSION) || lc.endsWith(KMLManager.EXTENSION)
+                || lc.endsWith(KMLManager.ZIP_EXTENSION);
     }
 
 }
@@ -21,6 +21,8 @@ import androidx.annotation.Nullable;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import mobi.maptrek.data.Route;
 import mobi.maptrek.data.source.FileDataSource;
@@ -32,10 +34,15 @@ import mobi.maptrek.util.ProgressListener;
 
 public class GPXManager extends Manager {
     public static final String EXTENSION = ".gpx";
+    public static final String GZIP_EXTENSION = ".gpx.gz";
+
+    private static final int GZIP_BUFFER_SIZE = 65536;
 
     @NonNull
     @Override
     public FileDataSource loadData(InputStream inputStream, String filePath) throws Exception {
+        if (filePath.toLowerCase().endsWith(GZIP_EXTENSION))
+            inputStream = new GZIPInputStream(inputStream, GZIP_BUFFER_SIZE);
         FileDataSource dataSource = GpxParser.parse(inputStream);
         int hash = filePath.hashCode() * 31;
         int i = 1;
@@ -71,6 +78,9 @@ public class GPXManager extends Manager {
 
     @Override
     public void saveData(OutputStream outputStream, FileDataSource source, @Nullable ProgressListener progressListener) throws Exception {
+        // Compress output if target file is gzipped, serializer closes the stream and finishes it
+        if (source.path != null && source.path.toLowerCase().endsWith(GZIP_EXTENSION))
+            outputStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
         GpxSerializer.serialize(outputStream, source, progressListener);
     }
 
@@ -50,7 +50,8 @@ public abstract class Manager {
         if (file.toLowerCase().endsWith(RouteManager.EXTENSION)) {
             return new RouteManager();
         }
-        if (file.toLowerCase().endsWith(GPXManager.EXTENSION)) {
+        if (file.toLowerCase().endsWith(GPXManager.EXTENSION)
+                || file.toLowerCase().endsWith(GPXManager.GZIP_EXTENSION)) {
             return new GPXManager();
         }
         if (file.toLowerCase().endsWith(KMLManager.EXTENSION)) {
@@ -77,6 +78,8 @@ public abstract class Manager {
             return new TrackManager();
         if (source.path.toLowerCase().endsWith(GPXManager.EXTENSION))
             return new GPXManager();
+        if (source.path.toLowerCase().endsWith(GPXManager.GZIP_EXTENSION))
+            return new GPXManager();
         if (source.path.toLowerCase().endsWith(KMLManager.EXTENSION))
             return new KMLManager();
         if (source.path.toLowerCase().endsWith(TrackManager.EXTENSION))
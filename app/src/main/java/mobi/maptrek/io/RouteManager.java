@@ -41,6 +41,8 @@ public class RouteManager extends Manager {
     public static final String EXTENSION = ".mroute";
     public static final int VERSION = 1;
 
+    private static final int BUFFER_SIZE = 65536;
+
     private static final int FIELD_VERSION = 1;
     private static final int FIELD_INSTRUCTION = 2;
     private static final int FIELD_POINT = 3;
@@ -148,7 +150,7 @@ public class RouteManager extends Manager {
                 length += source.tracks.get(0).points.size();
             progressListener.onProgressStarted(length);
         }
-        CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+        CodedOutputStream output = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
         output.writeUInt32(FIELD_VERSION, VERSION);
         int progress = 0;
         for (Route.Instruction instruction : route.instructions) {
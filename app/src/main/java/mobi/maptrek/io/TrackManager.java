@@ -24,20 +24,31 @@ import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.WireFormat;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import mobi.maptrek.data.Track;
+import mobi.maptrek.data.TrackStatistics;
 import mobi.maptrek.data.source.FileDataSource;
 import mobi.maptrek.util.ProgressListener;
 
 public class TrackManager extends Manager {
     public static final String EXTENSION = ".mtrack";
     public static final int VERSION = 1;
+    public static final String STATISTICS_CACHE = "statistics";
+    private static final String STATISTICS_CACHE_EXTENSION = ".stat";
+
+    private static final int BUFFER_SIZE = 65536;
 
     private static final int FIELD_VERSION = 1;
     private static final int FIELD_POINT = 2;
@@ -54,6 +65,55 @@ public class TrackManager extends Manager {
     private static final int FIELD_POINT_TIMESTAMP = 7;
     private static final int FIELD_POINT_CONTINUOUS = 8;
 
+    private static final int FIELD_CACHE_PATH = 1;
+    private static final int FIELD_CACHE_LENGTH = 2;
+    private static final int FIELD_CACHE_STATISTICS = 3;
+
+    private static final int FIELD_STATISTICS_POINT_COUNT = 1;
+    private static final int FIELD_STATISTICS_SEGMENT_COUNT = 2;
+    private static final int FIELD_STATISTICS_DISTANCE = 3;
+    private static final int FIELD_STATISTICS_MOVING_TIME = 4;
+    private static final int FIELD_STATISTICS_ELEVATION_GAIN = 5;
+    private static final int FIELD_STATISTICS_ELEVATION_LOSS = 6;
+    private static final int FIELD_STATISTICS_MIN_ELEVATION = 7;
+    private static final int FIELD_STATISTICS_MAX_ELEVATION = 8;
+    private static final int FIELD_STATISTICS_ELEVATION_REFERENCE = 9;
+    private static final int FIELD_STATISTICS_MAX_SPEED = 10;
+    private static final int FIELD_STATISTICS_SPEED_SUM = 11;
+    private static final int FIELD_STATISTICS_SPEED_COUNT = 12;
+    private static final int FIELD_STATISTICS_MIN_LATITUDE = 13;
+    private static final int FIELD_STATISTICS_MIN_LONGITUDE = 14;
+    private static final int FIELD_STATISTICS_MAX_LATITUDE = 15;
+    private static final int FIELD_STATISTICS_MAX_LONGITUDE = 16;
+    private static final int FIELD_STATISTICS_SPEED_HISTOGRAM = 17;
+
+    private File mStatisticsCacheDir;
+
+    /**
+     * Sets directory used to cache track statistics, statistics are not cached if it is not set.
+     */
+    public void setStatisticsCacheDir(@Nullable File cacheDir) {
+        mStatisticsCacheDir = cacheDir;
+    }
+
+    /**
+     * Removes cached statistics of tracks that do not exist any more.
+     *
+     * @param cacheDir statistics cache directory
+     * @param filePaths paths of all existing track files
+     */
+    public static void pruneStatisticsCache(File cacheDir, Collection<String> filePaths) {
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+        Set<String> names = new HashSet<>(filePaths.size());
+        for (String filePath : filePaths)
+            names.add(getStatisticsCacheName(filePath));
+        for (File file : files) {
+            if (!names.contains(file.getName()) && !file.delete())
+                logger.warn("Failed to remove {}", file.getName());
+        }
+    }
 
     @NonNull
     @Override
@@ -102,6 +162,7 @@ public class TrackManager extends Manager {
             }
         }
         inputStream.close();
+        loadStatistics(track, filePath);
         track.id = 31 * filePath.hashCode() + 1;
         FileDataSource dataSource = new FileDataSource();
         dataSource.name = track.name;
@@ -118,25 +179,35 @@ public class TrackManager extends Manager {
         Track track = source.tracks.get(0);
         if (progressListener != null)
             progressListener.onProgressStarted(track.points.size());
-        CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+        CodedOutputStream output = CodedOutputStream.newInstance(outputStream, BUFFER_SIZE);
         output.writeUInt32(FIELD_VERSION, VERSION);
         int progress = 0;
-        for (Track.TrackPoint point : track.points) {
-            output.writeTag(FIELD_POINT, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-            output.writeRawVarint32(getSerializedPointSize(point));
-            output.writeInt32(FIELD_POINT_LATITUDE, point.latitudeE6);
-            output.writeInt32(FIELD_POINT_LONGITUDE, point.longitudeE6);
-            output.writeFloat(FIELD_POINT_ALTITUDE, point.elevation);
-            output.writeFloat(FIELD_POINT_SPEED, point.speed);
-            output.writeFloat(FIELD_POINT_BEARING, point.bearing);
-            output.writeFloat(FIELD_POINT_ACCURACY, point.accuracy);
-            output.writeUInt64(FIELD_POINT_TIMESTAMP, point.time);
-            if (!point.continuous)
-                //noinspection ConstantConditions
-                output.writeBool(8, point.continuous);
-            progress++;
-            if (progressListener != null)
-                progressListener.onProgressChanged(progress);
+        synchronized (track.points) {
+            for (int i = 0, size = track.points.size(); i < size; i++) {
+                boolean continuous = track.isContinuous(i);
+                int latitudeE6 = track.getLatitudeE6(i);
+                int longitudeE6 = track.getLongitudeE6(i);
+                float elevation = track.getElevation(i);
+                float speed = track.getSpeed(i);
+                float bearing = track.getBearing(i);
+                float accuracy = track.getAccuracy(i);
+                long time = track.getTime(i);
+                output.writeTag(FIELD_POINT, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeRawVarint32(getSerializedPointSize(continuous, latitudeE6, longitudeE6, elevation, speed, bearing, accuracy, time));
+                output.writeInt32(FIELD_POINT_LATITUDE, latitudeE6);
+                output.writeInt32(FIELD_POINT_LONGITUDE, longitudeE6);
+                output.writeFloat(FIELD_POINT_ALTITUDE, elevation);
+                output.writeFloat(FIELD_POINT_SPEED, speed);
+                output.writeFloat(FIELD_POINT_BEARING, bearing);
+                output.writeFloat(FIELD_POINT_ACCURACY, accuracy);
+                output.writeUInt64(FIELD_POINT_TIMESTAMP, time);
+                if (!continuous)
+                    //noinspection ConstantConditions
+                    output.writeBool(8, continuous);
+                progress++;
+                if (progressListener != null)
+                    progressListener.onProgressChanged(progress);
+            }
         }
         output.writeBytes(FIELD_NAME, ByteString.copyFromUtf8(track.name));
         output.writeUInt32(FIELD_COLOR, track.style.color);
@@ -212,17 +283,22 @@ public class TrackManager extends Manager {
     }
 
     public int getSerializedPointSize(Track.TrackPoint point) {
+        return getSerializedPointSize(point.continuous, point.latitudeE6, point.longitudeE6,
+                point.elevation, point.speed, point.bearing, point.accuracy, point.time);
+    }
+
+    private int getSerializedPointSize(boolean continuous, int latitudeE6, int longitudeE6, float elevation, float speed, float bearing, float accuracy, long time) {
         int size = 0;
-        size += CodedOutputStream.computeInt32Size(FIELD_POINT_LATITUDE, point.latitudeE6);
-        size += CodedOutputStream.computeInt32Size(FIELD_POINT_LONGITUDE, point.longitudeE6);
-        size += CodedOutputStream.computeFloatSize(FIELD_POINT_ALTITUDE, point.elevation);
-        size += CodedOutputStream.computeFloatSize(FIELD_POINT_SPEED, point.speed);
-        size += CodedOutputStream.computeFloatSize(FIELD_POINT_BEARING, point.bearing);
-        size += CodedOutputStream.computeFloatSize(FIELD_POINT_ACCURACY, point.accuracy);
-        size += CodedOutputStream.computeUInt64Size(FIELD_POINT_TIMESTAMP, point.time);
-        if (!point.continuous) {
+        size += CodedOutputStream.computeInt32Size(FIELD_POINT_LATITUDE, latitudeE6);
+        size += CodedOutputStream.computeInt32Size(FIELD_POINT_LONGITUDE, longitudeE6);
+        size += CodedOutputStream.computeFloatSize(FIELD_POINT_ALTITUDE, elevation);
+        size += CodedOutputStream.computeFloatSize(FIELD_POINT_SPEED, speed);
+        size += CodedOutputStream.computeFloatSize(FIELD_POINT_BEARING, bearing);
+        size += CodedOutputStream.computeFloatSize(FIELD_POINT_ACCURACY, accuracy);
+        size += CodedOutputStream.computeUInt64Size(FIELD_POINT_TIMESTAMP, time);
+        if (!continuous) {
             //noinspection ConstantConditions
-            size += CodedOutputStream.computeBoolSize(FIELD_POINT_CONTINUOUS, point.continuous);
+            size += CodedOutputStream.computeBoolSize(FIELD_POINT_CONTINUOUS, continuous);
         }
         return size;
     }
@@ -258,4 +334,245 @@ public class TrackManager extends Manager {
         size += CodedOutputStream.computeFloatSize(FIELD_WIDTH, track.style.width);
         return size;
     }
+
+    /**
+     * Restores track statistics from cache or calculates and caches them. Statistics are not
+     * stored in track file itself to keep it readable by older application versions. Cache entry
+     * is valid only for file with the same path and length and is ignored if it does not match
+     * track point count, so renamed or rewritten tracks are simply recalculated. Track points
+     * are still read as they are required by map and track views.
+     */
+    private void loadStatistics(Track track, String filePath) {
+        File file = new File(filePath);
+        File cacheFile = getStatisticsCacheFile(filePath);
+        if (cacheFile == null || !file.isFile())
+            return;
+        long length = file.length();
+        if (cacheFile.exists()) {
+            try (InputStream cacheStream = new BufferedInputStream(new FileInputStream(cacheFile))) {
+                TrackStatistics statistics = readStatisticsCache(CodedInputStream.newInstance(cacheStream), filePath, length);
+                if (statistics != null && statistics.pointCount == track.points.size()) {
+                    track.setStatistics(statistics);
+                    return;
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to read track statistics cache", e);
+            }
+        }
+        TrackStatistics statistics = track.getStatistics();
+        try (OutputStream cacheStream = new FileOutputStream(cacheFile, false)) {
+            CodedOutputStream output = CodedOutputStream.newInstance(cacheStream);
+            output.writeString(FIELD_CACHE_PATH, filePath);
+            output.writeUInt64(FIELD_CACHE_LENGTH, length);
+            output.writeTag(FIELD_CACHE_STATISTICS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeRawVarint32(getSerializedStatisticsSize(statistics));
+            writeStatistics(output, statistics);
+            output.flush();
+        } catch (IOException e) {
+            logger.warn("Failed to write track statistics cache", e);
+        }
+    }
+
+    @Nullable
+    private File getStatisticsCacheFile(String filePath) {
+        File cacheDir = mStatisticsCacheDir;
+        if (cacheDir == null || !cacheDir.exists() && !cacheDir.mkdirs())
+            return null;
+        return new File(cacheDir, getStatisticsCacheName(filePath));
+    }
+
+    private static String getStatisticsCacheName(String filePath) {
+        return Integer.toHexString(filePath.hashCode()) + STATISTICS_CACHE_EXTENSION;
+    }
+
+    @Nullable
+    private TrackStatistics readStatisticsCache(CodedInputStream input, String filePath, long length) throws IOException {
+        TrackStatistics statistics = null;
+        String path = null;
+        long cachedLength = -1L;
+        boolean done = false;
+        while (!done) {
+            int tag = input.readTag();
+            int field = WireFormat.getTagFieldNumber(tag);
+            switch (field) {
+                case 0:
+                    done = true;
+                    break;
+                default: {
+                    input.skipField(tag);
+                    break;
+                }
+                case FIELD_CACHE_PATH: {
+                    path = input.readString();
+                    break;
+                }
+                case FIELD_CACHE_LENGTH: {
+                    cachedLength = input.readUInt64();
+                    break;
+                }
+                case FIELD_CACHE_STATISTICS: {
+                    int size = input.readRawVarint32();
+                    int oldLimit = input.pushLimit(size);
+                    statistics = readStatistics(input);
+                    input.popLimit(oldLimit);
+                    input.checkLastTagWas(0);
+                    break;
+                }
+            }
+        }
+        // cache file name is a path hash, so path is checked to exclude collisions
+        if (!filePath.equals(path) || cachedLength != length)
+            return null;
+        return statistics;
+    }
+
+    private void writeStatistics(CodedOutputStream output, TrackStatistics statistics) throws IOException {
+        output.writeUInt32(FIELD_STATISTICS_POINT_COUNT, statistics.pointCount);
+        output.writeUInt32(FIELD_STATISTICS_SEGMENT_COUNT, statistics.segmentCount);
+        output.writeFloat(FIELD_STATISTICS_DISTANCE, statistics.distance);
+        output.writeUInt64(FIELD_STATISTICS_MOVING_TIME, statistics.movingTime);
+        output.writeFloat(FIELD_STATISTICS_ELEVATION_GAIN, statistics.elevationGain);
+        output.writeFloat(FIELD_STATISTICS_ELEVATION_LOSS, statistics.elevationLoss);
+        output.writeFloat(FIELD_STATISTICS_MIN_ELEVATION, statistics.minElevation);
+        output.writeFloat(FIELD_STATISTICS_MAX_ELEVATION, statistics.maxElevation);
+        output.writeFloat(FIELD_STATISTICS_ELEVATION_REFERENCE, statistics.elevationReference);
+        output.writeFloat(FIELD_STATISTICS_MAX_SPEED, statistics.maxSpeed);
+        output.writeDouble(FIELD_STATISTICS_SPEED_SUM, statistics.speedSum);
+        output.writeUInt32(FIELD_STATISTICS_SPEED_COUNT, statistics.speedCount);
+        output.writeSInt32(FIELD_STATISTICS_MIN_LATITUDE, statistics.minLatitudeE6);
+        output.writeSInt32(FIELD_STATISTICS_MIN_LONGITUDE, statistics.minLongitudeE6);
+        output.writeSInt32(FIELD_STATISTICS_MAX_LATITUDE, statistics.maxLatitudeE6);
+        output.writeSInt32(FIELD_STATISTICS_MAX_LONGITUDE, statistics.maxLongitudeE6);
+        output.writeTag(FIELD_STATISTICS_SPEED_HISTOGRAM, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeRawVarint32(getSerializedHistogramSize(statistics));
+        for (int count : statistics.speedHistogram)
+            output.writeUInt32NoTag(count);
+    }
+
+    private int getSerializedStatisticsSize(TrackStatistics statistics) {
+        int size = 0;
+        size += CodedOutputStream.computeUInt32Size(FIELD_STATISTICS_POINT_COUNT, statistics.pointCount);
+        size += CodedOutputStream.computeUInt32Size(FIELD_STATISTICS_SEGMENT_COUNT, statistics.segmentCount);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_DISTANCE, statistics.distance);
+        size += CodedOutputStream.computeUInt64Size(FIELD_STATISTICS_MOVING_TIME, statistics.movingTime);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_ELEVATION_GAIN, statistics.elevationGain);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_ELEVATION_LOSS, statistics.elevationLoss);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_MIN_ELEVATION, statistics.minElevation);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_MAX_ELEVATION, statistics.maxElevation);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_ELEVATION_REFERENCE, statistics.elevationReference);
+        size += CodedOutputStream.computeFloatSize(FIELD_STATISTICS_MAX_SPEED, statistics.maxSpeed);
+        size += CodedOutputStream.computeDoubleSize(FIELD_STATISTICS_SPEED_SUM, statistics.speedSum);
+        size += CodedOutputStream.computeUInt32Size(FIELD_STATISTICS_SPEED_COUNT, statistics.speedCount);
+        size += CodedOutputStream.computeSInt32Size(FIELD_STATISTICS_MIN_LATITUDE, statistics.minLatitudeE6);
+        size += CodedOutputStream.computeSInt32Size(FIELD_STATISTICS_MIN_LONGITUDE, statistics.minLongitudeE6);
+        size += CodedOutputStream.computeSInt32Size(FIELD_STATISTICS_MAX_LATITUDE, statistics.maxLatitudeE6);
+        size += CodedOutputStream.computeSInt32Size(FIELD_STATISTICS_MAX_LONGITUDE, statistics.maxLongitudeE6);
+        int histogramSize = getSerializedHistogramSize(statistics);
+        size += CodedOutputStream.computeTagSize(FIELD_STATISTICS_SPEED_HISTOGRAM);
+        size += CodedOutputStream.computeUInt32SizeNoTag(histogramSize);
+        size += histogramSize;
+        return size;
+    }
+
+    private int getSerializedHistogramSize(TrackStatistics statistics) {
+        int size = 0;
+        for (int count : statistics.speedHistogram)
+            size += CodedOutputStream.computeUInt32SizeNoTag(count);
+        return size;
+    }
+
+    private TrackStatistics readStatistics(CodedInputStream input) throws IOException {
+        TrackStatistics statistics = new TrackStatistics();
+        boolean done = false;
+        while (!done) {
+            int tag = input.readTag();
+            int field = WireFormat.getTagFieldNumber(tag);
+            switch (field) {
+                case 0:
+                    done = true;
+                    break;
+                default: {
+                    // statistics can be extended, unknown values are skipped
+                    input.skipField(tag);
+                    break;
+                }
+                case FIELD_STATISTICS_POINT_COUNT: {
+                    statistics.pointCount = input.readUInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_SEGMENT_COUNT: {
+                    statistics.segmentCount = input.readUInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_DISTANCE: {
+                    statistics.distance = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_MOVING_TIME: {
+                    statistics.movingTime = input.readUInt64();
+                    break;
+                }
+                case FIELD_STATISTICS_ELEVATION_GAIN: {
+                    statistics.elevationGain = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_ELEVATION_LOSS: {
+                    statistics.elevationLoss = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_MIN_ELEVATION: {
+                    statistics.minElevation = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_MAX_ELEVATION: {
+                    statistics.maxElevation = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_ELEVATION_REFERENCE: {
+                    statistics.elevationReference = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_MAX_SPEED: {
+                    statistics.maxSpeed = input.readFloat();
+                    break;
+                }
+                case FIELD_STATISTICS_SPEED_SUM: {
+                    statistics.speedSum = input.readDouble();
+                    break;
+                }
+                case FIELD_STATISTICS_SPEED_COUNT: {
+                    statistics.speedCount = input.readUInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_MIN_LATITUDE: {
+                    statistics.minLatitudeE6 = input.readSInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_MIN_LONGITUDE: {
+                    statistics.minLongitudeE6 = input.readSInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_MAX_LATITUDE: {
+                    statistics.maxLatitudeE6 = input.readSInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_MAX_LONGITUDE: {
+                    statistics.maxLongitudeE6 = input.readSInt32();
+                    break;
+                }
+                case FIELD_STATISTICS_SPEED_HISTOGRAM: {
+                    int length = input.readRawVarint32();
+                    int oldLimit = input.pushLimit(length);
+                    for (int i = 0; input.getBytesUntilLimit() > 0; i++) {
+                        int count = input.readUInt32();
+                        if (i < TrackStatistics.SPEED_BINS)
+                            statistics.speedHistogram[i] = count;
+                    }
+                    input.popLimit(oldLimit);
+                    break;
+                }
+            }
+        }
+        return statistics;
+    }
 }
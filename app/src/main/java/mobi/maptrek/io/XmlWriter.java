@@ -0,0 +1,398 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.io;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minimal indenting XML writer used by data exporters. Encodes UTF-8 directly into a byte
+ * buffer which is written to output stream in large chunks and formats coordinates, numbers
+ * and times in place, without intermediate strings and shared formatters. Writer is not
+ * thread safe, each export should create its own instance, so that exports can safely run
+ * concurrently. Namespaces are not handled, xmlns should be written as plain attribute.
+ */
+public class XmlWriter implements Closeable {
+    private static final int BUFFER_SIZE = 65536;
+    private static final long DAY = 86400000L;
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L};
+
+    private final OutputStream mOutputStream;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPosition;
+    private int mDepth;
+    // start tag is not yet closed with '>'
+    private boolean mTagOpen;
+    // element has child elements, end tag should be placed on new line
+    private boolean mIndentEnd;
+
+    public XmlWriter(OutputStream outputStream) {
+        mOutputStream = outputStream;
+    }
+
+    public void startDocument() throws IOException {
+        raw("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    }
+
+    public void startTag(String name) throws IOException {
+        closeStartTag();
+        indent();
+        write('<');
+        raw(name);
+        mTagOpen = true;
+        mIndentEnd = false;
+        mDepth++;
+    }
+
+    public void endTag(String name) throws IOException {
+        mDepth--;
+        if (mTagOpen) {
+            raw("/>");
+            mTagOpen = false;
+        } else {
+            if (mIndentEnd)
+                indent();
+            raw("</");
+            raw(name);
+            write('>');
+        }
+        mIndentEnd = true;
+    }
+
+    public void attribute(String name, @Nullable String value) throws IOException {
+        if (!mTagOpen)
+            throw new IllegalStateException("Attribute outside of start tag: " + name);
+        write(' ');
+        raw(name);
+        raw("=\"");
+        escape(value, true);
+        write('"');
+    }
+
+    /**
+     * Writes attribute with microdegrees value as decimal degrees.
+     */
+    public void attributeE6(String name, int valueE6) throws IOException {
+        if (!mTagOpen)
+            throw new IllegalStateException("Attribute outside of start tag: " + name);
+        write(' ');
+        raw(name);
+        raw("=\"");
+        writeE6(valueE6);
+        write('"');
+    }
+
+    public void text(@Nullable String text) throws IOException {
+        closeStartTag();
+        escape(text, false);
+    }
+
+    public void text(char c) throws IOException {
+        closeStartTag();
+        escape(c, false);
+    }
+
+    public void text(long value) throws IOException {
+        closeStartTag();
+        writeNumber(value);
+    }
+
+    /**
+     * Writes number rounded to specified number of decimals (up to 6), trailing zeros are
+     * omitted. Values which can not be represented that way are written in standard notation.
+     */
+    public void text(float value, int decimals) throws IOException {
+        closeStartTag();
+        if (Float.isNaN(value) || Float.isInfinite(value) || Math.abs(value) >= 1e12f) {
+            raw(Float.toString(value));
+            return;
+        }
+        long pow = POW10[decimals];
+        long scaled = Math.round(Math.abs((double) value) * pow);
+        if (value < 0 && scaled != 0)
+            write('-');
+        writeNumber(scaled / pow);
+        writeFraction(scaled % pow, decimals);
+    }
+
+    /**
+     * Writes microdegrees value as decimal degrees.
+     */
+    public void textE6(int valueE6) throws IOException {
+        closeStartTag();
+        writeE6(valueE6);
+    }
+
+    /**
+     * Writes time as ISO 8601 UTC date and time, fraction of second is written only if it is
+     * not zero.
+     */
+    public void textTime(long time) throws IOException {
+        closeStartTag();
+        long days = time / DAY;
+        long millis = time % DAY;
+        if (millis < 0) {
+            days--;
+            millis += DAY;
+        }
+        // http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        days += 719468;
+        long era = (days >= 0 ? days : days - 146096) / 146097;
+        int dayOfEra = (int) (days - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = era * 400 + yearOfEra + (month <= 2 ? 1 : 0);
+
+        writeDigits(year, 4);
+        write('-');
+        writeDigits(month, 2);
+        write('-');
+        writeDigits(day, 2);
+        write('T');
+        int seconds = (int) (millis / 1000);
+        writeDigits(seconds / 3600, 2);
+        write(':');
+        writeDigits(seconds / 60 % 60, 2);
+        write(':');
+        writeDigits(seconds % 60, 2);
+        writeFraction(millis % 1000, 3);
+        write('Z');
+    }
+
+    /**
+     * Writes text as CDATA section, splitting it if text contains section terminator.
+     */
+    public void cdsect(@Nullable String text) throws IOException {
+        closeStartTag();
+        raw("<![CDATA[");
+        if (text != null) {
+            int start = 0;
+            int end;
+            while ((end = text.indexOf("]]>", start)) >= 0) {
+                chars(text, start, end + 2);
+                raw("]]><![CDATA[");
+                start = end + 2;
+            }
+            chars(text, start, text.length());
+        }
+        raw("]]>");
+    }
+
+    public void endDocument() throws IOException {
+        if (mDepth != 0)
+            throw new IllegalStateException("Unclosed tags: " + mDepth);
+        write('\n');
+        flush();
+    }
+
+    public void flush() throws IOException {
+        mOutputStream.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+        mOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        mOutputStream.close();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (mTagOpen) {
+            write('>');
+            mTagOpen = false;
+        }
+    }
+
+    private void indent() throws IOException {
+        write('\n');
+        for (int i = 0; i < mDepth; i++) {
+            write(' ');
+            write(' ');
+        }
+    }
+
+    private void writeE6(int valueE6) throws IOException {
+        long value = valueE6;
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        writeNumber(value / 1000000);
+        writeFraction(value % 1000000, 6);
+    }
+
+    /**
+     * Writes fraction part with leading zeros to specified number of digits omitting trailing
+     * zeros. Nothing is written for zero fraction.
+     */
+    private void writeFraction(long fraction, int digits) throws IOException {
+        if (fraction == 0)
+            return;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        write('.');
+        writeDigits(fraction, digits);
+    }
+
+    private void writeNumber(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                raw(Long.toString(value));
+                return;
+            }
+            write('-');
+            value = -value;
+        }
+        writeDigits(value, 1);
+    }
+
+    /**
+     * Writes non-negative value padded with leading zeros to specified number of digits.
+     */
+    private void writeDigits(long value, int digits) throws IOException {
+        int length = 1;
+        for (long v = value / 10; v > 0; v /= 10)
+            length++;
+        if (length < digits)
+            length = digits;
+        ensureCapacity(length);
+        for (int i = mPosition + length - 1; i >= mPosition; i--) {
+            mBuffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        mPosition += length;
+    }
+
+    private void escape(@Nullable String text, boolean attribute) throws IOException {
+        if (text == null)
+            return;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                codePoint(Character.toCodePoint(c, text.charAt(i + 1)));
+                i++;
+            } else {
+                escape(c, attribute);
+            }
+        }
+    }
+
+    private void escape(char c, boolean attribute) throws IOException {
+        switch (c) {
+            case '&':
+                raw("&amp;");
+                break;
+            case '<':
+                raw("&lt;");
+                break;
+            case '>':
+                raw("&gt;");
+                break;
+            case '"':
+                if (attribute)
+                    raw("&quot;");
+                else
+                    write(c);
+                break;
+            case '\n':
+            case '\r':
+            case '\t':
+                if (attribute) {
+                    raw("&#");
+                    writeDigits(c, 1);
+                    write(';');
+                } else {
+                    write(c);
+                }
+                break;
+            default:
+                // control characters and unpaired surrogates are not allowed in XML
+                if (c >= ' ' && !Character.isSurrogate(c) && c != '\uFFFE' && c != '\uFFFF')
+                    codePoint(c);
+        }
+    }
+
+    private void chars(String text, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                codePoint(Character.toCodePoint(c, text.charAt(i + 1)));
+                i++;
+            } else if (c >= ' ' || c == '\n' || c == '\r' || c == '\t') {
+                if (!Character.isSurrogate(c))
+                    codePoint(c);
+            }
+        }
+    }
+
+    /**
+     * Writes markup which is known to contain only ASCII characters.
+     */
+    private void raw(String text) throws IOException {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+            mBuffer[mPosition++] = (byte) text.charAt(i);
+    }
+
+    private void codePoint(int c) throws IOException {
+        ensureCapacity(4);
+        if (c < 0x80) {
+            mBuffer[mPosition++] = (byte) c;
+        } else if (c < 0x800) {
+            mBuffer[mPosition++] = (byte) (0xC0 | (c >> 6));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            mBuffer[mPosition++] = (byte) (0xE0 | (c >> 12));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            mBuffer[mPosition++] = (byte) (0xF0 | (c >> 18));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void write(char c) throws IOException {
+        if (mPosition == BUFFER_SIZE)
+            drain();
+        mBuffer[mPosition++] = (byte) c;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (mPosition + length > BUFFER_SIZE) {
+            drain();
+            if (length > BUFFER_SIZE)
+                throw new IllegalArgumentException("Markup is too long: " + length);
+        }
+    }
+
+    private void drain() throws IOException {
+        mOutputStream.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+}
@@ -16,13 +16,6 @@
 
 package mobi.maptrek.io.gpx;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Objects;
-
 public class GpxFile {
     public static final String NS = "http://www.topografix.com/GPX/1/1";
     public static final String TAG_GPX = "gpx";
@@ -42,20 +35,6 @@ public class GpxFile {
     public static final String ATTRIBUTE_LON = "lon";
     public static final String ATTRIBUTE_CREATOR = "creator";
 
-    static final DateFormat TRKTIME = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
-    static final DateFormat TRKTIME_MS = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
-
-    public static long parseTime(String timeString) throws ParseException {
-        if (timeString.length() > 20)
-            return Objects.requireNonNull(GpxFile.TRKTIME_MS.parse(timeString)).getTime();
-        else
-            return Objects.requireNonNull(GpxFile.TRKTIME.parse(timeString)).getTime();
-    }
-
-    public static String formatTime(Date date) {
-        return TRKTIME.format(date);
-    }
-
     // http://www.topografix.com/GPX/1/1/#type_metadataType
     static public class Metadata {
         String name;
@@ -24,21 +24,26 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.ParseException;
+import java.nio.CharBuffer;
 import java.util.Date;
 
 import mobi.maptrek.data.Route;
 import mobi.maptrek.data.Track;
 import mobi.maptrek.data.Waypoint;
 import mobi.maptrek.data.source.FileDataSource;
+import mobi.maptrek.util.ValueParser;
 
 public class GpxParser {
     private static final String NS = null;
 
     @NonNull
     public static FileDataSource parse(InputStream in) throws XmlPullParserException, IOException {
+        return parse(in, Xml.newPullParser());
+    }
+
+    @NonNull
+    static FileDataSource parse(InputStream in, XmlPullParser parser) throws XmlPullParserException, IOException {
         try {
-            XmlPullParser parser = Xml.newPullParser();
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(in, null);
             parser.nextTag();
@@ -198,8 +203,8 @@ public class GpxParser {
 
     private static void readTrackPoint(XmlPullParser parser, Track track, boolean continuous) throws XmlPullParserException, IOException {
         parser.require(XmlPullParser.START_TAG, NS, GpxFile.TAG_TRKPT);
-        float lat = Float.parseFloat(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LAT));
-        float lon = Float.parseFloat(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LON));
+        int latitudeE6 = ValueParser.parseE6(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LAT));
+        int longitudeE6 = ValueParser.parseE6(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LON));
         float altitude = Float.NaN;
         long time = 0;
         while (parser.next() != XmlPullParser.END_TAG) {
@@ -220,7 +225,7 @@ public class GpxParser {
             }
         }
         parser.require(XmlPullParser.END_TAG, NS, GpxFile.TAG_TRKPT);
-        track.addPointFast(continuous, (int) (lat * 1E6), (int) (lon * 1E6), altitude, Float.NaN, Float.NaN, Float.NaN, time);
+        track.addPointFast(continuous, latitudeE6, longitudeE6, altitude, Float.NaN, Float.NaN, Float.NaN, time);
     }
 
     @NonNull
@@ -259,8 +264,8 @@ public class GpxParser {
 
     private static void readRoutePoint(XmlPullParser parser, Route route) throws XmlPullParserException, IOException {
         parser.require(XmlPullParser.START_TAG, NS, GpxFile.TAG_RTEPT);
-        float lat = Float.parseFloat(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LAT));
-        float lon = Float.parseFloat(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LON));
+        int latitudeE6 = ValueParser.parseE6(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LAT));
+        int longitudeE6 = ValueParser.parseE6(parser.getAttributeValue(null, GpxFile.ATTRIBUTE_LON));
         String pointName = null;
         String pointDesc = null;
         float pointEle = Float.NaN;
@@ -285,7 +290,7 @@ public class GpxParser {
             }
         }
         parser.require(XmlPullParser.END_TAG, NS, GpxFile.TAG_RTEPT);
-        Route.Instruction instruction = route.addInstruction((int) (lat * 1E6), (int) (lon * 1E6));
+        Route.Instruction instruction = route.addInstruction(latitudeE6, longitudeE6);
         if (pointDesc != null)
             instruction.text = pointDesc;
         else if (pointName != null)
@@ -312,13 +317,17 @@ public class GpxParser {
 
     private static long readTime(XmlPullParser parser) throws IOException, XmlPullParserException {
         parser.require(XmlPullParser.START_TAG, NS, GpxFile.TAG_TIME);
-        String timeString = readText(parser);
-        parser.require(XmlPullParser.END_TAG, NS, GpxFile.TAG_TIME);
+        long result;
         try {
-            return GpxFile.parseTime(timeString);
-        } catch (ParseException e) {
-            throw new XmlPullParserException("Unexpected time format: " + timeString, parser, e);
+            if (parser.next() != XmlPullParser.TEXT)
+                throw new IllegalArgumentException("Empty time");
+            result = ValueParser.parseTime(getTextCharacters(parser));
+        } catch (IllegalArgumentException e) {
+            throw new XmlPullParserException(e.getMessage(), parser, e);
         }
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, GpxFile.TAG_TIME);
+        return result;
     }
 
     @NonNull
@@ -356,20 +365,32 @@ public class GpxParser {
     }
 
     private static float readFloat(XmlPullParser parser) throws IOException, XmlPullParserException {
-        String text = "";
-        if (parser.next() == XmlPullParser.TEXT) {
-            text = parser.getText();
-            parser.nextTag();
-        }
+        CharSequence text = "";
+        boolean hasText = parser.next() == XmlPullParser.TEXT;
+        if (hasText)
+            text = getTextCharacters(parser);
         float result;
         try {
-            result = Float.parseFloat(text.trim());
+            result = ValueParser.parseFloat(text);
         } catch (NumberFormatException e) {
             throw new XmlPullParserException("Expected float", parser, e);
         }
+        if (hasText)
+            parser.nextTag();
         return result;
     }
 
+    /**
+     * Returns text of current event without creating a string, text is valid until the
+     * next parser call.
+     */
+    @NonNull
+    private static CharSequence getTextCharacters(XmlPullParser parser) {
+        int[] holder = new int[2];
+        char[] text = parser.getTextCharacters(holder);
+        return CharBuffer.wrap(text, holder[0], holder[1]);
+    }
+
     private static int readInteger(XmlPullParser parser) throws IOException, XmlPullParserException {
         String text = "";
         if (parser.next() == XmlPullParser.TEXT) {
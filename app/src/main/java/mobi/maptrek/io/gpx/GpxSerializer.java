@@ -17,23 +17,21 @@
 package mobi.maptrek.io.gpx;
 
 import androidx.annotation.Nullable;
-import android.util.Xml;
 
-import org.xmlpull.v1.XmlSerializer;
-
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.util.Date;
 
 import mobi.maptrek.data.Route;
 import mobi.maptrek.data.Track;
 import mobi.maptrek.data.Waypoint;
 import mobi.maptrek.data.source.FileDataSource;
+import mobi.maptrek.io.XmlWriter;
 import mobi.maptrek.util.ProgressListener;
 
 public class GpxSerializer {
+    // centimeter precision is well beyond any elevation source
+    private static final int ELEVATION_DECIMALS = 2;
+
     public static void serialize(OutputStream outputStream, FileDataSource source, @Nullable ProgressListener progressListener) throws IOException {
 
         int progress = 0;
@@ -46,60 +44,56 @@ public class GpxSerializer {
             progressListener.onProgressStarted(size);
         }
 
-        XmlSerializer serializer = Xml.newSerializer();
-        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-        serializer.setOutput(writer);
-        serializer.startDocument("UTF-8", null);
-        serializer.setPrefix("", GpxFile.NS);
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_GPX);
-        serializer.attribute("", GpxFile.ATTRIBUTE_CREATOR, "Trekarta https://trekarta.info");
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_METADATA);
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_NAME);
-        serializer.text(source.name);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_NAME);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_METADATA);
+        XmlWriter writer = new XmlWriter(outputStream);
+        writer.startDocument();
+        writer.startTag(GpxFile.TAG_GPX);
+        writer.attribute("xmlns", GpxFile.NS);
+        writer.attribute(GpxFile.ATTRIBUTE_CREATOR, "Trekarta https://trekarta.info");
+        writer.startTag(GpxFile.TAG_METADATA);
+        writer.startTag(GpxFile.TAG_NAME);
+        writer.text(source.name);
+        writer.endTag(GpxFile.TAG_NAME);
+        writer.endTag(GpxFile.TAG_METADATA);
 
         for (Waypoint waypoint : source.waypoints) {
-            progress = serializeWaypoint(serializer, waypoint, progressListener, progress);
+            progress = serializeWaypoint(writer, waypoint, progressListener, progress);
         }
         for (Route route : source.routes) {
-            progress = serializeRoute(serializer, route, progressListener, progress);
+            progress = serializeRoute(writer, route, progressListener, progress);
         }
         for (Track track : source.tracks) {
-            progress = serializeTrack(serializer, track, progressListener, progress);
+            progress = serializeTrack(writer, track, progressListener, progress);
         }
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_GPX);
-        serializer.endDocument();
-        serializer.flush();
+        writer.endTag(GpxFile.TAG_GPX);
+        writer.endDocument();
         writer.close();
         if (progressListener != null)
             progressListener.onProgressFinished();
     }
 
-    private static int serializeWaypoint(XmlSerializer serializer, Waypoint waypoint, ProgressListener progressListener, int progress) throws IllegalArgumentException, IllegalStateException, IOException {
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_WPT);
-        serializer.attribute("", GpxFile.ATTRIBUTE_LAT, String.valueOf(waypoint.coordinates.getLatitude()));
-        serializer.attribute("", GpxFile.ATTRIBUTE_LON, String.valueOf(waypoint.coordinates.getLongitude()));
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_NAME);
-        serializer.text(waypoint.name);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_NAME);
+    private static int serializeWaypoint(XmlWriter writer, Waypoint waypoint, ProgressListener progressListener, int progress) throws IOException {
+        writer.startTag(GpxFile.TAG_WPT);
+        writer.attributeE6(GpxFile.ATTRIBUTE_LAT, waypoint.coordinates.latitudeE6);
+        writer.attributeE6(GpxFile.ATTRIBUTE_LON, waypoint.coordinates.longitudeE6);
+        writer.startTag(GpxFile.TAG_NAME);
+        writer.text(waypoint.name);
+        writer.endTag(GpxFile.TAG_NAME);
         if (waypoint.description != null && !waypoint.description.trim().isEmpty()) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_DESC);
-            serializer.cdsect(waypoint.description.trim());
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_DESC);
+            writer.startTag(GpxFile.TAG_DESC);
+            writer.cdsect(waypoint.description.trim());
+            writer.endTag(GpxFile.TAG_DESC);
         }
         if (waypoint.altitude != Integer.MIN_VALUE) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_ELE);
-            serializer.text(String.valueOf(waypoint.altitude));
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_ELE);
+            writer.startTag(GpxFile.TAG_ELE);
+            writer.text(waypoint.altitude);
+            writer.endTag(GpxFile.TAG_ELE);
         }
         if (waypoint.date != null) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_TIME);
-            serializer.text(GpxFile.formatTime(waypoint.date));
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_TIME);
+            writer.startTag(GpxFile.TAG_TIME);
+            writer.textTime(waypoint.date.getTime());
+            writer.endTag(GpxFile.TAG_TIME);
         }
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_WPT);
+        writer.endTag(GpxFile.TAG_WPT);
 
         progress++;
         if (progressListener != null)
@@ -107,79 +101,81 @@ public class GpxSerializer {
         return progress;
     }
 
-    private static int serializeRoute(XmlSerializer serializer, Route route, ProgressListener progressListener, int progress) throws IllegalArgumentException, IllegalStateException, IOException {
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_RTE);
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_NAME);
-        serializer.text(route.name);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_NAME);
+    private static int serializeRoute(XmlWriter writer, Route route, ProgressListener progressListener, int progress) throws IOException {
+        writer.startTag(GpxFile.TAG_RTE);
+        writer.startTag(GpxFile.TAG_NAME);
+        writer.text(route.name);
+        writer.endTag(GpxFile.TAG_NAME);
         if (route.description != null) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_DESC);
-            serializer.cdsect(route.description);
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_DESC);
+            writer.startTag(GpxFile.TAG_DESC);
+            writer.cdsect(route.description);
+            writer.endTag(GpxFile.TAG_DESC);
         }
         for (Route.Instruction instruction : route.instructions) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_RTEPT);
-            serializer.attribute("", GpxFile.ATTRIBUTE_LAT, String.valueOf(instruction.latitudeE6 / 1E6));
-            serializer.attribute("", GpxFile.ATTRIBUTE_LON, String.valueOf(instruction.longitudeE6 / 1E6));
+            writer.startTag(GpxFile.TAG_RTEPT);
+            writer.attributeE6(GpxFile.ATTRIBUTE_LAT, instruction.latitudeE6);
+            writer.attributeE6(GpxFile.ATTRIBUTE_LON, instruction.longitudeE6);
             if (instruction.text != null) {
-                serializer.startTag(GpxFile.NS, GpxFile.TAG_DESC);
-                serializer.text(instruction.text);
-                serializer.endTag(GpxFile.NS, GpxFile.TAG_DESC);
+                writer.startTag(GpxFile.TAG_DESC);
+                writer.text(instruction.text);
+                writer.endTag(GpxFile.TAG_DESC);
             }
             if (!Float.isNaN(instruction.elevation)) {
-                serializer.startTag(GpxFile.NS, GpxFile.TAG_ELE);
-                serializer.text(String.valueOf(instruction.elevation));
-                serializer.endTag(GpxFile.NS, GpxFile.TAG_ELE);
+                writer.startTag(GpxFile.TAG_ELE);
+                writer.text(instruction.elevation, ELEVATION_DECIMALS);
+                writer.endTag(GpxFile.TAG_ELE);
             }
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_RTEPT);
+            writer.endTag(GpxFile.TAG_RTEPT);
             progress++;
             if (progressListener != null)
                 progressListener.onProgressChanged(progress);
         }
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_RTE);
+        writer.endTag(GpxFile.TAG_RTE);
 
         return progress;
     }
 
-    private static int serializeTrack(XmlSerializer serializer, Track track, ProgressListener progressListener, int progress) throws IllegalArgumentException, IllegalStateException, IOException {
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_TRK);
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_NAME);
-        serializer.text(track.name);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_NAME);
+    private static int serializeTrack(XmlWriter writer, Track track, ProgressListener progressListener, int progress) throws IOException {
+        writer.startTag(GpxFile.TAG_TRK);
+        writer.startTag(GpxFile.TAG_NAME);
+        writer.text(track.name);
+        writer.endTag(GpxFile.TAG_NAME);
         if (track.description != null) {
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_DESC);
-            serializer.cdsect(track.description);
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_DESC);
+            writer.startTag(GpxFile.TAG_DESC);
+            writer.cdsect(track.description);
+            writer.endTag(GpxFile.TAG_DESC);
         }
-        serializer.startTag(GpxFile.NS, GpxFile.TAG_TRKSEG);
-
-        boolean first = true;
-        for (Track.TrackPoint tp : track.points) {
-            if (!tp.continuous && !first) {
-                serializer.endTag(GpxFile.NS, GpxFile.TAG_TRKSEG);
-                serializer.startTag(GpxFile.NS, GpxFile.TAG_TRKSEG);
-            }
-            serializer.startTag(GpxFile.NS, GpxFile.TAG_TRKPT);
-            serializer.attribute("", GpxFile.ATTRIBUTE_LAT, String.valueOf(tp.latitudeE6 / 1E6));
-            serializer.attribute("", GpxFile.ATTRIBUTE_LON, String.valueOf(tp.longitudeE6 / 1E6));
-            if (!Float.isNaN(tp.elevation)) {
-                serializer.startTag(GpxFile.NS, GpxFile.TAG_ELE);
-                serializer.text(String.valueOf(tp.elevation));
-                serializer.endTag(GpxFile.NS, GpxFile.TAG_ELE);
+        writer.startTag(GpxFile.TAG_TRKSEG);
+
+        synchronized (track.points) {
+            for (int i = 0, size = track.points.size(); i < size; i++) {
+                if (i > 0 && !track.isContinuous(i)) {
+                    writer.endTag(GpxFile.TAG_TRKSEG);
+                    writer.startTag(GpxFile.TAG_TRKSEG);
+                }
+                writer.startTag(GpxFile.TAG_TRKPT);
+                writer.attributeE6(GpxFile.ATTRIBUTE_LAT, track.getLatitudeE6(i));
+                writer.attributeE6(GpxFile.ATTRIBUTE_LON, track.getLongitudeE6(i));
+                float elevation = track.getElevation(i);
+                if (!Float.isNaN(elevation)) {
+                    writer.startTag(GpxFile.TAG_ELE);
+                    writer.text(elevation, ELEVATION_DECIMALS);
+                    writer.endTag(GpxFile.TAG_ELE);
+                }
+                long time = track.getTime(i);
+                if (time > 0L) {
+                    writer.startTag(GpxFile.TAG_TIME);
+                    writer.textTime(time);
+                    writer.endTag(GpxFile.TAG_TIME);
+                }
+                writer.endTag(GpxFile.TAG_TRKPT);
+                progress++;
+                if (progressListener != null)
+                    progressListener.onProgressChanged(progress);
             }
-            if (tp.time > 0L) {
-                serializer.startTag(GpxFile.NS, GpxFile.TAG_TIME);
-                serializer.text(GpxFile.formatTime(new Date(tp.time)));
-                serializer.endTag(GpxFile.NS, GpxFile.TAG_TIME);
-            }
-            serializer.endTag(GpxFile.NS, GpxFile.TAG_TRKPT);
-            first = false;
-            progress++;
-            if (progressListener != null)
-                progressListener.onProgressChanged(progress);
         }
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_TRKSEG);
-        serializer.endTag(GpxFile.NS, GpxFile.TAG_TRK);
+        writer.endTag(GpxFile.TAG_TRKSEG);
+        writer.endTag(GpxFile.TAG_TRK);
 
         return progress;
     }
@@ -49,6 +49,10 @@ public class KmlFile {
     public static final String TAG_TIME_SPAN = "TimeSpan";
     public static final String TAG_BEGIN = "begin";
     public static final String TAG_END = "end";
+    public static final String TAG_WHEN = "when";
+    public static final String TAG_GX_TRACK = "gx:Track";
+    public static final String TAG_GX_MULTI_TRACK = "gx:MultiTrack";
+    public static final String TAG_GX_COORD = "gx:coord";
     public static final String ATTRIBUTE_ID = "id";
 
     /**
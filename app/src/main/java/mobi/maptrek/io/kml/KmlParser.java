@@ -25,7 +25,9 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,14 +35,19 @@ import java.util.Map;
 import mobi.maptrek.data.Track;
 import mobi.maptrek.data.Waypoint;
 import mobi.maptrek.data.source.FileDataSource;
+import mobi.maptrek.util.ValueParser;
 
 public class KmlParser {
     private static final String NS = null;
 
     @NonNull
     public static FileDataSource parse(InputStream in) throws XmlPullParserException, IOException {
+        return parse(in, Xml.newPullParser());
+    }
+
+    @NonNull
+    static FileDataSource parse(InputStream in, XmlPullParser parser) throws XmlPullParserException, IOException {
         try {
-            XmlPullParser parser = Xml.newPullParser();
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(in, null);
             parser.nextTag();
@@ -223,6 +230,13 @@ public class KmlParser {
                 case KmlFile.TAG_LINE_STRING:
                     placemark.track = readLineString(parser);
                     break;
+                case KmlFile.TAG_GX_TRACK:
+                    placemark.track = new Track();
+                    readGxTrack(parser, placemark.track);
+                    break;
+                case KmlFile.TAG_GX_MULTI_TRACK:
+                    placemark.track = readGxMultiTrack(parser);
+                    break;
                 default:
                     skip(parser);
                     break;
@@ -282,7 +296,7 @@ public class KmlParser {
     private static Track readLineString(XmlPullParser parser) throws IOException, XmlPullParserException {
         parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_LINE_STRING);
         Track track = new Track();
-        String coordinatesString = null;
+        boolean hasCoordinates = false;
         while (parser.next() != XmlPullParser.END_TAG) {
             if (parser.getEventType() != XmlPullParser.START_TAG) {
                 continue;
@@ -291,7 +305,8 @@ public class KmlParser {
             //noinspection SwitchStatementWithTooFewBranches
             switch (name) {
                 case KmlFile.TAG_COORDINATES:
-                    coordinatesString = readTextElement(parser, KmlFile.TAG_COORDINATES);
+                    readCoordinates(parser, track);
+                    hasCoordinates = true;
                     break;
                 default:
                     skip(parser);
@@ -299,29 +314,169 @@ public class KmlParser {
             }
         }
         parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_LINE_STRING);
-        if (coordinatesString == null)
+        if (!hasCoordinates)
             throw new XmlPullParserException(KmlFile.TAG_LINE_STRING + " must have coordinates", parser, null);
-        String[] points = coordinatesString.split("[\\s\\n]");
+        return track;
+    }
+
+    /**
+     * Parses coordinate tuples (lon,lat[,alt]) separated by white space directly from parser
+     * text buffer.
+     */
+    private static void readCoordinates(XmlPullParser parser, Track track) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_COORDINATES);
+        if (parser.next() != XmlPullParser.TEXT) {
+            parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_COORDINATES);
+            return;
+        }
+        CharSequence text = getTextCharacters(parser);
         boolean continuous = false;
-        for (String point : points) {
-            String[] coordinates = point.split(",");
-            if (coordinates.length < 2)
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && text.charAt(i) <= ' ')
+                i++;
+            int start = i;
+            int comma1 = -1, comma2 = -1, commas = 0;
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c <= ' ')
+                    break;
+                if (c == ',') {
+                    commas++;
+                    if (comma1 < 0)
+                        comma1 = i;
+                    else if (comma2 < 0)
+                        comma2 = i;
+                }
+            }
+            if (commas == 0)
                 continue;
             try {
-                int latitudeE6 = (int) (Double.parseDouble(coordinates[1]) * 1E6);
-                int longitudeE6 = (int) (Double.parseDouble(coordinates[0]) * 1E6);
+                int longitudeE6 = ValueParser.parseE6(text, start, comma1);
+                int latitudeE6 = ValueParser.parseE6(text, comma1 + 1, commas == 1 ? i : comma2);
                 float altitude = 0f;
-                if (coordinates.length == 3)
-                    altitude = (float) Double.parseDouble(coordinates[2]);
+                if (commas == 2)
+                    altitude = ValueParser.parseFloat(text, comma2 + 1, i);
                 track.addPointFast(continuous, latitudeE6, longitudeE6, altitude, Float.NaN, Float.NaN, Float.NaN, 0L);
-            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
-                throw new XmlPullParserException("Wrong coordinates format: " + point, parser, e);
+            } catch (NumberFormatException e) {
+                throw new XmlPullParserException("Wrong coordinates format: " + text.subSequence(start, i), parser, e);
             }
             continuous = true;
         }
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_COORDINATES);
+    }
+
+    @NonNull
+    private static Track readGxMultiTrack(XmlPullParser parser) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_GX_MULTI_TRACK);
+        Track track = new Track();
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            //noinspection SwitchStatementWithTooFewBranches
+            switch (name) {
+                case KmlFile.TAG_GX_TRACK:
+                    readGxTrack(parser, track);
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+        parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_GX_MULTI_TRACK);
         return track;
     }
 
+    /**
+     * Appends gx:Track points to track as a new segment. Times are matched to coordinates by
+     * order, both grouped and interleaved when and gx:coord elements are supported.
+     */
+    private static void readGxTrack(XmlPullParser parser, Track track) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_GX_TRACK);
+        long[] times = new long[64];
+        int timeCount = 0;
+        int coordCount = 0;
+        while (parser.next() != XmlPullParser.END_TAG) {
+            if (parser.getEventType() != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = parser.getName();
+            switch (name) {
+                case KmlFile.TAG_WHEN:
+                    if (timeCount == times.length)
+                        times = Arrays.copyOf(times, timeCount * 2);
+                    times[timeCount++] = readTime(parser, KmlFile.TAG_WHEN);
+                    break;
+                case KmlFile.TAG_GX_COORD:
+                    long time = coordCount < timeCount ? times[coordCount] : 0L;
+                    readGxCoord(parser, track, coordCount > 0, time);
+                    coordCount++;
+                    break;
+                default:
+                    skip(parser);
+                    break;
+            }
+        }
+        parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_GX_TRACK);
+    }
+
+    /**
+     * Parses gx:coord (lon lat [alt]) directly from parser text buffer.
+     */
+    private static void readGxCoord(XmlPullParser parser, Track track, boolean continuous, long time) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_GX_COORD);
+        if (parser.next() != XmlPullParser.TEXT)
+            throw new XmlPullParserException(KmlFile.TAG_GX_COORD + " must have coordinates", parser, null);
+        CharSequence text = getTextCharacters(parser);
+        int length = text.length();
+        try {
+            int start = skipSpaces(text, 0);
+            int end = skipValue(text, start);
+            int longitudeE6 = ValueParser.parseE6(text, start, end);
+            start = skipSpaces(text, end);
+            end = skipValue(text, start);
+            int latitudeE6 = ValueParser.parseE6(text, start, end);
+            start = skipSpaces(text, end);
+            float altitude = start < length ? ValueParser.parseFloat(text, start, skipValue(text, start)) : Float.NaN;
+            track.addPointFast(continuous, latitudeE6, longitudeE6, altitude, Float.NaN, Float.NaN, Float.NaN, time);
+        } catch (NumberFormatException e) {
+            throw new XmlPullParserException("Wrong coordinates format: " + text, parser, e);
+        }
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, KmlFile.TAG_GX_COORD);
+    }
+
+    private static int skipSpaces(CharSequence text, int i) {
+        while (i < text.length() && text.charAt(i) <= ' ')
+            i++;
+        return i;
+    }
+
+    private static int skipValue(CharSequence text, int i) {
+        while (i < text.length() && text.charAt(i) > ' ')
+            i++;
+        return i;
+    }
+
+    private static long readTime(XmlPullParser parser, String name) throws IOException, XmlPullParserException {
+        parser.require(XmlPullParser.START_TAG, NS, name);
+        long result;
+        try {
+            if (parser.next() != XmlPullParser.TEXT)
+                throw new IllegalArgumentException("Empty time");
+            result = ValueParser.parseTime(getTextCharacters(parser));
+        } catch (IllegalArgumentException e) {
+            throw new XmlPullParserException(e.getMessage(), parser, e);
+        }
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, NS, name);
+        return result;
+    }
+
     @NonNull
     private static KmlFile.Style readStyle(XmlPullParser parser) throws IOException, XmlPullParserException {
         parser.require(XmlPullParser.START_TAG, NS, KmlFile.TAG_STYLE);
@@ -494,6 +649,17 @@ public class KmlParser {
         return result;
     }
 
+    /**
+     * Returns text of current event without creating a string, text is valid until the
+     * next parser call.
+     */
+    @NonNull
+    private static CharSequence getTextCharacters(XmlPullParser parser) {
+        int[] holder = new int[2];
+        char[] text = parser.getTextCharacters(holder);
+        return CharBuffer.wrap(text, holder[0], holder[1]);
+    }
+
     private static float readFloat(XmlPullParser parser) throws IOException, XmlPullParserException {
         String text = "";
         if (parser.next() == XmlPullParser.TEXT) {
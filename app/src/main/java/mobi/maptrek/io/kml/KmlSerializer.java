@@ -17,16 +17,9 @@
 package mobi.maptrek.io.kml;
 
 import androidx.annotation.Nullable;
-import android.util.Xml;
 
-import org.xmlpull.v1.XmlSerializer;
-
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
 
 import mobi.maptrek.data.Route;
@@ -36,11 +29,13 @@ import mobi.maptrek.data.Waypoint;
 import mobi.maptrek.data.style.MarkerStyle;
 import mobi.maptrek.data.style.Style;
 import mobi.maptrek.data.style.TrackStyle;
+import mobi.maptrek.io.XmlWriter;
 import mobi.maptrek.util.ProgressListener;
 
 // TODO Localize strings
 public class KmlSerializer {
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+    // centimeter precision is well beyond any elevation source
+    private static final int ELEVATION_DECIMALS = 2;
 
     public static void serialize(OutputStream outputStream, FileDataSource source, @Nullable ProgressListener progressListener) throws IOException {
 
@@ -54,70 +49,66 @@ public class KmlSerializer {
             progressListener.onProgressStarted(size);
         }
 
-        XmlSerializer serializer = Xml.newSerializer();
-        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-        serializer.setOutput(writer);
-        serializer.startDocument("UTF-8", null);
-        serializer.setPrefix("", KmlFile.NS);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_KML);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_DOCUMENT);
+        XmlWriter writer = new XmlWriter(outputStream);
+        writer.startDocument();
+        writer.startTag(KmlFile.TAG_KML);
+        writer.attribute("xmlns", KmlFile.NS);
+        writer.startTag(KmlFile.TAG_DOCUMENT);
 
         if (source.tracks.size() > 0 || source.routes.size() > 0) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_FOLDER);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_NAME);
-            serializer.text("Points");
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_NAME);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_OPEN);
-            serializer.text("1");
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_OPEN);
+            writer.startTag(KmlFile.TAG_FOLDER);
+            writer.startTag(KmlFile.TAG_NAME);
+            writer.text("Points");
+            writer.endTag(KmlFile.TAG_NAME);
+            writer.startTag(KmlFile.TAG_OPEN);
+            writer.text("1");
+            writer.endTag(KmlFile.TAG_OPEN);
         }
         for (Waypoint waypoint : source.waypoints) {
-            progress = serializeWaypoint(serializer, waypoint, progressListener, progress);
+            progress = serializeWaypoint(writer, waypoint, progressListener, progress);
         }
         if (source.tracks.size() > 0 || source.routes.size() > 0) {
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_FOLDER);
+            writer.endTag(KmlFile.TAG_FOLDER);
         }
         for (Route route : source.routes) {
-            progress = serializeTrack(serializer, route.toTrack(), progressListener, progress);
+            progress = serializeTrack(writer, route.toTrack(), progressListener, progress);
         }
         for (Track track : source.tracks) {
-            progress = serializeTrack(serializer, track, progressListener, progress);
+            progress = serializeTrack(writer, track, progressListener, progress);
         }
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_DOCUMENT);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_KML);
-        serializer.endDocument();
-        serializer.flush();
+        writer.endTag(KmlFile.TAG_DOCUMENT);
+        writer.endTag(KmlFile.TAG_KML);
+        writer.endDocument();
         writer.close();
         if (progressListener != null)
             progressListener.onProgressFinished();
     }
 
-    private static int serializeWaypoint(XmlSerializer serializer, Waypoint waypoint, ProgressListener progressListener, int progress) throws IllegalArgumentException, IllegalStateException, IOException {
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_PLACEMARK);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_NAME);
-        serializer.text(waypoint.name);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_NAME);
+    private static int serializeWaypoint(XmlWriter writer, Waypoint waypoint, ProgressListener progressListener, int progress) throws IOException {
+        writer.startTag(KmlFile.TAG_PLACEMARK);
+        writer.startTag(KmlFile.TAG_NAME);
+        writer.text(waypoint.name);
+        writer.endTag(KmlFile.TAG_NAME);
         if (waypoint.description != null && !waypoint.description.trim().isEmpty()) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_DESCRIPTION);
-            serializer.cdsect(waypoint.description.trim());
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_DESCRIPTION);
+            writer.startTag(KmlFile.TAG_DESCRIPTION);
+            writer.cdsect(waypoint.description.trim());
+            writer.endTag(KmlFile.TAG_DESCRIPTION);
         }
         if (!waypoint.style.isDefault()) {
-            serializeStyle(serializer, waypoint.style);
+            serializeStyle(writer, waypoint.style);
         }
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_POINT);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_COORDINATES);
-        serializer.text(String.valueOf(waypoint.coordinates.getLongitude()));
-        serializer.text(",");
-        serializer.text(String.valueOf(waypoint.coordinates.getLatitude()));
+        writer.startTag(KmlFile.TAG_POINT);
+        writer.startTag(KmlFile.TAG_COORDINATES);
+        writer.textE6(waypoint.coordinates.longitudeE6);
+        writer.text(',');
+        writer.textE6(waypoint.coordinates.latitudeE6);
         if (waypoint.altitude != Integer.MIN_VALUE) {
-            serializer.text(",");
-            serializer.text(String.valueOf(waypoint.altitude));
+            writer.text(',');
+            writer.text(waypoint.altitude);
         }
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_COORDINATES);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_POINT);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_PLACEMARK);
+        writer.endTag(KmlFile.TAG_COORDINATES);
+        writer.endTag(KmlFile.TAG_POINT);
+        writer.endTag(KmlFile.TAG_PLACEMARK);
 
         progress++;
         if (progressListener != null)
@@ -125,113 +116,117 @@ public class KmlSerializer {
         return progress;
     }
 
-    private static int serializeTrack(XmlSerializer serializer, Track track, ProgressListener progressListener, int progress) throws IllegalArgumentException, IllegalStateException, IOException {
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_FOLDER);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_NAME);
-        serializer.text(track.name);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_NAME);
+    private static int serializeTrack(XmlWriter writer, Track track, ProgressListener progressListener, int progress) throws IOException {
+        writer.startTag(KmlFile.TAG_FOLDER);
+        writer.startTag(KmlFile.TAG_NAME);
+        writer.text(track.name);
+        writer.endTag(KmlFile.TAG_NAME);
         if (track.description != null) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_DESCRIPTION);
-            serializer.cdsect(track.description);
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_DESCRIPTION);
+            writer.startTag(KmlFile.TAG_DESCRIPTION);
+            writer.cdsect(track.description);
+            writer.endTag(KmlFile.TAG_DESCRIPTION);
         }
-        if (track.points.get(0).time > 0L) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_TIME_SPAN);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_BEGIN);
-            serializer.text(sdf.format(new Date(track.points.get(0).time)));
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_BEGIN);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_END);
-            serializer.text(sdf.format(new Date(track.getLastPoint().time)));
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_END);
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_TIME_SPAN);
+        synchronized (track.points) {
+            int size = track.points.size();
+            if (size > 0 && track.getTime(0) > 0L) {
+                writer.startTag(KmlFile.TAG_TIME_SPAN);
+                writer.startTag(KmlFile.TAG_BEGIN);
+                writer.textTime(track.getTime(0));
+                writer.endTag(KmlFile.TAG_BEGIN);
+                writer.startTag(KmlFile.TAG_END);
+                writer.textTime(track.getTime(size - 1));
+                writer.endTag(KmlFile.TAG_END);
+                writer.endTag(KmlFile.TAG_TIME_SPAN);
+            }
         }
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_OPEN);
-        serializer.text("0");
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_OPEN);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_STYLE);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_LIST_STYLE);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_LIST_ITEM_TYPE);
-        serializer.text("checkHideChildren");
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_LIST_ITEM_TYPE);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_LIST_STYLE);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_STYLE);
+        writer.startTag(KmlFile.TAG_OPEN);
+        writer.text("0");
+        writer.endTag(KmlFile.TAG_OPEN);
+        writer.startTag(KmlFile.TAG_STYLE);
+        writer.startTag(KmlFile.TAG_LIST_STYLE);
+        writer.startTag(KmlFile.TAG_LIST_ITEM_TYPE);
+        writer.text("checkHideChildren");
+        writer.endTag(KmlFile.TAG_LIST_ITEM_TYPE);
+        writer.endTag(KmlFile.TAG_LIST_STYLE);
+        writer.endTag(KmlFile.TAG_STYLE);
 
         int part = 1;
-        boolean first = true;
-        startTrackPart(serializer, part, track.name, track.style);
-        for (Track.TrackPoint point : track.points) {
-            if (!first) {
-                if (!point.continuous) {
-                    stopTrackPart(serializer);
-                    part++;
-                    startTrackPart(serializer, part, track.name, track.style);
-                } else {
-                    serializer.text(" ");
+        startTrackPart(writer, part, track.name, track.style);
+        synchronized (track.points) {
+            for (int i = 0, size = track.points.size(); i < size; i++) {
+                if (i > 0) {
+                    if (!track.isContinuous(i)) {
+                        stopTrackPart(writer);
+                        part++;
+                        startTrackPart(writer, part, track.name, track.style);
+                    } else {
+                        writer.text(' ');
+                    }
                 }
+                writer.textE6(track.getLongitudeE6(i));
+                writer.text(',');
+                writer.textE6(track.getLatitudeE6(i));
+                float elevation = track.getElevation(i);
+                if (!Float.isNaN(elevation)) {
+                    writer.text(',');
+                    writer.text(elevation, ELEVATION_DECIMALS);
+                }
+                progress++;
+                if (progressListener != null)
+                    progressListener.onProgressChanged(progress);
             }
-            serializer.text(String.valueOf(point.longitudeE6 / 1E6));
-            serializer.text(",");
-            serializer.text(String.valueOf(point.latitudeE6 / 1E6));
-            if (!Float.isNaN(point.elevation)) {
-                serializer.text(",");
-                serializer.text(String.valueOf(point.elevation));
-            }
-            first = false;
-            progress++;
-            if (progressListener != null)
-                progressListener.onProgressChanged(progress);
         }
-        stopTrackPart(serializer);
+        stopTrackPart(writer);
 
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_FOLDER);
+        writer.endTag(KmlFile.TAG_FOLDER);
         return progress;
     }
 
-    private static void startTrackPart(XmlSerializer serializer, int part, String name, Style<TrackStyle> style) throws IOException {
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_PLACEMARK);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_NAME);
+    private static void startTrackPart(XmlWriter writer, int part, String name, Style<TrackStyle> style) throws IOException {
+        writer.startTag(KmlFile.TAG_PLACEMARK);
+        writer.startTag(KmlFile.TAG_NAME);
         if (part > 1)
-            serializer.text(String.format(Locale.US, "%s #%d", name, part));
+            writer.text(String.format(Locale.US, "%s #%d", name, part));
         else
-            serializer.text(name);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_NAME);
+            writer.text(name);
+        writer.endTag(KmlFile.TAG_NAME);
         if (!style.isDefault()) {
-            serializeStyle(serializer, style);
+            serializeStyle(writer, style);
         }
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_LINE_STRING);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_TESSELLATE);
-        serializer.text("1");
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_TESSELLATE);
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_COORDINATES);
+        writer.startTag(KmlFile.TAG_LINE_STRING);
+        writer.startTag(KmlFile.TAG_TESSELLATE);
+        writer.text("1");
+        writer.endTag(KmlFile.TAG_TESSELLATE);
+        writer.startTag(KmlFile.TAG_COORDINATES);
     }
 
-    private static void stopTrackPart(XmlSerializer serializer) throws IOException {
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_COORDINATES);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_LINE_STRING);
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_PLACEMARK);
+    private static void stopTrackPart(XmlWriter writer) throws IOException {
+        writer.endTag(KmlFile.TAG_COORDINATES);
+        writer.endTag(KmlFile.TAG_LINE_STRING);
+        writer.endTag(KmlFile.TAG_PLACEMARK);
     }
 
-    private static void serializeStyle(XmlSerializer serializer, Style<?> style) throws IOException {
-        serializer.startTag(KmlFile.NS, KmlFile.TAG_STYLE);
+    private static void serializeStyle(XmlWriter writer, Style<?> style) throws IOException {
+        writer.startTag(KmlFile.TAG_STYLE);
         if (style.id != null && ! "".equals(style.id)) {
-            serializer.attribute("", KmlFile.ATTRIBUTE_ID, style.id);
+            writer.attribute(KmlFile.ATTRIBUTE_ID, style.id);
         }
         if (style instanceof MarkerStyle) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_ICON_STYLE);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_COLOR);
-            serializer.text(String.format("%08X", KmlFile.reverseColor(((MarkerStyle)style).color)));
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_COLOR);
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_ICON_STYLE);
+            writer.startTag(KmlFile.TAG_ICON_STYLE);
+            writer.startTag(KmlFile.TAG_COLOR);
+            writer.text(String.format("%08X", KmlFile.reverseColor(((MarkerStyle)style).color)));
+            writer.endTag(KmlFile.TAG_COLOR);
+            writer.endTag(KmlFile.TAG_ICON_STYLE);
         } else if (style instanceof TrackStyle) {
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_LINE_STYLE);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_COLOR);
-            serializer.text(String.format("%08X", KmlFile.reverseColor(((TrackStyle)style).color)));
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_COLOR);
-            serializer.startTag(KmlFile.NS, KmlFile.TAG_WIDTH);
-            serializer.text(String.valueOf(((TrackStyle)style).width));
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_WIDTH);
-            serializer.endTag(KmlFile.NS, KmlFile.TAG_LINE_STYLE);
+            writer.startTag(KmlFile.TAG_LINE_STYLE);
+            writer.startTag(KmlFile.TAG_COLOR);
+            writer.text(String.format("%08X", KmlFile.reverseColor(((TrackStyle)style).color)));
+            writer.endTag(KmlFile.TAG_COLOR);
+            writer.startTag(KmlFile.TAG_WIDTH);
+            writer.text(((TrackStyle)style).width, 2);
+            writer.endTag(KmlFile.TAG_WIDTH);
+            writer.endTag(KmlFile.TAG_LINE_STYLE);
         }
-        serializer.endTag(KmlFile.NS, KmlFile.TAG_STYLE);
+        writer.endTag(KmlFile.TAG_STYLE);
     }
 }
\ No newline at end of file
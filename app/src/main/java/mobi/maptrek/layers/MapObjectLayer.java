@@ -27,7 +27,6 @@ import org.oscim.backend.canvas.Color;
 import org.oscim.core.MercatorProjection;
 import org.oscim.core.Point;
 import org.oscim.core.PointF;
-import org.oscim.core.Tile;
 import org.oscim.layers.Layer;
 import org.oscim.map.Map;
 import org.oscim.renderer.BucketRenderer;
@@ -37,15 +36,14 @@ import org.oscim.renderer.bucket.SymbolItem;
 import org.oscim.renderer.bucket.TextBucket;
 import org.oscim.renderer.bucket.TextItem;
 import org.oscim.theme.styles.TextStyle;
-import org.oscim.utils.geom.GeometryUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 import mobi.maptrek.MapTrek;
 import mobi.maptrek.data.MapObject;
+import mobi.maptrek.layers.marker.MarkerIndex;
 
 //TODO Implement layer enabling/disabling
 
@@ -69,19 +67,14 @@ public class MapObjectLayer extends Layer {
         private int mExtents = 100;
         private boolean mUpdate;
 
-        private final ArrayList<MapObjectRenderer.InternalItem> mItems = new ArrayList<>();
+        private MarkerIndex<InternalItem> mIndex = new MarkerIndex<>();
         private final ArrayList<Bitmap> mUsedBitmaps = new ArrayList<>();
         private final ArrayList<Bitmap> mOldBitmaps = new ArrayList<>();
 
-        class InternalItem {
+        class InternalItem extends MarkerIndex.Item {
             private final Point mMapPoint = new Point();
 
             MapObject item;
-            boolean visible;
-            boolean changes;
-            float x, y;
-            double px, py;
-            float dy;
 
             InternalItem(MapObject item) {
                 this.item = item;
@@ -93,7 +86,7 @@ public class MapObjectLayer extends Layer {
             @NonNull
             @Override
             public String toString() {
-                return px + ":" + py + " " + x + ":" + y + " / " + dy + " " + visible;
+                return px + ":" + py + " " + x + ":" + y;
             }
         }
 
@@ -102,6 +95,7 @@ public class MapObjectLayer extends Layer {
             mTextBucket = new TextBucket();
             mSymbolBucket.next = mTextBucket;
             mScale = scale;
+            mUpdate = true;
         }
 
         public void update() {
@@ -113,22 +107,17 @@ public class MapObjectLayer extends Layer {
             if (!v.changed() && !mUpdate)
                 return;
 
-            mUpdate = false;
-
-            double mx = v.pos.x;
-            double my = v.pos.y;
-            double scale = Tile.SIZE * v.pos.scale;
-
-            //int changesInvisible = 0;
-            //int changedVisible = 0;
-            int numVisible = 0;
-
-            map().viewport().getMapExtents(mBox, mExtents);
-
-            long flip = (long) (Tile.SIZE * v.pos.scale) >> 1;
+            /* map objects are indexed only when they change */
+            boolean changed = mUpdate;
+            if (changed) {
+                mUpdate = false;
+                mIndex = new MarkerIndex<>();
+                Iterator<MapObject> mapObjects = MapTrek.getMapObjects();
+                while (mapObjects.hasNext())
+                    mIndex.add(new InternalItem(mapObjects.next()));
+            }
 
-            Iterator<MapObject> mapObjects = MapTrek.getMapObjects();
-            if (!mapObjects.hasNext()) {
+            if (mIndex.size() == 0) {
                 if (buckets.get() != null) {
                     buckets.clear();
                     compile();
@@ -136,51 +125,17 @@ public class MapObjectLayer extends Layer {
                 return;
             }
 
-            mItems.clear();
-            while (mapObjects.hasNext())
-                mItems.add(new InternalItem(mapObjects.next()));
-
-            double angle = Math.toRadians(v.pos.bearing);
-            float cos = (float) Math.cos(angle);
-            float sin = (float) Math.sin(angle);
-
-		    /* check visibility */
-            for (InternalItem it : mItems) {
-                it.changes = false;
-                it.x = (float) ((it.px - mx) * scale);
-                it.y = (float) ((it.py - my) * scale);
-
-                if (it.x > flip)
-                    it.x -= (flip << 1);
-                else if (it.x < -flip)
-                    it.x += (flip << 1);
-
-                if (!GeometryUtils.pointInPoly(it.x, it.y, mBox, 8, 0)) {
-                    if (it.visible) {
-                        it.changes = true;
-                        //changesInvisible++;
-                    }
-                    continue;
-                }
-
-                it.dy = sin * it.x + cos * it.y;
-
-                if (!it.visible) {
-                    it.visible = true;
-                    //changedVisible++;
-                }
-                numVisible++;
-            }
+            map().viewport().getMapExtents(mBox, mExtents);
 
-            //log.debug(numVisible + " " + changedVisible + " " + changesInvisible);
+            /* only visible items are projected, buckets are rebuilt when they change
+             * or zoom level changes to keep symbol positions precise */
+            if (!mIndex.update(v.pos, mBox) && !changed && v.pos.zoomLevel == mMapPosition.zoomLevel)
+                return;
 
-            /* only update when zoomlevel changed, new items are visible
-             * or more than 10 of the current items became invisible */
-            //if ((numVisible == 0) && (changedVisible == 0 && changesInvisible < 10))
-            //	return;
             buckets.clear();
 
-            if (numVisible == 0) {
+            List<InternalItem> visible = mIndex.getVisible();
+            if (visible.isEmpty()) {
                 compile();
                 return;
             }
@@ -192,18 +147,9 @@ public class MapObjectLayer extends Layer {
             mOldBitmaps.addAll(mUsedBitmaps);
             mUsedBitmaps.clear();
 
-            Collections.sort(mItems, zComparator);
             int color = 0;
             TextStyle textStyle = null;
-            for (InternalItem it : mItems) {
-                if (!it.visible)
-                    continue;
-
-                if (it.changes) {
-                    it.visible = false;
-                    continue;
-                }
-
+            for (InternalItem it : visible) {
                 Bitmap bitmap = it.item.getBitmapCopy();
                 if (bitmap == null)
                     continue;
@@ -236,23 +182,6 @@ public class MapObjectLayer extends Layer {
             mOldBitmaps.clear();
         }
 
-        final Comparator<InternalItem> zComparator = (a, b) -> {
-            if (a.visible && b.visible) {
-                if (a.dy > b.dy) {
-                    return -1;
-                }
-                if (a.dy < b.dy) {
-                    return 1;
-                }
-            } else if (a.visible) {
-                return -1;
-            } else if (b.visible) {
-                return 1;
-            }
-
-            return 0;
-        };
-
         /** @noinspection unused*/
         @Subscribe
         public void onMapObjectAdded(MapObject.AddedEvent event) {
@@ -16,9 +16,6 @@
 
 package mobi.maptrek.layers;
 
-import android.util.Pair;
-
-import org.oscim.core.Box;
 import org.oscim.core.MapPosition;
 import org.oscim.core.Point;
 import org.oscim.core.Tag;
@@ -35,13 +32,17 @@ import org.oscim.layers.tile.vector.VectorTileLayer;
 import org.oscim.layers.tile.vector.VectorTileLoader;
 import org.oscim.map.Map;
 import org.oscim.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import mobi.maptrek.MapTrek;
 import mobi.maptrek.maps.maptrek.MapTrekTileSource;
 
 public class MapTrekTileLayer extends VectorTileLayer implements GestureListener {
+    private static final Logger logger = LoggerFactory.getLogger(MapTrekTileLayer.class);
+
     public static final String POI_DATA = MapTrekTileLayer.class.getSimpleName();
 
     private static final int MAX_ZOOMLEVEL = 17;
@@ -53,12 +54,169 @@ public class MapTrekTileLayer extends VectorTileLayer implements GestureListener
     private OnAmenityGestureListener mOnAmenityGestureListener;
     private final double mFingerTipSize;
 
+    /**
+     * Amenity positions in mercator coordinates, stored in primitive arrays to avoid
+     * creating objects for every amenity. When all amenities are added they are indexed
+     * with a uniform grid: amenities are sorted by grid cell so that each cell is a range
+     * of array positions.
+     */
     public static class AmenityTileData extends MapTile.TileData {
-        public final ArrayList<Pair<Point, Long>> amenities = new ArrayList<>();
+        private static final int GRID_SIZE = 16;
+        private static final int MIN_INDEXED_SIZE = 32;
+
+        private double[] coordinates = new double[32];
+        private long[] ids = new long[16];
+        private int size = 0;
+
+        private double minX, minY, maxX, maxY;
+        private double cellWidth, cellHeight;
+        /* cell ranges in sorted arrays, null if amenities are not indexed */
+        private int[] cells;
+
+        public void add(double x, double y, long id) {
+            cells = null;
+            if (size == ids.length) {
+                coordinates = Arrays.copyOf(coordinates, size << 2);
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            coordinates[size << 1] = x;
+            coordinates[(size << 1) + 1] = y;
+            ids[size] = id;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public double getX(int i) {
+            return coordinates[i << 1];
+        }
+
+        public double getY(int i) {
+            return coordinates[(i << 1) + 1];
+        }
+
+        public long getId(int i) {
+            return ids[i];
+        }
+
+        /**
+         * Builds grid index, should be called after all amenities are added. Amenity indexes
+         * change.
+         */
+        public void buildIndex() {
+            if (size == 0)
+                return;
+            minX = maxX = coordinates[0];
+            minY = maxY = coordinates[1];
+            for (int i = 1; i < size; i++) {
+                double x = coordinates[i << 1];
+                double y = coordinates[(i << 1) + 1];
+                if (x < minX) minX = x;
+                if (x > maxX) maxX = x;
+                if (y < minY) minY = y;
+                if (y > maxY) maxY = y;
+            }
+            if (size < MIN_INDEXED_SIZE)
+                return;
+
+            // avoid zero sized cells if all amenities are on one line
+            cellWidth = Math.max(maxX - minX, Double.MIN_NORMAL) / GRID_SIZE;
+            cellHeight = Math.max(maxY - minY, Double.MIN_NORMAL) / GRID_SIZE;
+
+            // counting sort by cell
+            int[] cellIndexes = new int[size];
+            int[] starts = new int[GRID_SIZE * GRID_SIZE + 1];
+            for (int i = 0; i < size; i++) {
+                int cell = getCell(coordinates[i << 1], coordinates[(i << 1) + 1]);
+                cellIndexes[i] = cell;
+                starts[cell + 1]++;
+            }
+            for (int c = 0; c < GRID_SIZE * GRID_SIZE; c++)
+                starts[c + 1] += starts[c];
+            int[] positions = Arrays.copyOf(starts, GRID_SIZE * GRID_SIZE);
+            double[] sortedCoordinates = new double[coordinates.length];
+            long[] sortedIds = new long[ids.length];
+            for (int i = 0; i < size; i++) {
+                int j = positions[cellIndexes[i]]++;
+                sortedCoordinates[j << 1] = coordinates[i << 1];
+                sortedCoordinates[(j << 1) + 1] = coordinates[(i << 1) + 1];
+                sortedIds[j] = ids[i];
+            }
+            coordinates = sortedCoordinates;
+            ids = sortedIds;
+            cells = starts;
+        }
+
+        /**
+         * Finds amenity nearest to specified point.
+         *
+         * @param maxDistanceSq squared distance limit, amenities at that or greater distance are ignored
+         * @return amenity index or -1 if there is no amenity within distance limit
+         */
+        public int findNearest(double x, double y, double maxDistanceSq) {
+            if (size == 0)
+                return -1;
+            double radius = Math.sqrt(maxDistanceSq);
+            if (x < minX - radius || x > maxX + radius || y < minY - radius || y > maxY + radius)
+                return -1;
+            if (cells == null)
+                return findNearest(x, y, maxDistanceSq, 0, size);
+
+            int cx0 = getColumn(x - radius), cx1 = getColumn(x + radius);
+            int cy0 = getRow(y - radius), cy1 = getRow(y + radius);
+            int nearest = -1;
+            for (int row = cy0; row <= cy1; row++) {
+                int start = cells[row * GRID_SIZE + cx0];
+                int end = cells[row * GRID_SIZE + cx1 + 1];
+                int i = findNearest(x, y, maxDistanceSq, start, end);
+                if (i >= 0) {
+                    nearest = i;
+                    double dx = coordinates[i << 1] - x;
+                    double dy = coordinates[(i << 1) + 1] - y;
+                    maxDistanceSq = dx * dx + dy * dy;
+                }
+            }
+            return nearest;
+        }
+
+        private int findNearest(double x, double y, double maxDistanceSq, int start, int end) {
+            int nearest = -1;
+            for (int i = start; i < end; i++) {
+                double dx = coordinates[i << 1] - x;
+                double dy = coordinates[(i << 1) + 1] - y;
+                double d = dx * dx + dy * dy;
+                if (d < maxDistanceSq) {
+                    maxDistanceSq = d;
+                    nearest = i;
+                }
+            }
+            return nearest;
+        }
+
+        private int getCell(double x, double y) {
+            return getRow(y) * GRID_SIZE + getColumn(x);
+        }
+
+        private int getColumn(double x) {
+            int column = (int) ((x - minX) / cellWidth);
+            return column < 0 ? 0 : column >= GRID_SIZE ? GRID_SIZE - 1 : column;
+        }
+
+        private int getRow(double y) {
+            int row = (int) ((y - minY) / cellHeight);
+            return row < 0 ? 0 : row >= GRID_SIZE ? GRID_SIZE - 1 : row;
+        }
 
         @Override
         protected void dispose() {
-            amenities.clear();
+            size = 0;
+            cells = null;
         }
     }
 
@@ -122,9 +280,17 @@ public class MapTrekTileLayer extends VectorTileLayer implements GestureListener
 
     @Override
     public void onMapEvent(Event ev, MapPosition pos) {
+        boolean prefetching = mTileManager.isPrefetching();
         super.onMapEvent(ev, pos);
         mScale = pos.scale;
 
+        if (prefetching && !mTileManager.isPrefetching() && mTileSource instanceof MapTrekTileSource) {
+            MapTrekTileSource tileSource = (MapTrekTileSource) mTileSource;
+            logger.debug("Prefetched {} tiles, {} hits, decoded tile cache hits: {}, misses: {}",
+                    mTileManager.getPrefetchCount(), mTileManager.getPrefetchHitCount(),
+                    tileSource.getCacheHitCount(), tileSource.getCacheMissCount());
+        }
+
         mTileSet.releaseTiles();
 
         if (ev == Map.CLEAR_EVENT) {
@@ -139,10 +305,23 @@ public class MapTrekTileLayer extends VectorTileLayer implements GestureListener
         if (!(g instanceof Gesture.Tap))
             return false;
 
-        Point point = new Point();
-        mMap.viewport().fromScreenPoint(e.getX(), e.getY(), point);
+        long nearest = findAmenity(e.getX(), e.getY());
 
-        Box box = mMap.viewport().getBBox(null, 128);
+        if (nearest > 0L) {
+            return mOnAmenityGestureListener != null &&
+                    mOnAmenityGestureListener.onAmenitySingleTapUp(nearest);
+        }
+        return false;
+    }
+
+    /**
+     * Finds amenity nearest to screen point within finger tip size among visible tiles.
+     *
+     * @return amenity id or 0 if there is no amenity nearby
+     */
+    public long findAmenity(float screenX, float screenY) {
+        Point point = new Point();
+        mMap.viewport().fromScreenPoint(screenX, screenY, point);
 
         double cs = mScale * Tile.SIZE;
         double distance = mFingerTipSize * mFingerTipSize / cs / cs;
@@ -152,36 +331,19 @@ public class MapTrekTileLayer extends VectorTileLayer implements GestureListener
         for (int i = 0; i < mTileSet.cnt; i++) {
             MapTile t = mTileSet.tiles[i];
             AmenityTileData td = (AmenityTileData) t.getData(POI_DATA);
-            if (td == null || td.amenities.isEmpty())
+            if (td == null || td.isEmpty())
                 continue;
 
-            double dist = distance;
-
-            int size = td.amenities.size();
-            for (int j = 0; j < size; j++) {
-                Pair<Point, Long> amenity = td.amenities.get(j);
-
-                if (!box.contains(amenity.first))
-                    continue;
-
-                double dx = amenity.first.x - point.x;
-                double dy = amenity.first.y - point.y;
-
-                double d = dx * dx + dy * dy;
-                if (d > dist)
-                    continue;
-
-                dist = d;
-                nearest = amenity.second;
-            }
+            int j = td.findNearest(point.x, point.y, distance);
+            if (j < 0)
+                continue;
 
+            double dx = td.getX(j) - point.x;
+            double dy = td.getY(j) - point.y;
+            distance = dx * dx + dy * dy;
+            nearest = td.getId(j);
         }
-
-        if (nearest > 0L) {
-            return mOnAmenityGestureListener != null &&
-                    mOnAmenityGestureListener.onAmenitySingleTapUp(nearest);
-        }
-        return false;
+        return nearest;
     }
 
     public interface OnAmenityGestureListener {
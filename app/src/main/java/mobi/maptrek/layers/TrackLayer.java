@@ -31,6 +31,10 @@ import org.oscim.theme.styles.LineStyle;
 import org.oscim.utils.FastMath;
 import org.oscim.utils.async.SimpleWorker;
 import org.oscim.utils.geom.LineClipper;
+import org.oscim.utils.geom.SimplifyDP;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import mobi.maptrek.data.Track;
 
@@ -126,8 +130,160 @@ public class TrackLayer extends Layer {
         final MapPosition position = new MapPosition();
     }
 
+    /**
+     * Track points converted to the map projection. Points are split into chunks at track
+     * breaks and every CHUNK_SIZE points, each chunk has a bounding box and simplified variants
+     * for low zoom levels. New points are projected incrementally, chunk is simplified when it
+     * is complete.
+     */
+    static final class ProjectedTrack {
+        static final int CHUNK_SIZE = 512;
+        // zoom levels for which chunks are simplified, higher levels use all points
+        private static final int[] LOD_ZOOMS = {5, 8, 11, 14};
+        // square of simplification tolerance in pixels
+        private static final float LOD_TOLERANCE = 1f;
+
+        double[] points = new double[128];
+        int size;
+        final ArrayList<Chunk> chunks = new ArrayList<>();
+
+        private int mGeneration;
+        private final SimplifyDP mSimplifier = new SimplifyDP();
+        private float[] mBuffer = new float[CHUNK_SIZE * 2];
+
+        static final class Chunk {
+            // first and last point index, adjacent chunks of continuous line share a point
+            final int start;
+            int end;
+            double xmin, ymin, xmax, ymax;
+            // simplified points for each LOD zoom, null if all points should be used
+            double[][] levels;
+
+            Chunk(int start, double x, double y) {
+                this.start = end = start;
+                xmin = xmax = x;
+                ymin = ymax = y;
+            }
+
+            void extend(int index, double x, double y) {
+                end = index;
+                if (x < xmin)
+                    xmin = x;
+                if (x > xmax)
+                    xmax = x;
+                if (y < ymin)
+                    ymin = y;
+                if (y > ymax)
+                    ymax = y;
+            }
+
+            /**
+             * Checks if chunk intersects given area, area can cross date line.
+             */
+            boolean intersects(double x1, double y1, double x2, double y2) {
+                if (ymax < y1 || ymin > y2)
+                    return false;
+                for (int shift = -1; shift <= 1; shift++) {
+                    if (xmax + shift >= x1 && xmin + shift <= x2)
+                        return true;
+                }
+                return false;
+            }
+
+            double[] getLevel(int level) {
+                return levels == null || level < 0 ? null : levels[level];
+            }
+        }
+
+        /**
+         * Returns simplification level suitable for zoom level or -1 if all points should be used.
+         */
+        static int getLevel(int zoomLevel) {
+            for (int i = 0; i < LOD_ZOOMS.length; i++) {
+                if (zoomLevel <= LOD_ZOOMS[i])
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Projects points added to track since last call, projects all points if track was
+         * cleared or replaced. Should be called while synchronized on track points.
+         *
+         * @return true if points have changed
+         */
+        boolean update(Track track) {
+            int count = track.points.size();
+            int generation = track.getGeneration();
+            if (generation != mGeneration || count < size) {
+                mGeneration = generation;
+                size = 0;
+                chunks.clear();
+            }
+            if (count == size)
+                return false;
+
+            if (count * 2 > points.length)
+                points = Arrays.copyOf(points, Math.max(count * 2, points.length * 2));
+
+            for (int i = size; i < count; i++) {
+                MercatorProjection.project(track.getLatitudeE6(i) / 1E6, track.getLongitudeE6(i) / 1E6, points, i);
+                append(i, i > 0 && !track.isContinuous(i));
+            }
+            size = count;
+            return true;
+        }
+
+        private void append(int index, boolean tear) {
+            double x = points[index << 1];
+            double y = points[(index << 1) + 1];
+            Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || tear) {
+                if (chunk != null)
+                    simplify(chunk);
+                chunks.add(new Chunk(index, x, y));
+            } else if (chunk.end - chunk.start + 1 == CHUNK_SIZE) {
+                simplify(chunk);
+                chunk = new Chunk(chunk.end, points[chunk.end << 1], points[(chunk.end << 1) + 1]);
+                chunk.extend(index, x, y);
+                chunks.add(chunk);
+            } else {
+                chunk.extend(index, x, y);
+            }
+        }
+
+        /**
+         * Creates simplified variants of the complete chunk. Points are simplified in pixels
+         * relative to chunk corner to retain float precision.
+         */
+        private void simplify(Chunk chunk) {
+            int length = (chunk.end - chunk.start + 1) * 2;
+            if (length < 6)
+                return;
+            if (mBuffer.length < length)
+                mBuffer = new float[length];
+            chunk.levels = new double[LOD_ZOOMS.length][];
+            for (int level = 0; level < LOD_ZOOMS.length; level++) {
+                double scale = Tile.SIZE << LOD_ZOOMS[level];
+                for (int i = 0, j = chunk.start << 1; i < length; i += 2, j += 2) {
+                    mBuffer[i] = (float) ((points[j] - chunk.xmin) * scale);
+                    mBuffer[i + 1] = (float) ((points[j + 1] - chunk.ymin) * scale);
+                }
+                int n = mSimplifier.simplify(mBuffer, 0, length, 0, LOD_TOLERANCE);
+                // not worth storing
+                if (n > length * 3 / 4)
+                    break;
+                double[] simplified = new double[n];
+                for (int i = 0; i < n; i += 2) {
+                    simplified[i] = chunk.xmin + mBuffer[i] / scale;
+                    simplified[i + 1] = chunk.ymin + mBuffer[i + 1] / scale;
+                }
+                chunk.levels[level] = simplified;
+            }
+        }
+    }
+
     private final class Worker extends SimpleWorker<Task> {
-        private static final int GROW_INDICES = 32;
         // limit coords to maximum resolution of GL.Short
         private final int MAX_CLIP = (int) (Short.MAX_VALUE / MapRenderer.COORD_SCALE);
 
@@ -139,53 +295,31 @@ public class TrackLayer extends Layer {
 
         private static final int MIN_DIST = 3;
 
-        // pre-projected points
-        private double[] mPreprojected = new double[2];
+        private final ProjectedTrack mProjected = new ProjectedTrack();
 
         // projected points
         private float[] mPPoints;
         private final LineClipper mClipper;
-        private int mNumPoints;
 
-        // tear index
-        private int[] index = new int[1];
+        // current line state
+        private int mLength;
+        private float mPrevX;
+        private float mPrevY;
+        private int mFlip;
+        private float[] mSegment;
 
         @Override
         public boolean doWork(Task task) {
 
-            int size = mNumPoints;
-
             if (mUpdatePoints) {
-                synchronized (mTrack) {
+                synchronized (mTrack.points) {
                     mUpdatePoints = false;
-                    int indexPos = 0;
-                    index[indexPos] = -1;
-                    mNumPoints = size = mTrack.points.size();
-
-                    double[] points = mPreprojected;
-
-                    if (size * 2 >= points.length) {
-                        points = mPreprojected = new double[size * 2];
-                        mPPoints = new float[size * 2];
-                    }
-
-                    for (int i = 0; i < size; i++) {
-                        Track.TrackPoint point = mTrack.points.get(i);
-                        MercatorProjection.project(point, points, i);
-
-                        if (!point.continuous && i > 0) {
-                            if (indexPos + 1 >= index.length)
-                                ensureIndexSize(indexPos + 1, true);
-                            index[indexPos] = i;
-                            indexPos++;
-                            if (index.length > indexPos + 1)
-                                index[indexPos] = -1;
-                        }
-                    }
+                    if (mProjected.update(mTrack) && mPPoints.length < mProjected.size * 2)
+                        mPPoints = new float[mProjected.points.length];
                 }
             }
 
-            if (size == 0 || !isEnabled()) {
+            if (mProjected.size == 0 || !isEnabled()) {
                 if (task.buckets.get() != null) {
                     task.buckets.clear();
                     mMap.render();
@@ -212,99 +346,59 @@ public class TrackLayer extends Layer {
             double scale = Tile.SIZE * task.position.scale;
 
             // flip around dateline
-            int flip = 0;
             int maxx = Tile.SIZE << (zoomlevel - 1);
 
-            int x = (int) ((mPreprojected[0] - mx) * scale);
-            int y = (int) ((mPreprojected[1] - my) * scale);
-
-            if (x > maxx) {
-                x -= (maxx * 2);
-                flip = -1;
-            } else if (x < -maxx) {
-                x += (maxx * 2);
-                flip = 1;
-            }
-
-            mClipper.clipStart(x, y);
-
-            float[] projected = mPPoints;
-            int i = addPoint(projected, 0, x, y);
-
-            float prevX = x;
-            float prevY = y;
-
-            float[] segment = null;
+            // skip chunks outside of clip area
+            double extent = MAX_CLIP / scale;
+            double x1 = mx - extent;
+            double y1 = my - extent;
+            double x2 = mx + extent;
+            double y2 = my + extent;
 
-            int indexPos = 0;
+            int level = ProjectedTrack.getLevel(zoomlevel);
 
-            for (int j = 2; j < size * 2; j += 2) {
-                //noinspection PointlessArithmeticExpression
-                x = (int) ((mPreprojected[j + 0] - mx) * scale);
-                y = (int) ((mPreprojected[j + 1] - my) * scale);
+            mLength = 0;
+            ProjectedTrack.Chunk previous = null;
 
-                int flipDirection = 0;
-                if (x > maxx) {
-                    x -= maxx * 2;
-                    flipDirection = -1;
-                } else if (x < -maxx) {
-                    x += maxx * 2;
-                    flipDirection = 1;
-                }
-
-                if (index[indexPos] == (j >> 1)) {
-                    if (i > 2)
-                        ll.addLine(projected, i, false);
-
-                    mClipper.clipStart(x, y);
-                    i = addPoint(projected, 0, x, y);
-                    indexPos++;
+            for (ProjectedTrack.Chunk chunk : mProjected.chunks) {
+                if (!chunk.intersects(x1, y1, x2, y2))
                     continue;
-                }
-
-                if (flip != flipDirection) {
-                    flip = flipDirection;
-                    if (i > 2)
-                        ll.addLine(projected, i, false);
 
-                    mClipper.clipStart(x, y);
-                    i = addPoint(projected, 0, x, y);
-                    continue;
+                double[] points = chunk.getLevel(level);
+                int from = 0;
+                int to;
+                if (points != null) {
+                    to = points.length;
+                } else {
+                    points = mProjected.points;
+                    from = chunk.start << 1;
+                    to = (chunk.end + 1) << 1;
                 }
-
-                int clip = mClipper.clipNext(x, y);
-                if (clip != LineClipper.INSIDE) {
-                    if (i > 2)
-                        ll.addLine(projected, i, false);
-
-                    if (clip == LineClipper.INTERSECTION) {
-                        /* add line segment */
-                        segment = mClipper.getLine(segment, 0);
-                        ll.addLine(segment, 4, false);
-                        // the prev point is the real point not the clipped point
-                        //prevX = mClipper.outX2;
-                        //prevY = mClipper.outY2;
-                        prevX = x;
-                        prevY = y;
-                    }
-                    i = 0;
-                    // if the end point is inside, add it
-                    if (mClipper.getPrevOutcode() == LineClipper.INSIDE) {
-                        projected[i++] = prevX;
-                        projected[i++] = prevY;
+                // continue line if previous chunk has been drawn
+                boolean continues = previous != null && previous.end == chunk.start;
+                previous = chunk;
+
+                for (int j = from; j < to; j += 2) {
+                    int x = (int) ((points[j] - mx) * scale);
+                    int y = (int) ((points[j + 1] - my) * scale);
+
+                    int flipDirection = 0;
+                    if (x > maxx) {
+                        x -= maxx * 2;
+                        flipDirection = -1;
+                    } else if (x < -maxx) {
+                        x += maxx * 2;
+                        flipDirection = 1;
                     }
-                    continue;
-                }
 
-                float dx = x - prevX;
-                float dy = y - prevY;
-                if ((i == 0) || FastMath.absMaxCmp(dx, dy, MIN_DIST)) {
-                    projected[i++] = prevX = x;
-                    projected[i++] = prevY = y;
+                    if (j == from && !continues)
+                        startLine(ll, x, y, flipDirection);
+                    else if (j > from)
+                        nextPoint(ll, x, y, flipDirection);
                 }
             }
-            if (i > 2)
-                ll.addLine(projected, i, false);
+            if (mLength > 2)
+                ll.addLine(mPPoints, mLength, false);
 
             // trigger redraw to let renderer fetch the result.
             mMap.render();
@@ -317,30 +411,57 @@ public class TrackLayer extends Layer {
             task.buckets.clear();
         }
 
-        private int addPoint(float[] points, int i, int x, int y) {
-            points[i++] = x;
-            points[i++] = y;
-            return i;
+        private void startLine(LineBucket ll, int x, int y, int flip) {
+            if (mLength > 2)
+                ll.addLine(mPPoints, mLength, false);
+
+            mClipper.clipStart(x, y);
+            mLength = addPoint(mPPoints, 0, x, y);
+            mPrevX = x;
+            mPrevY = y;
+            mFlip = flip;
         }
 
-        /**
-         * Ensure index size.
-         *
-         * @param size the size
-         * @param copy the copy
-         * @return the short[] array holding current index
-         */
-        int[] ensureIndexSize(int size, boolean copy) {
-            if (size < index.length)
-                return index;
+        private void nextPoint(LineBucket ll, int x, int y, int flip) {
+            if (flip != mFlip) {
+                startLine(ll, x, y, flip);
+                return;
+            }
 
-            int[] newIndex = new int[size + GROW_INDICES];
-            if (copy)
-                System.arraycopy(index, 0, newIndex, 0, index.length);
+            int clip = mClipper.clipNext(x, y);
+            if (clip != LineClipper.INSIDE) {
+                if (mLength > 2)
+                    ll.addLine(mPPoints, mLength, false);
+
+                if (clip == LineClipper.INTERSECTION) {
+                    /* add line segment */
+                    mSegment = mClipper.getLine(mSegment, 0);
+                    ll.addLine(mSegment, 4, false);
+                    // the prev point is the real point not the clipped point
+                    mPrevX = x;
+                    mPrevY = y;
+                }
+                mLength = 0;
+                // if the end point is inside, add it
+                if (mClipper.getPrevOutcode() == LineClipper.INSIDE) {
+                    mPPoints[mLength++] = mPrevX;
+                    mPPoints[mLength++] = mPrevY;
+                }
+                return;
+            }
 
-            index = newIndex;
+            float dx = x - mPrevX;
+            float dy = y - mPrevY;
+            if ((mLength == 0) || FastMath.absMaxCmp(dx, dy, MIN_DIST)) {
+                mPPoints[mLength++] = mPrevX = x;
+                mPPoints[mLength++] = mPrevY = y;
+            }
+        }
 
-            return index;
+        private int addPoint(float[] points, int i, int x, int y) {
+            points[i++] = x;
+            points[i++] = y;
+            return i;
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.layers.marker;
+
+import org.oscim.core.Box;
+import org.oscim.core.MapPosition;
+import org.oscim.core.Tile;
+import org.oscim.utils.QuadTree;
+import org.oscim.utils.geom.GeometryUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spatial index of point items used by marker renderers. Only items inside viewport are
+ * projected to screen, index tracks visible items and tells if they have changed so that
+ * renderer can keep its buckets while map is moved.
+ */
+public class MarkerIndex<T extends MarkerIndex.Item> {
+    private static final int EXTENTS = 1 << 30;
+    private static final double WORLD = 2d * EXTENTS;
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * Indexed item, holds projected map position and screen position relative to map center.
+     */
+    public static class Item {
+        public double px, py;
+        public float x, y;
+        float dy;
+        boolean visible;
+    }
+
+    private final QuadTree<T> mTree = new QuadTree<>(EXTENTS, MAX_DEPTH);
+    private final Box mSearchBox = new Box();
+    private final ArrayList<T> mCandidates = new ArrayList<>();
+    private ArrayList<T> mVisible = new ArrayList<>();
+    private ArrayList<T> mPrevious = new ArrayList<>();
+    private double mBearing = Double.NaN;
+
+    /**
+     * Adds item, its projected position should be set.
+     */
+    public void add(T item) {
+        int x = (int) ((item.px - 0.5) * WORLD);
+        int y = (int) ((item.py - 0.5) * WORLD);
+        mTree.insert(new Box(x, y, x, y), item);
+    }
+
+    public int size() {
+        return mTree.size();
+    }
+
+    /**
+     * Finds items inside viewport and calculates their screen positions.
+     *
+     * @param pos current map position
+     * @param box viewport polygon as returned by Viewport.getMapExtents()
+     * @return true if set of visible items or their order has changed since last call
+     */
+    public boolean update(MapPosition pos, float[] box) {
+        double scale = Tile.SIZE * pos.scale;
+        float xmin = box[0], xmax = box[0], ymin = box[1], ymax = box[1];
+        for (int i = 2; i < 8; i += 2) {
+            xmin = Math.min(xmin, box[i]);
+            xmax = Math.max(xmax, box[i]);
+            ymin = Math.min(ymin, box[i + 1]);
+            ymax = Math.max(ymax, box[i + 1]);
+        }
+        // extend by a pixel as screen positions are rounded to float
+        double x1 = pos.x + (xmin - 1) / scale;
+        double x2 = pos.x + (xmax + 1) / scale;
+        double y1 = pos.y + (ymin - 1) / scale;
+        double y2 = pos.y + (ymax + 1) / scale;
+
+        mCandidates.clear();
+        if (x2 - x1 >= 1.0) {
+            search(0.0, y1, 1.0, y2);
+        } else {
+            search(x1, y1, x2, y2);
+            // view crosses date line
+            if (x1 < 0.0)
+                search(x1 + 1.0, y1, x2 + 1.0, y2);
+            if (x2 > 1.0)
+                search(x1 - 1.0, y1, x2 - 1.0, y2);
+        }
+
+        long flip = (long) scale >> 1;
+        double angle = Math.toRadians(pos.bearing);
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+
+        ArrayList<T> visible = mPrevious;
+        visible.clear();
+        int kept = 0;
+        for (T it : mCandidates) {
+            it.x = (float) ((it.px - pos.x) * scale);
+            it.y = (float) ((it.py - pos.y) * scale);
+
+            if (it.x > flip)
+                it.x -= (flip << 1);
+            else if (it.x < -flip)
+                it.x += (flip << 1);
+
+            if (!GeometryUtils.pointInPoly(it.x, it.y, box, 8, 0))
+                continue;
+
+            it.dy = sin * it.x + cos * it.y;
+            visible.add(it);
+            if (it.visible)
+                kept++;
+        }
+
+        boolean changed = kept != mVisible.size() || visible.size() != mVisible.size();
+        mPrevious = mVisible;
+        mVisible = visible;
+        if (changed) {
+            for (T it : mPrevious)
+                it.visible = false;
+            for (T it : mVisible)
+                it.visible = true;
+        }
+        // order depends only on bearing, it is kept when map is moved or zoomed
+        if (changed || pos.bearing != mBearing) {
+            Collections.sort(mVisible, zComparator);
+            mBearing = pos.bearing;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns visible items sorted by distance from viewer.
+     */
+    public List<T> getVisible() {
+        return mVisible;
+    }
+
+    private void search(double x1, double y1, double x2, double y2) {
+        x1 = Math.max(x1, 0.0);
+        x2 = Math.min(x2, 1.0);
+        if (x1 > x2)
+            return;
+        // extend box to include items truncated to box border
+        mSearchBox.xmin = (x1 - 0.5) * WORLD - 1;
+        mSearchBox.ymin = (y1 - 0.5) * WORLD - 1;
+        mSearchBox.xmax = (x2 - 0.5) * WORLD + 1;
+        mSearchBox.ymax = (y2 - 0.5) * WORLD + 1;
+        mTree.search(mSearchBox, mCandidates);
+    }
+
+    private final Comparator<Item> zComparator = (a, b) -> Float.compare(b.dy, a.dy);
+}
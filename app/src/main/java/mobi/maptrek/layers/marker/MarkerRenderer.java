@@ -28,10 +28,8 @@ import org.oscim.renderer.GLViewport;
 import org.oscim.renderer.MapRenderer;
 import org.oscim.renderer.bucket.SymbolBucket;
 import org.oscim.renderer.bucket.SymbolItem;
-import org.oscim.utils.TimSort;
-import org.oscim.utils.geom.GeometryUtils;
 
-import java.util.Comparator;
+import java.util.List;
 
 import static org.oscim.backend.GLAdapter.gl;
 
@@ -65,19 +63,14 @@ class MarkerRenderer extends BucketRenderer {
      */
     private boolean mUpdate;
 
-    private InternalItem[] mItems;
+    private MarkerIndex<InternalItem> mIndex;
 
-    private static class InternalItem {
+    private static class InternalItem extends MarkerIndex.Item {
         MarkerItem item;
-        boolean visible;
-        boolean changes;
-        float x, y;
-        double px, py;
-        float dy;
 
         @Override
         public String toString() {
-            return "\n" + x + ":" + y + " / " + dy + " " + visible;
+            return "\n" + x + ":" + y;
         }
     }
 
@@ -98,21 +91,9 @@ class MarkerRenderer extends BucketRenderer {
         if (!v.changed() && !mUpdate)
             return;
 
-        mUpdate = false;
-
-        double mx = v.pos.x;
-        double my = v.pos.y;
-        double scale = Tile.SIZE * v.pos.scale;
-
-        //int changesInvisible = 0;
-        //int changedVisible = 0;
-        int numVisible = 0;
-
-        mMarkerLayer.map().viewport().getMapExtents(mBox, mExtents);
-
-        long flip = (long) (Tile.SIZE * v.pos.scale) >> 1;
-
-        if (mItems == null || !mMarkerLayer.isEnabled()) {
+        if (mIndex == null || !mMarkerLayer.isEnabled()) {
+            mUpdate = false;
+            mIndicatorPosition.x = Double.MAX_VALUE;
             if (buckets.get() != null) {
                 buckets.clear();
                 compile();
@@ -120,54 +101,20 @@ class MarkerRenderer extends BucketRenderer {
             return;
         }
 
-        double angle = Math.toRadians(v.pos.bearing);
-        float cos = (float) Math.cos(angle);
-        float sin = (float) Math.sin(angle);
-
-        mIndicatorPosition.x = Double.MAX_VALUE;
-
-		/* check visibility */
-        for (InternalItem it : mItems) {
-            it.changes = false;
-            it.x = (float) ((it.px - mx) * scale);
-            it.y = (float) ((it.py - my) * scale);
-
-            if (it.x > flip)
-                it.x -= (flip << 1);
-            else if (it.x < -flip)
-                it.x += (flip << 1);
-
-            if (!GeometryUtils.pointInPoly(it.x, it.y, mBox, 8, 0)) {
-                if (it.visible) {
-                    it.changes = true;
-                    //changesInvisible++;
-                }
-                continue;
-            }
-
-            it.dy = sin * it.x + cos * it.y;
-
-            if (!it.visible) {
-                it.visible = true;
-                //changedVisible++;
-            }
-            numVisible++;
+        mMarkerLayer.map().viewport().getMapExtents(mBox, mExtents);
 
-            if (it.item == mMarkerLayer.mFocusedItem) {
-                mIndicatorPosition.x = it.px;
-                mIndicatorPosition.y = it.py;
-            }
-        }
+        /* only visible items are projected, buckets are rebuilt when they change
+         * or zoom level changes to keep symbol positions precise */
+        if (!mIndex.update(v.pos, mBox) && !mUpdate && v.pos.zoomLevel == mMapPosition.zoomLevel)
+            return;
 
-        //log.debug(numVisible + " " + changedVisible + " " + changesInvisible);
+        mUpdate = false;
 
-		/* only update when zoomlevel changed, new items are visible
-         * or more than 10 of the current items became invisible */
-        //if ((numVisible == 0) && (changedVisible == 0 && changesInvisible < 10))
-        //	return;
         buckets.clear();
+        mIndicatorPosition.x = Double.MAX_VALUE;
 
-        if (numVisible == 0) {
+        List<InternalItem> visible = mIndex.getVisible();
+        if (visible.isEmpty()) {
             compile();
             return;
         }
@@ -175,15 +122,10 @@ class MarkerRenderer extends BucketRenderer {
         mMapPosition.copy(v.pos);
         mMapPosition.bearing = -mMapPosition.bearing;
 
-        sort(mItems, 0, mItems.length);
-        //log.debug(Arrays.toString(mItems));
-        for (InternalItem it : mItems) {
-            if (!it.visible)
-                continue;
-
-            if (it.changes) {
-                it.visible = false;
-                continue;
+        for (InternalItem it : visible) {
+            if (it.item == mMarkerLayer.mFocusedItem) {
+                mIndicatorPosition.x = it.px;
+                mIndicatorPosition.y = it.py;
             }
 
             MarkerSymbol marker = it.item.getMarker();
@@ -234,22 +176,21 @@ class MarkerRenderer extends BucketRenderer {
     }
 
     void populate(int size) {
-
-        InternalItem[] tmp = new InternalItem[size];
+        MarkerIndex<InternalItem> index = new MarkerIndex<>();
 
         for (int i = 0; i < size; i++) {
             InternalItem it = new InternalItem();
-            tmp[i] = it;
             it.item = mMarkerLayer.createItem(i);
 
 			/* pre-project polygonPoints */
             MercatorProjection.project(it.item.getPoint(), mMapPoint);
             it.px = mMapPoint.x;
             it.py = mMapPoint.y;
+            index.add(it);
         }
         synchronized (this) {
             mUpdate = true;
-            mItems = tmp;
+            mIndex = size > 0 ? index : null;
         }
     }
 
@@ -257,37 +198,6 @@ class MarkerRenderer extends BucketRenderer {
         mUpdate = true;
     }
 
-    private static TimSort<InternalItem> ZSORT = new TimSort<>();
-
-    private static void sort(InternalItem[] a, int lo, int hi) {
-        int nRemaining = hi - lo;
-        if (nRemaining < 2) {
-            return;
-        }
-
-        ZSORT.doSort(a, zComparator, lo, hi);
-    }
-
-    private final static Comparator<InternalItem> zComparator = new Comparator<InternalItem>() {
-        @Override
-        public int compare(InternalItem a, InternalItem b) {
-            if (a.visible && b.visible) {
-                if (a.dy > b.dy) {
-                    return -1;
-                }
-                if (a.dy < b.dy) {
-                    return 1;
-                }
-            } else if (a.visible) {
-                return -1;
-            } else if (b.visible) {
-                return 1;
-            }
-
-            return 0;
-        }
-    };
-
     private boolean init() {
         int shader = GLShader.createProgram(vShaderStr, fShaderStr);
         if (shader == 0)
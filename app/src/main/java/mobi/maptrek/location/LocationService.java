@@ -21,7 +21,6 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -29,7 +28,7 @@ import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
 import android.database.Cursor;
-import android.database.SQLException;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.graphics.drawable.Icon;
@@ -92,6 +91,7 @@ public class LocationService extends BaseLocationService implements LocationList
     // Fake locations used for test purposes
     private static final boolean enableMockLocations = false;
     private final Handler mMockCallback = new Handler(Looper.getMainLooper());
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     private int mMockLocationTicker = 0;
 
     // Real locations
@@ -112,6 +112,9 @@ public class LocationService extends BaseLocationService implements LocationList
 
     // Tracking
     private SQLiteDatabase mTrackDB = null;
+    private TrackRecorder mTrackRecorder = null;
+    private volatile Track mCurrentTrack = null;
+    private final Object mTrackLock = new Object();
     private boolean mTrackingEnabled = false;
     private boolean mForegroundTracking = false;
     private boolean mForegroundLocations = false;
@@ -442,17 +445,31 @@ public class LocationService extends BaseLocationService implements LocationList
             cursor = mTrackDB.rawQuery("SELECT DISTINCT tbl_name FROM sqlite_master WHERE tbl_name = 'track_properties'", null);
             if (cursor.getCount() == 0) {
                 mTrackDB.execSQL("CREATE TABLE track_properties (_id INTEGER PRIMARY KEY, distance REAL)");
-            } else {
-                Cursor propertiesCursor = mTrackDB.rawQuery("SELECT * FROM track_properties ORDER BY _id DESC LIMIT 1", null);
-                if (propertiesCursor.moveToFirst()) {
-                    mDistanceTracked = propertiesCursor.getFloat(propertiesCursor.getColumnIndexOrThrow("distance"));
-                }
-                propertiesCursor.close();
             }
             cursor.close();
+            // recorder updates the only properties row
+            if (DatabaseUtils.queryNumEntries(mTrackDB, "track_properties") == 0)
+                mTrackDB.execSQL("INSERT INTO track_properties (distance) VALUES (0)");
+            // commits are not synced, recorder syncs database when tracking is paused
+            mTrackDB.enableWriteAheadLogging();
+            mTrackDB.execSQL("PRAGMA synchronous = NORMAL");
+            mTrackRecorder = new TrackRecorder(mTrackDB, new File(path.getParentFile(), "track.tail"), e -> mMainHandler.post(() -> {
+                mErrorMsg = e.getMessage();
+                mErrorTime = System.currentTimeMillis();
+                updateNotification();
+            }));
+            Cursor propertiesCursor = mTrackDB.rawQuery("SELECT * FROM track_properties ORDER BY _id DESC LIMIT 1", null);
+            if (propertiesCursor.moveToFirst()) {
+                mDistanceTracked = propertiesCursor.getFloat(propertiesCursor.getColumnIndexOrThrow("distance"));
+            }
+            propertiesCursor.close();
+            mTrackRecorder.setDistance(mDistanceTracked);
             mTrackStarted = getTrackStartTime();
         } catch (SQLiteException e) {
+            if (mTrackDB != null)
+                mTrackDB.close();
             mTrackDB = null;
+            mTrackRecorder = null;
             logger.error("openDatabase", e);
             mErrorMsg = "Failed to open DB";
             mErrorTime = System.currentTimeMillis();
@@ -462,68 +479,128 @@ public class LocationService extends BaseLocationService implements LocationList
 
     private void closeDatabase() {
         if (mTrackDB != null) {
+            mTrackRecorder.close();
+            mTrackRecorder = null;
             mTrackDB.close();
             mTrackDB = null;
         }
     }
 
+    /**
+     * Returns snapshot of current track. Current track is loaded from database only once and
+     * then is fed directly by recorded points.
+     */
     public Track getTrack() {
-        Track track = getTrack(0);
-        mDistanceTracked = track.getDistance();
+        Track currentTrack = getCurrentTrack();
+        Track track = new Track(getString(R.string.currentTrack), true);
+        track.copyFrom(currentTrack);
         return track;
     }
 
-    public Track getTrack(long limit) {
-        if (mTrackDB == null)
-            openDatabase();
-        Track track = new Track(getString(R.string.currentTrack), true);
-        if (mTrackDB == null)
-            return track;
-        String limitStr = limit > 0 ? " LIMIT " + limit : "";
-        Cursor cursor = mTrackDB.rawQuery("SELECT * FROM track ORDER BY _id DESC" + limitStr, null);
-        for (boolean hasItem = cursor.moveToLast(); hasItem; hasItem = cursor.moveToPrevious()) {
-            int latitudeE6 = cursor.getInt(cursor.getColumnIndexOrThrow("latitude"));
-            int longitudeE6 = cursor.getInt(cursor.getColumnIndexOrThrow("longitude"));
-            float elevation = cursor.getFloat(cursor.getColumnIndexOrThrow("elevation"));
-            float speed = cursor.getFloat(cursor.getColumnIndexOrThrow("speed"));
-            float bearing = cursor.getFloat(cursor.getColumnIndexOrThrow("track"));
-            float accuracy = cursor.getFloat(cursor.getColumnIndexOrThrow("accuracy"));
-            int code = cursor.getInt(cursor.getColumnIndexOrThrow("code"));
-            long time = cursor.getLong(cursor.getColumnIndexOrThrow("datetime"));
-            track.addPoint(code == 0, latitudeE6, longitudeE6, elevation, speed, bearing, accuracy, time);
+    public Track getTrack(long start, long end) {
+        Track currentTrack = getCurrentTrack();
+        Track track = new Track();
+        synchronized (currentTrack.points) {
+            for (int i = findPoint(currentTrack, start), size = currentTrack.points.size(); i < size; i++) {
+                long time = currentTrack.getTime(i);
+                if (time > end)
+                    break;
+                track.addPoint(currentTrack.isContinuous(i), currentTrack.getLatitudeE6(i),
+                        currentTrack.getLongitudeE6(i), currentTrack.getElevation(i),
+                        currentTrack.getSpeed(i), currentTrack.getBearing(i),
+                        currentTrack.getAccuracy(i), time);
+            }
         }
-        cursor.close();
         return track;
     }
 
-    public Track getTrack(long start, long end) {
+    /**
+     * Returns index of the first point with time not less then specified.
+     */
+    private static int findPoint(Track track, long time) {
+        int low = 0;
+        int high = track.points.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (track.getTime(mid) < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private synchronized Track getCurrentTrack() {
+        if (mCurrentTrack != null)
+            return mCurrentTrack;
+        Track track = new Track(getString(R.string.currentTrack), true);
         if (mTrackDB == null)
             openDatabase();
-        Track track = new Track();
         if (mTrackDB == null)
             return track;
-        Cursor cursor = mTrackDB.rawQuery("SELECT * FROM track WHERE datetime >= ? AND datetime <= ? ORDER BY _id DESC", new String[]{String.valueOf(start), String.valueOf(end)});
-        for (boolean hasItem = cursor.moveToLast(); hasItem; hasItem = cursor.moveToPrevious()) {
-            int latitudeE6 = cursor.getInt(cursor.getColumnIndexOrThrow("latitude"));
-            int longitudeE6 = cursor.getInt(cursor.getColumnIndexOrThrow("longitude"));
-            float elevation = cursor.getFloat(cursor.getColumnIndexOrThrow("elevation"));
-            float speed = cursor.getFloat(cursor.getColumnIndexOrThrow("speed"));
-            float bearing = cursor.getFloat(cursor.getColumnIndexOrThrow("track"));
-            float accuracy = cursor.getFloat(cursor.getColumnIndexOrThrow("accuracy"));
-            int code = cursor.getInt(cursor.getColumnIndexOrThrow("code"));
-            long time = cursor.getLong(cursor.getColumnIndexOrThrow("datetime"));
-            track.addPoint(code == 0, latitudeE6, longitudeE6, elevation, speed, bearing, accuracy, time);
+        long startTime = SystemClock.uptimeMillis();
+        long lastId = loadPoints(track, 0L);
+        if (track.points.size() > 1 && mDistanceTracked > 0f)
+            track.setDistance(mDistanceTracked);
+        // points recorded while track was loading are loaded now, then track is published
+        // under the lock held by recording, so that every point is added exactly once
+        synchronized (mTrackLock) {
+            loadPoints(track, lastId);
+            mCurrentTrack = track;
+        }
+        logger.debug("Loaded {} track points in {} ms", track.points.size(), SystemClock.uptimeMillis() - startTime);
+        return track;
+    }
+
+    /**
+     * Bulk loads recorded points, distance is not calculated.
+     *
+     * @return id of the last loaded point
+     */
+    private long loadPoints(Track track, long fromId) {
+        mTrackRecorder.flush();
+        long lastId = fromId;
+        Cursor cursor = mTrackDB.rawQuery("SELECT _id, latitude, longitude, code, elevation, speed, track, accuracy, datetime FROM track WHERE _id > ? ORDER BY _id", new String[]{String.valueOf(fromId)});
+        while (cursor.moveToNext()) {
+            lastId = cursor.getLong(0);
+            if (fromId == 0L)
+                track.addPointFast(cursor.getInt(3) == 0, cursor.getInt(1), cursor.getInt(2),
+                        cursor.getFloat(4), cursor.getFloat(5), cursor.getFloat(6),
+                        cursor.getFloat(7), cursor.getLong(8));
+            else
+                appendPoint(track, cursor.getInt(3) == 0, cursor.getInt(1), cursor.getInt(2),
+                        cursor.getFloat(4), cursor.getFloat(5), cursor.getFloat(6),
+                        cursor.getFloat(7), cursor.getLong(8));
         }
         cursor.close();
-        return track;
+        return lastId;
+    }
+
+    /**
+     * Appends point to current track.
+     */
+    private static void appendPoint(Track track, boolean continuous, int latE6, int lonE6, float elevation, float speed, float bearing, float accuracy, long time) {
+        synchronized (track.points) {
+            track.addPoint(continuous, latE6, lonE6, elevation, speed, bearing, accuracy, time);
+        }
     }
 
     public long getTrackStartTime() {
         long res = Long.MIN_VALUE;
+        Track currentTrack = mCurrentTrack;
+        if (currentTrack != null) {
+            synchronized (currentTrack.points) {
+                for (int i = 0, size = currentTrack.points.size(); i < size; i++)
+                    if (currentTrack.getTime(i) > 0)
+                        return currentTrack.getTime(i);
+            }
+            return 0L;
+        }
         if (mTrackDB == null)
             openDatabase();
         if (mTrackDB == null)
             return res;
+        mTrackRecorder.flush();
         Cursor cursor = mTrackDB.rawQuery("SELECT MIN(datetime) FROM track WHERE datetime > 0", null);
         if (cursor.moveToFirst())
             res = cursor.getLong(0);
@@ -533,10 +610,16 @@ public class LocationService extends BaseLocationService implements LocationList
 
     public long getTrackEndTime() {
         long res = Long.MAX_VALUE;
+        Track currentTrack = mCurrentTrack;
+        if (currentTrack != null) {
+            Track.TrackPoint point = currentTrack.getLastPoint();
+            return point != null ? point.time : 0L;
+        }
         if (mTrackDB == null)
             openDatabase();
         if (mTrackDB == null)
             return res;
+        mTrackRecorder.flush();
         Cursor cursor = mTrackDB.rawQuery("SELECT MAX(datetime) FROM track", null);
         if (cursor.moveToFirst())
             res = cursor.getLong(0);
@@ -548,10 +631,10 @@ public class LocationService extends BaseLocationService implements LocationList
         mDistanceTracked = 0f;
         if (mTrackDB == null)
             openDatabase();
-        if (mTrackDB != null) {
-            mTrackDB.execSQL("DELETE FROM track");
-            mTrackDB.execSQL("DELETE FROM track_properties");
-        }
+        if (mTrackRecorder != null)
+            mTrackRecorder.clear();
+        if (mCurrentTrack != null)
+            mCurrentTrack.clear();
     }
 
     public void tryToSaveTrack() {
@@ -636,46 +719,34 @@ public class LocationService extends BaseLocationService implements LocationList
         }, mProgressListener);
     }
 
+    /**
+     * Writes tracked distance and all recorded points to database and syncs it to storage.
+     */
     private void updateDistanceTracked() {
-        if (mTrackDB != null) {
-            mTrackDB.delete("track_properties", null, null);
-            ContentValues values = new ContentValues();
-            values.put("distance", mDistanceTracked);
-            mTrackDB.insert("track_properties", null, values);
+        if (mTrackRecorder != null) {
+            mTrackRecorder.setDistance(mDistanceTracked);
+            mTrackRecorder.sync();
         }
     }
 
-    public void addPoint(boolean continuous, double latitude, double longitude, float elevation, float speed, float bearing, float accuracy, long time) {
+    private void addPoint(boolean continuous, double latitude, double longitude, float elevation, float speed, float bearing, float accuracy, long time) {
         if (mTrackDB == null) {
             openDatabase();
             if (mTrackDB == null)
                 return;
         }
-
-        ContentValues values = new ContentValues();
-        values.put("latitude", (int) (latitude * 1E6));
-        values.put("longitude", (int) (longitude * 1E6));
-        values.put("code", continuous ? 0 : 1);
-        values.put("elevation", elevation);
-        values.put("speed", speed);
-        values.put("track", bearing);
-        values.put("accuracy", accuracy);
-        values.put("datetime", time);
-
-        try {
-            mTrackDB.insertOrThrow("track", null, values);
-        } catch (SQLException e) {
-            logger.error("addPoint", e);
-            mErrorMsg = e.getMessage();
-            mErrorTime = System.currentTimeMillis();
-            updateNotification();
-            closeDatabase();
-        }
+        mTrackRecorder.addPoint(continuous, latitude, longitude, elevation, speed, bearing, accuracy, time, mDistanceTracked);
     }
 
     private void writeTrackPoint(final Location loc, final float distance, final boolean continuous) {
-        addPoint(continuous, loc.getLatitude(), loc.getLongitude(), (float) loc.getAltitude(), loc.getSpeed(), loc.getBearing(), loc.getAccuracy(), loc.getTime());
         mDistanceTracked += distance;
+        // point is either recorded before current track tail is loaded or is fed directly
+        synchronized (mTrackLock) {
+            addPoint(continuous, loc.getLatitude(), loc.getLongitude(), (float) loc.getAltitude(), loc.getSpeed(), loc.getBearing(), loc.getAccuracy(), loc.getTime());
+            Track currentTrack = mCurrentTrack;
+            if (currentTrack != null)
+                appendPoint(currentTrack, continuous, (int) (loc.getLatitude() * 1E6), (int) (loc.getLongitude() * 1E6), (float) loc.getAltitude(), loc.getSpeed(), loc.getBearing(), loc.getAccuracy(), loc.getTime());
+        }
         mDistanceNotified += distance;
         if (mDistanceNotified > mDistanceTracked / 100) {
             updateNotification();
@@ -516,7 +516,7 @@ public class NavigationService extends BaseNavigationService implements OnShared
         prevWaypoint = new MapObject(navRoute.get(navCurrentRoutePoint - navDirection).getCoordinates());
         navProximity = DEFAULT_ROUTE_PROXIMITY;
         navRouteDistance = -1;
-        navCourse = prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates);
+        navCourse = navRoute.course(navCurrentRoutePoint - navDirection, navCurrentRoutePoint);
         updateNavigationState(STATE_STARTED);
         updateNavigationState(STATE_NEXT_WPT);
         if (mLastKnownLocation != null)
@@ -532,7 +532,7 @@ public class NavigationService extends BaseNavigationService implements OnShared
         else
             prevWaypoint = null;
         navRouteDistance = -1;
-        navCourse = prevWaypoint == null ? 0d : prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates);
+        navCourse = prevWaypoint == null ? 0d : navRoute.course(prev, navCurrentRoutePoint);
         navETE = Integer.MAX_VALUE;
         calculateNavigationStatus();
         updateNavigationState(STATE_NEXT_WPT);
@@ -550,7 +550,7 @@ public class NavigationService extends BaseNavigationService implements OnShared
         navWaypoint = new MapObject(navRoute.get(navCurrentRoutePoint).getCoordinates());
         prevWaypoint = new MapObject(navRoute.get(navCurrentRoutePoint - navDirection).getCoordinates());
         navRouteDistance = -1;
-        navCourse = prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates);
+        navCourse = navRoute.course(navCurrentRoutePoint - navDirection, navCurrentRoutePoint);
         if (avgVMG[0] < 0) avgVMG[0] = 0.0;
         if (avgVMG[1] < 0) avgVMG[1] = 0.0;
         if (avgVMG[2] < 0) avgVMG[2] = 0.0;
@@ -568,7 +568,7 @@ public class NavigationService extends BaseNavigationService implements OnShared
         else
             prevWaypoint = null;
         navRouteDistance = -1;
-        navCourse = prevWaypoint == null ? 0d : prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates);
+        navCourse = prevWaypoint == null ? 0d : navRoute.course(prev, navCurrentRoutePoint);
         if (avgVMG[0] < 0) avgVMG[0] = 0.0;
         if (avgVMG[1] < 0) avgVMG[1] = 0.0;
         if (avgVMG[2] < 0) avgVMG[2] = 0.0;
@@ -651,9 +651,7 @@ public class NavigationService extends BaseNavigationService implements OnShared
         if (avgVMG[0] > 0) {
             int i = navDirection == DIRECTION_FORWARD ? index : navRoute.length() - index - 1;
             int j = i - navDirection;
-            MapObject w1 = new MapObject(navRoute.get(i).getCoordinates());
-            MapObject w2 = new MapObject(navRoute.get(j).getCoordinates());
-            double distance = w1.coordinates.vincentyDistance(w2.coordinates);
+            double distance = navRoute.distanceBetween(Math.min(i, j), Math.max(i, j));
             ete = (int) Math.round(distance / avgVMG[0] / 60);
         }
         return ete;
@@ -730,14 +728,16 @@ public class NavigationService extends BaseNavigationService implements OnShared
         }
 
         if (prevWaypoint != null) {
-            double dtk = prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates);
-            xtk = Geo.xtk(distance, dtk, bearing);
+            if (navRoute != null)
+                xtk = navRoute.getCrossTrackDistance(point, navCurrentRoutePoint - navDirection, navCurrentRoutePoint);
+            else
+                xtk = Geo.xtk(distance, prevWaypoint.coordinates.bearingTo(navWaypoint.coordinates), bearing);
 
             if (xtk == Double.NEGATIVE_INFINITY) {
                 if (mUseTraverse && hasNext) {
-                    MapObject nextWpt = getNextRouteWaypoint();
-                    if (nextWpt != null) {
-                        double dtk2 = nextWpt.coordinates.bearingTo(navWaypoint.coordinates);
+                    int next = navCurrentRoutePoint + navDirection;
+                    if (next >= 0 && next < navRoute.length()) {
+                        double dtk2 = navRoute.course(next, navCurrentRoutePoint);
                         double xtk2 = Geo.xtk(0, dtk2, bearing);
                         if (xtk2 != Double.NEGATIVE_INFINITY) {
                             nextRouteWaypoint();
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.location;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Write-behind recorder of current track. Points are put into ring buffer and written to
+ * track database by dedicated thread in groups, when enough points are collected or after
+ * a timeout. Ring buffer is backed by memory mapped file so that points that were not yet
+ * written survive process crash and are recovered next time the recorder is opened. Track
+ * database uses write-ahead log without syncing every commit, it is explicitly synced when
+ * tracking is paused or stopped.
+ */
+class TrackRecorder implements Handler.Callback {
+    private static final Logger logger = LoggerFactory.getLogger(TrackRecorder.class);
+
+    private static final int CAPACITY = 4096; // points
+    private static final int BATCH_SIZE = 32; // points
+    private static final long FLUSH_INTERVAL = 30000; // 30 seconds
+
+    // header: appended sequence (long), committed sequence (long), distance (float)
+    private static final int HEADER_SIZE = 32;
+    private static final int HEAD_OFFSET = 0;
+    private static final int COMMITTED_OFFSET = 8;
+    private static final int DISTANCE_OFFSET = 16;
+    // slot: latitude (int), longitude (int), code (int), elevation, speed, bearing,
+    // accuracy (floats), time (long)
+    private static final int SLOT_SIZE = 40;
+
+    private static final int MSG_FLUSH = 1;
+
+    private static final String SQL_INSERT_POINT = "INSERT INTO track (latitude, longitude, code, elevation, speed, track, accuracy, datetime) VALUES (?,?,?,?,?,?,?,?)";
+    private static final String SQL_UPDATE_DISTANCE = "UPDATE track_properties SET distance = ?";
+    private static final String SQL_LAST_TIME = "SELECT ifnull(MAX(datetime), 0) FROM track";
+
+    private final SQLiteDatabase mDatabase;
+    private final ByteBuffer mBuffer;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final SQLiteStatement mInsertStatement;
+    private final SQLiteStatement mDistanceStatement;
+    private final Object mLock = new Object();
+    private final ErrorListener mErrorListener;
+    private long mHead;
+    private long mCommitted;
+    private boolean mOverflow;
+
+    interface ErrorListener {
+        /**
+         * Is called on recorder thread when points can not be written. Points are kept
+         * in buffer and writing is retried with next group. Besides SQL errors database
+         * can throw IllegalStateException if it was closed.
+         */
+        void onError(RuntimeException e);
+    }
+
+    /**
+     * Opens recorder and writes to database points left by previous process.
+     *
+     * @param database track database, it should have track and track_properties tables
+     * @param tailFile file that backs ring buffer
+     */
+    TrackRecorder(SQLiteDatabase database, File tailFile, @NonNull ErrorListener errorListener) {
+        mDatabase = database;
+        mErrorListener = errorListener;
+        mBuffer = mapBuffer(tailFile);
+        mHead = mBuffer.getLong(HEAD_OFFSET);
+        mCommitted = mBuffer.getLong(COMMITTED_OFFSET);
+        if (mHead < mCommitted || mHead - mCommitted > CAPACITY) {
+            logger.error("Corrupted track tail: {} {}", mHead, mCommitted);
+            mHead = 0L;
+            mCommitted = 0L;
+            writeHeader();
+        }
+        mInsertStatement = mDatabase.compileStatement(SQL_INSERT_POINT);
+        mDistanceStatement = mDatabase.compileStatement(SQL_UPDATE_DISTANCE);
+        recover();
+
+        mThread = new HandlerThread("TrackRecorder", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper(), this);
+    }
+
+    /**
+     * Returns distance recorded with last point, it can be more recent then distance
+     * stored in database if previous process has crashed.
+     */
+    float getDistance() {
+        synchronized (mLock) {
+            return mBuffer.getFloat(DISTANCE_OFFSET);
+        }
+    }
+
+    /**
+     * Puts point into buffer, does not block and does not allocate memory. If buffer is full
+     * the point is dropped: slots that are not committed can be read by writer thread at any
+     * moment and should not be overwritten.
+     *
+     * @param distance total track distance including this point
+     */
+    void addPoint(boolean continuous, double latitude, double longitude, float elevation, float speed,
+                  float bearing, float accuracy, long time, float distance) {
+        long pending;
+        synchronized (mLock) {
+            if (mHead - mCommitted >= CAPACITY) {
+                // writer is stalled for a very long time, new points are lost until it recovers
+                if (!mOverflow)
+                    logger.error("Track buffer overflow");
+                mOverflow = true;
+                mBuffer.putFloat(DISTANCE_OFFSET, distance);
+                return;
+            }
+            mOverflow = false;
+            int offset = slotOffset(mHead);
+            mBuffer.putInt(offset, (int) (latitude * 1E6));
+            mBuffer.putInt(offset + 4, (int) (longitude * 1E6));
+            mBuffer.putInt(offset + 8, continuous ? 0 : 1);
+            mBuffer.putFloat(offset + 12, elevation);
+            mBuffer.putFloat(offset + 16, speed);
+            mBuffer.putFloat(offset + 20, bearing);
+            mBuffer.putFloat(offset + 24, accuracy);
+            mBuffer.putLong(offset + 28, time);
+            mHead++;
+            mBuffer.putFloat(DISTANCE_OFFSET, distance);
+            writeHeader();
+            pending = mHead - mCommitted;
+        }
+        if (pending >= BATCH_SIZE)
+            mHandler.sendEmptyMessage(MSG_FLUSH);
+        else if (!mHandler.hasMessages(MSG_FLUSH))
+            mHandler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_INTERVAL);
+    }
+
+    /**
+     * Sets total track distance, it is written to database with next group of points.
+     */
+    void setDistance(float distance) {
+        synchronized (mLock) {
+            mBuffer.putFloat(DISTANCE_OFFSET, distance);
+        }
+    }
+
+    /**
+     * Writes all buffered points to database and waits for completion.
+     */
+    void flush() {
+        runAndWait(this::write);
+    }
+
+    /**
+     * Writes all buffered points and distance to database and syncs it to storage. Should
+     * be called when tracking is paused or stopped.
+     */
+    void sync() {
+        runAndWait(() -> {
+            write();
+            writeDistance();
+            try (Cursor cursor = mDatabase.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null)) {
+                if (cursor.moveToFirst())
+                    logger.debug("Track synced");
+            } catch (RuntimeException e) {
+                logger.error("Failed to sync track", e);
+            }
+        });
+    }
+
+    /**
+     * Discards buffered points and removes recorded track.
+     */
+    void clear() {
+        runAndWait(() -> {
+            synchronized (mLock) {
+                mCommitted = mHead;
+                mBuffer.putFloat(DISTANCE_OFFSET, 0f);
+                writeHeader();
+            }
+            try {
+                mDatabase.execSQL("DELETE FROM track");
+            } catch (RuntimeException e) {
+                logger.error("Failed to clear track", e);
+            }
+            writeDistance();
+        });
+    }
+
+    /**
+     * Syncs recorded track and stops recorder thread.
+     */
+    void close() {
+        sync();
+        mThread.quitSafely();
+        mInsertStatement.close();
+        mDistanceStatement.close();
+    }
+
+    @Override
+    public boolean handleMessage(@NonNull Message msg) {
+        if (msg.what == MSG_FLUSH) {
+            write();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes pending points in one transaction. Buffer slots are read without holding the
+     * lock as producer never touches slots between committed and head sequences. Errors are
+     * reported and not thrown, so that recorder thread survives them.
+     */
+    private void write() {
+        long committed, head;
+        float distance;
+        synchronized (mLock) {
+            committed = mCommitted;
+            head = mHead;
+            distance = mBuffer.getFloat(DISTANCE_OFFSET);
+        }
+        if (head == committed)
+            return;
+        try {
+            mDatabase.beginTransaction();
+            try {
+                for (long sequence = committed; sequence < head; sequence++)
+                    insertPoint(slotOffset(sequence));
+                mDistanceStatement.bindDouble(1, distance);
+                mDistanceStatement.executeUpdateDelete();
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to write track", e);
+            mErrorListener.onError(e);
+            return;
+        }
+        synchronized (mLock) {
+            // buffer could be cleared while points were written
+            if (mCommitted < head)
+                mCommitted = head;
+            writeHeader();
+        }
+        logger.debug("Written {} track points", head - committed);
+    }
+
+    private void writeDistance() {
+        try {
+            mDistanceStatement.bindDouble(1, getDistance());
+            mDistanceStatement.executeUpdateDelete();
+        } catch (RuntimeException e) {
+            logger.error("Failed to write track distance", e);
+        }
+    }
+
+    /**
+     * Writes points that were not committed by crashed process. Points are recorded in
+     * single transaction with committed sequence so the latter can lag behind if process
+     * crashed in between, such points are skipped by their time.
+     */
+    private void recover() {
+        if (mHead == mCommitted)
+            return;
+        logger.error("Recovering {} track points", mHead - mCommitted);
+        long lastTime = DatabaseUtils.longForQuery(mDatabase, SQL_LAST_TIME, null);
+        mDatabase.beginTransaction();
+        try {
+            for (long sequence = mCommitted; sequence < mHead; sequence++) {
+                int offset = slotOffset(sequence);
+                if (mBuffer.getLong(offset + 28) > lastTime)
+                    insertPoint(offset);
+            }
+            mDistanceStatement.bindDouble(1, mBuffer.getFloat(DISTANCE_OFFSET));
+            mDistanceStatement.executeUpdateDelete();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        mCommitted = mHead;
+        writeHeader();
+    }
+
+    private void insertPoint(int offset) {
+        mInsertStatement.bindLong(1, mBuffer.getInt(offset));
+        mInsertStatement.bindLong(2, mBuffer.getInt(offset + 4));
+        mInsertStatement.bindLong(3, mBuffer.getInt(offset + 8));
+        mInsertStatement.bindDouble(4, mBuffer.getFloat(offset + 12));
+        mInsertStatement.bindDouble(5, mBuffer.getFloat(offset + 16));
+        mInsertStatement.bindDouble(6, mBuffer.getFloat(offset + 20));
+        mInsertStatement.bindDouble(7, mBuffer.getFloat(offset + 24));
+        mInsertStatement.bindLong(8, mBuffer.getLong(offset + 28));
+        mInsertStatement.executeInsert();
+    }
+
+    private void writeHeader() {
+        mBuffer.putLong(HEAD_OFFSET, mHead);
+        mBuffer.putLong(COMMITTED_OFFSET, mCommitted);
+    }
+
+    private void runAndWait(Runnable runnable) {
+        if (Looper.myLooper() == mThread.getLooper()) {
+            runnable.run();
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        boolean posted = mHandler.post(() -> {
+            try {
+                runnable.run();
+            } finally {
+                latch.countDown();
+            }
+        });
+        if (!posted)
+            return;
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int slotOffset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % CAPACITY) * SLOT_SIZE;
+    }
+
+    /**
+     * Maps ring buffer file to memory, falls back to plain memory buffer (without crash
+     * safety) if file can not be mapped.
+     */
+    @NonNull
+    private static ByteBuffer mapBuffer(@Nullable File file) {
+        int size = HEADER_SIZE + CAPACITY * SLOT_SIZE;
+        if (file != null) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                boolean fresh = raf.length() != size;
+                raf.setLength(size);
+                // mapping stays valid after channel is closed
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (fresh) {
+                    buffer.putLong(HEAD_OFFSET, 0L);
+                    buffer.putLong(COMMITTED_OFFSET, 0L);
+                    buffer.putFloat(DISTANCE_OFFSET, 0f);
+                }
+                return buffer;
+            } catch (IOException e) {
+                logger.error("Failed to map track tail", e);
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+}
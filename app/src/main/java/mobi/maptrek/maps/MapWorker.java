@@ -65,6 +65,7 @@ public class MapWorker extends Worker {
    public static final String EXTRA_Y = "y";
    public static final String EXTRA_TITLE = "title";
    public static final String EXTRA_UUID = "uuid";
+   public static final String EXTRA_HILLSHADE = "hillshade";
 
    public static final String PROGRESS = "PROGRESS";
 
@@ -157,12 +158,14 @@ public class MapWorker extends Worker {
          builder.setContentTitle(title).setTicker(title);
       }
       setForegroundAsync(createForegroundInfo());
-      Intent intent = new Intent(BROADCAST_MAP_STARTED).putExtra(EXTRA_TITLE, title).putExtra(EXTRA_UUID, getId());
+      Intent intent = new Intent(BROADCAST_MAP_STARTED).putExtra(EXTRA_TITLE, title).putExtra(EXTRA_UUID, getId())
+              .putExtra(EXTRA_HILLSHADE, hillshade);
       intent.setPackage(application.getPackageName());
       application.sendBroadcast(intent);
 
       if (processDownload(mapIndex, x, y, hillshade, uri.getPath(), new OperationProgressListener())) {
-         intent = new Intent(BROADCAST_MAP_ADDED).putExtra(EXTRA_X, x).putExtra(EXTRA_Y, y);
+         intent = new Intent(BROADCAST_MAP_ADDED).putExtra(EXTRA_X, x).putExtra(EXTRA_Y, y)
+                 .putExtra(EXTRA_HILLSHADE, hillshade);
          intent.setPackage(application.getPackageName());
          application.sendBroadcast(intent);
          builder.setContentText(application.getString(R.string.complete));
@@ -170,7 +173,8 @@ public class MapWorker extends Worker {
          return true;
       } else {
          showErrorNotification();
-         intent = new Intent(BROADCAST_MAP_FAILED).putExtra(EXTRA_TITLE, title);
+         intent = new Intent(BROADCAST_MAP_FAILED).putExtra(EXTRA_TITLE, title)
+                 .putExtra(EXTRA_HILLSHADE, hillshade);
          intent.setPackage(application.getPackageName());
          application.sendBroadcast(intent);
          return false;
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.maps.maptrek;
+
+import android.util.LruCache;
+
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.core.Tag;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Memory bounded cache of decoded native tiles. Native tiles are decoded only once and then
+ * replayed to all overzoomed children and to the same tile when it scrolls back into view.
+ * Decoded elements depend on requested zoom (amenity visibility is resolved by decoder), so
+ * it is a part of the key along with data version, which is changed whenever maps database
+ * content or amenity settings change.
+ */
+class DecodedTileCache {
+    private static final Logger logger = LoggerFactory.getLogger(DecodedTileCache.class);
+
+    private static final long MAX_CACHE_SIZE = 32 * 1024 * 1024; // 32MB
+    private static final int ELEMENT_OVERHEAD = 96; // rough size of element object and its fields
+    private static final int TAG_OVERHEAD = 48; // rough size of tag object and value string
+
+    static final Entry NOT_FOUND = new Entry(new ExtendedMapElement[0], new long[0], 16);
+
+    private final LruCache<Long, Entry> mCache;
+    private volatile int mVersion;
+
+    static class Entry {
+        final ExtendedMapElement[] elements;
+        final long[] ids; // distinct ids of identified elements
+        final int size;
+
+        private Entry(ExtendedMapElement[] elements, long[] ids, int size) {
+            this.elements = elements;
+            this.ids = ids;
+            this.size = size;
+        }
+
+        /**
+         * Passes copies of cached elements to the sink. Elements are modified by downstream sinks
+         * (clipped, scaled, etc.) so cached ones are copied to reusable element first.
+         */
+        void replay(ExtendedMapElement element, ITileDataSink sink) {
+            for (ExtendedMapElement cached : elements) {
+                element.set(cached);
+                sink.process(element);
+            }
+        }
+    }
+
+    DecodedTileCache() {
+        int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_CACHE_SIZE);
+        mCache = new LruCache<Long, Entry>(maxSize) {
+            @Override
+            protected int sizeOf(Long key, Entry value) {
+                return value.size;
+            }
+        };
+        logger.debug("Decoded tile cache size: {}", maxSize);
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Invalidates all cached tiles. Tiles that are being decoded at the moment are stored
+     * with outdated version and will never be returned.
+     */
+    void invalidate() {
+        mVersion = (mVersion + 1) & 0x3ffffff;
+        logger.debug("Invalidate decoded tile cache, hits: {}, misses: {}",
+                mCache.hitCount(), mCache.missCount());
+        mCache.evictAll();
+    }
+
+    void trim() {
+        mCache.trimToSize(mCache.maxSize() / 4);
+    }
+
+    Entry get(long key) {
+        return mCache.get(key);
+    }
+
+    void put(long key, Entry entry) {
+        mCache.put(key, entry);
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * Constructs cache key. Native tiles have zoom not greater then 14 so 14 bits are
+     * enough for coordinates.
+     */
+    static long key(int z, int x, int y, int decodeZoom, int version) {
+        return ((long) version << 38) | ((long) decodeZoom << 33) | ((long) z << 28)
+                | ((long) x << 14) | y;
+    }
+
+    /**
+     * Collects copies of decoded elements for subsequent caching.
+     */
+    static class CollectingDataSink implements ITileDataSink {
+        private final ArrayList<ExtendedMapElement> mElements = new ArrayList<>();
+        private int mSize = 0;
+
+        @Override
+        public void process(MapElement el) {
+            ExtendedMapElement element = new ExtendedMapElement((ExtendedMapElement) el);
+            mElements.add(element);
+            mSize += ELEMENT_OVERHEAD + element.points.length * 4 + element.index.length * 4;
+            for (int i = 0, n = element.tags.size(); i < n; i++) {
+                Tag tag = element.tags.get(i);
+                mSize += TAG_OVERHEAD + (tag.value != null ? tag.value.length() * 2 : 0);
+            }
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+        }
+
+        Entry getEntry() {
+            long[] ids = new long[mElements.size()];
+            int count = 0;
+            for (ExtendedMapElement element : mElements) {
+                if (element.id != 0L)
+                    ids[count++] = element.id;
+            }
+            Arrays.sort(ids, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (distinct == 0 || ids[distinct - 1] != ids[i])
+                    ids[distinct++] = ids[i];
+            }
+            ids = Arrays.copyOf(ids, distinct);
+            return new Entry(mElements.toArray(new ExtendedMapElement[0]), ids, mSize + distinct * 8);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package mobi.maptrek.maps.maptrek;
 import androidx.annotation.NonNull;
 
 import org.oscim.core.MapElement;
+import org.oscim.core.PointF;
 import org.oscim.theme.IRenderTheme;
 
 public class ExtendedMapElement extends MapElement {
@@ -110,6 +111,51 @@ public class ExtendedMapElement extends MapElement {
         return id + " (" + kind + "): " + super.toString() + '\n';
     }
 
+    /**
+     * Copies geometry, tags and properties of other element reusing own buffers.
+     */
+    void set(ExtendedMapElement element) {
+        ensurePointSize((element.pointNextPos >> 1) + 1, false);
+        System.arraycopy(element.points, 0, points, 0, element.pointNextPos);
+        int indexSize = 0;
+        while (indexSize < element.index.length && element.index[indexSize] != -1)
+            indexSize++;
+        ensureIndexSize(indexSize + 1, false);
+        System.arraycopy(element.index, 0, index, 0, indexSize);
+        index[indexSize] = -1;
+        pointNextPos = element.pointNextPos;
+        indexCurrentPos = element.indexCurrentPos;
+        type = element.type;
+
+        tags.clear();
+        for (int i = 0, n = element.tags.size(); i < n; i++)
+            tags.add(element.tags.get(i));
+        centroidPosition = element.centroidPosition;
+        // label position can be modified in place by transforming sinks
+        labelPosition = element.labelPosition != null ?
+                new PointF(element.labelPosition.x, element.labelPosition.y) : null;
+        layer = element.layer;
+
+        id = element.id;
+        buildingHeight = element.buildingHeight;
+        buildingMinHeight = element.buildingMinHeight;
+        buildingColor = element.buildingColor;
+        roofHeight = element.roofHeight;
+        roofColor = element.roofColor;
+        roofShape = element.roofShape;
+        roofDirection = element.roofDirection;
+        roofOrientationAcross = element.roofOrientationAcross;
+        elevation = element.elevation;
+        depth = element.depth;
+        featureArea = element.featureArea;
+        hasLabelPosition = element.hasLabelPosition;
+        database = element.database;
+        kind = element.kind;
+        isContour = element.isContour;
+        isBuilding = element.isBuilding;
+        isBuildingPart = element.isBuildingPart;
+    }
+
     void clearData() {
         id = 0L;
         layer = 5;
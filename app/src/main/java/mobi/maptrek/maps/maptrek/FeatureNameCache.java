@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.maps.maptrek;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size bounded cache of feature names shared by all data sources. Names of tile elements are
+ * resolved in bulk before tile is passed to label hook, so that labels do not query database
+ * one by one. Cache holds names in one language, it is cleared when language changes and
+ * should be invalidated when maps database content changes. Language should be set before
+ * tiles are loaded, otherwise names are resolved in bulk in default language.
+ */
+class FeatureNameCache {
+    private static final Logger logger = LoggerFactory.getLogger(FeatureNameCache.class);
+
+    private static final int MAX_CACHE_SIZE = 8192; // names
+    private static final int MAX_QUERY_IDS = 500;
+    private static final String NO_NAME = "";
+
+    private static final String SQL_GET_NAMES = "SELECT id, names.name, lang FROM names INNER JOIN feature_names ON (ref = feature_names.name) WHERE lang IN (0, ";
+
+    private final LruCache<Long, String> mCache = new LruCache<>(MAX_CACHE_SIZE);
+    private volatile int mLang;
+    private volatile int mVersion;
+
+    /**
+     * Invalidates all cached names. Names that are being resolved at the moment are discarded.
+     */
+    synchronized void invalidate() {
+        mVersion++;
+        mCache.evictAll();
+    }
+
+    /**
+     * Sets language of resolved names, clears cache if language has changed.
+     */
+    synchronized void setLanguage(int lang) {
+        if (lang != mLang) {
+            mLang = lang;
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns feature name in specified language, if it is not cached it is queried from database.
+     */
+    String getName(SQLiteDatabase db, int lang, long id) {
+        if (lang != mLang)
+            setLanguage(lang);
+        int version = mVersion;
+        String name = mCache.get(id);
+        if (name == null) {
+            name = MapTrekDatabaseHelper.getFeatureName(lang, id, db);
+            if (name == null)
+                name = NO_NAME;
+            if (version == mVersion)
+                mCache.put(id, name);
+        }
+        //noinspection StringEquality
+        return name == NO_NAME ? null : name;
+    }
+
+    /**
+     * Resolves names of features that are not cached yet with one query per several hundred ids.
+     */
+    void resolve(SQLiteDatabase db, long[] ids) {
+        int lang = mLang;
+        int version = mVersion;
+        StringBuilder sb = new StringBuilder();
+        long[] missing = new long[Math.min(ids.length, MAX_QUERY_IDS)];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (mCache.get(ids[i]) == null)
+                missing[count++] = ids[i];
+            if (count == missing.length || (i == ids.length - 1 && count > 0)) {
+                query(db, lang, version, missing, count, sb);
+                count = 0;
+            }
+        }
+    }
+
+    private void query(SQLiteDatabase db, int lang, int version, long[] ids, int count, StringBuilder sb) {
+        sb.setLength(0);
+        sb.append(SQL_GET_NAMES).append(lang).append(") AND id IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(ids[i]);
+        }
+        sb.append(')');
+        LongSparseArray<String> names = new LongSparseArray<>(count);
+        try (Cursor c = db.rawQuery(sb.toString(), null)) {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                // name in preferred language takes precedence over default name
+                if (c.getInt(2) != 0 || names.get(id) == null)
+                    names.put(id, c.getString(1));
+            }
+        } catch (Exception e) {
+            logger.error("Query error", e);
+            return;
+        }
+        if (version != mVersion)
+            return;
+        for (int i = 0; i < count; i++) {
+            String name = names.get(ids[i]);
+            mCache.put(ids[i], name != null ? name : NO_NAME);
+        }
+    }
+}
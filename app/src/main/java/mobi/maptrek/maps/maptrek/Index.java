@@ -26,24 +26,27 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.work.Data;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
 
-import android.text.TextUtils;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import mobi.maptrek.Configuration;
 import mobi.maptrek.MapTrek;
@@ -51,25 +54,8 @@ import mobi.maptrek.R;
 import mobi.maptrek.maps.MapWorker;
 import mobi.maptrek.util.ProgressListener;
 
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURES_V2;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURES_WO_XY;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURES_V1;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURE_NAMES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_MAPS;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_NAMES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_TILES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_ENUM1;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_FLAGS;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_ID;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_KIND;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_TYPE;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_LAT;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_LON;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_OPENING_HOURS;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_PHONE;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_WIKIPEDIA;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_WEBSITE;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_INFO_VALUE;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_DATE;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_DOWNLOADING;
@@ -77,22 +63,13 @@ import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_HILLSH
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_VERSION;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_X;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAPS_Y;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_NAMES_NAME;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_INSERT_MAP_FEATURE_NAMES_DELTA;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_FEATURES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_FEATURE_NAMES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_GONE_FEATURES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_MAP_FEATURES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_NAMES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_NAMES_FTS;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_MAP_FEATURE_NAMES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_TILES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_SELECT_UNUSED_NAMES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_FEATURES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_FEATURE_NAMES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_INFO;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_MAPS;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_MAP_FEATURES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_NAMES;
-import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_NAMES_FTS;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_TILES;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.WHERE_INFO_NAME;
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.WHERE_MAPS_PRESENT;
@@ -105,7 +82,6 @@ public class Index {
     public static final String BASEMAP_FILENAME = "basemap.mtiles";
     public static final int BASEMAP_SIZE_STUB = 50;
     public static final String HILLSHADE_FILENAME = "hillshade.mbtiles";
-    private static final long HUGE_MAP_THRESHOLD = 400 * 1024 * 1024; // 400MB
 
     public enum ACTION {NONE, DOWNLOAD, CANCEL, REMOVE}
 
@@ -113,6 +89,7 @@ public class Index {
     private final SQLiteDatabase mMapsDatabase;
     private final SQLiteDatabase mHillshadeDatabase;
     private final DownloadManager mDownloadManager;
+    private final MapImportQueue mImportQueue;
     private final MapStatus[][] mMaps = new MapStatus[128][128];
     private boolean mHasDownloadSizes;
     private boolean mExpiredDownloadSizes;
@@ -123,58 +100,49 @@ public class Index {
     private short mBaseMapVersion = 0;
     private long mBaseMapDownloadSize = 0L;
 
+    private static final String SQL_HAS_HILLSHADES = "SELECT EXISTS (SELECT 1 FROM " + TABLE_TILES + ")";
+
     private final Set<WeakReference<MapStateListener>> mMapStateListeners = new HashSet<>();
 
     public Index(Context context, SQLiteDatabase mapsDatabase, SQLiteDatabase hillshadesDatabase) {
         mContext = context;
         mMapsDatabase = mapsDatabase;
         mHillshadeDatabase = hillshadesDatabase;
+        mImportQueue = new MapImportQueue(this, mapsDatabase);
+        // index could be left unmerged by previous imports
+        mImportQueue.scheduleMerge();
         mDownloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
 
+        // downloads are tentatively considered active, they are reconciled with download
+        // manager in background as it can take considerable time with many maps
+        ArrayList<int[]> downloads = new ArrayList<>();
         try {
             Cursor cursor = mMapsDatabase.query(TABLE_MAPS, ALL_COLUMNS_MAPS, WHERE_MAPS_PRESENT, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                int x = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MAPS_X));
-                int y = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_MAPS_Y));
-                short date = cursor.getShort(cursor.getColumnIndexOrThrow(COLUMN_MAPS_DATE));
-                byte version = (byte) cursor.getShort(cursor.getColumnIndexOrThrow(COLUMN_MAPS_VERSION));
+            int xColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_X);
+            int yColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_Y);
+            int dateColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_DATE);
+            int versionColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_VERSION);
+            int downloadingColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_DOWNLOADING);
+            int hillshadeDownloadingColumn = cursor.getColumnIndexOrThrow(COLUMN_MAPS_HILLSHADE_DOWNLOADING);
+            while (cursor.moveToNext()) {
+                int x = cursor.getInt(xColumn);
+                int y = cursor.getInt(yColumn);
+                short date = cursor.getShort(dateColumn);
+                byte version = (byte) cursor.getShort(versionColumn);
                 logger.debug("index({}, {}, {}, {})", x, y, date, version);
                 if (x == -1 && y == -1) {
                     mBaseMapVersion = date;
-                    cursor.moveToNext();
                     continue;
                 }
-                long downloading = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MAPS_DOWNLOADING));
-                long hillshadeDownloading = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MAPS_HILLSHADE_DOWNLOADING));
                 MapStatus mapStatus = getNativeMap(x, y);
                 mapStatus.created = date;
                 mapStatus.hillshadeVersion = version;
-                int status = checkDownloadStatus(downloading);
-                if (status == DownloadManager.STATUS_PAUSED
-                        || status == DownloadManager.STATUS_PENDING
-                        || status == DownloadManager.STATUS_RUNNING) {
-                    mapStatus.downloading = downloading;
-                    logger.debug("  map downloading: {}", downloading);
-                } else {
-                    downloading = 0L;
-                    setDownloading(x, y, downloading, hillshadeDownloading);
-                    logger.debug("  cleared");
-                }
-                status = checkDownloadStatus(hillshadeDownloading);
-                if (status == DownloadManager.STATUS_PAUSED
-                        || status == DownloadManager.STATUS_PENDING
-                        || status == DownloadManager.STATUS_RUNNING) {
-                    mapStatus.hillshadeDownloading = hillshadeDownloading;
-                    logger.debug("  hillshade downloading: {}", downloading);
-                } else {
-                    hillshadeDownloading = 0L;
-                    setDownloading(x, y, downloading, hillshadeDownloading);
-                    logger.debug("  cleared");
-                }
+                mapStatus.downloading = cursor.getLong(downloadingColumn);
+                mapStatus.hillshadeDownloading = cursor.getLong(hillshadeDownloadingColumn);
+                if (mapStatus.downloading != 0L || mapStatus.hillshadeDownloading != 0L)
+                    downloads.add(new int[]{x, y});
                 if (date > 0)
                     mLoadedMaps++;
-                cursor.moveToNext();
             }
             cursor.close();
         } catch (SQLiteException e) {
@@ -182,11 +150,29 @@ public class Index {
             mMapsDatabase.execSQL(MapTrekDatabaseHelper.SQL_CREATE_MAPS);
             mMapsDatabase.execSQL(MapTrekDatabaseHelper.SQL_INDEX_MAPS);
         }
-        mHasHillshades = DatabaseUtils.queryNumEntries(mHillshadeDatabase, TABLE_TILES) > 0;
+        mHasHillshades = DatabaseUtils.longForQuery(mHillshadeDatabase, SQL_HAS_HILLSHADES, null) > 0;
+        MapTrek.traceStartup("map index loaded");
+
+        if (!downloads.isEmpty())
+            new Thread(() -> reconcileDownloads(downloads), "IndexDownloads").start();
 
         //TODO Remove old basemap file
     }
 
+    /**
+     * Creates full text index in background. Index is created by import writer so that
+     * concurrent imports do not miss it.
+     */
+    public void createFullTextIndex() {
+        mImportQueue.execute(() -> {
+            try {
+                MapTrekDatabaseHelper.createFtsTable(mMapsDatabase);
+            } catch (SQLiteException | IllegalStateException e) {
+                logger.error("Failed to create FTS index", e);
+            }
+        });
+    }
+
     public short getBaseMapVersion() {
         return mBaseMapVersion;
     }
@@ -262,6 +248,21 @@ public class Index {
     }
 
     public void removeNativeMap(int x, int y, @Nullable ProgressListener progressListener) {
+        // removal is performed by import writer to not interfere with running imports
+        try {
+            mImportQueue.write(() -> {
+                doRemoveNativeMap(x, y, progressListener);
+                return null;
+            });
+        } catch (InterruptedException e) {
+            logger.error("Removal interrupted");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Removal failed", e.getCause());
+        }
+    }
+
+    private void doRemoveNativeMap(int x, int y, @Nullable ProgressListener progressListener) {
         if (mMaps[x][y] == null)
             return;
         if (mMaps[x][y].created == 0)
@@ -302,60 +303,48 @@ public class Index {
             if (progressListener != null)
                 progressListener.onProgressChanged(10);
             logger.error("  removed tiles");
-            // remove features
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_FEATURES);
-            statement.bindLong(1, x);
-            statement.bindLong(2, y);
-            statement.executeUpdateDelete();
-            if (progressListener != null)
-                progressListener.onProgressChanged(20);
-            logger.error("  removed features");
-            // remove feature references
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_MAP_FEATURES);
-            statement.bindLong(1, x);
-            statement.bindLong(2, y);
-            statement.executeUpdateDelete();
-            if (progressListener != null)
-                progressListener.onProgressChanged(30);
-            logger.error("  removed feature references");
-            // remove feature names
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_FEATURE_NAMES);
-            statement.executeUpdateDelete();
-            if (progressListener != null)
-                progressListener.onProgressChanged(40);
-            logger.error("  removed feature names");
-            // remove names
-            if (MapTrekDatabaseHelper.hasFullTextIndex(mMapsDatabase)) {
-                ArrayList<Long> ids = new ArrayList<>();
-                Cursor cursor = mMapsDatabase.rawQuery(SQL_SELECT_UNUSED_NAMES, null);
-                cursor.moveToFirst();
-                while (!cursor.isAfterLast()) {
-                    ids.add(cursor.getLong(0));
-                    cursor.moveToNext();
-                }
-                cursor.close();
-                if (ids.size() > 0) {
-                    StringBuilder sql = new StringBuilder();
-                    sql.append(SQL_REMOVE_NAMES_FTS);
-                    String sep = "";
-                    for (Long id : ids) {
-                        sql.append(sep);
-                        sql.append(id);
-                        sep = ",";
-                    }
-                    sql.append(")");
-                    statement = mMapsDatabase.compileStatement(sql.toString());
-                    statement.executeUpdateDelete();
-                }
+            boolean hasFts = MapTrekDatabaseHelper.hasFullTextIndex(mMapsDatabase);
+            mMapsDatabase.beginTransaction();
+            try {
+                // collect names of removed features and remove feature names
+                statement = mMapsDatabase.compileStatement(SQL_INSERT_MAP_FEATURE_NAMES_DELTA);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                statement.executeUpdateDelete();
+                statement = mMapsDatabase.compileStatement(SQL_REMOVE_MAP_FEATURE_NAMES);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                statement.executeUpdateDelete();
+                if (progressListener != null)
+                    progressListener.onProgressChanged(20);
+                logger.error("  removed feature names");
+                // remove features
+                statement = mMapsDatabase.compileStatement(SQL_REMOVE_FEATURES);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                statement.executeUpdateDelete();
+                if (progressListener != null)
+                    progressListener.onProgressChanged(40);
+                logger.error("  removed features");
+                // remove feature references
+                statement = mMapsDatabase.compileStatement(SQL_REMOVE_MAP_FEATURES);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                statement.executeUpdateDelete();
                 if (progressListener != null)
                     progressListener.onProgressChanged(60);
-                logger.error("  removed names fts");
+                logger.error("  removed feature references");
+                // remove names that are not used any more
+                MapTrekDatabaseHelper.removeUnusedNames(mMapsDatabase, hasFts);
+                mMapsDatabase.setTransactionSuccessful();
+            } finally {
+                mMapsDatabase.endTransaction();
             }
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_NAMES);
-            statement.executeUpdateDelete();
             if (progressListener != null)
                 progressListener.onProgressChanged(100);
             logger.error("  removed names");
+            if (hasFts)
+                mImportQueue.scheduleMerge();
             setDownloaded(x, y, (short) 0);
             setHillshadeDownloaded(x, y, (byte) 0);
             if (progressListener != null)
@@ -408,6 +397,7 @@ public class Index {
         if (map.hillshadeDownloading != 0L)
             mDownloadManager.remove(map.hillshadeDownloading);
         setDownloading(x, y, 0L, 0L);
+        mImportQueue.cancel(x, y);
         selectNativeMap(x, y, ACTION.NONE);
     }
 
@@ -416,282 +406,47 @@ public class Index {
     }
 
     public boolean processDownloadedMap(int x, int y, String filePath, @Nullable ProgressListener progressListener) {
-        File mapFile = new File(filePath);
         try {
-            logger.error("Importing from {}", mapFile.getName());
-            boolean huge = mapFile.length() > HUGE_MAP_THRESHOLD;
-            SQLiteDatabase database = SQLiteDatabase.openDatabase(filePath, null, SQLiteDatabase.OPEN_READONLY);
-
-            short version = 0;
-            short date = 0;
-            Cursor cursor = database.query(TABLE_INFO, new String[]{COLUMN_INFO_VALUE}, WHERE_INFO_NAME, new String[]{"version"}, null, null, null);
-            if (cursor.moveToFirst()) {
-                version = Short.parseShort(cursor.getString(0));
-            }
-            cursor.close();
-            cursor = database.query(TABLE_INFO, new String[]{COLUMN_INFO_VALUE}, WHERE_INFO_NAME, new String[]{"timestamp"}, null, null, null);
-            if (cursor.moveToFirst()) {
-                date = Short.parseShort(cursor.getString(0));
-            }
-            cursor.close();
-            logger.error("Version: {} Date: {}", version, date);
-
-            int total = 2000, progress = 0, step = 0;
-            if (progressListener != null) {
-                total = (int) (total + DatabaseUtils.queryNumEntries(database, TABLE_NAMES));
-                total = (int) (total + DatabaseUtils.queryNumEntries(database, TABLE_FEATURES));
-                total = (int) (total + DatabaseUtils.queryNumEntries(database, TABLE_FEATURE_NAMES));
-                total = (int) (total + DatabaseUtils.queryNumEntries(database, TABLE_TILES));
-                step = total / 100;
-                progressListener.onProgressStarted(total);
-            }
-            boolean hasFts = MapTrekDatabaseHelper.hasFullTextIndex(mMapsDatabase);
+            return mImportQueue.importMap(x, y, filePath, progressListener);
+        } catch (InterruptedException e) {
+            logger.error("Import interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            // copy names
-            SQLiteStatement statement = mMapsDatabase.compileStatement("REPLACE INTO " + TABLE_NAMES + " VALUES (?,?)");
-            SQLiteStatement statementFts = null;
-            if (hasFts) {
-                statementFts = mMapsDatabase.compileStatement("INSERT INTO " + TABLE_NAMES_FTS
-                        + " (docid, " + COLUMN_NAMES_NAME + ") VALUES (?,?)");
-            }
-            mMapsDatabase.beginTransaction();
-            cursor = database.query(TABLE_NAMES, ALL_COLUMNS_NAMES, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                statement.clearBindings();
-                statement.bindLong(1, cursor.getLong(0));
-                statement.bindString(2, cursor.getString(1));
-                statement.execute();
-                if (statementFts != null) {
-                    statementFts.clearBindings();
-                    statementFts.bindLong(1, cursor.getLong(0));
-                    statementFts.bindString(2, cursor.getString(1));
-                    statementFts.execute();
-                }
-                if (progressListener != null) {
-                    progress++;
-                    progressListener.onProgressChanged(progress);
-                    if (huge && progress % step == 0) {
-                        mMapsDatabase.setTransactionSuccessful();
-                        mMapsDatabase.endTransaction();
-                        mMapsDatabase.beginTransaction();
-                    }
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            mMapsDatabase.setTransactionSuccessful();
-            mMapsDatabase.endTransaction();
-            logger.error("  imported names");
-
-            // remove old features references
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_MAP_FEATURES);
-            statement.bindLong(1, x);
-            statement.bindLong(2, y);
-            mMapsDatabase.beginTransaction();
-            int num = statement.executeUpdateDelete();
-            if (progressListener != null) {
-                progress += 1000;
-                progressListener.onProgressChanged(progress);
-            }
-            logger.error("  removed feature references: {}", num);
-
-            // copy features
-            statement = mMapsDatabase.compileStatement("REPLACE INTO " + TABLE_FEATURES + " (" +
-                    TextUtils.join(", ", ALL_COLUMNS_FEATURES) + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)");
-            SQLiteStatement extraStatement = mMapsDatabase.compileStatement("INSERT INTO " + TABLE_MAP_FEATURES + " VALUES (?,?,?)");
-            extraStatement.bindLong(1, x);
-            extraStatement.bindLong(2, y);
-            String[] COLUMNS_FEATURES = version == 1 ? ALL_COLUMNS_FEATURES_V1 : version == 2 ? ALL_COLUMNS_FEATURES_V2 : ALL_COLUMNS_FEATURES_WO_XY;
-            int[] xy = new int[] {0, 0};
-            cursor = database.query(TABLE_FEATURES, COLUMNS_FEATURES, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                statement.clearBindings();
-                statement.bindLong(1, cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_FEATURES_ID)));
-                statement.bindLong(2, cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_FEATURES_KIND)));
-                if (version == 1) {
-                    statement.bindNull(3);
-                } else {
-                    statement.bindLong(3, cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_FEATURES_TYPE)));
-                }
-                int latColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_LAT);
-                int lonColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_LON);
-                boolean isPlaced = !(cursor.isNull(latColumnIndex) || cursor.isNull(lonColumnIndex));
-                if (isPlaced) {
-                    double lat = cursor.getDouble(latColumnIndex);
-                    double lon = cursor.getDouble(lonColumnIndex);
-                    statement.bindDouble(6, lat);
-                    statement.bindDouble(7, lon);
-                    if (version > 1) {
-                        MapTrekDatabaseHelper.getFourteenthTileXY(lat, lon, xy);
-                        statement.bindLong(4, xy[0]);
-                        statement.bindLong(5, xy[1]);
-                    }
-                } else {
-                    statement.bindNull(4);
-                    statement.bindNull(5);
-                    statement.bindNull(6);
-                    statement.bindNull(7);
-                }
-                if (version == 1 || !isPlaced) {
-                    statement.bindNull(8);
-                    statement.bindNull(9);
-                    statement.bindNull(10);
-                    statement.bindNull(11);
-                } else {
-                    int hoursColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_OPENING_HOURS);
-                    if (cursor.isNull(hoursColumnIndex)) {
-                        statement.bindNull(8);
-                    } else {
-                        statement.bindString(8, cursor.getString(hoursColumnIndex));
-                    }
-                    int phoneColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_PHONE);
-                    if (cursor.isNull(phoneColumnIndex)) {
-                        statement.bindNull(9);
-                    } else {
-                        statement.bindString(9, cursor.getString(phoneColumnIndex));
-                    }
-                    int wikiColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_WIKIPEDIA);
-                    if (cursor.isNull(wikiColumnIndex)) {
-                        statement.bindNull(10);
-                    } else {
-                        statement.bindString(10, cursor.getString(wikiColumnIndex));
-                    }
-                    int siteColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_WEBSITE);
-                    if (cursor.isNull(siteColumnIndex)) {
-                        statement.bindNull(11);
-                    } else {
-                        statement.bindString(11, cursor.getString(siteColumnIndex));
-                    }
-                }
-                if (version < 3 || !isPlaced) {
-                    statement.bindNull(12);
-                    statement.bindNull(13);
-                } else {
-                    int flagsColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_FLAGS);
-                    if (cursor.isNull(flagsColumnIndex)) {
-                        statement.bindNull(12);
-                    } else {
-                        statement.bindLong(12, cursor.getLong(flagsColumnIndex));
-                    }
-                    int enum1ColumnIndex = cursor.getColumnIndex(COLUMN_FEATURES_ENUM1);
-                    if (cursor.isNull(enum1ColumnIndex)) {
-                        statement.bindNull(13);
-                    } else {
-                        statement.bindLong(13, cursor.getLong(enum1ColumnIndex));
-                    }
-                }
-                statement.execute();
-                extraStatement.bindLong(3, cursor.getLong(0));
-                extraStatement.execute();
-                if (progressListener != null) {
-                    progress++;
-                    progressListener.onProgressChanged(progress);
-                    if (huge && progress % step == 0) {
-                        mMapsDatabase.setTransactionSuccessful();
-                        mMapsDatabase.endTransaction();
-                        mMapsDatabase.beginTransaction();
-                    }
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            mMapsDatabase.setTransactionSuccessful();
-            mMapsDatabase.endTransaction();
-            logger.error("  imported features");
+    /**
+     * Sets listener that receives combined progress of all queued map imports.
+     */
+    public void setImportProgressListener(@Nullable ProgressListener progressListener) {
+        mImportQueue.setProgressListener(progressListener);
+    }
 
-            // copy feature names
-            statement = mMapsDatabase.compileStatement("REPLACE INTO " + TABLE_FEATURE_NAMES + " VALUES (?,?,?)");
-            mMapsDatabase.beginTransaction();
-            cursor = database.query(TABLE_FEATURE_NAMES, ALL_COLUMNS_FEATURE_NAMES, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                statement.clearBindings();
-                statement.bindLong(1, cursor.getLong(0));
-                statement.bindLong(2, cursor.getInt(1));
-                statement.bindLong(3, cursor.getLong(2));
-                statement.execute();
-                if (progressListener != null) {
-                    progress++;
-                    progressListener.onProgressChanged(progress);
-                    if (huge && progress % step == 0) {
-                        mMapsDatabase.setTransactionSuccessful();
-                        mMapsDatabase.endTransaction();
-                        mMapsDatabase.beginTransaction();
-                    }
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            mMapsDatabase.setTransactionSuccessful();
-            mMapsDatabase.endTransaction();
-            logger.error("  imported feature names");
-
-            // remove gone features
-            statement = mMapsDatabase.compileStatement(SQL_REMOVE_GONE_FEATURES);
-            statement.bindLong(1, x);
-            statement.bindLong(2, x + 1);
-            statement.bindLong(3, y);
-            statement.bindLong(4, y + 1);
-            mMapsDatabase.beginTransaction();
-            num = statement.executeUpdateDelete();
-            if (progressListener != null) {
-                progress += 1000;
-                progressListener.onProgressChanged(progress);
-            }
-            mMapsDatabase.setTransactionSuccessful();
-            mMapsDatabase.endTransaction();
-            logger.error("  removed gone features: {}", num);
+    void onMapImported(int x, int y, short date) {
+        setDownloaded(x, y, date);
+    }
 
-            // copy tiles
-            statement = mMapsDatabase.compileStatement("REPLACE INTO " + TABLE_TILES + " VALUES (?,?,?,?)");
-            mMapsDatabase.beginTransaction();
-            cursor = database.query(TABLE_TILES, ALL_COLUMNS_TILES, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                statement.clearBindings();
-                statement.bindLong(1, cursor.getInt(0));
-                statement.bindLong(2, cursor.getInt(1));
-                statement.bindLong(3, cursor.getInt(2));
-                statement.bindBlob(4, cursor.getBlob(3));
-                statement.execute();
-                if (progressListener != null) {
-                    progress++;
-                    progressListener.onProgressChanged(progress);
-                    if (huge && progress % step == 0) {
-                        mMapsDatabase.setTransactionSuccessful();
-                        mMapsDatabase.endTransaction();
-                        mMapsDatabase.beginTransaction();
-                    }
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            mMapsDatabase.setTransactionSuccessful();
-            mMapsDatabase.endTransaction();
-            logger.error("  imported tiles");
+    void onMapImportFailed(int x, int y, Exception e) {
+        MapTrek.getApplication().registerException(e);
+        setDownloading(x, y, 0L, 0L);
+    }
 
-            database.close();
-            setDownloaded(x, y, date);
-            logger.error("Import complete");
-        } catch (SQLiteException e) {
-            MapTrek.getApplication().registerException(e);
-            logger.error("Import failed", e);
-            setDownloading(x, y, 0L, 0L);
+    public boolean processDownloadedHillshade(int x, int y, String filePath, @Nullable ProgressListener progressListener) {
+        // hillshade import updates maps database and is performed by import writer
+        try {
+            return mImportQueue.write(() -> importHillshade(x, y, filePath, progressListener));
+        } catch (InterruptedException e) {
+            logger.error("Import interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            MapTrek.getApplication().registerException(e.getCause());
+            logger.error("Import failed", e.getCause());
             return false;
-        } finally {
-            if (mMapsDatabase.inTransaction())
-                mMapsDatabase.endTransaction();
-            if (progressListener != null)
-                progressListener.onProgressFinished();
-            //noinspection ResultOfMethodCallIgnored
-            mapFile.delete();
         }
-        return true;
     }
 
-    public boolean processDownloadedHillshade(int x, int y, String filePath, @Nullable ProgressListener progressListener) {
+    private boolean importHillshade(int x, int y, String filePath, @Nullable ProgressListener progressListener) {
         File mapFile = new File(filePath);
         try {
             logger.error("Importing from {}", mapFile.getName());
@@ -929,15 +684,60 @@ public class Index {
         }
     }
 
-    private int checkDownloadStatus(long enqueue) {
+    /**
+     * Clears downloads that are not active any more, download manager is queried once for
+     * all of them. Results are applied on main thread as map state listeners are notified.
+     */
+    private void reconcileDownloads(ArrayList<int[]> downloads) {
+        long[] ids = new long[downloads.size() * 2];
+        int n = 0;
+        for (int[] xy : downloads) {
+            MapStatus mapStatus = mMaps[xy[0]][xy[1]];
+            if (mapStatus.downloading != 0L)
+                ids[n++] = mapStatus.downloading;
+            if (mapStatus.hillshadeDownloading != 0L)
+                ids[n++] = mapStatus.hillshadeDownloading;
+        }
+        // downloads missing in download manager are considered inactive
+        LongSparseArray<Integer> statuses = new LongSparseArray<>(n);
+        for (int i = 0; i < n; i++)
+            statuses.put(ids[i], 0);
         DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterById(enqueue);
-        Cursor c = mDownloadManager.query(query);
-        int status = 0;
-        if (c.moveToFirst())
-            status = c.getInt(c.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS));
-        c.close();
-        return status;
+        query.setFilterById(Arrays.copyOf(ids, n));
+        try (Cursor c = mDownloadManager.query(query)) {
+            int idColumn = c.getColumnIndexOrThrow(DownloadManager.COLUMN_ID);
+            int statusColumn = c.getColumnIndexOrThrow(DownloadManager.COLUMN_STATUS);
+            while (c.moveToNext())
+                statuses.put(c.getLong(idColumn), c.getInt(statusColumn));
+        }
+        new Handler(Looper.getMainLooper()).post(() -> {
+            for (int[] xy : downloads) {
+                MapStatus mapStatus = mMaps[xy[0]][xy[1]];
+                long downloading = isActiveDownload(statuses, mapStatus.downloading) ?
+                        mapStatus.downloading : 0L;
+                long hillshadeDownloading = isActiveDownload(statuses, mapStatus.hillshadeDownloading) ?
+                        mapStatus.hillshadeDownloading : 0L;
+                logger.debug("download({}, {}): {} {}", xy[0], xy[1], downloading, hillshadeDownloading);
+                if (downloading != mapStatus.downloading || hillshadeDownloading != mapStatus.hillshadeDownloading)
+                    setDownloading(xy[0], xy[1], downloading, hillshadeDownloading);
+            }
+            MapTrek.traceStartup("downloads reconciled");
+        });
+    }
+
+    /**
+     * Downloads that were started after download manager was queried are considered
+     * active.
+     */
+    private static boolean isActiveDownload(LongSparseArray<Integer> statuses, long id) {
+        int index = statuses.indexOfKey(id);
+        return index < 0 || isActiveDownload(statuses.valueAt(index));
+    }
+
+    private static boolean isActiveDownload(int status) {
+        return status == DownloadManager.STATUS_PAUSED
+                || status == DownloadManager.STATUS_PENDING
+                || status == DownloadManager.STATUS_RUNNING;
     }
 
     public boolean hasDownloadSizes() {
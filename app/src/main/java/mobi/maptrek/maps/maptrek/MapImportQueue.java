@@ -0,0 +1,315 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.maps.maptrek;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mobi.maptrek.util.ProgressListener;
+
+/**
+ * Two stage pipeline for native map import. Downloaded files are opened, validated and
+ * prepared concurrently by several threads while all writes to maps database are performed
+ * by single writer thread. Number of prepared maps waiting for writer is limited, preparation
+ * threads block until writer catches up. Import of every map square can be cancelled until
+ * writer starts to process it.
+ */
+class MapImportQueue {
+    private static final Logger logger = LoggerFactory.getLogger(MapImportQueue.class);
+
+    static final int PREPARATION_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+    private static final int MAX_PREPARED = 2;
+    private static final long KEEP_ALIVE_TIME = 30; // seconds
+    private static final long MERGE_DELAY = 10; // seconds
+    private static final long MERGE_BUDGET = 500; // milliseconds
+
+    private final Index mIndex;
+    private final SQLiteDatabase mMapsDatabase;
+    private final ThreadPoolExecutor mPreparationExecutor;
+    private final ScheduledThreadPoolExecutor mWriterExecutor;
+    private final AtomicBoolean mMergeScheduled = new AtomicBoolean();
+    private final Semaphore mPreparedPermits = new Semaphore(MAX_PREPARED);
+    private final Map<Integer, ImportTask> mTasks = new ConcurrentHashMap<>();
+    private ProgressListener mProgressListener;
+    private int mTotalLength;
+    private int mTotalProgress;
+
+    MapImportQueue(Index index, SQLiteDatabase mapsDatabase) {
+        mIndex = index;
+        mMapsDatabase = mapsDatabase;
+        // threads are released when queue is idle as index can be recreated
+        mPreparationExecutor = new ThreadPoolExecutor(PREPARATION_THREADS, PREPARATION_THREADS,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mPreparationExecutor.allowCoreThreadTimeOut(true);
+        mWriterExecutor = new ScheduledThreadPoolExecutor(1);
+        mWriterExecutor.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        mWriterExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets listener that receives combined progress of all queued imports.
+     */
+    synchronized void setProgressListener(@Nullable ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Queues map import and waits for its completion.
+     *
+     * @return true if map was successfully imported
+     */
+    boolean importMap(int x, int y, String filePath, @Nullable ProgressListener progressListener) throws InterruptedException {
+        ImportTask task = new ImportTask(x, y, filePath, progressListener);
+        ImportTask previous = mTasks.put(key(x, y), task);
+        if (previous != null)
+            previous.cancelled = true;
+        mPreparationExecutor.execute(() -> prepare(task));
+        task.latch.await();
+        return task.success;
+    }
+
+    /**
+     * Cancels import of specified map square if writer has not yet started to process it.
+     */
+    void cancel(int x, int y) {
+        ImportTask task = mTasks.get(key(x, y));
+        if (task != null) {
+            logger.debug("Cancel import of {} {}", x, y);
+            task.cancelled = true;
+        }
+    }
+
+    /**
+     * Runs operation on writer thread, should be used for all maps database modifications
+     * that can interfere with import.
+     */
+    <T> T write(Callable<T> operation) throws InterruptedException, ExecutionException {
+        return mWriterExecutor.submit(operation).get();
+    }
+
+    /**
+     * Runs operation on writer thread without waiting for its completion.
+     */
+    void execute(Runnable operation) {
+        mWriterExecutor.execute(operation);
+    }
+
+    /**
+     * Schedules merge of full text index segments. Merge is performed by writer in small
+     * steps with limited time budget and only when there are no queued imports.
+     */
+    void scheduleMerge() {
+        if (mMergeScheduled.compareAndSet(false, true))
+            mWriterExecutor.schedule(this::merge, MERGE_DELAY, TimeUnit.SECONDS);
+    }
+
+    private void merge() {
+        mMergeScheduled.set(false);
+        // merge will be rescheduled when queue is drained
+        if (!mTasks.isEmpty())
+            return;
+        try {
+            if (!MapTrekDatabaseHelper.hasFullTextIndex(mMapsDatabase))
+                return;
+            if (MapTrekDatabaseHelper.mergeFullTextIndex(mMapsDatabase, MERGE_BUDGET))
+                logger.debug("FTS index merged");
+            else
+                scheduleMerge();
+        } catch (SQLiteException | IllegalStateException e) {
+            // database can be closed when application is idle
+            logger.warn("FTS merge failed: {}", e.getMessage());
+        }
+    }
+
+    private void prepare(ImportTask task) {
+        try {
+            mPreparedPermits.acquire();
+        } catch (InterruptedException e) {
+            finish(task, false);
+            return;
+        }
+        boolean queued = false;
+        try {
+            if (task.cancelled)
+                return;
+            // database is opened for writing as maps database is attached to it
+            task.database = SQLiteDatabase.openDatabase(task.filePath, null, SQLiteDatabase.OPEN_READWRITE);
+            task.importer = new MapImporter(task.database, mMapsDatabase);
+            task.importer.prepare();
+            task.onProgressStarted(task.importer.getProgressLength());
+            mWriterExecutor.execute(() -> write(task));
+            queued = true;
+        } catch (RuntimeException e) {
+            logger.error("Import preparation failed", e);
+            mIndex.onMapImportFailed(task.x, task.y, e);
+        } finally {
+            if (!queued)
+                release(task, false);
+        }
+    }
+
+    private void write(ImportTask task) {
+        boolean success = false;
+        try {
+            if (task.cancelled)
+                return;
+            logger.error("Importing from {}", new File(task.filePath).getName());
+            boolean hasFts = MapTrekDatabaseHelper.hasFullTextIndex(mMapsDatabase);
+            task.importer.importMap(task.x, task.y, hasFts, task);
+            mIndex.onMapImported(task.x, task.y, task.importer.getDate());
+            logger.error("Import complete");
+            success = true;
+        } catch (RuntimeException e) {
+            logger.error("Import failed", e);
+            mIndex.onMapImportFailed(task.x, task.y, e);
+        } finally {
+            release(task, success);
+        }
+    }
+
+    /**
+     * Releases resources and preparation permit held by task.
+     */
+    private void release(ImportTask task, boolean success) {
+        if (task.database != null)
+            task.database.close();
+        mPreparedPermits.release();
+        finish(task, success);
+    }
+
+    /**
+     * Removes downloaded file and completes task, should be called exactly once for every task.
+     */
+    private void finish(ImportTask task, boolean success) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(task.filePath).delete();
+        mTasks.remove(key(task.x, task.y), task);
+        task.onProgressFinished();
+        task.finish(success);
+    }
+
+    private synchronized void onTaskStarted(int length) {
+        mTotalLength += length;
+        if (mProgressListener != null) {
+            mProgressListener.onProgressStarted(mTotalLength);
+            mProgressListener.onProgressChanged(mTotalProgress);
+        }
+    }
+
+    private synchronized void onTaskProgress(int delta) {
+        mTotalProgress += delta;
+        if (mProgressListener != null)
+            mProgressListener.onProgressChanged(mTotalProgress);
+    }
+
+    private synchronized void onTaskFinished() {
+        if (!mTasks.isEmpty())
+            return;
+        mTotalLength = 0;
+        mTotalProgress = 0;
+        if (mProgressListener != null)
+            mProgressListener.onProgressFinished();
+        scheduleMerge();
+    }
+
+    private static int key(int x, int y) {
+        return (x << 16) | (y & 0xffff);
+    }
+
+    private class ImportTask implements ProgressListener {
+        final int x;
+        final int y;
+        final String filePath;
+        final ProgressListener progressListener;
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile boolean cancelled;
+        boolean success;
+        SQLiteDatabase database;
+        MapImporter importer;
+        int length;
+        int progress;
+
+        ImportTask(int x, int y, String filePath, @Nullable ProgressListener progressListener) {
+            this.x = x;
+            this.y = y;
+            this.filePath = filePath;
+            this.progressListener = progressListener;
+        }
+
+        void finish(boolean success) {
+            this.success = success;
+            latch.countDown();
+        }
+
+        @Override
+        public void onProgressStarted(int length) {
+            this.length = length;
+            onTaskStarted(length);
+            if (progressListener != null)
+                progressListener.onProgressStarted(length);
+        }
+
+        @Override
+        public void onProgressChanged(int progress) {
+            onTaskProgress(progress - this.progress);
+            this.progress = progress;
+            if (progressListener != null)
+                progressListener.onProgressChanged(progress);
+        }
+
+        @Override
+        public void onProgressFinished() {
+            // account skipped progress of cancelled and failed imports
+            if (length > progress)
+                onTaskProgress(length - progress);
+            progress = length;
+            onTaskFinished();
+            if (progressListener != null)
+                progressListener.onProgressFinished();
+        }
+
+        @Override
+        public void onProgressFinished(Bundle data) {
+            onProgressFinished();
+        }
+
+        @Override
+        public void onProgressAnnotated(String annotation) {
+            if (progressListener != null)
+                progressListener.onProgressAnnotated(annotation);
+        }
+    }
+}
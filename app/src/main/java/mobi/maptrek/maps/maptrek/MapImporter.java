@@ -0,0 +1,397 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.maps.maptrek;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mobi.maptrek.util.ProgressListener;
+
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_ENUM1;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_FLAGS;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_ID;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_KIND;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_LAT;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_LON;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_OPENING_HOURS;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_PHONE;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_TYPE;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_WEBSITE;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_WIKIPEDIA;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_X;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_Y;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_INFO_VALUE;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAP_FEATURES_COLUMN;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_MAP_FEATURES_ROW;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_NAMES_NAME;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_FEATURE_NAMES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_NAMES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.ALL_COLUMNS_TILES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_INSERT_GONE_FEATURE_NAMES_DELTA;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_GONE_FEATURES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.SQL_REMOVE_GONE_FEATURE_NAMES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_FEATURES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_FEATURE_NAMES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_INFO;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_MAP_FEATURES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_NAMES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_NAMES_DELTA;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_NAMES_FTS;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.TABLE_TILES;
+import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.WHERE_INFO_NAME;
+
+/**
+ * Imports downloaded native map with set-based SQL. Maps database is attached to the
+ * connection of downloaded file (and not vice versa) because Android disables write-ahead
+ * logging on connections with attached databases and maps database is concurrently read by
+ * tile loaders. Every table is copied in its own transaction, tiles are additionally split
+ * in bands of columns, so that maps database is not locked for the whole import.
+ */
+class MapImporter {
+    private static final Logger logger = LoggerFactory.getLogger(MapImporter.class);
+
+    private static final String MAPS = "maps";
+    private static final String TABLE_ROWS = "temp.fourteenth_rows";
+    private static final int TILE_BAND = 16;
+
+    private static final String[] REQUIRED_TABLES = {
+            TABLE_INFO, TABLE_NAMES, TABLE_FEATURES, TABLE_FEATURE_NAMES, TABLE_TILES
+    };
+    private static final String SQL_COUNT_TABLES = "SELECT count(*) FROM sqlite_master WHERE "
+            + "type = 'table' AND name IN ('" + TextUtils.join("', '", REQUIRED_TABLES) + "')";
+
+    private static final String PLACED = "lat IS NOT NULL AND lon IS NOT NULL";
+
+    // Fourteenth zoom row is determined by top latitudes of tile rows as there are no
+    // math functions in Android SQLite
+    private static final String SQL_CREATE_ROWS = "CREATE TEMP TABLE IF NOT EXISTS "
+            + "fourteenth_rows (tile_row INTEGER PRIMARY KEY, latitude REAL)";
+    private static final String SQL_INDEX_ROWS = "CREATE UNIQUE INDEX IF NOT EXISTS "
+            + "temp.fourteenth_rows_latitude ON fourteenth_rows (latitude)";
+    private static final String SQL_FOURTEENTH_X = "min(max(CAST((" + COLUMN_FEATURES_LON
+            + " + 180) / 360 * 16384 AS INTEGER), 0), 16383)";
+    private static final String SQL_FOURTEENTH_Y = "ifnull((SELECT tile_row FROM " + TABLE_ROWS
+            + " WHERE latitude >= " + TABLE_FEATURES + "." + COLUMN_FEATURES_LAT
+            + " ORDER BY latitude LIMIT 1), 0)";
+
+    // names that are new or differ from those in maps database
+    private static final String SQL_CHANGED_NAMES = " FROM main." + TABLE_NAMES + " AS d WHERE "
+            + "NOT EXISTS (SELECT 1 FROM " + MAPS + "." + TABLE_NAMES + " AS m WHERE m."
+            + ALL_COLUMNS_NAMES[0] + " = d." + ALL_COLUMNS_NAMES[0] + " AND m."
+            + ALL_COLUMNS_NAMES[1] + " = d." + ALL_COLUMNS_NAMES[1] + ")";
+    // external content index requires original values to delete entries so it is done
+    // before names are replaced
+    private static final String SQL_REMOVE_CHANGED_NAMES_FTS = "DELETE FROM " + MAPS + "."
+            + TABLE_NAMES_FTS + " WHERE docid IN (SELECT m." + ALL_COLUMNS_NAMES[0] + " FROM main."
+            + TABLE_NAMES + " AS d INNER JOIN " + MAPS + "." + TABLE_NAMES + " AS m ON (m."
+            + ALL_COLUMNS_NAMES[0] + " = d." + ALL_COLUMNS_NAMES[0] + ") WHERE m."
+            + ALL_COLUMNS_NAMES[1] + " != d." + ALL_COLUMNS_NAMES[1] + ")";
+    private static final String SQL_IMPORT_NAMES_FTS = "INSERT INTO " + MAPS + "."
+            + TABLE_NAMES_FTS + " (docid, " + COLUMN_NAMES_NAME + ") SELECT d."
+            + ALL_COLUMNS_NAMES[0] + ", d." + ALL_COLUMNS_NAMES[1] + SQL_CHANGED_NAMES;
+    private static final String SQL_IMPORT_NAMES = "REPLACE INTO " + MAPS + "." + TABLE_NAMES
+            + " (" + TextUtils.join(", ", ALL_COLUMNS_NAMES) + ") SELECT d."
+            + ALL_COLUMNS_NAMES[0] + ", d." + ALL_COLUMNS_NAMES[1] + SQL_CHANGED_NAMES;
+    private static final String SQL_REMOVE_MAP_FEATURES = "DELETE FROM " + MAPS + "."
+            + TABLE_MAP_FEATURES + " WHERE " + COLUMN_MAP_FEATURES_COLUMN + " = ? AND "
+            + COLUMN_MAP_FEATURES_ROW + " = ?";
+    private static final String SQL_IMPORT_MAP_FEATURES = "INSERT INTO " + MAPS + "."
+            + TABLE_MAP_FEATURES + " SELECT ?, ?, " + COLUMN_FEATURES_ID + " FROM main."
+            + TABLE_FEATURES;
+    private static final String SQL_IMPORT_FEATURE_NAMES = "REPLACE INTO " + MAPS + "."
+            + TABLE_FEATURE_NAMES + " (" + TextUtils.join(", ", ALL_COLUMNS_FEATURE_NAMES)
+            + ") SELECT " + TextUtils.join(", ", ALL_COLUMNS_FEATURE_NAMES) + " FROM main."
+            + TABLE_FEATURE_NAMES;
+    // replaced feature names can leave names without references
+    private static final String SQL_INSERT_REPLACED_NAMES_DELTA = "INSERT OR IGNORE INTO "
+            + MAPS + "." + TABLE_NAMES_DELTA + " SELECT m." + ALL_COLUMNS_FEATURE_NAMES[2]
+            + " FROM main." + TABLE_FEATURE_NAMES + " AS d INNER JOIN " + MAPS + "."
+            + TABLE_FEATURE_NAMES + " AS m ON (m." + ALL_COLUMNS_FEATURE_NAMES[0] + " = d."
+            + ALL_COLUMNS_FEATURE_NAMES[0] + " AND m." + ALL_COLUMNS_FEATURE_NAMES[1] + " = d."
+            + ALL_COLUMNS_FEATURE_NAMES[1] + ") WHERE m." + ALL_COLUMNS_FEATURE_NAMES[2]
+            + " != d." + ALL_COLUMNS_FEATURE_NAMES[2];
+    private static final String SQL_SELECT_TILE_BANDS = "SELECT " + ALL_COLUMNS_TILES[0]
+            + ", min(" + ALL_COLUMNS_TILES[1] + "), max(" + ALL_COLUMNS_TILES[1] + ") FROM main."
+            + TABLE_TILES + " GROUP BY " + ALL_COLUMNS_TILES[0];
+    private static final String SQL_IMPORT_TILES = "REPLACE INTO " + MAPS + "." + TABLE_TILES
+            + " (" + TextUtils.join(", ", ALL_COLUMNS_TILES) + ") SELECT "
+            + TextUtils.join(", ", ALL_COLUMNS_TILES) + " FROM main." + TABLE_TILES + " WHERE "
+            + ALL_COLUMNS_TILES[0] + " = ? AND " + ALL_COLUMNS_TILES[1] + " >= ? AND "
+            + ALL_COLUMNS_TILES[1] + " < ?";
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteDatabase mMapsDatabase;
+    private short mVersion = 0;
+    private short mDate = 0;
+
+    /**
+     * @param database     downloaded map database, should be opened for writing
+     * @param mapsDatabase main maps database
+     */
+    MapImporter(SQLiteDatabase database, SQLiteDatabase mapsDatabase) {
+        mDatabase = database;
+        mMapsDatabase = mapsDatabase;
+    }
+
+    /**
+     * Reads and validates map information and prepares auxiliary data. Does not touch maps
+     * database so it can be called concurrently for different maps. Should be called before
+     * import.
+     */
+    void prepare() throws SQLiteException {
+        long tables = DatabaseUtils.longForQuery(mDatabase, SQL_COUNT_TABLES, null);
+        if (tables < REQUIRED_TABLES.length)
+            throw new SQLiteException("Map file misses required tables");
+        mVersion = getInfoValue("version");
+        mDate = getInfoValue("timestamp");
+        logger.error("Version: {} Date: {}", mVersion, mDate);
+        createRowsTable();
+    }
+
+    short getVersion() {
+        return mVersion;
+    }
+
+    short getDate() {
+        return mDate;
+    }
+
+    /**
+     * Returns number of progress steps that import takes.
+     */
+    int getProgressLength() {
+        long total = 2000;
+        total += DatabaseUtils.queryNumEntries(mDatabase, TABLE_NAMES);
+        total += DatabaseUtils.queryNumEntries(mDatabase, TABLE_FEATURES);
+        total += DatabaseUtils.queryNumEntries(mDatabase, TABLE_FEATURE_NAMES);
+        total += DatabaseUtils.queryNumEntries(mDatabase, TABLE_TILES);
+        return (int) total;
+    }
+
+    void importMap(int x, int y, boolean hasFts, @Nullable ProgressListener progressListener) throws SQLiteException {
+        int progress = 0;
+        mDatabase.execSQL("ATTACH DATABASE ? AS " + MAPS, new Object[]{mMapsDatabase.getPath()});
+        try {
+            // copy names
+            mDatabase.beginTransaction();
+            try {
+                if (hasFts) {
+                    mDatabase.execSQL(SQL_REMOVE_CHANGED_NAMES_FTS);
+                    mDatabase.execSQL(SQL_IMPORT_NAMES_FTS);
+                }
+                int num = executeUpdateDelete(SQL_IMPORT_NAMES);
+                logger.error("  changed names: {}", num);
+                progress += DatabaseUtils.queryNumEntries(mDatabase, TABLE_NAMES);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            logger.error("  imported names");
+            if (progressListener != null)
+                progressListener.onProgressChanged(progress);
+
+            // replace features and their references
+            mDatabase.beginTransaction();
+            try {
+                SQLiteStatement statement = mDatabase.compileStatement(SQL_REMOVE_MAP_FEATURES);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                int num = statement.executeUpdateDelete();
+                statement.close();
+                logger.error("  removed feature references: {}", num);
+                progress += 1000;
+                progress += executeUpdateDelete(getImportFeaturesSql(mVersion));
+                statement = mDatabase.compileStatement(SQL_IMPORT_MAP_FEATURES);
+                statement.bindLong(1, x);
+                statement.bindLong(2, y);
+                statement.executeUpdateDelete();
+                statement.close();
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            logger.error("  imported features");
+            if (progressListener != null)
+                progressListener.onProgressChanged(progress);
+
+            // copy feature names
+            mDatabase.beginTransaction();
+            try {
+                mDatabase.execSQL(SQL_INSERT_REPLACED_NAMES_DELTA);
+                progress += executeUpdateDelete(SQL_IMPORT_FEATURE_NAMES);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            logger.error("  imported feature names");
+            if (progressListener != null)
+                progressListener.onProgressChanged(progress);
+
+            // remove gone features and names that are not used any more, statements refer
+            // main database tables so they are executed by maps database connection
+            int num;
+            mMapsDatabase.beginTransaction();
+            try {
+                executeOnSquare(SQL_INSERT_GONE_FEATURE_NAMES_DELTA, x, y);
+                executeOnSquare(SQL_REMOVE_GONE_FEATURE_NAMES, x, y);
+                num = executeOnSquare(SQL_REMOVE_GONE_FEATURES, x, y);
+                MapTrekDatabaseHelper.removeUnusedNames(mMapsDatabase, hasFts);
+                mMapsDatabase.setTransactionSuccessful();
+            } finally {
+                mMapsDatabase.endTransaction();
+            }
+            progress += 1000;
+            logger.error("  removed gone features: {}", num);
+            if (progressListener != null)
+                progressListener.onProgressChanged(progress);
+
+            // copy tiles
+            SQLiteStatement statement = mDatabase.compileStatement(SQL_IMPORT_TILES);
+            try (Cursor cursor = mDatabase.rawQuery(SQL_SELECT_TILE_BANDS, null)) {
+                while (cursor.moveToNext()) {
+                    int z = cursor.getInt(0);
+                    int min = cursor.getInt(1);
+                    int max = cursor.getInt(2);
+                    for (int c = min; c <= max; c += TILE_BAND) {
+                        mDatabase.beginTransaction();
+                        try {
+                            statement.bindLong(1, z);
+                            statement.bindLong(2, c);
+                            statement.bindLong(3, c + TILE_BAND);
+                            progress += statement.executeUpdateDelete();
+                            mDatabase.setTransactionSuccessful();
+                        } finally {
+                            mDatabase.endTransaction();
+                        }
+                        if (progressListener != null)
+                            progressListener.onProgressChanged(progress);
+                    }
+                }
+            }
+            statement.close();
+            logger.error("  imported tiles");
+        } finally {
+            mDatabase.execSQL("DETACH DATABASE " + MAPS);
+        }
+    }
+
+    private int executeOnSquare(String sql, int x, int y) {
+        SQLiteStatement statement = mMapsDatabase.compileStatement(sql);
+        statement.bindLong(1, x);
+        statement.bindLong(2, x + 1);
+        statement.bindLong(3, y);
+        statement.bindLong(4, y + 1);
+        int num = statement.executeUpdateDelete();
+        statement.close();
+        return num;
+    }
+
+    private short getInfoValue(String name) {
+        short value = 0;
+        try (Cursor cursor = mDatabase.query(TABLE_INFO, new String[]{COLUMN_INFO_VALUE},
+                WHERE_INFO_NAME, new String[]{name}, null, null, null)) {
+            if (cursor.moveToFirst())
+                value = Short.parseShort(cursor.getString(0));
+        }
+        return value;
+    }
+
+    private int executeUpdateDelete(String sql) {
+        SQLiteStatement statement = mDatabase.compileStatement(sql);
+        int num = statement.executeUpdateDelete();
+        statement.close();
+        return num;
+    }
+
+    private void createRowsTable() {
+        mDatabase.execSQL(SQL_CREATE_ROWS);
+        mDatabase.execSQL(SQL_INDEX_ROWS);
+        if (DatabaseUtils.queryNumEntries(mDatabase, TABLE_ROWS) > 0)
+            return;
+        mDatabase.beginTransaction();
+        try {
+            SQLiteStatement statement = mDatabase.compileStatement("INSERT INTO " + TABLE_ROWS + " VALUES (?,?)");
+            for (int row = 0; row < 16384; row++) {
+                double n = Math.PI * (1 - 2.0 * row / 16384);
+                statement.bindLong(1, row);
+                statement.bindDouble(2, Math.toDegrees(Math.atan(Math.sinh(n))));
+                statement.executeInsert();
+            }
+            statement.close();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Constructs features import statement mapping downloaded table columns according
+     * to map version.
+     */
+    private static String getImportFeaturesSql(int version) {
+        String[] values = new String[ALL_COLUMNS_FEATURES.length];
+        for (int i = 0; i < values.length; i++) {
+            String column = ALL_COLUMNS_FEATURES[i];
+            String value;
+            switch (column) {
+                case COLUMN_FEATURES_ID:
+                case COLUMN_FEATURES_KIND:
+                    value = column;
+                    break;
+                case COLUMN_FEATURES_TYPE:
+                    value = version == 1 ? "NULL" : column;
+                    break;
+                case COLUMN_FEATURES_LAT:
+                case COLUMN_FEATURES_LON:
+                    value = "CASE WHEN " + PLACED + " THEN " + column + " END";
+                    break;
+                case COLUMN_FEATURES_OPENING_HOURS:
+                case COLUMN_FEATURES_PHONE:
+                case COLUMN_FEATURES_WIKIPEDIA:
+                case COLUMN_FEATURES_WEBSITE:
+                    value = version == 1 ? "NULL" : "CASE WHEN " + PLACED + " THEN " + column + " END";
+                    break;
+                case COLUMN_FEATURES_FLAGS:
+                case COLUMN_FEATURES_ENUM1:
+                    value = version < 3 ? "NULL" : "CASE WHEN " + PLACED + " THEN " + column + " END";
+                    break;
+                case COLUMN_FEATURES_X:
+                    value = version == 1 ? "NULL" : "CASE WHEN " + PLACED + " THEN " + SQL_FOURTEENTH_X + " END";
+                    break;
+                case COLUMN_FEATURES_Y:
+                    value = version == 1 ? "NULL" : "CASE WHEN " + PLACED + " THEN " + SQL_FOURTEENTH_Y + " END";
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected feature column: " + column);
+            }
+            values[i] = value;
+        }
+        return "REPLACE INTO " + MAPS + "." + TABLE_FEATURES + " ("
+                + TextUtils.join(", ", ALL_COLUMNS_FEATURES) + ") SELECT "
+                + TextUtils.join(", ", values) + " FROM main." + TABLE_FEATURES;
+    }
+}
@@ -18,14 +18,12 @@ package mobi.maptrek.maps.maptrek;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.util.Pair;
 
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.core.BoundingBox;
 import org.oscim.core.GeometryBuffer;
 import org.oscim.core.MapElement;
 import org.oscim.core.MercatorProjection;
-import org.oscim.core.Point;
 import org.oscim.core.Tag;
 import org.oscim.core.Tile;
 import org.oscim.layers.tile.MapTile;
@@ -36,8 +34,6 @@ import org.oscim.tiling.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-
 import mobi.maptrek.layers.MapTrekTileLayer;
 
 import static mobi.maptrek.maps.maptrek.MapTrekDatabaseHelper.COLUMN_FEATURES_ENUM1;
@@ -63,17 +59,43 @@ class MapTrekDataSource implements ITileDataSource {
 
     private static final String SQL_GET_TILE = "SELECT " + COLUMN_TILES_DATA + " FROM " + TABLE_TILES + " WHERE " + WHERE_TILE_ZXY;
 
+    private static final String SQL_SELECT_FEATURES = "SELECT DISTINCT " + COLUMN_FEATURES_ID
+            + ", " + COLUMN_FEATURES_KIND + ", " + COLUMN_FEATURES_TYPE + ", "
+            + COLUMN_FEATURES_LAT + ", " + COLUMN_FEATURES_LON + ", " + COLUMN_FEATURES_FLAGS
+            + ", " + COLUMN_FEATURES_ENUM1 + " FROM " + TABLE_FEATURES + " WHERE ";
+
+    private static final String SQL_GET_HIGHLIGHTED_FEATURES = SQL_SELECT_FEATURES
+            + COLUMN_FEATURES_TYPE + " = ? AND "
+            + COLUMN_FEATURES_X + " >= ? AND " + COLUMN_FEATURES_X + " <= ? AND "
+            + COLUMN_FEATURES_Y + " >= ? AND " + COLUMN_FEATURES_Y + " <= ?";
+
     private static final int MAX_NATIVE_ZOOM = 14;
 
     private static final Tag TAG_TREE = new Tag("natural", "tree");
 
     private final MapTrekTileDecoder mTileDecoder;
+    private final DecodedTileCache mTileCache;
+    private final FeatureNameCache mNameCache;
+    private final ExtendedMapElement mElement;
+    private final ExtendedMapElement mFeatureElement;
     private final SQLiteDatabase mDatabase;
+    // SQLite caches compiled statements by SQL text, so queries are built only once
+    // for each zoom level and amenity visibility state
+    private final String[] mFeatureSelectors = new String[4];
+    private final String[] mFeatureQueries = new String[4];
+    private final String[] mTileArgs = new String[3];
+    private final String[] mHighlightedArgs = new String[5];
+    private final String[] mFeatureArgs = new String[2];
+    private final String[] mBoundedFeatureArgs = new String[6];
     private boolean mContoursEnabled = true;
 
-    MapTrekDataSource(SQLiteDatabase database) {
+    MapTrekDataSource(SQLiteDatabase database, DecodedTileCache tileCache, FeatureNameCache nameCache) {
         mDatabase = database;
+        mTileCache = tileCache;
+        mNameCache = nameCache;
         mTileDecoder = new MapTrekTileDecoder();
+        mElement = new ExtendedMapElement();
+        mFeatureElement = new ExtendedMapElement(1, 1);
     }
 
     @Override
@@ -89,63 +111,73 @@ class MapTrekDataSource implements ITileDataSource {
             z = MAX_NATIVE_ZOOM;
         }
 
-        String[] tileArgs = {String.valueOf(z), String.valueOf(x), String.valueOf(y)};
         QueryResult result = tile.zoomLevel > 7 ? TILE_NOT_FOUND : SUCCESS;
-        try (Cursor c = mDatabase.rawQuery(SQL_GET_TILE, tileArgs)) {
-            if (c.moveToFirst()) {
-                byte[] bytes = c.getBlob(0);
-                ITileDataSink dataSink = new NativeTileDataSink(sink, tile);
-
-                if (zoomDiff > 0) {
-                    MapTile mapTile = new MapTile(tile.node, x, y, MAX_NATIVE_ZOOM);
-                    dataSink = new OverzoomDataSink(dataSink, mapTile, tile);
+        int decodeZoom = Math.min(tile.zoomLevel, 17);
+        long key = DecodedTileCache.key(z, x, y, decodeZoom, mTileCache.getVersion());
+        DecodedTileCache.Entry entry = mTileCache.get(key);
+        if (entry == null) {
+            mTileArgs[0] = String.valueOf(z);
+            mTileArgs[1] = String.valueOf(x);
+            mTileArgs[2] = String.valueOf(y);
+            try (Cursor c = mDatabase.rawQuery(SQL_GET_TILE, mTileArgs)) {
+                if (c.moveToFirst()) {
+                    byte[] bytes = c.getBlob(0);
+                    DecodedTileCache.CollectingDataSink collectingSink = new DecodedTileCache.CollectingDataSink();
+                    boolean ok = mTileDecoder.decode(tile, collectingSink, bytes);
+                    entry = collectingSink.getEntry();
+                    if (ok)
+                        mTileCache.put(key, entry);
+                    else
+                        result = FAILED;
+                } else {
+                    mTileCache.put(key, DecodedTileCache.NOT_FOUND);
                 }
+            } catch (Exception e) {
+                logger.error("Query error", e);
+                result = FAILED;
+            }
+        }
+
+        if (entry != null && entry != DecodedTileCache.NOT_FOUND) {
+            // resolve all names at once before labels request them
+            if (entry.ids.length > 0)
+                mNameCache.resolve(mDatabase, entry.ids);
 
-                boolean ok = mTileDecoder.decode(tile, dataSink, new ByteArrayInputStream(bytes));
-                result = ok ? SUCCESS : FAILED;
+            ITileDataSink dataSink = new NativeTileDataSink(sink, tile);
+
+            if (zoomDiff > 0) {
+                MapTile mapTile = new MapTile(tile.node, x, y, MAX_NATIVE_ZOOM);
+                dataSink = new OverzoomDataSink(dataSink, mapTile, tile);
             }
-        } catch (Exception e) {
-            logger.error("Query error", e);
-            result = FAILED;
+
+            entry.replay(mElement, dataSink);
+            if (result != FAILED)
+                result = SUCCESS;
         }
 
         if (Tags.highlightedType >= 0 && z > 7) {
             int dz = MAX_NATIVE_ZOOM - z;
-            int min_x = x << dz;
-            int min_y = y << dz;
-            int max_x = ((x + 1) << dz) - 1;
-            int max_y = ((y + 1) << dz) - 1;
-
-            String sql = "SELECT DISTINCT " + COLUMN_FEATURES_ID + ", " + COLUMN_FEATURES_KIND
-                    + ", " + COLUMN_FEATURES_TYPE + ", " + COLUMN_FEATURES_LAT + ", "
-                    + COLUMN_FEATURES_LON + " FROM " + TABLE_FEATURES + " WHERE "
-                    + COLUMN_FEATURES_TYPE + " = ? AND "
-                    + COLUMN_FEATURES_X + " >= ? AND " + COLUMN_FEATURES_X + " <= ? AND "
-                    + COLUMN_FEATURES_Y + " >= ? AND " + COLUMN_FEATURES_Y + " <= ?";
-            String[] featureArgs = new String[]{String.valueOf(Tags.highlightedType),
-                    String.valueOf(min_x), String.valueOf(max_x),
-                    String.valueOf(min_y), String.valueOf(max_y)};
-            addFeaturesToTile(tile, sink, sql, featureArgs);
+            mHighlightedArgs[0] = String.valueOf(Tags.highlightedType);
+            mHighlightedArgs[1] = String.valueOf(x << dz);
+            mHighlightedArgs[2] = String.valueOf(((x + 1) << dz) - 1);
+            mHighlightedArgs[3] = String.valueOf(y << dz);
+            mHighlightedArgs[4] = String.valueOf(((y + 1) << dz) - 1);
+            addFeaturesToTile(tile, sink, SQL_GET_HIGHLIGHTED_FEATURES, mHighlightedArgs);
         } else if (limitedZoomDiff >= 0 && Tags.typeSelectors[limitedZoomDiff].length() > 0) {
-            String sql = "SELECT DISTINCT " + COLUMN_FEATURES_ID + ", " + COLUMN_FEATURES_KIND
-                    + ", " + COLUMN_FEATURES_TYPE + ", " + COLUMN_FEATURES_LAT + ", "
-                    + COLUMN_FEATURES_LON + ", " + COLUMN_FEATURES_FLAGS  + ", "
-                    + COLUMN_FEATURES_ENUM1 + " FROM " + TABLE_FEATURES + " WHERE "
-                    + COLUMN_FEATURES_TYPE + " IN (" + Tags.typeSelectors[limitedZoomDiff] + ") AND "
-                    + COLUMN_FEATURES_X + " = ? AND " + COLUMN_FEATURES_Y + " = ?";
-
+            String sql = getFeaturesQuery(limitedZoomDiff);
             String[] featureArgs;
             if (limitedZoomDiff == 0) {
-                featureArgs = new String[]{String.valueOf(x), String.valueOf(y)};
+                featureArgs = mFeatureArgs;
             } else {
-                sql += " AND " + COLUMN_FEATURES_LAT + " >= ? AND " + COLUMN_FEATURES_LON
-                        + " >= ? AND " + COLUMN_FEATURES_LAT + " <= ? AND " + COLUMN_FEATURES_LON
-                        + " <= ?";
                 BoundingBox bb = tile.getBoundingBox();
-                featureArgs = new String[]{String.valueOf(x), String.valueOf(y),
-                        String.valueOf(bb.getMinLatitude()), String.valueOf(bb.getMinLongitude()),
-                        String.valueOf(bb.getMaxLatitude()), String.valueOf(bb.getMaxLongitude())};
+                featureArgs = mBoundedFeatureArgs;
+                featureArgs[2] = String.valueOf(bb.getMinLatitude());
+                featureArgs[3] = String.valueOf(bb.getMinLongitude());
+                featureArgs[4] = String.valueOf(bb.getMaxLatitude());
+                featureArgs[5] = String.valueOf(bb.getMaxLongitude());
             }
+            featureArgs[0] = String.valueOf(x);
+            featureArgs[1] = String.valueOf(y);
             addFeaturesToTile(tile, sink, sql, featureArgs);
         }
 
@@ -161,20 +193,50 @@ class MapTrekDataSource implements ITileDataSource {
     }
 
     String getName(int lang, long elementId) {
-        return MapTrekDatabaseHelper.getFeatureName(lang, elementId, mDatabase);
+        return mNameCache.getName(mDatabase, lang, elementId);
     }
 
     void setContoursEnabled(boolean enabled) {
         mContoursEnabled = enabled;
     }
 
+    /**
+     * Returns amenities query for specified zoom difference, rebuilding it only when
+     * amenity visibility has changed.
+     */
+    private String getFeaturesQuery(int zoomDiff) {
+        String selector = Tags.typeSelectors[zoomDiff];
+        //noinspection StringEquality
+        if (mFeatureSelectors[zoomDiff] != selector) {
+            String sql = SQL_SELECT_FEATURES + COLUMN_FEATURES_TYPE + " IN (" + selector + ") AND "
+                    + COLUMN_FEATURES_X + " = ? AND " + COLUMN_FEATURES_Y + " = ?";
+            if (zoomDiff > 0)
+                sql += " AND " + COLUMN_FEATURES_LAT + " >= ? AND " + COLUMN_FEATURES_LON
+                        + " >= ? AND " + COLUMN_FEATURES_LAT + " <= ? AND " + COLUMN_FEATURES_LON
+                        + " <= ?";
+            mFeatureQueries[zoomDiff] = sql;
+            mFeatureSelectors[zoomDiff] = selector;
+        }
+        return mFeatureQueries[zoomDiff];
+    }
+
     private void addFeaturesToTile(MapTile tile, ITileDataSink sink, String sql, String[] args) {
         MapTrekTileLayer.AmenityTileData td = get(tile);
 
         try (Cursor c = mDatabase.rawQuery(sql, args)) {
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++)
+                ids[i] = c.getLong(0);
+            mNameCache.resolve(mDatabase, ids);
+
             c.moveToFirst();
+            ExtendedMapElement element = mFeatureElement;
             while (!c.isAfterLast()) {
-                ExtendedMapElement element = new ExtendedMapElement(1, 1);
+                // element is reused as sink does not keep references to it
+                element.clear();
+                element.tags.clear();
+                element.clearData();
+                element.layer = 0;
                 element.id = c.getLong(0);
                 element.kind = c.getInt(1);
                 if (!c.isNull(5))
@@ -188,7 +250,7 @@ class MapTrekDataSource implements ITileDataSource {
                 double px = MercatorProjection.longitudeToX(c.getDouble(4));
                 double py = MercatorProjection.latitudeToY(c.getDouble(3));
 
-                td.amenities.add(new Pair<>(new Point(px, py), element.id));
+                td.add(px, py, element.id);
 
                 px = (px - tile.x) * tile.mapSize;
                 py = (py - tile.y) * tile.mapSize;
@@ -202,6 +264,7 @@ class MapTrekDataSource implements ITileDataSource {
         } catch (Exception e) {
             logger.error("Query error", e);
         }
+        td.buildIndex();
     }
 
     private class NativeTileDataSink implements ITileDataSink {
@@ -18,10 +18,12 @@ package mobi.maptrek.maps.maptrek;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 
 import org.slf4j.Logger;
@@ -40,7 +42,7 @@ import mobi.maptrek.util.Smaz;
 public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
     private static final Logger logger = LoggerFactory.getLogger(MapTrekDatabaseHelper.class);
 
-    private static final int DATABASE_VERSION = 7;
+    private static final int DATABASE_VERSION = 8;
 
     static final String TABLE_MAPS = "maps";
     static final String TABLE_MAP_FEATURES = "map_features";
@@ -48,6 +50,7 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
     static final String TABLE_TILES = "tiles";
     static final String TABLE_NAMES = "names";
     static final String TABLE_NAMES_FTS = "names_fts";
+    static final String TABLE_NAMES_DELTA = "names_delta";
     static final String TABLE_FEATURES = "features";
     static final String TABLE_FEATURE_NAMES = "feature_names";
 
@@ -58,8 +61,8 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
     static final String COLUMN_MAPS_DOWNLOADING = "downloading";
     static final String COLUMN_MAPS_HILLSHADE_DOWNLOADING = "hillshade_downloading";
 
-    private static final String COLUMN_MAP_FEATURES_COLUMN = "x";
-    private static final String COLUMN_MAP_FEATURES_ROW = "y";
+    static final String COLUMN_MAP_FEATURES_COLUMN = "x";
+    static final String COLUMN_MAP_FEATURES_ROW = "y";
     private static final String COLUMN_MAP_FEATURES_FEATURE = "feature";
 
     @SuppressWarnings("WeakerAccess")
@@ -139,6 +142,12 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
                     + TABLE_NAMES + "\", " + COLUMN_NAMES_NAME
                     + ")";
 
+    private static final String SQL_CREATE_NAMES_DELTA =
+            "CREATE TABLE IF NOT EXISTS "
+                    + TABLE_NAMES_DELTA + " ("
+                    + COLUMN_NAMES_REF + " INTEGER PRIMARY KEY"
+                    + ")";
+
     private static final String SQL_CREATE_FEATURES =
             "CREATE TABLE IF NOT EXISTS "
                     + TABLE_FEATURES + " ("
@@ -212,31 +221,44 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
             "DELETE FROM " + TABLE_FEATURES + " WHERE "
                     + COLUMN_FEATURES_ID + " IN (" + SQL_SELECT_GONE_FEATURES + ")";
 
-    static final String SQL_REMOVE_FEATURE_NAMES =
+    static final String SQL_INSERT_MAP_FEATURE_NAMES_DELTA =
+            "INSERT OR IGNORE INTO " + TABLE_NAMES_DELTA + " SELECT "
+                    + COLUMN_FEATURES_NAMES_NAME + " FROM "
+                    + TABLE_FEATURE_NAMES + " WHERE "
+                    + COLUMN_FEATURES_ID + " IN (" + SQL_SELECT_MAP_FEATURES + ")";
+
+    static final String SQL_REMOVE_MAP_FEATURE_NAMES =
             "DELETE FROM " + TABLE_FEATURE_NAMES + " WHERE "
-                    + COLUMN_FEATURES_ID + " IN (SELECT "
-                    + TABLE_FEATURE_NAMES + "." + COLUMN_FEATURES_ID + " FROM "
-                    + TABLE_FEATURE_NAMES + " LEFT JOIN "
-                    + TABLE_FEATURES + " ON ("
-                    + TABLE_FEATURE_NAMES + "." + COLUMN_FEATURES_ID + " = "
-                    + TABLE_FEATURES + "." + COLUMN_FEATURES_ID + ") WHERE "
-                    + TABLE_FEATURES + "." + COLUMN_FEATURES_ID + " IS NULL)";
-
-    static final String SQL_SELECT_UNUSED_NAMES =
+                    + COLUMN_FEATURES_ID + " IN (" + SQL_SELECT_MAP_FEATURES + ")";
+
+    static final String SQL_INSERT_GONE_FEATURE_NAMES_DELTA =
+            "INSERT OR IGNORE INTO " + TABLE_NAMES_DELTA + " SELECT "
+                    + COLUMN_FEATURES_NAMES_NAME + " FROM "
+                    + TABLE_FEATURE_NAMES + " WHERE "
+                    + COLUMN_FEATURES_ID + " IN (" + SQL_SELECT_GONE_FEATURES + ")";
+
+    static final String SQL_REMOVE_GONE_FEATURE_NAMES =
+            "DELETE FROM " + TABLE_FEATURE_NAMES + " WHERE "
+                    + COLUMN_FEATURES_ID + " IN (" + SQL_SELECT_GONE_FEATURES + ")";
+
+    // names delta contains only names that could lose their last reference
+    private static final String SQL_SELECT_UNUSED_NAMES =
             "SELECT "
                     + COLUMN_NAMES_REF + " FROM "
-                    + TABLE_NAMES + " LEFT JOIN "
-                    + TABLE_FEATURE_NAMES + " ON ("
-                    + COLUMN_NAMES_REF + " = "
-                    + TABLE_FEATURE_NAMES + "." + COLUMN_FEATURES_NAMES_NAME + ") WHERE "
-                    + COLUMN_FEATURES_ID + " IS NULL";
+                    + TABLE_NAMES_DELTA + " WHERE NOT EXISTS (SELECT 1 FROM "
+                    + TABLE_FEATURE_NAMES + " WHERE "
+                    + TABLE_FEATURE_NAMES + "." + COLUMN_FEATURES_NAMES_NAME + " = "
+                    + TABLE_NAMES_DELTA + "." + COLUMN_NAMES_REF + ")";
+
+    private static final String SQL_REMOVE_NAMES_FTS =
+            "DELETE FROM " + TABLE_NAMES_FTS + " WHERE docid IN ("
+                    + SQL_SELECT_UNUSED_NAMES + ")";
 
-    static final String SQL_REMOVE_NAMES =
+    private static final String SQL_REMOVE_NAMES =
             "DELETE FROM " + TABLE_NAMES + " WHERE "
                     + COLUMN_NAMES_REF + " IN (" + SQL_SELECT_UNUSED_NAMES + ")";
 
-    static final String SQL_REMOVE_NAMES_FTS =
-            "DELETE FROM " + TABLE_NAMES_FTS + " WHERE docid IN (";
+    private static final String SQL_CLEAR_NAMES_DELTA = "DELETE FROM " + TABLE_NAMES_DELTA;
 
     static final String[] ALL_COLUMNS_MAPS = {
             COLUMN_MAPS_X,
@@ -344,6 +366,7 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
     static final String PRAGMA_ENABLE_VACUUM = "PRAGMA main.auto_vacuum = INCREMENTAL";
     static final String PRAGMA_VACUUM = "PRAGMA main.incremental_vacuum(5000)";
     private static final String FTS_MERGE = "INSERT INTO names_fts(names_fts) VALUES('merge=300,8')";
+    private static final String SQL_TOTAL_CHANGES = "SELECT total_changes()";
 
     public MapTrekDatabaseHelper(Context context, File file) {
         super(context, file.getAbsolutePath(), null, DATABASE_VERSION);
@@ -365,12 +388,6 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
         if (cursor.moveToFirst())
             logger.debug("  removed {} pages", cursor.getCount());
         cursor.close();
-        if (hasFullTextIndex(db)) {
-            cursor = db.rawQuery(FTS_MERGE, null);
-            if (cursor.moveToFirst())
-                logger.debug("  merged FTS index");
-            cursor.close();
-        }
     }
 
     @Override
@@ -385,6 +402,7 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_NAMES);
         db.execSQL(SQL_CREATE_FEATURES);
         db.execSQL(SQL_CREATE_FEATURE_NAMES);
+        db.execSQL(SQL_CREATE_NAMES_DELTA);
         // This test is for single area map debugging only
         try {
             Cursor cursor = db.rawQuery("SELECT " + COLUMN_FEATURES_X + " FROM " + TABLE_FEATURES + " LIMIT 1", null);
@@ -437,6 +455,9 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
             db.execSQL("ALTER TABLE " + TABLE_FEATURES + " ADD COLUMN " + COLUMN_FEATURES_FLAGS + " INTEGER");
             db.execSQL("ALTER TABLE " + TABLE_FEATURES + " ADD COLUMN " + COLUMN_FEATURES_ENUM1 + " INTEGER");
         }
+        if (oldVersion < 8) {
+            db.execSQL(SQL_CREATE_NAMES_DELTA);
+        }
     }
 
     private static void createWorldMapTables(SQLiteDatabase db) {
@@ -497,13 +518,64 @@ public class MapTrekDatabaseHelper extends SQLiteOpenHelper {
         xy[1] = Math.min(Math.max(xy[1], 0), 16383);
     }
 
-    public static void createFtsTable(SQLiteDatabase db) {
-        db.execSQL(SQL_CREATE_NAMES_FTS);
-        logger.debug("Populate fts");
-        db.execSQL(SQL_INSERT_NAMES_FTS);
+    /**
+     * Creates and populates full text index if it does not exist. Can be called concurrently.
+     */
+    public static synchronized void createFtsTable(SQLiteDatabase db) {
+        if (hasFullTextIndex(db))
+            return;
+        db.beginTransaction();
+        try {
+            db.execSQL(SQL_CREATE_NAMES_FTS);
+            logger.debug("Populate fts");
+            db.execSQL(SQL_INSERT_NAMES_FTS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
         logger.debug("Finished populating fts");
     }
 
+    /**
+     * Removes names collected in names delta that are no longer referenced by any feature.
+     * Should be called in transaction after feature names are removed or replaced.
+     */
+    static void removeUnusedNames(SQLiteDatabase db, boolean hasFts) {
+        // external content index requires original values to delete entries
+        if (hasFts)
+            db.execSQL(SQL_REMOVE_NAMES_FTS);
+        db.execSQL(SQL_REMOVE_NAMES);
+        db.execSQL(SQL_CLEAR_NAMES_DELTA);
+    }
+
+    /**
+     * Merges full text index segments step by step until index is fully merged or time
+     * budget is exhausted.
+     *
+     * @param budget time budget in milliseconds
+     * @return true if there is nothing more to merge
+     */
+    static boolean mergeFullTextIndex(SQLiteDatabase db, long budget) {
+        long deadline = SystemClock.elapsedRealtime() + budget;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            long changes;
+            // transaction binds all statements to the same connection
+            db.beginTransaction();
+            try {
+                long before = DatabaseUtils.longForQuery(db, SQL_TOTAL_CHANGES, null);
+                db.execSQL(FTS_MERGE);
+                changes = DatabaseUtils.longForQuery(db, SQL_TOTAL_CHANGES, null) - before;
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            // merge that has not done any work modifies less than two rows
+            if (changes < 2)
+                return true;
+        }
+        return false;
+    }
+
     public static boolean hasFullTextIndex(SQLiteDatabase db) {
         try {
             String[] selectionArgs = {"Antarctica"};
@@ -123,7 +123,18 @@ class MapTrekTileDecoder extends PbfDecoder {
 
         //readUnsignedInt(is, buffer);
         setInputStream(is);
+        return decodeTile(tile, sink);
+    }
+
+    /**
+     * Decodes tile blob in place, without intermediate stream and buffer copy.
+     */
+    boolean decode(Tile tile, ITileDataSink sink, byte[] data) throws IOException {
+        setInput(data, 0, data.length);
+        return decodeTile(tile, sink);
+    }
 
+    private boolean decodeTile(Tile tile, ITileDataSink sink) throws IOException {
         mTile = tile;
         mMapDataSink = sink;
 
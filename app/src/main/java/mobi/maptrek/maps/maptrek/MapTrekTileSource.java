@@ -18,6 +18,8 @@ package mobi.maptrek.maps.maptrek;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import androidx.annotation.Nullable;
+
 import org.oscim.backend.CanvasAdapter;
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.core.MapElement;
@@ -51,6 +53,8 @@ public class MapTrekTileSource extends TileSource {
 
     private final SQLiteDatabase mNativeMapDatabase;
     private final HashSet<MapTrekDataSource> mMapTrekDataSources;
+    private final DecodedTileCache mTileCache;
+    private final FeatureNameCache mNameCache;
     private boolean mContoursEnabled = true;
 
     public static class MissingTileData extends MapTile.TileData {
@@ -70,6 +74,8 @@ public class MapTrekTileSource extends TileSource {
         super(2, 19); // if zoomMax is set to 20, weird 3D building artifacts occur on map rotation
         mNativeMapDatabase = nativeMapDatabase;
         mMapTrekDataSources = new HashSet<>();
+        mTileCache = new DecodedTileCache();
+        mNameCache = new FeatureNameCache();
     }
 
     public void setContoursEnabled(boolean enabled) {
@@ -78,9 +84,42 @@ public class MapTrekTileSource extends TileSource {
             source.setContoursEnabled(enabled);
     }
 
+    /**
+     * Should be called whenever maps database content or amenity visibility changes
+     */
+    public void invalidateCache() {
+        mTileCache.invalidate();
+    }
+
+    /**
+     * Sets language of feature names, should be the same as labels language.
+     */
+    public void setPreferredLanguage(@Nullable String language) {
+        mNameCache.setLanguage(MapTrekDatabaseHelper.getLanguageId(language));
+    }
+
+    /**
+     * Should be called whenever maps database content changes
+     */
+    public void invalidateNames() {
+        mNameCache.invalidate();
+    }
+
+    public void trimCache() {
+        mTileCache.trim();
+    }
+
+    public int getCacheHitCount() {
+        return mTileCache.hitCount();
+    }
+
+    public int getCacheMissCount() {
+        return mTileCache.missCount();
+    }
+
     @Override
     public ITileDataSource getDataSource() {
-        MapTrekDataSource mapTrekDataSource = new MapTrekDataSource(mNativeMapDatabase);
+        MapTrekDataSource mapTrekDataSource = new MapTrekDataSource(mNativeMapDatabase, mTileCache, mNameCache);
         mapTrekDataSource.setContoursEnabled(mContoursEnabled);
         mMapTrekDataSources.add(mapTrekDataSource);
         return new NativeDataSource(mapTrekDataSource);
@@ -16,43 +16,191 @@
 
 package mobi.maptrek.util;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import org.oscim.android.canvas.AndroidGraphics;
 import org.oscim.backend.canvas.Bitmap;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Bitmap cache bounded by total bitmap size. Entries are split into independently locked
+ * stripes, each stripe evicts least recently used bitmaps. Concurrent requests for missing
+ * bitmap wait for the first one to create it instead of creating duplicates.
+ */
 public class BitmapCache<K, V extends Bitmap> {
-    private final LinkedHashMap<K,V> cache;
+    private static final int STRIPES = 8;
 
-    BitmapCache(final int maxEntries) {
-        this.cache = new LinkedHashMap<K,V>(maxEntries, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<K,V> eldest){
-                return size() > maxEntries;
-            }
-        };
+    public interface Loader<K, V> {
+        @Nullable
+        V load(@NonNull K key);
+    }
+
+    private final Stripe<K, V>[] mStripes;
+    private final ConcurrentHashMap<K, FutureTask<V>> mLoading = new ConcurrentHashMap<>();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    BitmapCache(final long maxBytes) {
+        mStripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            mStripes[i] = new Stripe<>(maxBytes / STRIPES);
     }
 
     public void put(K key, V value) {
-        synchronized(cache) {
-            cache.put(key, value);
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
         }
     }
+
     public V get(K key) {
-        synchronized(cache) {
-            V bitmap = cache.get(key);
+        V bitmap = peek(key);
+        if (bitmap != null)
+            mHits.incrementAndGet();
+        else
+            mMisses.incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Returns cached bitmap or creates it with loader. Only one bitmap is created for a key
+     * at a time, other threads requesting the same key wait for it.
+     */
+    public V get(@NonNull final K key, @NonNull final Loader<K, V> loader) {
+        V bitmap = get(key);
+        if (bitmap != null)
+            return bitmap;
+
+        FutureTask<V> task = new FutureTask<>(() -> {
+            // bitmap could be put to cache since miss
+            V value = peek(key);
+            if (value == null) {
+                value = loader.load(key);
+                if (value != null)
+                    put(key, value);
+            }
+            return value;
+        });
+        FutureTask<V> running = mLoading.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                mLoading.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public void clear() {
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (Stripe<K, V> stripe : mStripes) {
+            synchronized (stripe) {
+                bitmaps.addAll(stripe.values());
+                stripe.clear();
+                stripe.mBytes = 0;
+            }
+        }
+        for (Bitmap bitmap : bitmaps)
+            bitmap.recycle();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return share of requests served from cache, from 0 to 1
+     */
+    public float getHitRate() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return total > 0 ? (float) hits / total : 0f;
+    }
+
+    /**
+     * @return total size of cached bitmaps in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (Stripe<K, V> stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.mBytes;
+            }
+        }
+        return size;
+    }
+
+    private V peek(K key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            V bitmap = stripe.get(key);
             if (bitmap != null && !AndroidGraphics.getBitmap(bitmap).isRecycled())
                 return bitmap;
             return null;
         }
     }
 
-    public void clear() {
-        synchronized (cache) {
-            for (Bitmap bitmap : cache.values())
-                bitmap.recycle();
-            cache.clear();
+    private Stripe<K, V> stripe(K key) {
+        int h = key.hashCode();
+        return mStripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return 4L * bitmap.getWidth() * bitmap.getHeight();
+    }
+
+    private static class Stripe<K, V extends Bitmap> extends LinkedHashMap<K, V> {
+        private final long mMaxBytes;
+        long mBytes;
+
+        Stripe(long maxBytes) {
+            super(16, 0.75f, true);
+            mMaxBytes = maxBytes;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V previous = super.put(key, value);
+            if (previous != null)
+                mBytes -= sizeOf(previous);
+            mBytes += sizeOf(value);
+            // always keep the latest bitmap even if it does not fit
+            Iterator<Map.Entry<K, V>> iterator = entrySet().iterator();
+            while (mBytes > mMaxBytes && size() > 1) {
+                Map.Entry<K, V> eldest = iterator.next();
+                mBytes -= sizeOf(eldest.getValue());
+                iterator.remove();
+            }
+            return previous;
         }
     }
-}
\ No newline at end of file
+}
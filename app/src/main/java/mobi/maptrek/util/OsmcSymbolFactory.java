@@ -114,16 +114,16 @@ public class OsmcSymbolFactory {
     private final BitmapCache<String, Bitmap> mBitmapCache;
 
     public OsmcSymbolFactory() {
-        mBitmapCache = new BitmapCache<>(4098);
+        mBitmapCache = new BitmapCache<>(8 << 20);
     }
 
     public @Nullable
-    synchronized Bitmap getBitmap(@NonNull String osmcSymbol, int symbolPercent) {
-        String key = osmcSymbol + "%%%" + symbolPercent;
-        Bitmap bitmap = mBitmapCache.get(key);
-        if (bitmap != null)
-            return bitmap;
+    Bitmap getBitmap(@NonNull String osmcSymbol, int symbolPercent) {
+        String cacheKey = osmcSymbol + "%%%" + symbolPercent;
+        return mBitmapCache.get(cacheKey, key -> createBitmap(osmcSymbol, symbolPercent));
+    }
 
+    private Bitmap createBitmap(@NonNull String osmcSymbol, int symbolPercent) {
         int size = (int) (symbolPercent * 0.2 * MapTrek.density); // 20dip base
         float hSize = size / 2;
         float pWidth = 3 * MapTrek.density;
@@ -215,9 +215,7 @@ public class OsmcSymbolFactory {
             }
         }
 
-        bitmap = new AndroidBitmap(bmp);
-        mBitmapCache.put(key, bitmap);
-        return bitmap;
+        return new AndroidBitmap(bmp);
     }
 
     private void drawSymbol(Canvas canvas, String foreground, int size) {
@@ -291,6 +289,7 @@ public class OsmcSymbolFactory {
     }
 
     public void dispose() {
+        logger.debug("OSMC symbol cache hit rate: {}", mBitmapCache.getHitRate());
         mBitmapCache.clear();
     }
 }
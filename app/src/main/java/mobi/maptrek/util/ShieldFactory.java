@@ -37,30 +37,30 @@ import mobi.maptrek.MapTrek;
  * <p>Generates bitmap representing a road shield</p>
  */
 public class ShieldFactory {
-    @SuppressWarnings("unused")
     private static final Logger logger = LoggerFactory.getLogger(ShieldFactory.class);
 
     private final BitmapCache<String, Bitmap> mBitmapCache;
-    private float mFontSize;
+    private volatile float mFontSize;
 
     public ShieldFactory() {
-        mBitmapCache = new BitmapCache<>(512);
+        mBitmapCache = new BitmapCache<>(4 << 20);
         mFontSize = 1f;
     }
 
     public @Nullable
-    synchronized Bitmap getBitmap(@NonNull TagSet tags, String src, int percent) {
+    Bitmap getBitmap(@NonNull TagSet tags, String src, int percent) {
         String ref = tags.getValue(Tag.KEY_REF);
         if (ref == null)
             return null;
 
         String color = tags.getValue(Tag.KEY_ROUTE_COLOR);
 
-        String cache_key = src + ":" + color == null ? ref : ref + "@" + color;
-        Bitmap bitmap = mBitmapCache.get(cache_key);
-        if (bitmap != null)
-            return bitmap;
+        String cacheKey = src + ":" + percent + ":" + (color == null ? ref : ref + "@" + color);
+        return mBitmapCache.get(cacheKey, key -> createBitmap(ref, color, src, percent));
+    }
 
+    private @Nullable
+    Bitmap createBitmap(@NonNull String ref, @Nullable String color, String src, int percent) {
         String[] parts = src.replace("/shield/", "").trim().split("/");
         if (parts.length < 3)
             return null;
@@ -160,9 +160,7 @@ public class ShieldFactory {
             canvas.drawRoundRect(border + hg, height - border - gap - ch, width - border - hg, height - border - gap, cr, cr, paint);
         }
 
-        bitmap = new AndroidBitmap(bmp);
-        mBitmapCache.put(cache_key, bitmap);
-        return bitmap;
+        return new AndroidBitmap(bmp);
     }
 
     public void setFontSize(float fontSize) {
@@ -170,6 +168,7 @@ public class ShieldFactory {
     }
 
     public void dispose() {
+        logger.debug("Shield cache hit rate: {}", mBitmapCache.getHitRate());
         mBitmapCache.clear();
     }
 }
@@ -16,8 +16,6 @@
 
 package mobi.maptrek.util;
 
-import com.skedgo.converter.TimezoneMapper;
-
 import java.util.Calendar;
 import java.util.TimeZone;
 
@@ -55,7 +53,7 @@ public class SunriseSunset {
     }
 
     public void setLocation(double latitude, double longitude) {
-        String timeZoneId = TimezoneMapper.latLngToTimezoneString(latitude, longitude);
+        String timeZoneId = TimezoneIndex.getTimezone(latitude, longitude);
         TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
         tzOffset = timeZone.getOffset(calendar.getTimeInMillis()) * 1d / 3600000;
 
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.util;
+
+import com.skedgo.converter.TimezoneMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import mobi.maptrek.MapTrek;
+
+/**
+ * Raster timezone index. Each cell of a regular lat/lon grid holds timezone if the whole cell
+ * belongs to single zone, border cells are resolved by TimezoneMapper. Index is generated from
+ * TimezoneMapper by TimezoneIndexTest and is loaded from asset on first use.
+ */
+public class TimezoneIndex {
+    private static final Logger logger = LoggerFactory.getLogger(TimezoneIndex.class);
+
+    static final String ASSET = "timezones.bin";
+    static final int VERSION = 1;
+    static final short BORDER = -1;
+
+    private final int mResolution;
+    private final int mWidth;
+    private final int mHeight;
+    private final String[] mZones;
+    private final short[] mCells;
+
+    private static class Holder {
+        static final TimezoneIndex INSTANCE = load();
+    }
+
+    private TimezoneIndex(int resolution, String[] zones, short[] cells) {
+        mResolution = resolution;
+        mWidth = 360 * resolution;
+        mHeight = 180 * resolution;
+        mZones = zones;
+        mCells = cells;
+    }
+
+    /**
+     * Returns timezone identifier for specified location, the same as
+     * TimezoneMapper.latLngToTimezoneString() does.
+     */
+    public static String getTimezone(double lat, double lon) {
+        TimezoneIndex index = Holder.INSTANCE;
+        if (index == null)
+            return TimezoneMapper.latLngToTimezoneString(lat, lon);
+        return index.lookup(lat, lon);
+    }
+
+    String lookup(double lat, double lon) {
+        if (!(lat >= -90d && lat <= 90d && lon >= -180d && lon <= 180d))
+            return TimezoneMapper.latLngToTimezoneString(lat, lon);
+        int row = Math.min((int) ((lat + 90d) * mResolution), mHeight - 1);
+        int col = Math.min((int) ((lon + 180d) * mResolution), mWidth - 1);
+        short zone = mCells[row * mWidth + col];
+        if (zone == BORDER)
+            return TimezoneMapper.latLngToTimezoneString(lat, lon);
+        return mZones[zone];
+    }
+
+    /**
+     * Reads index: version, resolution (cells per degree), zone names and run-length encoded
+     * cells (zone and count pairs) row by row starting from south-west corner.
+     */
+    static TimezoneIndex read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported timezone index version: " + version);
+        int resolution = in.readInt();
+        String[] zones = new String[in.readUnsignedShort()];
+        for (int i = 0; i < zones.length; i++)
+            zones[i] = in.readUTF();
+        short[] cells = new short[360 * resolution * 180 * resolution];
+        int pos = 0;
+        while (pos < cells.length) {
+            short zone = in.readShort();
+            int count = in.readUnsignedShort();
+            if (zone < BORDER || zone >= zones.length || count == 0 || pos + count > cells.length)
+                throw new IOException("Corrupted timezone index");
+            for (int end = pos + count; pos < end; pos++)
+                cells[pos] = zone;
+        }
+        return new TimezoneIndex(resolution, zones, cells);
+    }
+
+    private static TimezoneIndex load() {
+        long time = System.currentTimeMillis();
+        try (InputStream in = MapTrek.getApplication().getAssets().open(ASSET)) {
+            TimezoneIndex index = read(in);
+            logger.debug("Timezone index loaded in {} ms", System.currentTimeMillis() - time);
+            return index;
+        } catch (IOException e) {
+            logger.error("Failed to load timezone index", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.util;
+
+/**
+ * Parses numbers and ISO 8601 times directly from character sequences without creating
+ * intermediate strings. Used by data file parsers, which can wrap parser text buffer with
+ * java.nio.CharBuffer. Values are leniently trimmed, unusual number formats (exponents,
+ * NaN) are delegated to standard parsers. All methods are thread safe.
+ */
+public final class ValueParser {
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+    private static final int MAX_DIGITS = 18;
+
+    private ValueParser() {
+    }
+
+    public static int parseE6(CharSequence s) {
+        return parseE6(s, 0, s.length());
+    }
+
+    /**
+     * Parses decimal degrees as microdegrees rounded to the nearest integer.
+     */
+    public static int parseE6(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ')
+            start++;
+        while (end > start && s.charAt(end - 1) <= ' ')
+            end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        long value = 0;
+        int digits = 0;
+        int fraction = -1;
+        boolean roundUp = false;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (fraction < 0) {
+                    value = value * 10 + (c - '0');
+                    if (value > Integer.MAX_VALUE)
+                        throw new NumberFormatException("Value is out of range: " + s.subSequence(start, end));
+                } else if (fraction < 6) {
+                    value = value * 10 + (c - '0');
+                    fraction++;
+                } else if (fraction == 6) {
+                    // the first truncated digit defines rounding
+                    roundUp = c >= '5';
+                    fraction++;
+                }
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return (int) Math.round(Double.parseDouble(s.subSequence(start, end).toString()) * 1E6);
+            }
+        }
+        if (digits == 0)
+            throw new NumberFormatException("Empty value: " + s.subSequence(start, end));
+
+        for (int f = Math.max(fraction, 0); f < 6; f++)
+            value *= 10;
+        if (roundUp)
+            value++;
+        if (value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Value is out of range: " + s.subSequence(start, end));
+        return (int) (negative ? -value : value);
+    }
+
+    public static float parseFloat(CharSequence s) {
+        return parseFloat(s, 0, s.length());
+    }
+
+    public static float parseFloat(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ')
+            start++;
+        while (end > start && s.charAt(end - 1) <= ' ')
+            end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '+') {
+                negative = c == '-';
+                i++;
+            }
+        }
+        long value = 0;
+        int digits = 0;
+        int significant = 0;
+        int fraction = -1;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (value != 0 || c != '0')
+                    significant++;
+                if (significant > MAX_DIGITS) {
+                    // too many digits are either beyond float precision or too large value
+                    if (fraction < 0)
+                        break;
+                    continue;
+                }
+                value = value * 10 + (c - '0');
+                if (fraction >= 0)
+                    fraction++;
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0 || fraction > MAX_DIGITS)
+            return Float.parseFloat(s.subSequence(start, end).toString());
+
+        double result = fraction > 0 ? value / POW10[fraction] : value;
+        return (float) (negative ? -result : result);
+    }
+
+    public static long parseTime(CharSequence s) {
+        return parseTime(s, 0, s.length());
+    }
+
+    /**
+     * Parses ISO 8601 date and time (2024-05-17T08:15:30Z, 2024-05-17T08:15:30.250+03:00,
+     * 2024-05-17) and returns milliseconds since epoch. Time without zone designator is
+     * considered to be UTC.
+     *
+     * @throws IllegalArgumentException if time format is not recognized
+     */
+    public static long parseTime(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ')
+            start++;
+        while (end > start && s.charAt(end - 1) <= ' ')
+            end--;
+
+        int i = start;
+        if (end - i < 10 || s.charAt(i + 4) != '-' || s.charAt(i + 7) != '-')
+            throw timeFormatException(s, start, end);
+        int year = digits(s, i, 4, start, end);
+        int month = digits(s, i + 5, 2, start, end);
+        int day = digits(s, i + 8, 2, start, end);
+        i += 10;
+
+        int hour = 0, minute = 0, second = 0, millis = 0, offset = 0;
+        if (i < end) {
+            char c = s.charAt(i);
+            if ((c != 'T' && c != 't' && c != ' ') || end - i < 9 || s.charAt(i + 3) != ':' || s.charAt(i + 6) != ':')
+                throw timeFormatException(s, start, end);
+            hour = digits(s, i + 1, 2, start, end);
+            minute = digits(s, i + 4, 2, start, end);
+            second = digits(s, i + 7, 2, start, end);
+            i += 9;
+
+            if (i < end && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+                i++;
+                int scale = 100;
+                int n = 0;
+                for (; i < end; i++, n++) {
+                    char d = s.charAt(i);
+                    if (d < '0' || d > '9')
+                        break;
+                    millis += (d - '0') * scale;
+                    scale /= 10;
+                }
+                if (n == 0)
+                    throw timeFormatException(s, start, end);
+            }
+
+            if (i < end) {
+                c = s.charAt(i);
+                if (c == 'Z' || c == 'z') {
+                    i++;
+                } else if (c == '+' || c == '-') {
+                    int length = end - i - 1;
+                    int zoneMinutes;
+                    if (length == 2) {
+                        zoneMinutes = digits(s, i + 1, 2, start, end) * 60;
+                    } else if (length == 4) {
+                        zoneMinutes = digits(s, i + 1, 2, start, end) * 60 + digits(s, i + 3, 2, start, end);
+                    } else if (length == 5 && s.charAt(i + 3) == ':') {
+                        zoneMinutes = digits(s, i + 1, 2, start, end) * 60 + digits(s, i + 4, 2, start, end);
+                    } else {
+                        throw timeFormatException(s, start, end);
+                    }
+                    offset = c == '-' ? -zoneMinutes : zoneMinutes;
+                    i = end;
+                }
+            }
+        }
+        if (i != end || month < 1 || month > 12 || day < 1 || day > 31 || hour > 24 || minute > 59 || second > 60)
+            throw timeFormatException(s, start, end);
+
+        long days = daysFromCivil(year, month, day);
+        return (((days * 24 + hour) * 60 + minute - offset) * 60 + second) * 1000 + millis;
+    }
+
+    /**
+     * Returns number of days since 1970-01-01 for proleptic Gregorian calendar date, see
+     * http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2)
+            year--;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int digits(CharSequence s, int i, int count, int start, int end) {
+        int value = 0;
+        for (int n = i + count; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                throw timeFormatException(s, start, end);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException timeFormatException(CharSequence s, int start, int end) {
+        return new IllegalArgumentException("Unexpected time format: " + s.subSequence(start, end));
+    }
+}
@@ -32,6 +32,7 @@ public class JobQueue {
 
     private int mCurrentJob = 0;
     private MapTile[] mJobs;
+    private boolean mSorted;
 
     /**
      * @param tiles the jobs to be added to this queue.
@@ -39,6 +40,7 @@ public class JobQueue {
     public synchronized void setJobs(MapTile[] tiles) {
         mJobs = tiles;
         mCurrentJob = 0;
+        mSorted = false;
     }
 
     /**
@@ -78,11 +80,7 @@ public class JobQueue {
         if (mJobs == null)
             return null;
 
-        if (mCurrentJob == 0) {
-            int len = mJobs.length;
-            if (len > 1)
-                TileDistanceSort.sort(mJobs, 0, len);
-        }
+        sort();
 
         MapTile t = mJobs[mCurrentJob];
         mJobs[mCurrentJob] = null;
@@ -93,4 +91,34 @@ public class JobQueue {
         return t;
 
     }
+
+    /**
+     * @return number of jobs in this queue
+     */
+    public synchronized int size() {
+        if (mJobs == null)
+            return 0;
+        return mJobs.length - mCurrentJob;
+    }
+
+    /**
+     * @return true if the most important job is for visible tile (not prefetched)
+     */
+    public synchronized boolean hasVisibleJob() {
+        if (mJobs == null)
+            return false;
+
+        sort();
+
+        return !mJobs[mCurrentJob].prefetched;
+    }
+
+    private void sort() {
+        if (!mSorted) {
+            int len = mJobs.length;
+            if (len > 1)
+                TileDistanceSort.sort(mJobs, 0, len);
+            mSorted = true;
+        }
+    }
 }
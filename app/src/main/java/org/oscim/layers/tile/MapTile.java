@@ -128,6 +128,11 @@ public class MapTile extends Tile {
      */
     public long fadeTime;
 
+    /**
+     * Tile was requested ahead of time by prefetching
+     */
+    boolean prefetched;
+
     /**
      * Used to avoid drawing a tile twice per frame
      */
@@ -25,6 +25,8 @@ import org.oscim.map.Map.UpdateListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+
 /**
  * TODO - add a TileLayer.Builder
  */
@@ -32,7 +34,11 @@ public abstract class TileLayer extends Layer implements UpdateListener {
 
     static final Logger log = LoggerFactory.getLogger(TileLayer.class);
 
-    private int mNumLoaders = 4;
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    private int mNumLoaders = TileLoaderPool.getParallelism();
+    private int mLoadingPriority = PRIORITY_DEFAULT;
 
     /**
      * TileManager responsible for adding visible tiles
@@ -42,6 +48,12 @@ public abstract class TileLayer extends Layer implements UpdateListener {
 
     protected TileLoader[] mTileLoader;
 
+    /* loader state, guarded by pool */
+    private final ArrayList<TileLoader> mIdleLoaders = new ArrayList<>();
+    int mRunningLoaders;
+    private boolean mPaused;
+    private boolean mDetached;
+
     public TileLayer(Map map, TileManager tileManager, TileRenderer renderer) {
         super(map);
         renderer.setTileManager(tileManager);
@@ -70,26 +82,44 @@ public abstract class TileLayer extends Layer implements UpdateListener {
     protected void initLoader(int numLoaders) {
         mTileLoader = new TileLoader[numLoaders];
 
-        for (int i = 0; i < numLoaders; i++) {
-            mTileLoader[i] = createLoader();
-            mTileLoader[i].start();
+        TileLoaderPool pool = TileLoaderPool.getInstance();
+        synchronized (pool) {
+            for (int i = 0; i < numLoaders; i++) {
+                mTileLoader[i] = createLoader();
+                mIdleLoaders.add(mTileLoader[i]);
+            }
+            pool.register(this);
         }
     }
 
     /**
-     * Get number of loader threads. Default is 4.
+     * Get maximum number of tiles loaded concurrently. Default is the number of shared
+     * loader threads.
      */
     protected int getNumLoaders() {
         return mNumLoaders;
     }
 
     /**
-     * Set number of loader threads. Should be called before attaching layer to map.
+     * Set maximum number of tiles loaded concurrently. Should be called before attaching layer
+     * to map.
      */
     public void setNumLoaders(int num) {
         mNumLoaders = num;
     }
 
+    public int getLoadingPriority() {
+        return mLoadingPriority;
+    }
+
+    /**
+     * Set priority of layer jobs in shared loader pool. Jobs for visible tiles always go
+     * before prefetch jobs regardless of layer priority.
+     */
+    public void setLoadingPriority(int priority) {
+        mLoadingPriority = priority;
+    }
+
     @Override
     public void onMapEvent(Event event, MapPosition mapPosition) {
 
@@ -111,38 +141,67 @@ public abstract class TileLayer extends Layer implements UpdateListener {
 
     @Override
     public void onDetach() {
-        for (TileLoader loader : mTileLoader) {
-            loader.pause();
-            loader.finish();
-            loader.dispose();
+        TileLoaderPool pool = TileLoaderPool.getInstance();
+        synchronized (pool) {
+            pool.unregister(this);
+            mDetached = true;
+            setPaused(true);
+            /* running loaders are disposed when released */
+            for (TileLoader loader : mIdleLoaders)
+                loader.dispose();
+            mIdleLoaders.clear();
         }
     }
 
     void notifyLoaders() {
-        for (TileLoader loader : mTileLoader)
-            loader.go();
+        TileLoaderPool.getInstance().wakeUp();
     }
 
     protected void pauseLoaders(boolean wait) {
-        for (TileLoader loader : mTileLoader) {
-            loader.cancel();
-
-            if (!loader.isPausing())
-                loader.pause();
+        TileLoaderPool pool = TileLoaderPool.getInstance();
+        synchronized (pool) {
+            setPaused(true);
         }
+        for (TileLoader loader : mTileLoader)
+            loader.cancel();
 
-        if (!wait)
-            return;
+        if (wait)
+            pool.awaitIdle(this);
+    }
 
-        for (TileLoader loader : mTileLoader) {
-            if (!loader.isPausing())
-                loader.awaitPausing();
+    protected void resumeLoaders() {
+        TileLoaderPool pool = TileLoaderPool.getInstance();
+        synchronized (pool) {
+            if (mDetached)
+                return;
+            setPaused(false);
+            pool.notifyAll();
         }
     }
 
-    protected void resumeLoaders() {
+    private void setPaused(boolean paused) {
+        mPaused = paused;
         for (TileLoader loader : mTileLoader)
-            loader.proceed();
+            loader.setCanceled(paused);
+    }
+
+    /* following methods are called by pool while holding its lock */
+
+    boolean hasIdleLoader() {
+        return !mPaused && !mIdleLoaders.isEmpty();
+    }
+
+    TileLoader acquireLoader() {
+        mRunningLoaders++;
+        return mIdleLoaders.remove(mIdleLoaders.size() - 1);
+    }
+
+    void releaseLoader(TileLoader loader) {
+        mRunningLoaders--;
+        if (mDetached)
+            loader.dispose();
+        else
+            mIdleLoaders.add(loader);
     }
 
     public TileManager getManager() {
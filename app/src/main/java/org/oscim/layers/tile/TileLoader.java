@@ -20,22 +20,24 @@ import org.oscim.backend.canvas.Bitmap;
 import org.oscim.core.MapElement;
 import org.oscim.tiling.ITileDataSink;
 import org.oscim.tiling.QueryResult;
-import org.oscim.utils.PausableThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.oscim.tiling.QueryResult.FAILED;
 import static org.oscim.tiling.QueryResult.SUCCESS;
 
-public abstract class TileLoader extends PausableThread implements ITileDataSink {
+/**
+ * Loads tiles of a layer. Loader is run by {@link TileLoaderPool} threads, but only by one
+ * thread at a time.
+ */
+public abstract class TileLoader implements ITileDataSink {
 
     static final Logger log = LoggerFactory.getLogger(TileLoader.class);
 
-    private static int id;
-
-    private final String THREAD_NAME;
     private final TileManager mTileManager;
 
+    private volatile boolean mCanceled;
+
     /**
      * currently processed tile
      */
@@ -44,22 +46,12 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
     public TileLoader(TileManager tileManager) {
         super();
         mTileManager = tileManager;
-        THREAD_NAME = "TileLoader" + (id++);
     }
 
     protected abstract boolean loadTile(MapTile tile);
 
-    public void go() {
-        synchronized (this) {
-            notify();
-        }
-    }
-
-    @Override
-    protected void doWork() {
-        mTile = mTileManager.getTileJob();
-        if (mTile == null)
-            return;
+    void load(MapTile tile) {
+        mTile = tile;
 
         try {
             loadTile(mTile);
@@ -69,19 +61,15 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
         }
     }
 
-    @Override
-    protected String getThreadName() {
-        return THREAD_NAME;
-    }
-
-    @Override
-    protected int getThreadPriority() {
-        return (Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2;
+    void setCanceled(boolean canceled) {
+        mCanceled = canceled;
     }
 
-    @Override
-    protected boolean hasWork() {
-        return mTileManager.hasTileJobs();
+    /**
+     * @return true if layer loading is paused and current tile should be abandoned
+     */
+    public final boolean isCanceled() {
+        return mCanceled;
     }
 
     public abstract void dispose();
@@ -96,7 +84,7 @@ public abstract class TileLoader extends PausableThread implements ITileDataSink
     public void completed(QueryResult result) {
         boolean ok = (result == SUCCESS);
 
-        if (ok && (isCanceled() || isInterrupted()))
+        if (ok && isCanceled())
             result = QueryResult.FAILED;
 
         mTileManager.jobCompleted(mTile, result);
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.layers.tile;
+
+import org.oscim.tiling.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+
+import static org.oscim.layers.tile.MapTile.State.LOADING;
+
+/**
+ * Loader threads shared by all tile layers. Each idle thread takes the most important job
+ * of all layers: jobs for visible tiles go before prefetch jobs, then layers with higher
+ * priority go first, then layers with less running jobs. Layer loaders are not thread safe
+ * (they own data sources) so number of concurrent jobs of a layer is limited by the number
+ * of its loaders.
+ */
+public class TileLoaderPool {
+    static final Logger log = LoggerFactory.getLogger(TileLoaderPool.class);
+
+    private static final int THREAD_PRIORITY = (Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2;
+
+    private static int sParallelism = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 8));
+    private static TileLoaderPool sInstance;
+
+    private final ArrayList<TileLayer> mLayers = new ArrayList<>();
+    private int mThreads;
+    private int mActiveJobs;
+    private long mCompletedJobs;
+
+    public static synchronized TileLoaderPool getInstance() {
+        if (sInstance == null)
+            sInstance = new TileLoaderPool();
+        return sInstance;
+    }
+
+    /**
+     * Get number of loader threads. Default depends on the number of processor cores.
+     */
+    public static synchronized int getParallelism() {
+        return sParallelism;
+    }
+
+    /**
+     * Set number of loader threads. Surplus threads exit when they finish current job.
+     */
+    public static void setParallelism(int parallelism) {
+        TileLoaderPool pool;
+        synchronized (TileLoaderPool.class) {
+            sParallelism = Math.max(1, parallelism);
+            pool = sInstance;
+        }
+        if (pool != null)
+            pool.startThreads();
+    }
+
+    private TileLoaderPool() {
+    }
+
+    synchronized void register(TileLayer layer) {
+        if (!mLayers.contains(layer))
+            mLayers.add(layer);
+        startThreads();
+    }
+
+    /**
+     * Starts missing threads, surplus threads are notified to exit.
+     */
+    private synchronized void startThreads() {
+        int parallelism = getParallelism();
+        while (mThreads < parallelism) {
+            Thread thread = new Thread(this::run, "TileLoader" + mThreads);
+            thread.setPriority(THREAD_PRIORITY);
+            thread.setDaemon(true);
+            thread.start();
+            mThreads++;
+        }
+        notifyAll();
+    }
+
+    synchronized void unregister(TileLayer layer) {
+        mLayers.remove(layer);
+    }
+
+    /**
+     * Notifies idle threads that there are new jobs or loaders are released.
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Waits until all running jobs of the layer are finished.
+     */
+    synchronized void awaitIdle(TileLayer layer) {
+        while (layer.mRunningLoaders > 0) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of jobs waiting in all layer queues
+     */
+    public synchronized int getQueuedJobCount() {
+        int count = 0;
+        for (TileLayer layer : mLayers)
+            count += layer.mTileManager.getJobCount();
+        return count;
+    }
+
+    /**
+     * @return number of jobs being executed at the moment
+     */
+    public synchronized int getActiveJobCount() {
+        return mActiveJobs;
+    }
+
+    /**
+     * @return total number of executed jobs
+     */
+    public synchronized long getCompletedJobCount() {
+        return mCompletedJobs;
+    }
+
+    private void run() {
+        TileLayer layer = null;
+        TileLoader loader = null;
+        MapTile tile = null;
+
+        while (true) {
+            synchronized (this) {
+                if (loader != null) {
+                    layer.releaseLoader(loader);
+                    mActiveJobs--;
+                    mCompletedJobs++;
+                    // let other threads pick up released loader
+                    notifyAll();
+                    loader = null;
+                }
+                while (tile == null) {
+                    if (mThreads > getParallelism()) {
+                        mThreads--;
+                        return;
+                    }
+                    layer = selectLayer();
+                    if (layer == null) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // ignore
+                        }
+                        continue;
+                    }
+                    // queue could be cleared by map update since selection
+                    tile = layer.mTileManager.getTileJob();
+                }
+                loader = layer.acquireLoader();
+                mActiveJobs++;
+            }
+
+            if (tile.state(LOADING)) {
+                loader.load(tile);
+            } else {
+                // stale job that was cancelled by tile manager
+                layer.mTileManager.jobCompleted(tile, QueryResult.FAILED);
+            }
+            tile = null;
+        }
+    }
+
+    private TileLayer selectLayer() {
+        TileLayer selected = null;
+        int selectedScore = Integer.MIN_VALUE;
+        for (TileLayer layer : mLayers) {
+            if (!layer.hasIdleLoader())
+                continue;
+            TileManager manager = layer.mTileManager;
+            if (!manager.hasTileJobs())
+                continue;
+            int score = layer.getLoadingPriority() * 256 - layer.mRunningLoaders;
+            if (manager.hasVisibleTileJobs())
+                score += 1 << 20;
+            if (score > selectedScore) {
+                selected = layer;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+}
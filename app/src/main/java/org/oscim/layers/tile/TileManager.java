@@ -79,6 +79,16 @@ public class TileManager {
     private static final int CACHE_THRESHOLD = 25;
     private static final int CACHE_CLEAR_THRESHOLD = 10;
 
+    /**
+     * limit number of tiles loaded ahead of animation
+     */
+    private static final int MAX_PREFETCH_TILES = 16;
+
+    /**
+     * prefetched tiles are loaded after all visible tiles
+     */
+    private static final float PREFETCH_DISTANCE = 1 << 20;
+
     private final Map mMap;
     private final Viewport mViewport;
 
@@ -133,6 +143,12 @@ public class TileManager {
     private double mLevelUpThreshold = 1;
     private double mLevelDownThreshold = 2;
 
+    private final MapPosition mPrefetchPos = new MapPosition();
+    private boolean mPrefetching;
+    private int mPrefetchBudget;
+    private int mPrefetchCount;
+    private int mPrefetchHitCount;
+
     private final TileIndex<TileNode, MapTile> mIndex =
             new TileIndex<TileNode, MapTile>() {
                 @Override
@@ -366,6 +382,21 @@ public class TileManager {
             mMap.render();
         }
 
+        int visibleJobs = mJobs.size();
+
+        /* Add tiles along animation path */
+        if (mZoomTable == null && mMap.animator().getTargetPosition(mPrefetchPos)) {
+            if (!mPrefetching) {
+                /* count tiles per animation */
+                mPrefetching = true;
+                mPrefetchCount = 0;
+                mPrefetchHitCount = 0;
+            }
+            prefetch(pos, mPrefetchPos, tileZoom);
+        } else if (mPrefetching) {
+            mPrefetching = false;
+        }
+
         /* Add tile jobs to queue */
         if (mJobs.isEmpty())
             return false;
@@ -373,6 +404,8 @@ public class TileManager {
         MapTile[] jobs = new MapTile[mJobs.size()];
         jobs = mJobs.toArray(jobs);
         updateDistances(jobs, jobs.length, pos);
+        for (int i = visibleJobs; i < jobs.length; i++)
+            jobs[i].distance += PREFETCH_DISTANCE;
 
         /* sets tiles to state == LOADING */
         jobQueue.setJobs(jobs);
@@ -399,6 +432,72 @@ public class TileManager {
         return true;
     }
 
+    /**
+     * Adds low priority jobs for tiles on the half way and at the end of current animation.
+     * Jobs are replaced on every update, so prefetching stops when animation is cancelled.
+     */
+    private void prefetch(MapPosition pos, MapPosition target, int tileZoom) {
+        mPrefetchBudget = Math.min(MAX_PREFETCH_TILES, MAX_TILES_IN_QUEUE - mTilesToUpload);
+        if (mPrefetchBudget <= 0 || BufferObject.isMaxFill()
+                || mTilesCount + mPrefetchBudget > mCacheLimit - mCacheReduce)
+            return;
+
+        int targetZoom = clamp(target.zoomLevel, mMinZoom, mMaxZoom);
+        mPrefetchScanBox.scan(target.x, target.y, target.scale, targetZoom, mMapPlane);
+
+        if (targetZoom == tileZoom) {
+            double dx = target.x - pos.x;
+            if (dx > 0.5)
+                dx -= 1;
+            else if (dx < -0.5)
+                dx += 1;
+            double x = pos.x + dx / 2;
+            mPrefetchScanBox.scan(x - Math.floor(x), (pos.y + target.y) / 2, pos.scale, tileZoom, mMapPlane);
+        }
+    }
+
+    private void prefetchTile(int x, int y, int zoomLevel) {
+        MapTile tile = mIndex.getTile(x, y, zoomLevel);
+
+        if (tile == null) {
+            TileNode n = mIndex.add(x, y, zoomLevel);
+            tile = n.item = new MapTile(n, x, y, zoomLevel);
+            addToCache(tile);
+        } else if (tile.isActive()) {
+            return;
+        }
+        tile.setState(LOADING);
+        /* job queue is cleared on every update, count tile only once */
+        if (!tile.prefetched) {
+            tile.prefetched = true;
+            mPrefetchCount++;
+        }
+        mJobs.add(tile);
+        mPrefetchBudget--;
+    }
+
+    /**
+     * @return true if tiles along animation path are being requested
+     */
+    public boolean isPrefetching() {
+        return mPrefetching;
+    }
+
+    /**
+     * @return number of tiles requested ahead of time during current or last animation
+     */
+    public int getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    /**
+     * @return number of prefetched tiles that were loaded before they became visible
+     * during current or last animation
+     */
+    public int getPrefetchHitCount() {
+        return mPrefetchHitCount;
+    }
+
     public void clearJobs() {
         jobQueue.clear();
     }
@@ -411,6 +510,20 @@ public class TileManager {
         return jobQueue.poll();
     }
 
+    /**
+     * @return true if there are jobs for visible tiles in queue
+     */
+    public boolean hasVisibleTileJobs() {
+        return jobQueue.hasVisibleJob();
+    }
+
+    /**
+     * @return number of jobs waiting in queue
+     */
+    public int getJobCount() {
+        return jobQueue.size();
+    }
+
     /**
      * Retrieve a TileSet of current tiles. Tiles remain locked in cache until
      * the set is unlocked by either passing it again to this function or to
@@ -441,6 +554,12 @@ public class TileManager {
     MapTile addTile(int x, int y, int zoomLevel) {
         MapTile tile = mIndex.getTile(x, y, zoomLevel);
 
+        if (tile != null && tile.prefetched) {
+            tile.prefetched = false;
+            if (tile.state(NEW_DATA | READY))
+                mPrefetchHitCount++;
+        }
+
         if (tile == null) {
             TileNode n = mIndex.add(x, y, zoomLevel);
             tile = n.item = new MapTile(n, x, y, zoomLevel);
@@ -741,6 +860,30 @@ public class TileManager {
         }
     };
 
+    private final ScanBox mPrefetchScanBox = new ScanBox() {
+
+        @Override
+        protected void setVisible(int y, int x1, int x2) {
+            int xmax = 1 << mZoom;
+
+            for (int x = x1; x < x2 && mPrefetchBudget > 0; x++) {
+                int xx = x;
+
+                if (x < 0 || x >= xmax) {
+                    /* flip-around date line */
+                    if (x < 0)
+                        xx = xmax + x;
+                    else
+                        xx = x - xmax;
+
+                    if (xx < 0 || xx >= xmax)
+                        continue;
+                }
+                prefetchTile(xx, y, mZoom);
+            }
+        }
+    };
+
     public MapTile getTile(int tileX, int tileY, byte zoomLevel) {
         return mIndex.getTile(tileX, tileY, zoomLevel);
     }
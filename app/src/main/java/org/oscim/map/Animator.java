@@ -56,6 +56,7 @@ public class Animator {
     private final Point mScroll = new Point();
     private final Point mPivot = new Point();
     private final Point mVelocity = new Point();
+    private final Point mMovePoint = new Point();
 
     private float mDuration = 500;
     private long mAnimEnd = -1;
@@ -381,6 +382,35 @@ public class Animator {
         return mState != ANIM_NONE;
     }
 
+    /**
+     * Get the estimated map position at animation end, including fling. Used to load
+     * tiles in advance.
+     *
+     * @return false if there is no active animation
+     */
+    public boolean getTargetPosition(MapPosition out) {
+        if (mState == ANIM_NONE)
+            return false;
+
+        out.copy(mStartPos);
+        if ((mState & ANIM_FLING) != 0) {
+            ViewController.applyRotation(mVelocity.x, mVelocity.y, mStartPos.bearing, mMovePoint);
+            double tileScale = mStartPos.scale * Tile.SIZE;
+            out.x -= mMovePoint.x / tileScale;
+            out.y -= mMovePoint.y / tileScale;
+        }
+        if ((mState & ANIM_MOVE) != 0) {
+            out.x += mDeltaPos.x;
+            out.y += mDeltaPos.y;
+        }
+        if ((mState & ANIM_SCALE) != 0)
+            out.setScale(mMap.viewport().limitScale(mStartPos.scale + mDeltaPos.scale));
+
+        out.x = out.x - Math.floor(out.x);
+        out.y = clamp(out.y, 0, 1);
+        return true;
+    }
+
     /**
      * Get the map position at animation end.<br>
      * Note: valid only with animateTo methods.
@@ -29,6 +29,8 @@ import org.oscim.renderer.GLViewport;
 import org.oscim.renderer.bucket.VertexData.Chunk;
 import org.oscim.theme.styles.AreaStyle;
 import org.oscim.utils.ColorUtil;
+import org.oscim.utils.Earcut;
+import org.oscim.utils.Parameters;
 import org.oscim.utils.TessJNI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +55,10 @@ public class MeshBucket extends RenderBucket {
     }
 
     public void addMesh(GeometryBuffer geom) {
+        if (Parameters.EARCUT_TESSELLATION) {
+            addTriangulatedMesh(geom);
+            return;
+        }
         numPoints += geom.pointNextPos;
         if (tess == null)
             tess = new TessJNI(8);
@@ -60,6 +66,53 @@ public class MeshBucket extends RenderBucket {
         tess.addContour2D(geom.index, geom.points);
     }
 
+    /**
+     * Triangulates each polygon right away. Unlike libtess overlapping polygons are not merged.
+     */
+    private void addTriangulatedMesh(GeometryBuffer geom) {
+        int[] index = geom.index;
+        float[] points = geom.points;
+        Earcut earcut = Earcut.get();
+
+        int ipos = 0, ppos = 0, n = index.length;
+        while (ipos < n && index[ipos] >= 0) {
+            int start = ipos;
+            int length = 0;
+            for (; ipos < n && index[ipos] > 0; ipos++)
+                length += index[ipos];
+            int numRings = ipos - start;
+            /* skip polygon separator */
+            if (ipos < n && index[ipos] == 0)
+                ipos++;
+            if (numRings == 0)
+                continue;
+
+            int nelems = earcut.triangulate(points, ppos, index, start, numRings);
+            int first = numVertices;
+            int count = length >> 1;
+            ppos += length;
+
+            if (nelems == 0)
+                continue;
+            if (first + count > (1 << 16)) {
+                log.debug("too many vertices {}", first + count);
+                return;
+            }
+
+            for (int i = ppos - length; i < ppos; i += 2)
+                vertexItems.add(points[i] * COORD_SCALE, points[i + 1] * COORD_SCALE);
+
+            int[] elements = earcut.getIndices();
+            for (int i = 0; i < nelems; i += 3)
+                indiceItems.add((short) (first + elements[i]),
+                        (short) (first + elements[i + 1]),
+                        (short) (first + elements[i + 2]));
+
+            numVertices += count;
+            numIndices += nelems;
+        }
+    }
+
     public void addConvexMesh(GeometryBuffer geom) {
         short start = (short) numVertices;
 
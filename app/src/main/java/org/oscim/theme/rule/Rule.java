@@ -60,12 +60,16 @@ public class Rule {
     public final boolean selectFirstMatch;
     public final boolean selectWhenMatched;
 
+    /* index of sub rules, null if there are few of them */
+    private final RuleIndex mSubRuleIndex;
+
     Rule(int element, int zoom, int selector, Rule[] subRules, RenderStyle[] styles) {
         this.element = element;
         this.zoom = zoom;
 
         this.subRules = (subRules == null) ? EMPTY_RULES : subRules;
         this.styles = (styles == null) ? EMPTY_STYLE : styles;
+        mSubRuleIndex = RuleIndex.create(this.subRules);
 
         selectFirstMatch = (selector & Selector.FIRST) != 0;
         selectWhenMatched = (selector & Selector.WHEN_MATCHED) != 0;
@@ -81,24 +85,37 @@ public class Rule {
 
         boolean matched = false;
         if (subRules != EMPTY_RULES) {
+            /* skipped rules can not match, so they do not affect selection */
+            long[] selected = null;
+            if (mSubRuleIndex != null)
+                selected = mSubRuleIndex.select(type, tags, zoomLevel);
+
             if (selectFirstMatch) {
                 /* only add first matching rule and when-matched rules iff a
                  * previous rule matched */
-                for (Rule r : subRules) {
+                for (int i = 0; i < subRules.length; i++) {
+                    Rule r = subRules[i];
                     /* continue if matched xor selectWhenMatch */
                     if (matched ^ r.selectWhenMatched)
                         continue;
 
+                    if (selected != null && !RuleIndex.isSelected(selected, i))
+                        continue;
+
                     if (r.matchElement(type, tags, zoomLevel, result))
                         matched = true;
                 }
             } else {
                 /* add all rules and when-matched rules iff a previous rule
                  * matched */
-                for (Rule r : subRules) {
+                for (int i = 0; i < subRules.length; i++) {
+                    Rule r = subRules[i];
                     if (r.selectWhenMatched && !matched)
                         continue;
 
+                    if (selected != null && !RuleIndex.isSelected(selected, i))
+                        continue;
+
                     if (r.matchElement(type, tags, zoomLevel, result))
                         matched = true;
                 }
@@ -182,7 +199,7 @@ public class Rule {
     }
 
     static class PositiveRuleK extends Rule {
-        private final String mKey;
+        final String mKey;
 
         PositiveRuleK(int element, int zoom, int selector, String key,
                       Rule[] subRules, RenderStyle[] styles) {
@@ -202,7 +219,7 @@ public class Rule {
     }
 
     static class PositiveRuleV extends Rule {
-        private final String mValue;
+        final String mValue;
 
         PositiveRuleV(int element, int zoom, int selector, String value,
                       Rule[] subRules, RenderStyle[] styles) {
@@ -221,8 +238,8 @@ public class Rule {
     }
 
     static class PositiveRuleKV extends Rule {
-        private final String mKey;
-        private final String mValue;
+        final String mKey;
+        final String mValue;
 
         PositiveRuleKV(int element, int zoom, int selector,
                        String key, String value,
@@ -243,8 +260,8 @@ public class Rule {
     }
 
     static class PositiveRuleMultiKV extends Rule {
-        private final String mKeys[];
-        private final String mValues[];
+        final String mKeys[];
+        final String mValues[];
 
         PositiveRuleMultiKV(int element, int zoom, int selector,
                             String keys[], String values[],
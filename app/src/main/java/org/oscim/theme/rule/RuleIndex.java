@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.theme.rule;
+
+import org.oscim.core.Tag;
+import org.oscim.theme.rule.Rule.Element;
+import org.oscim.theme.rule.Rule.PositiveRuleK;
+import org.oscim.theme.rule.Rule.PositiveRuleKV;
+import org.oscim.theme.rule.Rule.PositiveRuleMultiKV;
+import org.oscim.theme.rule.Rule.PositiveRuleV;
+
+import java.util.HashMap;
+
+/**
+ * Decision table for a list of sibling rules. Rules are indexed by tag keys, values and
+ * key-value pairs they require, by element type and by zoom level. Selection returns a superset
+ * of rules that can match given element as a bit set, selected rules still have to be evaluated
+ * in original order.
+ */
+public class RuleIndex {
+    /**
+     * Do not index short rule lists, linear matching is faster for them.
+     */
+    static final int MIN_RULES = 8;
+
+    private static final int[] ELEMENTS = {Element.NODE, Element.LINE, Element.POLY};
+
+    private final int mWords;
+    /* rules that can not be indexed by tags */
+    private final long[] mAlways;
+    private final HashMap<String, long[]> mByKey = new HashMap<>();
+    private final HashMap<String, long[]> mByValue = new HashMap<>();
+    private final HashMap<String, HashMap<String, long[]>> mByKeyValue = new HashMap<>();
+    private final long[][] mByElement = new long[ELEMENTS.length][];
+    private final long[][] mByZoom = new long[32][];
+
+    /**
+     * Creates index for rules or returns null if rules are too few to be indexed.
+     */
+    public static RuleIndex create(Rule[] rules) {
+        if (rules.length < MIN_RULES)
+            return null;
+        return new RuleIndex(rules);
+    }
+
+    private RuleIndex(Rule[] rules) {
+        mWords = (rules.length + 63) >>> 6;
+        mAlways = new long[mWords];
+        for (int e = 0; e < ELEMENTS.length; e++)
+            mByElement[e] = new long[mWords];
+        for (int z = 0; z < mByZoom.length; z++)
+            mByZoom[z] = new long[mWords];
+
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            for (int e = 0; e < ELEMENTS.length; e++)
+                if ((rule.element & ELEMENTS[e]) != 0)
+                    set(mByElement[e], i);
+            for (int z = 0; z < mByZoom.length; z++)
+                if ((rule.zoom & (1 << z)) != 0)
+                    set(mByZoom[z], i);
+
+            if (rule instanceof PositiveRuleK) {
+                set(mByKey, ((PositiveRuleK) rule).mKey, i);
+            } else if (rule instanceof PositiveRuleV) {
+                set(mByValue, ((PositiveRuleV) rule).mValue, i);
+            } else if (rule instanceof PositiveRuleKV) {
+                PositiveRuleKV r = (PositiveRuleKV) rule;
+                set(getValues(r.mKey), r.mValue, i);
+            } else if (rule instanceof PositiveRuleMultiKV) {
+                PositiveRuleMultiKV r = (PositiveRuleMultiKV) rule;
+                if (r.mKeys == null) {
+                    for (String value : r.mValues)
+                        set(mByValue, value, i);
+                } else if (r.mValues == null) {
+                    for (String key : r.mKeys)
+                        set(mByKey, key, i);
+                } else {
+                    for (String key : r.mKeys) {
+                        HashMap<String, long[]> values = getValues(key);
+                        for (String value : r.mValues)
+                            set(values, value, i);
+                    }
+                }
+            } else {
+                // plain and negative rules can match without any tags
+                set(mAlways, i);
+            }
+        }
+    }
+
+    /**
+     * Selects rules that can match element.
+     *
+     * @param type      element type, one of Element.NODE, Element.LINE or Element.POLY
+     * @param zoomLevel zoom level mask
+     * @return bit set of rule positions, bit of rule i is (set[i >>> 6] & (1L << i))
+     */
+    public long[] select(int type, Tag[] tags, int zoomLevel) {
+        long[] result = mAlways.clone();
+        for (Tag tag : tags) {
+            or(result, mByKey.get(tag.key));
+            or(result, mByValue.get(tag.value));
+            HashMap<String, long[]> values = mByKeyValue.get(tag.key);
+            if (values != null)
+                or(result, values.get(tag.value));
+        }
+        long[] elements = mByElement[Integer.numberOfTrailingZeros(type)];
+        long[] zooms = mByZoom[Integer.numberOfTrailingZeros(zoomLevel)];
+        for (int w = 0; w < mWords; w++)
+            result[w] &= elements[w] & zooms[w];
+        return result;
+    }
+
+    public static boolean isSelected(long[] set, int index) {
+        return (set[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private HashMap<String, long[]> getValues(String key) {
+        HashMap<String, long[]> values = mByKeyValue.get(key);
+        if (values == null) {
+            values = new HashMap<>();
+            mByKeyValue.put(key, values);
+        }
+        return values;
+    }
+
+    private void set(HashMap<String, long[]> map, String key, int index) {
+        long[] set = map.get(key);
+        if (set == null) {
+            set = new long[mWords];
+            map.put(key, set);
+        }
+        set(set, index);
+    }
+
+    private static void set(long[] set, int index) {
+        set[index >>> 6] |= 1L << index;
+    }
+
+    private static void or(long[] result, long[] set) {
+        if (set == null)
+            return;
+        for (int w = 0; w < result.length; w++)
+            result[w] |= set[w];
+    }
+}
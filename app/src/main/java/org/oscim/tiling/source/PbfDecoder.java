@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public abstract class PbfDecoder implements ITileDecoder {
     static final Logger log = LoggerFactory.getLogger(PbfDecoder.class);
@@ -77,6 +78,9 @@ public abstract class PbfDecoder implements ITileDecoder {
 
     private InputStream mInputStream;
 
+    // own buffer while decoding from external array
+    private byte[] mStreamBuffer;
+
     private final UTF8Decoder mStringDecoder;
 
     public PbfDecoder() {
@@ -84,6 +88,10 @@ public abstract class PbfDecoder implements ITileDecoder {
     }
 
     public void setInputStream(InputStream is) {
+        if (mStreamBuffer != null) {
+            buffer = mStreamBuffer;
+            mStreamBuffer = null;
+        }
         mInputStream = is;
 
         bufferFill = 0;
@@ -93,6 +101,41 @@ public abstract class PbfDecoder implements ITileDecoder {
         mMsgPos = 0;
     }
 
+    /**
+     * Set message contained in array as input. Message is decoded in place, without
+     * copying it to decoder buffer. Array must not be modified until decoding is finished.
+     */
+    public void setInput(byte[] data, int offset, int length) {
+        if (mStreamBuffer == null)
+            mStreamBuffer = buffer;
+        mInputStream = null;
+        buffer = data;
+
+        bufferPos = offset;
+        bufferFill = offset + length;
+        mBufferOffset = -offset;
+
+        mMsgPos = length;
+    }
+
+    /**
+     * Set remaining bytes of byte buffer as input. Heap buffers are decoded in place,
+     * direct (e.g. memory mapped) buffers are copied to decoder buffer in one bulk read.
+     */
+    public void setInput(ByteBuffer data) {
+        int length = data.remaining();
+        if (data.hasArray()) {
+            setInput(data.array(), data.arrayOffset() + data.position(), length);
+            return;
+        }
+        byte[] buf = mStreamBuffer != null ? mStreamBuffer : buffer;
+        if (buf.length < length)
+            buf = new byte[length];
+        data.duplicate().get(buf, 0, length);
+        mStreamBuffer = buf;
+        setInput(buf, 0, length);
+    }
+
     protected int decodeVarint32() throws IOException {
 
         int bytesLeft = 0;
@@ -464,6 +507,9 @@ public abstract class PbfDecoder implements ITileDecoder {
         //if (mBufferOffset + bufferPos >= mMsgEnd)
         //    return false;
 
+        if (mInputStream == null)
+            return bufferPos < bufferFill;
+
         return fillBuffer(1) > 0;
     }
 
@@ -478,6 +524,10 @@ public abstract class PbfDecoder implements ITileDecoder {
         if (bytesLeft >= size)
             return bytesLeft;
 
+        // whole message is already in buffer when decoding from array
+        if (mInputStream == null)
+            throw TRUNCATED_MSG;
+
         int maxSize = buffer.length;
 
         if (size > maxSize) {
@@ -0,0 +1,755 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.utils;
+
+import java.util.Arrays;
+
+/**
+ * Ear clipping polygon triangulation with hole support, a port of Mapbox earcut
+ * (https://github.com/mapbox/earcut, ISC license). Unlike libtess it does not add vertices:
+ * resulting triangles reference input vertices. As with libtess, triangles have the same
+ * orientation as the outer ring.
+ * <p/>
+ * Polygon nodes are kept in primitive arrays which are reused between calls, so an instance
+ * does not allocate after warm up. Instances are not thread safe, use {@link #get()}.
+ */
+public final class Earcut {
+    private static final int NULL = -1;
+    /* use z-order hashing for polygons with more vertices */
+    private static final int HASH_THRESHOLD = 80;
+
+    private static final ThreadLocal<Earcut> sInstance = new ThreadLocal<Earcut>() {
+        @Override
+        protected Earcut initialValue() {
+            return new Earcut();
+        }
+    };
+
+    /* polygon nodes */
+    private int mNodes;
+    private int[] mVertex = new int[64];
+    private double[] mX = new double[64];
+    private double[] mY = new double[64];
+    private int[] mPrev = new int[64];
+    private int[] mNext = new int[64];
+    private int[] mZ = new int[64];
+    private int[] mPrevZ = new int[64];
+    private int[] mNextZ = new int[64];
+    private boolean[] mSteiner = new boolean[64];
+
+    private int[] mHoles = new int[8];
+
+    private int[] mTriangles = new int[192];
+    private int mTriangleIndices;
+    private boolean mReverse;
+
+    /* z-order parameters */
+    private double mMinX, mMinY, mInvSize;
+
+    /**
+     * @return triangulator instance of current thread
+     */
+    public static Earcut get() {
+        return sInstance.get();
+    }
+
+    /**
+     * Triangulates polygon with holes.
+     *
+     * @param points   the {@link org.oscim.core.GeometryBuffer#points}
+     * @param ppos     position of the first polygon point in points array
+     * @param index    the {@link org.oscim.core.GeometryBuffer#index}, ring sizes in floats
+     * @param ipos     position of the outer ring in index array
+     * @param numRings number of rings: outer ring and holes
+     * @return number of triangle indices, see {@link #getIndices()}
+     */
+    public int triangulate(float[] points, int ppos, int[] index, int ipos, int numRings) {
+        mNodes = 0;
+        mTriangleIndices = 0;
+
+        int outerEnd = ppos + index[ipos];
+        /* rings are linked counter-clockwise */
+        mReverse = signedArea(points, ppos, outerEnd) < 0;
+        int outerNode = linkedList(points, ppos, ppos, outerEnd, true);
+        if (outerNode == NULL || mNext[outerNode] == mPrev[outerNode])
+            return 0;
+
+        if (numRings > 1)
+            outerNode = eliminateHoles(points, ppos, outerEnd, index, ipos + 1, numRings - 1, outerNode);
+
+        int numPoints = 0;
+        for (int i = 0; i < numRings; i++)
+            numPoints += index[ipos + i];
+
+        mInvSize = 0;
+        if (numPoints > HASH_THRESHOLD * 2) {
+            double minX = points[ppos], maxX = minX;
+            double minY = points[ppos + 1], maxY = minY;
+            for (int i = ppos + 2; i < outerEnd; i += 2) {
+                double x = points[i];
+                double y = points[i + 1];
+                if (x < minX) minX = x;
+                if (y < minY) minY = y;
+                if (x > maxX) maxX = x;
+                if (y > maxY) maxY = y;
+            }
+            mMinX = minX;
+            mMinY = minY;
+            double size = Math.max(maxX - minX, maxY - minY);
+            mInvSize = size != 0 ? 32767 / size : 0;
+        }
+
+        earcutLinked(outerNode, 0);
+        return mTriangleIndices;
+    }
+
+    /**
+     * @return triangle vertex indices relative to the first polygon point, valid until next
+     * triangulation
+     */
+    public int[] getIndices() {
+        return mTriangles;
+    }
+
+    /**
+     * Creates a circular doubly linked list from ring points in specified winding order.
+     */
+    private int linkedList(float[] points, int ppos, int start, int end, boolean clockwise) {
+        int last = NULL;
+        if (clockwise == (signedArea(points, start, end) > 0)) {
+            for (int i = start; i < end; i += 2)
+                last = insertNode((i - ppos) >> 1, points[i], points[i + 1], last);
+        } else {
+            for (int i = end - 2; i >= start; i -= 2)
+                last = insertNode((i - ppos) >> 1, points[i], points[i + 1], last);
+        }
+        if (last != NULL && equals(last, mNext[last])) {
+            removeNode(last);
+            last = mNext[last];
+        }
+        return last;
+    }
+
+    /**
+     * Eliminates collinear or duplicate points.
+     */
+    private int filterPoints(int start, int end) {
+        if (start == NULL)
+            return start;
+        if (end == NULL)
+            end = start;
+
+        int p = start;
+        boolean again;
+        do {
+            again = false;
+            if (!mSteiner[p] && (equals(p, mNext[p]) || area(mPrev[p], p, mNext[p]) == 0)) {
+                removeNode(p);
+                p = end = mPrev[p];
+                if (p == mNext[p])
+                    break;
+                again = true;
+            } else {
+                p = mNext[p];
+            }
+        } while (again || p != end);
+
+        return end;
+    }
+
+    /**
+     * Main ear slicing loop which triangulates a polygon given as a linked list.
+     */
+    private void earcutLinked(int ear, int pass) {
+        if (ear == NULL)
+            return;
+
+        if (pass == 0 && mInvSize != 0)
+            indexCurve(ear);
+
+        int stop = ear;
+        while (mPrev[ear] != mNext[ear]) {
+            int prev = mPrev[ear];
+            int next = mNext[ear];
+
+            if (mInvSize != 0 ? isEarHashed(ear) : isEar(ear)) {
+                addTriangle(prev, ear, next);
+                removeNode(ear);
+                /* skipping the next vertex leads to less sliver triangles */
+                ear = mNext[next];
+                stop = mNext[next];
+                continue;
+            }
+
+            ear = next;
+
+            /* looped through the whole remaining polygon and can not find any more ears */
+            if (ear == stop) {
+                if (pass == 0) {
+                    /* try filtering points and slicing again */
+                    earcutLinked(filterPoints(ear, NULL), 1);
+                } else if (pass == 1) {
+                    /* try curing all small self-intersections locally */
+                    ear = cureLocalIntersections(filterPoints(ear, NULL));
+                    earcutLinked(ear, 2);
+                } else if (pass == 2) {
+                    /* as a last resort try splitting the remaining polygon into two */
+                    splitEarcut(ear);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a polygon node forms a valid ear with adjacent nodes.
+     */
+    private boolean isEar(int ear) {
+        int a = mPrev[ear], b = ear, c = mNext[ear];
+        if (area(a, b, c) >= 0)
+            return false; // reflex, can not be an ear
+
+        double ax = mX[a], bx = mX[b], cx = mX[c];
+        double ay = mY[a], by = mY[b], cy = mY[c];
+
+        /* triangle bbox */
+        double x0 = Math.min(ax, Math.min(bx, cx)), y0 = Math.min(ay, Math.min(by, cy));
+        double x1 = Math.max(ax, Math.max(bx, cx)), y1 = Math.max(ay, Math.max(by, cy));
+
+        /* make sure there are no other points inside the potential ear */
+        for (int p = mNext[c]; p != a; p = mNext[p]) {
+            if (mX[p] >= x0 && mX[p] <= x1 && mY[p] >= y0 && mY[p] <= y1
+                    && pointInTriangle(ax, ay, bx, by, cx, cy, mX[p], mY[p])
+                    && area(mPrev[p], p, mNext[p]) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isEarHashed(int ear) {
+        int a = mPrev[ear], b = ear, c = mNext[ear];
+        if (area(a, b, c) >= 0)
+            return false; // reflex, can not be an ear
+
+        double ax = mX[a], bx = mX[b], cx = mX[c];
+        double ay = mY[a], by = mY[b], cy = mY[c];
+
+        double x0 = Math.min(ax, Math.min(bx, cx)), y0 = Math.min(ay, Math.min(by, cy));
+        double x1 = Math.max(ax, Math.max(bx, cx)), y1 = Math.max(ay, Math.max(by, cy));
+
+        /* z-order range for the current triangle bbox */
+        int minZ = zOrder(x0, y0);
+        int maxZ = zOrder(x1, y1);
+
+        int p = mPrevZ[ear], n = mNextZ[ear];
+
+        /* look for points inside the triangle in both directions */
+        while (p != NULL && mZ[p] >= minZ && n != NULL && mZ[n] <= maxZ) {
+            if (isInEar(p, a, c, x0, y0, x1, y1, ax, ay, bx, by, cx, cy))
+                return false;
+            p = mPrevZ[p];
+            if (isInEar(n, a, c, x0, y0, x1, y1, ax, ay, bx, by, cx, cy))
+                return false;
+            n = mNextZ[n];
+        }
+
+        /* look for remaining points in decreasing z-order */
+        while (p != NULL && mZ[p] >= minZ) {
+            if (isInEar(p, a, c, x0, y0, x1, y1, ax, ay, bx, by, cx, cy))
+                return false;
+            p = mPrevZ[p];
+        }
+
+        /* look for remaining points in increasing z-order */
+        while (n != NULL && mZ[n] <= maxZ) {
+            if (isInEar(n, a, c, x0, y0, x1, y1, ax, ay, bx, by, cx, cy))
+                return false;
+            n = mNextZ[n];
+        }
+        return true;
+    }
+
+    private boolean isInEar(int p, int a, int c, double x0, double y0, double x1, double y1,
+                            double ax, double ay, double bx, double by, double cx, double cy) {
+        return mX[p] >= x0 && mX[p] <= x1 && mY[p] >= y0 && mY[p] <= y1 && p != a && p != c
+                && pointInTriangle(ax, ay, bx, by, cx, cy, mX[p], mY[p])
+                && area(mPrev[p], p, mNext[p]) >= 0;
+    }
+
+    /**
+     * Goes through all polygon nodes and cures small local self-intersections.
+     */
+    private int cureLocalIntersections(int start) {
+        int p = start;
+        do {
+            int a = mPrev[p], b = mNext[mNext[p]];
+            if (!equals(a, b) && intersects(a, p, mNext[p], b) && locallyInside(a, b) && locallyInside(b, a)) {
+                addTriangle(a, p, b);
+                /* remove two nodes involved */
+                removeNode(p);
+                removeNode(mNext[p]);
+                p = start = b;
+            }
+            p = mNext[p];
+        } while (p != start);
+
+        return filterPoints(p, NULL);
+    }
+
+    /**
+     * Tries splitting polygon into two and triangulate them independently.
+     */
+    private void splitEarcut(int start) {
+        /* look for a valid diagonal that divides the polygon into two */
+        int a = start;
+        do {
+            int b = mNext[mNext[a]];
+            while (b != mPrev[a]) {
+                if (mVertex[a] != mVertex[b] && isValidDiagonal(a, b)) {
+                    /* split the polygon in two by the diagonal */
+                    int c = splitPolygon(a, b);
+
+                    /* filter collinear points around the cuts */
+                    a = filterPoints(a, mNext[a]);
+                    c = filterPoints(c, mNext[c]);
+
+                    earcutLinked(a, 0);
+                    earcutLinked(c, 0);
+                    return;
+                }
+                b = mNext[b];
+            }
+            a = mNext[a];
+        } while (a != start);
+    }
+
+    /**
+     * Links every hole into the outer ring, producing a single ring polygon without holes.
+     */
+    private int eliminateHoles(float[] points, int ppos, int start, int[] index, int ipos, int numHoles, int outerNode) {
+        if (mHoles.length < numHoles)
+            mHoles = new int[numHoles];
+
+        int count = 0;
+        for (int i = 0; i < numHoles; i++) {
+            int end = start + index[ipos + i];
+            int list = linkedList(points, ppos, start, end, false);
+            start = end;
+            if (list == NULL)
+                continue;
+            if (list == mNext[list])
+                mSteiner[list] = true;
+            /* insertion sort by x of leftmost point, holes are few */
+            int leftmost = getLeftmost(list);
+            int j = count++;
+            while (j > 0 && mX[mHoles[j - 1]] > mX[leftmost]) {
+                mHoles[j] = mHoles[j - 1];
+                j--;
+            }
+            mHoles[j] = leftmost;
+        }
+
+        /* process holes from left to right */
+        for (int i = 0; i < count; i++)
+            outerNode = eliminateHole(mHoles[i], outerNode);
+
+        return outerNode;
+    }
+
+    /**
+     * Finds a bridge between vertices that connects hole with an outer ring and links it.
+     */
+    private int eliminateHole(int hole, int outerNode) {
+        int bridge = findHoleBridge(hole, outerNode);
+        if (bridge == NULL)
+            return outerNode;
+
+        int bridgeReverse = splitPolygon(bridge, hole);
+
+        /* filter collinear points around the cuts */
+        filterPoints(bridgeReverse, mNext[bridgeReverse]);
+        return filterPoints(bridge, mNext[bridge]);
+    }
+
+    /**
+     * David Eberly's algorithm for finding a bridge between hole and outer polygon.
+     */
+    private int findHoleBridge(int hole, int outerNode) {
+        int p = outerNode;
+        double hx = mX[hole], hy = mY[hole];
+        double qx = Double.NEGATIVE_INFINITY;
+        int m = NULL;
+
+        /* find a segment intersected by a ray from the hole's leftmost point to the left;
+         * segment's endpoint with lesser x will be potential connection point */
+        do {
+            int n = mNext[p];
+            if (hy <= mY[p] && hy >= mY[n] && mY[n] != mY[p]) {
+                double x = mX[p] + (hy - mY[p]) * (mX[n] - mX[p]) / (mY[n] - mY[p]);
+                if (x <= hx && x > qx) {
+                    qx = x;
+                    m = mX[p] < mX[n] ? p : n;
+                    if (x == hx)
+                        return m; // hole touches outer segment, pick leftmost endpoint
+                }
+            }
+            p = n;
+        } while (p != outerNode);
+
+        if (m == NULL)
+            return NULL;
+
+        /* look for points inside the triangle of hole point, segment intersection and endpoint;
+         * if there are no points found, we have a valid connection, otherwise choose the point
+         * of the minimum angle with the ray as connection point */
+        int stop = m;
+        double mx = mX[m], my = mY[m];
+        double tanMin = Double.POSITIVE_INFINITY;
+
+        p = m;
+        do {
+            if (hx >= mX[p] && mX[p] >= mx && hx != mX[p]
+                    && pointInTriangle(hy < my ? hx : qx, hy, mx, my, hy < my ? qx : hx, hy, mX[p], mY[p])) {
+                double tan = Math.abs(hy - mY[p]) / (hx - mX[p]);
+                if (locallyInside(p, hole) && (tan < tanMin || (tan == tanMin
+                        && (mX[p] > mX[m] || (mX[p] == mX[m] && sectorContainsSector(m, p)))))) {
+                    m = p;
+                    tanMin = tan;
+                }
+            }
+            p = mNext[p];
+        } while (p != stop);
+
+        return m;
+    }
+
+    /**
+     * Whether sector in vertex m contains sector in vertex p in the same coordinates.
+     */
+    private boolean sectorContainsSector(int m, int p) {
+        return area(mPrev[m], m, mPrev[p]) < 0 && area(mNext[p], m, mNext[m]) < 0;
+    }
+
+    /**
+     * Interlinks polygon nodes in z-order.
+     */
+    private void indexCurve(int start) {
+        int p = start;
+        do {
+            if (mZ[p] == 0)
+                mZ[p] = zOrder(mX[p], mY[p]);
+            mPrevZ[p] = mPrev[p];
+            mNextZ[p] = mNext[p];
+            p = mNext[p];
+        } while (p != start);
+
+        mNextZ[mPrevZ[p]] = NULL;
+        mPrevZ[p] = NULL;
+
+        sortLinked(p);
+    }
+
+    /**
+     * Simon Tatham's linked list merge sort algorithm.
+     */
+    private void sortLinked(int list) {
+        int inSize = 1;
+        int numMerges;
+        do {
+            int p = list;
+            list = NULL;
+            int tail = NULL;
+            numMerges = 0;
+
+            while (p != NULL) {
+                numMerges++;
+                int q = p;
+                int pSize = 0;
+                for (int i = 0; i < inSize; i++) {
+                    pSize++;
+                    q = mNextZ[q];
+                    if (q == NULL)
+                        break;
+                }
+                int qSize = inSize;
+
+                while (pSize > 0 || (qSize > 0 && q != NULL)) {
+                    int e;
+                    if (pSize != 0 && (qSize == 0 || q == NULL || mZ[p] <= mZ[q])) {
+                        e = p;
+                        p = mNextZ[p];
+                        pSize--;
+                    } else {
+                        e = q;
+                        q = mNextZ[q];
+                        qSize--;
+                    }
+
+                    if (tail != NULL)
+                        mNextZ[tail] = e;
+                    else
+                        list = e;
+
+                    mPrevZ[e] = tail;
+                    tail = e;
+                }
+                p = q;
+            }
+
+            mNextZ[tail] = NULL;
+            inSize *= 2;
+        } while (numMerges > 1);
+    }
+
+    /**
+     * Z-order of a point given coordinates and inverse of the longer side of polygon bbox.
+     */
+    private int zOrder(double px, double py) {
+        /* coordinates are transformed into non-negative 15-bit integer range */
+        int x = (int) ((px - mMinX) * mInvSize);
+        int y = (int) ((py - mMinY) * mInvSize);
+
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+
+        y = (y | (y << 8)) & 0x00FF00FF;
+        y = (y | (y << 4)) & 0x0F0F0F0F;
+        y = (y | (y << 2)) & 0x33333333;
+        y = (y | (y << 1)) & 0x55555555;
+
+        return x | (y << 1);
+    }
+
+    private int getLeftmost(int start) {
+        int p = start, leftmost = start;
+        do {
+            if (mX[p] < mX[leftmost] || (mX[p] == mX[leftmost] && mY[p] < mY[leftmost]))
+                leftmost = p;
+            p = mNext[p];
+        } while (p != start);
+        return leftmost;
+    }
+
+    private static boolean pointInTriangle(double ax, double ay, double bx, double by,
+                                           double cx, double cy, double px, double py) {
+        return (cx - px) * (ay - py) >= (ax - px) * (cy - py)
+                && (ax - px) * (by - py) >= (bx - px) * (ay - py)
+                && (bx - px) * (cy - py) >= (cx - px) * (by - py);
+    }
+
+    /**
+     * Checks if a diagonal between two polygon nodes is valid (lies in polygon interior).
+     */
+    private boolean isValidDiagonal(int a, int b) {
+        return mVertex[mNext[a]] != mVertex[b] && mVertex[mPrev[a]] != mVertex[b] && !intersectsPolygon(a, b)
+                /* locally visible and does not create opposite-facing sectors */
+                && (locallyInside(a, b) && locallyInside(b, a) && middleInside(a, b)
+                && (area(mPrev[a], a, mPrev[b]) != 0 || area(a, mPrev[b], b) != 0)
+                /* special zero-length case */
+                || equals(a, b) && area(mPrev[a], a, mNext[a]) > 0 && area(mPrev[b], b, mNext[b]) > 0);
+    }
+
+    /**
+     * Signed area of a triangle.
+     */
+    private double area(int p, int q, int r) {
+        return (mY[q] - mY[p]) * (mX[r] - mX[q]) - (mX[q] - mX[p]) * (mY[r] - mY[q]);
+    }
+
+    private boolean equals(int p1, int p2) {
+        return mX[p1] == mX[p2] && mY[p1] == mY[p2];
+    }
+
+    /**
+     * Checks if two segments intersect.
+     */
+    private boolean intersects(int p1, int q1, int p2, int q2) {
+        int o1 = sign(area(p1, q1, p2));
+        int o2 = sign(area(p1, q1, q2));
+        int o3 = sign(area(p2, q2, p1));
+        int o4 = sign(area(p2, q2, q1));
+
+        if (o1 != o2 && o3 != o4)
+            return true; // general case
+
+        if (o1 == 0 && onSegment(p1, p2, q1))
+            return true; // p1, q1 and p2 are collinear and p2 lies on p1q1
+        if (o2 == 0 && onSegment(p1, q2, q1))
+            return true; // p1, q1 and q2 are collinear and q2 lies on p1q1
+        if (o3 == 0 && onSegment(p2, p1, q2))
+            return true; // p2, q2 and p1 are collinear and p1 lies on p2q2
+        //noinspection RedundantIfStatement
+        if (o4 == 0 && onSegment(p2, q1, q2))
+            return true; // p2, q2 and q1 are collinear and q1 lies on p2q2
+
+        return false;
+    }
+
+    /**
+     * For collinear points p, q, r checks if point q lies on segment pr.
+     */
+    private boolean onSegment(int p, int q, int r) {
+        return mX[q] <= Math.max(mX[p], mX[r]) && mX[q] >= Math.min(mX[p], mX[r])
+                && mY[q] <= Math.max(mY[p], mY[r]) && mY[q] >= Math.min(mY[p], mY[r]);
+    }
+
+    private static int sign(double num) {
+        return num > 0 ? 1 : num < 0 ? -1 : 0;
+    }
+
+    /**
+     * Checks if a polygon diagonal intersects any polygon segments.
+     */
+    private boolean intersectsPolygon(int a, int b) {
+        int p = a;
+        do {
+            int n = mNext[p];
+            if (mVertex[p] != mVertex[a] && mVertex[n] != mVertex[a] && mVertex[p] != mVertex[b]
+                    && mVertex[n] != mVertex[b] && intersects(p, n, a, b))
+                return true;
+            p = n;
+        } while (p != a);
+        return false;
+    }
+
+    /**
+     * Checks if a polygon diagonal is locally inside the polygon.
+     */
+    private boolean locallyInside(int a, int b) {
+        return area(mPrev[a], a, mNext[a]) < 0
+                ? area(a, b, mNext[a]) >= 0 && area(a, mPrev[a], b) >= 0
+                : area(a, b, mPrev[a]) < 0 || area(a, mNext[a], b) < 0;
+    }
+
+    /**
+     * Checks if the middle point of a polygon diagonal is inside the polygon.
+     */
+    private boolean middleInside(int a, int b) {
+        int p = a;
+        boolean inside = false;
+        double px = (mX[a] + mX[b]) / 2;
+        double py = (mY[a] + mY[b]) / 2;
+        do {
+            int n = mNext[p];
+            if (((mY[p] > py) != (mY[n] > py)) && mY[n] != mY[p]
+                    && (px < (mX[n] - mX[p]) * (py - mY[p]) / (mY[n] - mY[p]) + mX[p]))
+                inside = !inside;
+            p = n;
+        } while (p != a);
+        return inside;
+    }
+
+    /**
+     * Links two polygon vertices with a bridge. If the vertices belong to the same ring, it splits
+     * polygon into two. If one belongs to the outer ring and another to a hole, it merges it into
+     * a single ring.
+     */
+    private int splitPolygon(int a, int b) {
+        int a2 = newNode(mVertex[a], mX[a], mY[a]);
+        int b2 = newNode(mVertex[b], mX[b], mY[b]);
+        int an = mNext[a];
+        int bp = mPrev[b];
+
+        mNext[a] = b;
+        mPrev[b] = a;
+
+        mNext[a2] = an;
+        mPrev[an] = a2;
+
+        mNext[b2] = a2;
+        mPrev[a2] = b2;
+
+        mNext[bp] = b2;
+        mPrev[b2] = bp;
+
+        return b2;
+    }
+
+    /**
+     * Creates a node and links it with previous one in a circular doubly linked list.
+     */
+    private int insertNode(int vertex, double x, double y, int last) {
+        int p = newNode(vertex, x, y);
+        if (last == NULL) {
+            mPrev[p] = p;
+            mNext[p] = p;
+        } else {
+            mNext[p] = mNext[last];
+            mPrev[p] = last;
+            mPrev[mNext[last]] = p;
+            mNext[last] = p;
+        }
+        return p;
+    }
+
+    private void removeNode(int p) {
+        mPrev[mNext[p]] = mPrev[p];
+        mNext[mPrev[p]] = mNext[p];
+
+        if (mPrevZ[p] != NULL)
+            mNextZ[mPrevZ[p]] = mNextZ[p];
+        if (mNextZ[p] != NULL)
+            mPrevZ[mNextZ[p]] = mPrevZ[p];
+    }
+
+    private int newNode(int vertex, double x, double y) {
+        if (mNodes == mVertex.length)
+            growNodes(mNodes * 2);
+        int p = mNodes++;
+        mVertex[p] = vertex;
+        mX[p] = x;
+        mY[p] = y;
+        mPrev[p] = NULL;
+        mNext[p] = NULL;
+        mZ[p] = 0;
+        mPrevZ[p] = NULL;
+        mNextZ[p] = NULL;
+        mSteiner[p] = false;
+        return p;
+    }
+
+    private void growNodes(int size) {
+        mVertex = Arrays.copyOf(mVertex, size);
+        mX = Arrays.copyOf(mX, size);
+        mY = Arrays.copyOf(mY, size);
+        mPrev = Arrays.copyOf(mPrev, size);
+        mNext = Arrays.copyOf(mNext, size);
+        mZ = Arrays.copyOf(mZ, size);
+        mPrevZ = Arrays.copyOf(mPrevZ, size);
+        mNextZ = Arrays.copyOf(mNextZ, size);
+        mSteiner = Arrays.copyOf(mSteiner, size);
+    }
+
+    private void addTriangle(int a, int b, int c) {
+        if (mTriangleIndices + 3 > mTriangles.length)
+            mTriangles = Arrays.copyOf(mTriangles, mTriangles.length * 2);
+        mTriangles[mTriangleIndices++] = mVertex[a];
+        mTriangles[mTriangleIndices++] = mVertex[mReverse ? c : b];
+        mTriangles[mTriangleIndices++] = mVertex[mReverse ? b : c];
+    }
+
+    private static double signedArea(float[] points, int start, int end) {
+        double sum = 0;
+        for (int i = start, j = end - 2; i < end; i += 2) {
+            sum += ((double) points[j] - points[i]) * ((double) points[i + 1] + points[j + 1]);
+            j = i;
+        }
+        return sum;
+    }
+}
@@ -26,6 +26,13 @@ public final class Parameters {
      */
     public static boolean CUSTOM_TILE_SIZE = false;
 
+    /**
+     * Triangulate polygons with Java {@link Earcut} instead of native libtess. Overlapping
+     * polygons of a mesh bucket are not merged, so translucent areas can be blended twice.
+     * Experimental, has to be verified against libtess on real tiles before enabling.
+     */
+    public static boolean EARCUT_TESSELLATION = false;
+
     /**
      * If true the <code>MapEventLayer2</code> will be used instead of default <code>MapEventLayer</code>.
      */
@@ -45,6 +45,9 @@ public class Tessellator {
     public static int tessellate(float[] points, int ppos, int numPoints, int[] index,
                                  int ipos, int numRings, int vertexOffset, VertexData outTris) {
 
+        if (Parameters.EARCUT_TESSELLATION)
+            return triangulate(points, ppos, index, ipos, numRings, vertexOffset, outTris);
+
         int buckets = FastMath.log2(MathUtils.nextPowerOfTwo(numPoints));
         buckets -= 2;
         //log.debug("tess use {}", buckets);
@@ -95,29 +98,8 @@ public class Tessellator {
                             Arrays.toString(Arrays.copyOfRange(indices, start, end)));
                     break;
                 }
-                indices[i] *= 2;
-            }
-            /* when a ring has an odd number of points one (or rather two)
-             * additional vertices will be added. so the following rings
-             * needs extra offset */
-            int shift = 0;
-            for (int i = 0, m = numRings - 1; i < m; i++) {
-                shift += (index[ipos + i]);
-
-                /* even number of points? */
-                if (((index[ipos + i] >> 1) & 1) == 0)
-                    continue;
-
-                for (int j = start; j < end; j++)
-                    if (indices[j] >= shift)
-                        indices[j] += 2;
-
-                shift += 2;
             }
-
-            /* shift by vertexOffset */
-            for (int i = start; i < end; i++)
-                indices[i] += vertexOffset;
+            shiftIndices(indices, start, end, index, ipos, numRings, vertexOffset);
 
             sumIndices += size;
 
@@ -132,6 +114,74 @@ public class Tessellator {
         return sumIndices;
     }
 
+    /**
+     * Earcut version of {@link #tessellate(float[], int, int, int[], int, int, int, VertexData)}.
+     */
+    private static int triangulate(float[] points, int ppos, int[] index, int ipos,
+                                   int numRings, int vertexOffset, VertexData outTris) {
+        Earcut earcut = Earcut.get();
+        int nelems = earcut.triangulate(points, ppos, index, ipos, numRings);
+        int[] elements = earcut.getIndices();
+
+        VertexData.Chunk vd = outTris.obtainChunk();
+
+        for (int offset = 0; offset < nelems; ) {
+            int size = nelems - offset;
+
+            if (VertexData.SIZE == vd.used) {
+                vd = outTris.obtainChunk();
+            }
+
+            if (size > VertexData.SIZE - vd.used)
+                size = VertexData.SIZE - vd.used;
+
+            int start = vd.used;
+            int end = start + size;
+            short[] indices = vd.vertices;
+
+            for (int i = start; i < end; i++)
+                indices[i] = (short) elements[offset++];
+
+            shiftIndices(indices, start, end, index, ipos, numRings, vertexOffset);
+
+            vd.used += size;
+            outTris.releaseChunk();
+        }
+
+        return nelems;
+    }
+
+    /**
+     * Converts input vertex ids to extrusion vertex indices.
+     */
+    private static void shiftIndices(short[] indices, int start, int end, int[] index,
+                                     int ipos, int numRings, int vertexOffset) {
+        for (int i = start; i < end; i++)
+            indices[i] *= 2;
+
+        /* when a ring has an odd number of points one (or rather two)
+         * additional vertices will be added. so the following rings
+         * needs extra offset */
+        int shift = 0;
+        for (int i = 0, m = numRings - 1; i < m; i++) {
+            shift += (index[ipos + i]);
+
+            /* even number of points? */
+            if (((index[ipos + i] >> 1) & 1) == 0)
+                continue;
+
+            for (int j = start; j < end; j++)
+                if (indices[j] >= shift)
+                    indices[j] += 2;
+
+            shift += 2;
+        }
+
+        /* shift by vertexOffset */
+        for (int i = start; i < end; i++)
+            indices[i] += vertexOffset;
+    }
+
     /**
      * Tessellates a {@link org.oscim.core.GeometryBuffer} to a triangular/mesh GeometryBuffer.
      * The points array remains the same.
@@ -151,6 +201,13 @@ public class Tessellator {
             numRings++;
         }
 
+        if (Parameters.EARCUT_TESSELLATION) {
+            Earcut earcut = Earcut.get();
+            int nelems = earcut.triangulate(points, 0, index, ipos, numRings);
+            outMesh.index = Arrays.copyOf(earcut.getIndices(), nelems);
+            return nelems;
+        }
+
         int buckets = FastMath.log2(MathUtils.nextPowerOfTwo(numPoints));
         buckets -= 2;
         //log.debug("tess use {}", buckets);
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.data;
+
+import org.junit.Test;
+import org.oscim.core.GeoPoint;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Route geometry index tests, results are compared with plain scans over instructions.
+ */
+public class RouteTest {
+    @Test
+    public void testDistancesAndCourses() {
+        Route route = createRoute(3000, 42);
+        int size = route.size();
+        double total = 0.0;
+        for (int i = 0; i < size - 1; i++)
+            total += route.get(i).vincentyDistance(route.get(i + 1));
+        assertEquals(total, route.getTotalDistance(), 1e-6);
+        assertEquals(total, route.distanceBetween(0, size - 1), 1e-6);
+        // indexes are clamped to route bounds
+        assertEquals(total, route.distanceBetween(-5, size + 5), 1e-6);
+        assertEquals(0.0, route.distanceBetween(10, 5), 0.0);
+        assertEquals(route.get(10).vincentyDistance(route.get(11)), route.distanceBetween(10, 11), 1e-6);
+
+        for (int i = 1; i < size - 1; i++) {
+            assertEquals(route.get(i).bearingTo(route.get(i + 1)), route.course(i, i + 1), 0.0);
+            assertEquals(route.get(i).bearingTo(route.get(i - 1)), route.course(i, i - 1), 0.0);
+        }
+        assertEquals(route.get(0).bearingTo(route.get(5)), route.course(0, 5), 0.0);
+
+        // index is invalidated on route change
+        GeoPoint point = new GeoPoint(route.get(100).getLatitude() + 0.01, route.get(100).getLongitude());
+        route.insertInstruction(100, new Route.Instruction(point));
+        assertEquals(route.get(101).bearingTo(route.get(102)), route.course(101, 102), 0.0);
+        double inserted = route.get(100).vincentyDistance(route.get(101)) + route.get(101).vincentyDistance(route.get(102));
+        assertEquals(inserted, route.distanceBetween(100, 102), 1e-6);
+        assertEquals(route.distanceBetween(0, route.size() - 1), route.getTotalDistance(), 1e-6);
+        route.removeInstruction(route.get(101));
+        assertEquals(total, route.getTotalDistance(), 1e-6);
+    }
+
+    @Test
+    public void testNearest() {
+        Random random = new Random(7);
+        Route route = createRoute(5000, 7);
+        for (int n = 0; n < 200; n++) {
+            GeoPoint point = new GeoPoint(55 + random.nextDouble() * 0.5, 37 + random.nextDouble() * 0.5);
+
+            Route.Instruction instruction = route.getNearestInstruction(point);
+            double distance = point.vincentyDistance(instruction);
+            for (int i = 0; i < route.size(); i++)
+                assertTrue(point.vincentyDistance(route.get(i)) >= distance * 0.999);
+
+            int segment = route.getNearestSegment(point);
+            double segmentDistance = getSegmentDistance(route, segment, point);
+            for (int i = 0; i < route.size() - 1; i++)
+                assertTrue(getSegmentDistance(route, i, point) >= segmentDistance * 0.999);
+        }
+        assertSame(route.get(1234), route.getNearestInstruction(new GeoPoint(route.get(1234).latitudeE6, route.get(1234).longitudeE6)));
+
+        // cross track distance is negative to the right of the segment
+        GeoPoint a = route.get(200), b = route.get(201);
+        double course = route.course(200, 201);
+        GeoPoint middle = new GeoPoint((a.getLatitude() + b.getLatitude()) / 2, (a.getLongitude() + b.getLongitude()) / 2);
+        GeoPoint right = middle.destinationPoint(10.0, (float) (course + 90.0));
+        assertEquals(-10.0, route.getCrossTrackDistance(right, 200, 201), 0.5);
+        GeoPoint left = middle.destinationPoint(10.0, (float) (course - 90.0));
+        assertEquals(10.0, route.getCrossTrackDistance(left, 200, 201), 0.5);
+
+        Route empty = new Route();
+        assertNull(empty.getNearestInstruction(a));
+        assertEquals(-1, empty.getNearestSegment(a));
+        empty.addInstruction(a);
+        assertSame(empty.get(0), empty.getNearestInstruction(b));
+        assertEquals(-1, empty.getNearestSegment(b));
+    }
+
+    /**
+     * Returns distance to segment in local tangent plane, precise enough to check nearest
+     * segment selection with some tolerance.
+     */
+    private static double getSegmentDistance(Route route, int index, GeoPoint point) {
+        double scale = Math.cos(Math.toRadians(point.getLatitude())) * 111320.0;
+        GeoPoint a = route.get(index), b = route.get(index + 1);
+        double ax = (a.getLongitude() - point.getLongitude()) * scale;
+        double ay = (a.getLatitude() - point.getLatitude()) * 111320.0;
+        double bx = (b.getLongitude() - point.getLongitude()) * scale;
+        double by = (b.getLatitude() - point.getLatitude()) * 111320.0;
+        double dx = bx - ax, dy = by - ay;
+        double t = Math.max(0.0, Math.min(1.0, -(ax * dx + ay * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(ax + t * dx, ay + t * dy);
+    }
+
+    private static Route createRoute(int size, long seed) {
+        Random random = new Random(seed);
+        Route route = new Route();
+        double lat = 55.25, lon = 37.25;
+        for (int i = 0; i < size; i++) {
+            lat = Math.min(Math.max(lat + (random.nextDouble() - 0.5) * 0.01, 55), 55.5);
+            lon = Math.min(Math.max(lon + (random.nextDouble() - 0.5) * 0.01, 37), 37.5);
+            route.addInstruction(new GeoPoint(lat, lon));
+        }
+        return route;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.data;
+
+import org.junit.Test;
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Track statistics and chart series tests.
+ */
+public class TrackStatisticsTest {
+    @Test
+    public void testIncrementalUpdate() {
+        Random random = new Random(42);
+        Track track = new Track();
+        Track reference = new Track();
+        double lat = 55, lon = 37;
+        long time = 1700000000000L;
+        for (int round = 0; round < 10; round++) {
+            for (int i = random.nextInt(2000) + 1; i > 0; i--) {
+                lat += (random.nextDouble() - 0.5) * 1e-3;
+                lon += (random.nextDouble() - 0.4) * 1e-3;
+                time += 1000 + random.nextInt(2000);
+                float elevation = random.nextInt(50) == 0 ? Float.NaN : (float) (100 + 50 * Math.sin(time / 1e6) + random.nextGaussian());
+                float speed = random.nextBoolean() ? Float.NaN : random.nextFloat() * 10f;
+                boolean continuous = random.nextInt(300) != 0;
+                track.addPointFast(continuous, (int) (lat * 1E6), (int) (lon * 1E6), elevation, speed, 0f, 0f, time);
+                reference.addPointFast(continuous, (int) (lat * 1E6), (int) (lon * 1E6), elevation, speed, 0f, 0f, time);
+            }
+            // statistics are updated with appended points
+            TrackStatistics statistics = track.getStatistics();
+            Track fresh = new Track();
+            fresh.copyFrom(reference);
+            assertStatistics(fresh.getStatistics(), statistics);
+        }
+
+        TrackStatistics statistics = track.getStatistics();
+        assertEquals(track.points.size(), statistics.pointCount);
+        int segments = 0;
+        double distance = 0.0;
+        for (int i = 0; i < track.points.size(); i++) {
+            if (i == 0 || !track.isContinuous(i))
+                segments++;
+            if (i > 0)
+                distance += track.points.get(i - 1).vincentyDistance(track.points.get(i));
+        }
+        assertEquals(segments, statistics.segmentCount);
+        assertEquals(distance, statistics.distance, distance * 1e-5);
+        assertEquals(statistics.distance, track.getDistance(), 0f);
+        assertTrue(statistics.movingTime > 0L);
+        assertTrue(statistics.elevationGain > 0f);
+        assertTrue(statistics.maxElevation > 140f && statistics.minElevation < 60f);
+
+        BoundingBox box = track.getBoundingBox();
+        for (int i = 0; i < track.points.size(); i++)
+            assertTrue(box.contains(new GeoPoint(track.getLatitudeE6(i), track.getLongitudeE6(i))));
+
+        // restored statistics are used only if they match track points
+        TrackStatistics restored = new TrackStatistics(statistics);
+        restored.distance = 1f;
+        Track loaded = new Track();
+        loaded.copyFrom(reference);
+        loaded.setStatistics(restored);
+        assertEquals(1f, loaded.getDistance(), 0f);
+        restored.pointCount--;
+        loaded.copyFrom(reference);
+        loaded.setStatistics(restored);
+        assertEquals(statistics.distance, loaded.getDistance(), 0f);
+
+        track.clear();
+        assertEquals(0, track.getStatistics().pointCount);
+        assertEquals(0f, track.getDistance(), 0f);
+    }
+
+    @Test
+    public void testElevationAndSpeed() {
+        Track track = new Track();
+        // noise below threshold is ignored, zero and missing elevations are skipped
+        float[] elevations = {100f, 102f, 99f, 101f, 0f, 150f, 148f, 152f, 200f, Float.NaN, 150f};
+        for (int i = 0; i < elevations.length; i++)
+            track.addPointFast(i > 0, 55000000 + i * 100, 37000000, elevations[i], i % 10, 0f, 0f, 1700000000000L + i * 1000L);
+        TrackStatistics statistics = track.getStatistics();
+        assertEquals(100f, statistics.elevationGain, 0f);
+        assertEquals(50f, statistics.elevationLoss, 0f);
+        assertEquals(99f, statistics.minElevation, 0f);
+        assertEquals(200f, statistics.maxElevation, 0f);
+        assertEquals(9f, statistics.maxSpeed, 0f);
+        assertEquals(4.09f, statistics.getAverageSpeed(), 0.01f);
+        assertEquals(4f, statistics.getSpeedPercentile(0.5f), TrackStatistics.SPEED_BIN);
+        assertEquals(9f, statistics.getSpeedPercentile(1f), TrackStatistics.SPEED_BIN);
+        // 11 meters per second between points
+        assertEquals(10000L, statistics.movingTime);
+        assertEquals(statistics.distance / 10f, statistics.getMovingSpeed(), 0.01f);
+
+        Track empty = new Track();
+        TrackStatistics none = empty.getStatistics();
+        assertFalse(none.hasElevation());
+        assertFalse(none.hasSpeed());
+        assertEquals(0, none.segmentCount);
+    }
+
+    @Test
+    public void testSeries() {
+        Random random = new Random(42);
+        Track track = new Track();
+        int peak = 70001;
+        for (int i = 0; i < 100000; i++) {
+            float elevation = i == peak ? 5000f : 1000f + random.nextFloat() * 100f;
+            track.addPointFast(true, 55000000 + i * 10, 37000000, elevation, Float.NaN, 0f, 0f, 1700000000000L + i * 1000L);
+        }
+        TrackStatistics.Series series = TrackStatistics.getElevationSeries(track, 1000);
+        assertTrue(series.size <= 1000 && series.size > 900);
+        boolean found = false;
+        for (int i = 0; i < series.size; i++) {
+            if (i > 0)
+                assertTrue(series.times[i] > series.times[i - 1]);
+            if (series.values[i] == 5000f) {
+                found = true;
+                assertEquals(track.getTime(peak), series.times[i]);
+            }
+        }
+        assertTrue(found);
+
+        // speed is derived from coordinates, 10 microdegrees of latitude per second
+        series = TrackStatistics.getSpeedSeries(track, 1000);
+        assertTrue(series.size <= 1000);
+        for (int i = 0; i < series.size; i++)
+            assertEquals(1.11f, series.values[i], 0.01f);
+
+        Track small = new Track();
+        small.addPointFast(true, 0, 0, 10f, 1f, 0f, 0f, 1000L);
+        small.addPointFast(true, 0, 0, Float.NaN, 2f, 0f, 0f, 2000L);
+        small.addPointFast(true, 0, 0, 30f, 3f, 0f, 0f, 3000L);
+        series = TrackStatistics.getElevationSeries(small, 1000);
+        assertEquals(2, series.size);
+        assertEquals(3000L, series.times[1]);
+        assertEquals(3, TrackStatistics.getSpeedSeries(small, 1000).size);
+    }
+
+    private static void assertStatistics(TrackStatistics expected, TrackStatistics actual) {
+        assertEquals(expected.pointCount, actual.pointCount);
+        assertEquals(expected.segmentCount, actual.segmentCount);
+        assertEquals(expected.distance, actual.distance, expected.distance * 1e-5f);
+        assertEquals(expected.movingTime, actual.movingTime);
+        assertEquals(expected.elevationGain, actual.elevationGain, 0.01f);
+        assertEquals(expected.elevationLoss, actual.elevationLoss, 0.01f);
+        assertEquals(expected.minElevation, actual.minElevation, 0f);
+        assertEquals(expected.maxElevation, actual.maxElevation, 0f);
+        assertEquals(expected.maxSpeed, actual.maxSpeed, 0f);
+        assertEquals(expected.getAverageSpeed(), actual.getAverageSpeed(), 1e-4f);
+        assertEquals(expected.minLatitudeE6, actual.minLatitudeE6);
+        assertEquals(expected.maxLongitudeE6, actual.maxLongitudeE6);
+        assertEquals(expected.getSpeedPercentile(0.9f), actual.getSpeedPercentile(0.9f), 0f);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.data;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Track point storage tests.
+ */
+public class TrackTest {
+    private static final int BENCHMARK_SIZE = 1000000;
+
+    @Test
+    public void testPointStorage() {
+        Track track = new Track();
+        for (int i = 0; i < 1000; i++)
+            track.addPoint(i % 100 != 0, 55000000 + i * 10, 37000000 + i * 10, i, 1f, 2f, 3f, 1000L * i);
+        assertEquals(1000, track.points.size());
+
+        Track.TrackPoint point = track.points.get(500);
+        assertEquals(55005000, point.latitudeE6);
+        assertEquals(37005000, point.longitudeE6);
+        assertEquals(500f, point.elevation, 0f);
+        assertEquals(500000L, point.time);
+        assertFalse(point.continuous);
+        assertTrue(track.isContinuous(501));
+        assertEquals(track.getTime(999), track.getLastPoint().time);
+
+        int count = 0;
+        for (Track.TrackPoint p : track.points) {
+            assertEquals(track.getLatitudeE6(count), p.latitudeE6);
+            count++;
+        }
+        assertEquals(1000, count);
+
+        Track copy = new Track();
+        copy.copyFrom(track);
+        assertEquals(track.points.size(), copy.points.size());
+        assertEquals(track.getLongitudeE6(999), copy.getLongitudeE6(999));
+        assertEquals(track.getDistance(), copy.getDistance(), 0f);
+
+        Track loaded = new Track();
+        for (Track.TrackPoint p : track.points)
+            loaded.addPointFast(p.continuous, p.latitudeE6, p.longitudeE6, p.elevation, p.speed, p.bearing, p.accuracy, p.time);
+        assertEquals(track.getDistance(), loaded.getDistance(), 0.1f);
+
+        track.clear();
+        assertEquals(0, track.points.size());
+        assertEquals(0f, track.getDistance(), 0f);
+    }
+
+    /**
+     * Compares memory footprint and iteration speed of column oriented storage with list of point
+     * objects. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkPointStorage() {
+        Runtime runtime = Runtime.getRuntime();
+        Track track = new Track();
+
+        long memory = usedMemory(runtime);
+        for (int i = 0; i < BENCHMARK_SIZE; i++)
+            track.addPointFast(true, i, i, i, 1f, 2f, 3f, i);
+        long columnMemory = usedMemory(runtime) - memory;
+
+        memory = usedMemory(runtime);
+        List<Track.TrackPoint> objects = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_SIZE; i++)
+            objects.add(track.new TrackPoint(true, i, i, i, 1f, 2f, 3f, i));
+        long objectMemory = usedMemory(runtime) - memory;
+
+        long columnTime = Long.MAX_VALUE;
+        long objectTime = Long.MAX_VALUE;
+        long sum = 0;
+        for (int run = 0; run < 20; run++) {
+            long start = System.nanoTime();
+            for (int i = 0, size = track.points.size(); i < size; i++)
+                sum += track.getLatitudeE6(i) + track.getLongitudeE6(i) + track.getTime(i);
+            columnTime = Math.min(columnTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (Track.TrackPoint point : objects)
+                sum += point.latitudeE6 + point.longitudeE6 + point.time;
+            objectTime = Math.min(objectTime, System.nanoTime() - start);
+        }
+
+        System.out.printf("Columns: %d bytes per point, %d ms per iteration%n",
+                columnMemory / BENCHMARK_SIZE, columnTime / 1000000);
+        System.out.printf("Objects: %d bytes per point, %d ms per iteration (%d)%n",
+                objectMemory / BENCHMARK_SIZE, objectTime / 1000000, sum);
+        assertEquals(BENCHMARK_SIZE, objects.size());
+    }
+
+    private static long usedMemory(Runtime runtime) {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * XML writer markup and value formatting tests.
+ */
+public class XmlWriterTest {
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    @Test
+    public void testMarkup() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(output);
+        writer.startDocument();
+        writer.startTag("a");
+        writer.attribute("x", "\"1\" & <2>\n");
+        writer.startTag("b");
+        writer.text("Привет, 🏔 & <мир>");
+        writer.endTag("b");
+        writer.startTag("c");
+        writer.endTag("c");
+        writer.startTag("d");
+        writer.cdsect("x]]>y\u0001");
+        writer.endTag("d");
+        writer.endTag("a");
+        writer.endDocument();
+
+        String expected = HEADER + "\n<a x=\"&quot;1&quot; &amp; &lt;2&gt;&#10;\">" +
+                "\n  <b>Привет, 🏔 &amp; &lt;мир&gt;</b>" +
+                "\n  <c/>" +
+                "\n  <d><![CDATA[x]]]]><![CDATA[>y]]></d>" +
+                "\n</a>\n";
+        assertEquals(expected, new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLongOutput() throws IOException {
+        // output spans several buffer chunks
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(output);
+        StringBuilder expected = new StringBuilder();
+        writer.startTag("a");
+        expected.append("\n<a>");
+        for (int i = 0; i < 100000; i++) {
+            writer.text(i % 2 == 0 ? "ж" : "z");
+            writer.text(i);
+            expected.append(i % 2 == 0 ? "ж" : "z").append(i);
+        }
+        writer.endTag("a");
+        writer.close();
+        expected.append("</a>");
+        assertEquals(expected.toString(), new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        assertEquals("55.75", format(w -> w.textE6(55750000)));
+        assertEquals("-0.000001", format(w -> w.textE6(-1)));
+        assertEquals("-180", format(w -> w.textE6(-180000000)));
+        assertEquals("-2147.483648", format(w -> w.textE6(Integer.MIN_VALUE)));
+        assertEquals("152.5", format(w -> w.text(152.5f, 2)));
+        assertEquals("0.1", format(w -> w.text(0.1f, 2)));
+        assertEquals("0", format(w -> w.text(-0.001f, 2)));
+        assertEquals("-12.01", format(w -> w.text(-12.005f, 2)));
+        assertEquals("NaN", format(w -> w.text(Float.NaN, 2)));
+        assertEquals("-9223372036854775808", format(w -> w.text(Long.MIN_VALUE)));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt();
+            String expected = BigDecimal.valueOf(value, 6).stripTrailingZeros().toPlainString();
+            assertEquals(expected, format(w -> w.textE6(value)));
+        }
+        for (int i = 0; i < 100000; i++) {
+            float value = (random.nextFloat() - 0.3f) * 9000;
+            String string = format(w -> w.text(value, 2));
+            assertEquals(string, value, Float.parseFloat(string), 0.005f + Math.ulp(value));
+        }
+    }
+
+    @Test
+    public void testTime() throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long time = (long) (random.nextDouble() * 4e12);
+            String expected = format.format(new Date(time)).replaceFirst("\\.?0*Z$", "Z");
+            assertEquals(expected, format(w -> w.textTime(time)));
+        }
+        assertEquals("1970-01-01T00:00:00Z", format(w -> w.textTime(0L)));
+        assertEquals("2024-02-29T21:30:05.12Z", format(w -> w.textTime(1709242205120L)));
+        assertEquals("1969-12-31T23:59:59.999Z", format(w -> w.textTime(-1L)));
+    }
+
+    private interface Action {
+        void write(XmlWriter writer) throws IOException;
+    }
+
+    private static String format(Action action) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(output);
+        action.write(writer);
+        writer.flush();
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
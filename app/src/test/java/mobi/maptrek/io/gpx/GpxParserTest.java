@@ -0,0 +1,157 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.io.gpx;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mobi.maptrek.data.Track;
+import mobi.maptrek.data.source.FileDataSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GPX parsing tests, uses kxml parser which is the one used by Android.
+ */
+public class GpxParserTest {
+    private static final long START_TIME = 1700000000000L;
+    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+
+    static {
+        TIME_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void testTrack() throws Exception {
+        StringBuilder gpx = new StringBuilder();
+        writeGpx(gpx, 2, 1000);
+        FileDataSource source = GpxParser.parse(new ByteArrayInputStream(gpx.toString().getBytes(StandardCharsets.UTF_8)), new KXmlParser());
+
+        assertEquals(1, source.tracks.size());
+        Track track = source.tracks.get(0);
+        assertEquals("Track", track.name);
+        assertEquals(2000, track.points.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(latitudeE6(i), track.getLatitudeE6(i));
+            assertEquals(longitudeE6(i), track.getLongitudeE6(i));
+            assertEquals(elevation(i), track.getElevation(i), 0.01f);
+            assertEquals(START_TIME + i * 1500L, track.getTime(i));
+        }
+        assertFalse(track.isContinuous(0));
+        assertTrue(track.isContinuous(999));
+        assertFalse(track.isContinuous(1000));
+        assertEquals(track.getTime(1999), track.getLastPoint().time);
+    }
+
+    /**
+     * Data files are loaded by several threads, parsing must not share any state.
+     */
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        StringBuilder gpx = new StringBuilder();
+        writeGpx(gpx, 1, 5000);
+        byte[] data = gpx.toString().getBytes(StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int n = 0; n < futures.length; n++) {
+                futures[n] = executor.submit(() -> {
+                    FileDataSource source = GpxParser.parse(new ByteArrayInputStream(data), new KXmlParser());
+                    Track track = source.tracks.get(0);
+                    assertEquals(5000, track.points.size());
+                    for (int i = 0; i < 5000; i++)
+                        assertEquals(START_TIME + i * 1500L, track.getTime(i));
+                    return null;
+                });
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses about 200 MB GPX file. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkParsing() throws Exception {
+        File file = File.createTempFile("benchmark", ".gpx");
+        file.deleteOnExit();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeGpx(writer, 100, 13000);
+        }
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            FileDataSource source = GpxParser.parse(new BufferedInputStream(new FileInputStream(file)), new KXmlParser());
+            long time = (System.nanoTime() - start) / 1000000;
+            int points = source.tracks.get(0).points.size();
+            System.out.printf("%d MB, %d points: %d ms, %.1f MB/s%n", file.length() >> 20, points, time,
+                    file.length() / 1048576.0 / time * 1000);
+        }
+    }
+
+    private static void writeGpx(Appendable out, int segments, int points) throws IOException {
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"test\">\n");
+        out.append("<trk>\n<name>Track</name>\n");
+        for (int s = 0, i = 0; s < segments; s++) {
+            out.append("<trkseg>\n");
+            for (int p = 0; p < points; p++, i++) {
+                out.append(String.format(Locale.ROOT, "<trkpt lat=\"%.7f\" lon=\"%.7f\">\n", latitudeE6(i) / 1E6, longitudeE6(i) / 1E6));
+                out.append(String.format(Locale.ROOT, "  <ele>%.2f</ele>\n", elevation(i)));
+                out.append("  <time>").append(TIME_FORMAT.format(new Date(START_TIME + i * 1500L))).append("</time>\n");
+                out.append("  <extensions><speed>1.5</speed></extensions>\n</trkpt>\n");
+            }
+            out.append("</trkseg>\n");
+        }
+        out.append("</trk>\n</gpx>\n");
+    }
+
+    private static int latitudeE6(int i) {
+        return 55000000 + (i % 20000) * 37 - (i / 20000) * 11;
+    }
+
+    private static int longitudeE6(int i) {
+        return -37000000 + (i % 30000) * 29;
+    }
+
+    private static float elevation(int i) {
+        return (i % 4000) * 0.25f - 100f;
+    }
+}
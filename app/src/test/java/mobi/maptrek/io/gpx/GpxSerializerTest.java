@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.io.gpx;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import mobi.maptrek.data.Track;
+import mobi.maptrek.data.Waypoint;
+import mobi.maptrek.data.source.FileDataSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GPX serialization tests, files are read back with kxml parser.
+ */
+public class GpxSerializerTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        FileDataSource source = new FileDataSource();
+        source.name = "Test & <export>";
+        Waypoint waypoint = new Waypoint(55.75, 37.625);
+        waypoint.name = "Дом \"1\"";
+        waypoint.description = "Line 1\nLine 2 ]]> end";
+        waypoint.altitude = 152;
+        waypoint.date = new Date(1709242205000L);
+        source.waypoints.add(waypoint);
+        Track track = createTrack(5000, 42);
+        source.tracks.add(track);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GpxSerializer.serialize(new GZIPOutputStream(output), source, null);
+        FileDataSource result = GpxParser.parse(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())), new KXmlParser());
+
+        assertEquals(1, result.waypoints.size());
+        Waypoint resultWaypoint = result.waypoints.get(0);
+        assertEquals(waypoint.name, resultWaypoint.name);
+        assertEquals(waypoint.description, resultWaypoint.description);
+        assertEquals(waypoint.altitude, resultWaypoint.altitude);
+        assertEquals(waypoint.date, resultWaypoint.date);
+
+        assertEquals(1, result.tracks.size());
+        Track resultTrack = result.tracks.get(0);
+        assertEquals(track.name, resultTrack.name);
+        assertEquals(track.points.size(), resultTrack.points.size());
+        for (int i = 0; i < track.points.size(); i++) {
+            assertEquals(track.getLatitudeE6(i), resultTrack.getLatitudeE6(i));
+            assertEquals(track.getLongitudeE6(i), resultTrack.getLongitudeE6(i));
+            assertEquals(track.getElevation(i), resultTrack.getElevation(i), 0.005f);
+            assertEquals(track.getTime(i), resultTrack.getTime(i));
+            // first point of track is never continuous
+            assertEquals(i > 0 && track.isContinuous(i), resultTrack.isContinuous(i));
+        }
+        assertFalse(resultTrack.isContinuous(0));
+        assertTrue(resultTrack.isContinuous(1));
+    }
+
+    /**
+     * Serializes track with about one million points. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkSerialization() throws Exception {
+        FileDataSource source = new FileDataSource();
+        source.name = "Benchmark";
+        source.tracks.add(createTrack(1300000, 7));
+        File file = File.createTempFile("benchmark", ".gpx");
+        file.deleteOnExit();
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, false));
+            GpxSerializer.serialize(outputStream, source, null);
+            long time = (System.nanoTime() - start) / 1000000;
+            System.out.printf("%d MB: %d ms, %.1f MB/s%n", file.length() >> 20, time,
+                    file.length() / 1048576.0 / time * 1000);
+        }
+    }
+
+    private static Track createTrack(int size, long seed) {
+        Random random = new Random(seed);
+        Track track = new Track();
+        track.name = "Track";
+        double lat = 55, lon = 37;
+        long time = 1700000000000L;
+        for (int i = 0; i < size; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-3;
+            lon += (random.nextDouble() - 0.4) * 1e-3;
+            float elevation = random.nextInt(100) == 0 ? Float.NaN : random.nextInt(900000) / 100f - 500f;
+            time += random.nextInt(5) == 0 ? random.nextInt(1000) + 1000 : 1000;
+            track.addPointFast(random.nextInt(1000) != 0, (int) (lat * 1E6), (int) (lon * 1E6), elevation, 0f, 0f, 0f, time);
+        }
+        return track;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.io.kml;
+
+import org.junit.Test;
+import org.kxml2.io.KXmlParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import mobi.maptrek.data.Track;
+import mobi.maptrek.data.source.FileDataSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KML track parsing tests, uses kxml parser which is the one used by Android.
+ */
+public class KmlParserTest {
+    private static final String KML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n" +
+            "<Document>\n" +
+            "<Placemark><name>Line</name><LineString><coordinates>\n" +
+            "  37.6173,55.7558,150.5 37.6181,55.7561\n\t-0.1278,51.5074,11\n" +
+            "</coordinates></LineString></Placemark>\n" +
+            "<Placemark><name>Track</name><gx:MultiTrack>\n" +
+            "<gx:Track>\n" +
+            "<when>2010-05-28T02:02:09Z</when><when>2010-05-28T02:02:35.5Z</when>\n" +
+            "<gx:coord>-122.207881 37.371915 156.0</gx:coord><gx:coord>-122.205712 37.373288 152.5</gx:coord>\n" +
+            "</gx:Track>\n" +
+            "<gx:Track>\n" +
+            "<when>2010-05-28T04:02:44+02:00</when><gx:coord>-122.203572 37.374630</gx:coord>\n" +
+            "</gx:Track>\n" +
+            "</gx:MultiTrack></Placemark>\n" +
+            "</Document>\n" +
+            "</kml>\n";
+
+    @Test
+    public void testTracks() throws Exception {
+        FileDataSource source = KmlParser.parse(new ByteArrayInputStream(KML.getBytes(StandardCharsets.UTF_8)), new KXmlParser());
+        assertEquals(2, source.tracks.size());
+
+        Track line = source.tracks.get(0);
+        assertEquals("Line", line.name);
+        assertEquals(3, line.points.size());
+        assertEquals(55755800, line.getLatitudeE6(0));
+        assertEquals(37617300, line.getLongitudeE6(0));
+        assertEquals(150.5f, line.getElevation(0), 0f);
+        assertEquals(0f, line.getElevation(1), 0f);
+        assertEquals(-127800, line.getLongitudeE6(2));
+        assertTrue(line.isContinuous(2));
+
+        Track track = source.tracks.get(1);
+        assertEquals("Track", track.name);
+        assertEquals(3, track.points.size());
+        assertEquals(37371915, track.getLatitudeE6(0));
+        assertEquals(-122205712, track.getLongitudeE6(1));
+        assertEquals(152.5f, track.getElevation(1), 0f);
+        assertEquals(1275012129000L, track.getTime(0));
+        assertEquals(1275012155500L, track.getTime(1));
+        assertEquals(1275012164000L, track.getTime(2));
+        assertTrue(Float.isNaN(track.getElevation(2)));
+        assertFalse(track.isContinuous(0));
+        assertTrue(track.isContinuous(1));
+        assertFalse(track.isContinuous(2));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.layers;
+
+import org.junit.Test;
+import org.oscim.core.Tile;
+
+import java.util.Random;
+
+import mobi.maptrek.data.Track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Track projection and simplification tests.
+ */
+public class TrackLayerTest {
+    private static final int[] LOD_ZOOMS = {5, 8, 11, 14};
+
+    @Test
+    public void testIncrementalProjection() {
+        Random random = new Random(42);
+        Track track = new Track();
+        TrackLayer.ProjectedTrack projected = new TrackLayer.ProjectedTrack();
+        double lat = 55, lon = 37;
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = random.nextInt(3000); i > 0; i--) {
+                lat += (random.nextDouble() - 0.5) * 1e-3;
+                lon += (random.nextDouble() - 0.4) * 1e-3;
+                track.addPointFast(random.nextInt(500) != 0, (int) (lat * 1E6), (int) (lon * 1E6), 0f, 0f, 0f, 0f, 0L);
+            }
+            projected.update(track);
+            checkChunks(track, projected);
+        }
+        assertFalse(projected.update(track));
+
+        Track other = new Track();
+        other.addPointFast(true, 10000000, 20000000, 0f, 0f, 0f, 0f, 0L);
+        track.copyFrom(other);
+        assertTrue(projected.update(track));
+        assertEquals(1, projected.size);
+        assertEquals(1, projected.chunks.size());
+    }
+
+    private static void checkChunks(Track track, TrackLayer.ProjectedTrack projected) {
+        assertEquals(track.points.size(), projected.size);
+        int next = 0;
+        TrackLayer.ProjectedTrack.Chunk previous = null;
+        for (TrackLayer.ProjectedTrack.Chunk chunk : projected.chunks) {
+            // continuous line is split at shared point
+            if (previous != null && previous.end == chunk.start)
+                assertTrue(track.isContinuous(chunk.start));
+            else
+                assertEquals(next, chunk.start);
+            assertTrue(chunk.end - chunk.start < TrackLayer.ProjectedTrack.CHUNK_SIZE);
+
+            for (int i = chunk.start; i <= chunk.end; i++) {
+                if (i > chunk.start)
+                    assertTrue(track.isContinuous(i));
+                double x = projected.points[i << 1];
+                double y = projected.points[(i << 1) + 1];
+                assertTrue(x >= chunk.xmin && x <= chunk.xmax && y >= chunk.ymin && y <= chunk.ymax);
+            }
+
+            for (int level = 0; level < LOD_ZOOMS.length; level++) {
+                double[] simplified = chunk.getLevel(level);
+                if (simplified == null)
+                    continue;
+                // every point is within tolerance from simplified line
+                double scale = Tile.SIZE << LOD_ZOOMS[level];
+                for (int i = chunk.start; i <= chunk.end; i++) {
+                    double px = projected.points[i << 1] * scale;
+                    double py = projected.points[(i << 1) + 1] * scale;
+                    double distance = Double.MAX_VALUE;
+                    for (int j = 0; j < simplified.length - 2; j += 2)
+                        distance = Math.min(distance, segmentDistance(px, py,
+                                simplified[j] * scale, simplified[j + 1] * scale,
+                                simplified[j + 2] * scale, simplified[j + 3] * scale));
+                    assertEquals(0.0, distance, 1.5);
+                }
+            }
+            next = chunk.end + 1;
+            previous = chunk;
+        }
+        assertEquals(projected.size, next);
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length));
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+    }
+}
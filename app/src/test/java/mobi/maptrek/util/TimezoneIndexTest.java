@@ -0,0 +1,396 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.util;
+
+import com.skedgo.converter.TimezoneMapper;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timezone index tests. Also contains index generator.
+ */
+public class TimezoneIndexTest {
+    private static final String INDEX = "src/main/assets/" + TimezoneIndex.ASSET;
+    private static final String MAPPER = "src/main/java/com/skedgo/converter/TimezoneMapper.java";
+    private static final int RESOLUTION = 4;
+    /* covers float conversion of coordinates and polygon test shift in TimezoneMapper */
+    private static final double MARGIN = 0.001;
+
+    @Test
+    public void testAgreementWithMapper() throws IOException {
+        TimezoneIndex index = readIndex();
+        for (double lat = -89.95; lat < 90; lat += 0.1) {
+            for (double lon = -179.95; lon < 180; lon += 0.1) {
+                assertEquals(lat + "," + lon, TimezoneMapper.latLngToTimezoneString(lat, lon), index.lookup(lat, lon));
+            }
+        }
+    }
+
+    @Test
+    public void testCellBorders() throws IOException {
+        TimezoneIndex index = readIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+            double lat = random.nextInt(180 * RESOLUTION + 1) * 1d / RESOLUTION - 90;
+            double lon = random.nextInt(360 * RESOLUTION + 1) * 1d / RESOLUTION - 180;
+            if (random.nextBoolean())
+                lat = Math.max(-90, Math.min(90, lat + (random.nextDouble() - 0.5) * 1e-6));
+            if (random.nextBoolean())
+                lon = Math.max(-180, Math.min(180, lon + (random.nextDouble() - 0.5) * 1e-6));
+            assertEquals(lat + "," + lon, TimezoneMapper.latLngToTimezoneString(lat, lon), index.lookup(lat, lon));
+        }
+        assertEquals(TimezoneMapper.latLngToTimezoneString(91, 0), index.lookup(91, 0));
+        assertEquals(TimezoneMapper.latLngToTimezoneString(0, -181), index.lookup(0, -181));
+    }
+
+    /**
+     * Compares index lookup with TimezoneMapper. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkLookup() throws IOException {
+        TimezoneIndex index = readIndex();
+        Random random = new Random(42);
+        double[] points = new double[200000];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] = random.nextDouble() * 140 - 60;
+            points[i + 1] = random.nextDouble() * 360 - 180;
+        }
+        for (int pass = 0; pass < 5; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < points.length; i += 2)
+                TimezoneMapper.latLngToTimezoneString(points[i], points[i + 1]);
+            long mapper = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < points.length; i += 2)
+                index.lookup(points[i], points[i + 1]);
+            long indexed = System.nanoTime() - start;
+            System.out.println("mapper: " + mapper * 2 / points.length + "ns, index: " + indexed * 2 / points.length + "ns");
+        }
+    }
+
+    /**
+     * Generates index asset from TimezoneMapper source. Cell is assigned a zone only if every
+     * decision path of the mapper that cell can reach leads to that zone. Should be run after
+     * TimezoneMapper update.
+     */
+    @Ignore("Generator")
+    @Test
+    public void generateIndex() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get(MAPPER)), StandardCharsets.UTF_8);
+        MapperTree tree = new MapperTree(source);
+
+        int width = 360 * RESOLUTION;
+        int height = 180 * RESOLUTION;
+        short[] cells = new short[width * height];
+        BitSet zones = new BitSet();
+        int border = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                zones.clear();
+                tree.evaluate(row * 1d / RESOLUTION - 90 - MARGIN, (row + 1) * 1d / RESOLUTION - 90 + MARGIN,
+                        col * 1d / RESOLUTION - 180 - MARGIN, (col + 1) * 1d / RESOLUTION - 180 + MARGIN, zones);
+                if (zones.cardinality() == 1) {
+                    cells[row * width + col] = (short) zones.nextSetBit(0);
+                } else {
+                    cells[row * width + col] = TimezoneIndex.BORDER;
+                    border++;
+                }
+            }
+        }
+        System.out.println("Border cells: " + border + " of " + cells.length);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(INDEX)))) {
+            out.writeInt(TimezoneIndex.VERSION);
+            out.writeInt(RESOLUTION);
+            out.writeShort(tree.zones.size());
+            for (String zone : tree.zones)
+                out.writeUTF(zone);
+            int pos = 0;
+            while (pos < cells.length) {
+                int end = pos + 1;
+                while (end < cells.length && end - pos < 0xffff && cells[end] == cells[pos])
+                    end++;
+                out.writeShort(cells[pos]);
+                out.writeShort(end - pos);
+                pos = end;
+            }
+        }
+    }
+
+    private static TimezoneIndex readIndex() throws IOException {
+        try (InputStream in = new FileInputStream(INDEX)) {
+            return TimezoneIndex.read(in);
+        }
+    }
+
+    /**
+     * Decision tree of TimezoneMapper parsed from its source and evaluated for rectangle.
+     */
+    private static class MapperTree {
+        private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z_0-9]*|-?[0-9]+(\\.[0-9]+)?f?|\"[^\"]*\"|\\S");
+        private static final Pattern POLYGON = Pattern.compile("poly\\[(\\d+)] = new TzPolygon\\(([^)]*)\\);");
+
+        static final int RETURN = 0;
+        static final int CALL = 1;
+        static final int LAT = 2;
+        static final int LNG = 3;
+        static final int POLY = 4;
+        static final int BLOCK = 5;
+
+        static class Node {
+            int type;
+            int value;
+            float limit;
+            Node then;
+            Node otherwise;
+            List<Node> statements;
+        }
+
+        final List<String> zones = new ArrayList<>();
+        private final HashMap<String, Node> mMethods = new HashMap<>();
+        private final List<Node> mCalls = new ArrayList<>();
+        private final HashMap<Integer, float[]> mPolygons = new HashMap<>();
+        private List<String> mTokens;
+        private int mPos;
+
+        private double mLat0, mLat1, mLng0, mLng1;
+
+        MapperTree(String source) {
+            int start = source.indexOf("timezoneStrings = {");
+            Matcher m = Pattern.compile("\"([^\"]*)\"").matcher(source.substring(start, source.indexOf("};", start)));
+            while (m.find())
+                zones.add(m.group(1));
+
+            start = source.indexOf("private static int getTzInt");
+            tokenize(source.substring(start, source.indexOf("private static class TzPolygon")));
+            while (mPos < mTokens.size()) {
+                expect("private");
+                expect("static");
+                expect("int");
+                String name = next();
+                for (String token : new String[]{"(", "float", "lat", ",", "float", "lng", ")"})
+                    expect(token);
+                mMethods.put(name, parseStatement());
+            }
+            for (Node call : mCalls) {
+                if (!mMethods.containsKey("call" + call.value))
+                    throw new IllegalStateException("Unknown method call" + call.value);
+            }
+
+            m = POLYGON.matcher(source);
+            while (m.find()) {
+                String[] values = m.group(2).split(",");
+                float[] points = new float[values.length];
+                for (int i = 0; i < values.length; i++)
+                    points[i] = Float.parseFloat(values[i].trim());
+                mPolygons.put(Integer.valueOf(m.group(1)), points);
+            }
+        }
+
+        void evaluate(double lat0, double lat1, double lng0, double lng1, BitSet result) {
+            mLat0 = lat0;
+            mLat1 = lat1;
+            mLng0 = lng0;
+            mLng1 = lng1;
+            if (evaluate(mMethods.get("getTzInt"), result))
+                throw new IllegalStateException("Method does not return value");
+        }
+
+        /**
+         * Collects all possible results of statement, returns true if statement can complete
+         * without returning.
+         */
+        private boolean evaluate(Node node, BitSet result) {
+            switch (node.type) {
+                case RETURN:
+                    result.set(node.value);
+                    return false;
+                case CALL:
+                    return evaluate(mMethods.get("call" + node.value), result);
+                case BLOCK:
+                    for (Node statement : node.statements) {
+                        if (!evaluate(statement, result))
+                            return false;
+                    }
+                    return true;
+                default:
+                    int condition = condition(node);
+                    boolean completes = false;
+                    if ((condition & 1) != 0)
+                        completes = evaluate(node.then, result);
+                    if ((condition & 2) != 0)
+                        completes |= node.otherwise == null || evaluate(node.otherwise, result);
+                    return completes;
+            }
+        }
+
+        /**
+         * Returns 1 if condition is true for the whole rectangle, 2 if it is false and 3 if
+         * it can be both.
+         */
+        private int condition(Node node) {
+            switch (node.type) {
+                case LAT:
+                    return (mLat0 < node.limit ? 1 : 0) | (mLat1 >= node.limit ? 2 : 0);
+                case LNG:
+                    return (mLng0 < node.limit ? 1 : 0) | (mLng1 >= node.limit ? 2 : 0);
+                default:
+                    float[] points = mPolygons.get(node.value);
+                    boolean intersects = false;
+                    for (int i = 0, n = points.length, j = n - 2; i < n; j = i, i += 2) {
+                        if (intersects(points[j], points[j + 1], points[i], points[i + 1])) {
+                            intersects = true;
+                            break;
+                        }
+                    }
+                    if (intersects)
+                        return 3;
+                    return contains(points, (mLat0 + mLat1) / 2, (mLng0 + mLng1) / 2) ? 1 : 2;
+            }
+        }
+
+        /**
+         * Checks if segment intersects rectangle (Liang-Barsky clipping).
+         */
+        private boolean intersects(double y0, double x0, double y1, double x1) {
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double[] p = {-dx, dx, -dy, dy};
+            double[] q = {x0 - mLng0, mLng1 - x0, y0 - mLat0, mLat1 - y0};
+            double t0 = 0, t1 = 1;
+            for (int i = 0; i < 4; i++) {
+                if (p[i] == 0) {
+                    if (q[i] < 0)
+                        return false;
+                } else {
+                    double t = q[i] / p[i];
+                    if (p[i] < 0)
+                        t0 = Math.max(t0, t);
+                    else
+                        t1 = Math.min(t1, t);
+                    if (t0 > t1)
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean contains(float[] points, double y, double x) {
+            boolean inside = false;
+            for (int i = 0, n = points.length, j = n - 2; i < n; j = i, i += 2) {
+                double yi = points[i], xi = points[i + 1];
+                double yj = points[j], xj = points[j + 1];
+                if (((yi > y) != (yj > y)) && (x < (xj - xi) * (y - yi) / (yj - yi) + xi))
+                    inside = !inside;
+            }
+            return inside;
+        }
+
+        private Node parseStatement() {
+            Node node = new Node();
+            String token = next();
+            switch (token) {
+                case "{":
+                    node.type = BLOCK;
+                    node.statements = new ArrayList<>();
+                    while (!"}".equals(mTokens.get(mPos)))
+                        node.statements.add(parseStatement());
+                    mPos++;
+                    break;
+                case "return":
+                    token = next();
+                    if (token.startsWith("call")) {
+                        node.type = CALL;
+                        node.value = Integer.parseInt(token.substring(4));
+                        for (String t : new String[]{"(", "lat", ",", "lng", ")"})
+                            expect(t);
+                        mCalls.add(node);
+                    } else {
+                        node.type = RETURN;
+                        node.value = Integer.parseInt(token);
+                    }
+                    expect(";");
+                    break;
+                case "if":
+                    expect("(");
+                    token = next();
+                    if ("poly".equals(token)) {
+                        node.type = POLY;
+                        expect("[");
+                        node.value = Integer.parseInt(next());
+                        for (String t : new String[]{"]", ".", "contains", "(", "lat", ",", "lng", ")"})
+                            expect(t);
+                    } else {
+                        node.type = "lat".equals(token) ? LAT : "lng".equals(token) ? LNG : -1;
+                        if (node.type < 0)
+                            throw new IllegalStateException("Unexpected condition: " + token);
+                        expect("<");
+                        node.limit = Float.parseFloat(next());
+                    }
+                    expect(")");
+                    node.then = parseStatement();
+                    if ("else".equals(mTokens.get(mPos))) {
+                        mPos++;
+                        node.otherwise = parseStatement();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected token: " + token);
+            }
+            return node;
+        }
+
+        private void tokenize(String source) {
+            mTokens = new ArrayList<>();
+            mPos = 0;
+            Matcher m = TOKEN.matcher(source);
+            while (m.find())
+                mTokens.add(m.group());
+        }
+
+        private String next() {
+            return mTokens.get(mPos++);
+        }
+
+        private void expect(String token) {
+            String actual = next();
+            if (!token.equals(actual))
+                throw new IllegalStateException("Expected " + token + " but found " + actual);
+        }
+    }
+}
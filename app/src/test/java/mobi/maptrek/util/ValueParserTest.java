@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package mobi.maptrek.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.CharBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Number and time parsing tests.
+ */
+public class ValueParserTest {
+    @Test
+    public void testE6() {
+        assertEquals(55123457, ValueParser.parseE6("55.1234565"));
+        assertEquals(-37000001, ValueParser.parseE6(" -37.0000005\n"));
+        assertEquals(180000000, ValueParser.parseE6("+180"));
+        assertEquals(500000, ValueParser.parseE6(".5"));
+        assertEquals(12, ValueParser.parseE6("1.2E-5"));
+        assertEquals(1000000, ValueParser.parseE6("1."));
+        assertEquals(12345678, ValueParser.parseE6(CharBuffer.wrap("lat=12.345678;".toCharArray(), 4, 9)));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            String string = String.format(Locale.ROOT, "%." + random.nextInt(10) + "f", value);
+            int expected = new BigDecimal(string).setScale(6, RoundingMode.HALF_UP).unscaledValue().intValue();
+            assertEquals(string, expected, ValueParser.parseE6(string));
+        }
+        assertInvalidNumber("");
+        assertInvalidNumber("-");
+        assertInvalidNumber("12,5");
+        assertInvalidNumber("1.2.3");
+        assertInvalidNumber("99999999999");
+    }
+
+    @Test
+    public void testFloat() {
+        assertEquals(123.25f, ValueParser.parseFloat(" 123.25 "), 0f);
+        assertEquals(-0.001f, ValueParser.parseFloat("-0.001"), 0f);
+        assertEquals(1.5e10f, ValueParser.parseFloat("1.5e10"), 0f);
+        assertEquals(Float.NaN, ValueParser.parseFloat("NaN"), 0f);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            String string = String.format(Locale.ROOT, "%." + random.nextInt(8) + "f", (random.nextDouble() - 0.3) * 9000);
+            float expected = Float.parseFloat(string);
+            assertEquals(string, expected, ValueParser.parseFloat(string), Math.ulp(expected));
+        }
+        assertInvalidNumber("1.2.3");
+    }
+
+    @Test
+    public void testTime() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            Date date = new Date((long) (random.nextDouble() * 4e12));
+            String string = format.format(date);
+            assertEquals(string, date.getTime(), ValueParser.parseTime(string + "Z"));
+            assertEquals(string, date.getTime() / 1000 * 1000, ValueParser.parseTime(string.substring(0, 19)));
+        }
+        long time = format.parse("2024-02-29T21:30:05.000").getTime();
+        assertEquals(time, ValueParser.parseTime("2024-02-29T21:30:05Z"));
+        assertEquals(time, ValueParser.parseTime("2024-03-01T01:00:05+03:30"));
+        assertEquals(time, ValueParser.parseTime("2024-02-29T16:30:05-0500"));
+        assertEquals(time + 123, ValueParser.parseTime(" 2024-02-29T21:30:05.1239Z "));
+        assertEquals(format.parse("1969-07-20T00:00:00.000").getTime(), ValueParser.parseTime("1969-07-20"));
+
+        String[] invalid = {"", "2024-02-29T", "2024-13-01T00:00:00Z", "2024-02-29T21:30Z",
+                "2024-02-29T21:30:05.Z", "2024-02-29T21:30:05+3", "2024/02/29"};
+        for (String string : invalid) {
+            try {
+                ValueParser.parseTime(string);
+                fail("Parsed invalid time: " + string);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+    }
+
+    private static void assertInvalidNumber(String string) {
+        try {
+            ValueParser.parseE6(string);
+            fail("Parsed invalid number: " + string);
+        } catch (NumberFormatException ignore) {
+        }
+    }
+}
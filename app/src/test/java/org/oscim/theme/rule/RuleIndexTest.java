@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.theme.rule;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.oscim.core.GeometryBuffer.GeometryType;
+import org.oscim.core.Tag;
+import org.oscim.core.TagSet;
+import org.oscim.theme.RenderTheme;
+import org.oscim.theme.rule.Rule.Element;
+import org.oscim.theme.rule.Rule.Selector;
+import org.oscim.theme.styles.RenderStyle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that indexed rule matching gives the same styles as plain rule tree traversal.
+ */
+public class RuleIndexTest {
+    private static final String[] KEYS = createStrings("key", 30);
+    private static final String[] VALUES = createStrings("value", 100);
+    private static final int[] ELEMENTS = {Element.NODE, Element.LINE, Element.POLY, Element.WAY, Element.ANY};
+
+    static class TestStyle extends RenderStyle<TestStyle> {
+        @Override
+        public TestStyle current() {
+            return this;
+        }
+    }
+
+    @Test
+    public void testRuleMatching() {
+        Random random = new Random(42);
+        Rule[] rules = createRules(random, 40, 3);
+        List<RenderStyle> expected = new ArrayList<>();
+        List<RenderStyle> actual = new ArrayList<>();
+
+        for (int n = 0; n < 20000; n++) {
+            Tag[] tags = createTags(random);
+            int type = 1 << random.nextInt(3);
+            int zoomLevel = 1 << random.nextInt(20);
+            expected.clear();
+            actual.clear();
+            for (Rule rule : rules) {
+                match(rule, type, tags, zoomLevel, expected);
+                rule.matchElement(type, tags, zoomLevel, actual);
+            }
+            assertEquals(Arrays.toString(tags), expected, actual);
+        }
+    }
+
+    @Test
+    public void testThemeMatching() {
+        Random random = new Random(7);
+        Rule[] rules = createRules(random, 40, 3);
+        RenderTheme theme = new RenderTheme(0, 1f, rules, 0);
+        List<RenderStyle> expected = new ArrayList<>();
+        TagSet tagSet = new TagSet();
+
+        for (int n = 0; n < 20000; n++) {
+            Tag[] tags = createTags(random);
+            tagSet.set(tags);
+            int geometry = random.nextInt(3);
+            int zoom = random.nextInt(20);
+            expected.clear();
+            for (Rule rule : rules)
+                match(rule, 1 << geometry, tags, 1 << zoom, expected);
+            RenderStyle[] styles = theme.matchElement(GeometryType.values()[geometry + 1], tagSet, zoom);
+            List<RenderStyle> actual = styles == null ? new ArrayList<>() : Arrays.asList(styles);
+            assertEquals(Arrays.toString(tags), expected, actual);
+        }
+    }
+
+    /**
+     * Compares indexed and plain matching of random elements. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkRuleMatching() {
+        Random random = new Random(42);
+        Rule[] rules = createRules(random, 60, 3);
+        Tag[][] elements = new Tag[10000][];
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = createTags(random);
+        List<RenderStyle> result = new ArrayList<>();
+
+        for (int pass = 0; pass < 5; pass++) {
+            long start = System.nanoTime();
+            for (Tag[] tags : elements) {
+                result.clear();
+                for (Rule rule : rules)
+                    match(rule, Element.POLY, tags, 1 << 14, result);
+            }
+            long plain = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Tag[] tags : elements) {
+                result.clear();
+                for (Rule rule : rules)
+                    rule.matchElement(Element.POLY, tags, 1 << 14, result);
+            }
+            long indexed = System.nanoTime() - start;
+            System.out.println("plain: " + plain / elements.length + "ns, indexed: " + indexed / elements.length + "ns");
+        }
+    }
+
+    /**
+     * Reference implementation of rule matching without index.
+     */
+    private static boolean match(Rule rule, int type, Tag[] tags, int zoomLevel, List<RenderStyle> result) {
+        if (((rule.element & type) == 0) || ((rule.zoom & zoomLevel) == 0) || !rule.matchesTags(tags))
+            return false;
+
+        boolean matched = false;
+        for (Rule r : rule.subRules) {
+            if (rule.selectFirstMatch ? matched ^ r.selectWhenMatched : r.selectWhenMatched && !matched)
+                continue;
+            if (match(r, type, tags, zoomLevel, result))
+                matched = true;
+        }
+
+        if (rule.styles == Rule.EMPTY_STYLE)
+            return matched;
+
+        result.addAll(Arrays.asList(rule.styles));
+        return true;
+    }
+
+    private static Rule[] createRules(Random random, int count, int depth) {
+        Rule[] rules = new Rule[count];
+        int[] level = new int[1];
+        for (int i = 0; i < count; i++)
+            rules[i] = createRule(random, depth).onComplete(level);
+        return rules;
+    }
+
+    private static RuleBuilder createRule(Random random, int depth) {
+        String k = null;
+        String v = null;
+        /* theme rules are mostly value and key-value rules */
+        switch (random.nextInt(10)) {
+            case 1:
+                k = KEYS[random.nextInt(KEYS.length)];
+                v = (random.nextBoolean() ? "~|" : "-|") + VALUES[random.nextInt(VALUES.length)];
+                break;
+            case 2:
+            case 3:
+                k = KEYS[random.nextInt(KEYS.length)];
+                break;
+            case 4:
+            case 5:
+            case 6:
+                v = VALUES[random.nextInt(VALUES.length)] + "|" + VALUES[random.nextInt(VALUES.length)];
+                break;
+            case 7:
+            case 8:
+                k = KEYS[random.nextInt(KEYS.length)];
+                v = VALUES[random.nextInt(VALUES.length)];
+                break;
+            case 9:
+                k = KEYS[random.nextInt(KEYS.length)] + "|" + KEYS[random.nextInt(KEYS.length)];
+                v = VALUES[random.nextInt(VALUES.length)] + "|" + VALUES[random.nextInt(VALUES.length)];
+                break;
+        }
+        RuleBuilder builder = RuleBuilder.create(k, v);
+        builder.element(ELEMENTS[random.nextInt(ELEMENTS.length)]);
+        if (random.nextInt(3) == 0) {
+            int min = random.nextInt(18);
+            builder.zoom((byte) min, (byte) (min + random.nextInt(6)));
+        }
+        if (random.nextInt(4) == 0)
+            builder.select(Selector.FIRST);
+        else if (random.nextInt(5) == 0)
+            builder.select(Selector.WHEN_MATCHED);
+        if (depth > 0) {
+            int children = random.nextInt(12);
+            for (int i = 0; i < children; i++)
+                builder.addSubRule(createRule(random, depth - 1));
+        }
+        if (depth == 0 || random.nextInt(3) == 0)
+            builder.addStyle(new TestStyle());
+        return builder;
+    }
+
+    private static String[] createStrings(String prefix, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++)
+            strings[i] = prefix + i;
+        return strings;
+    }
+
+    private static Tag[] createTags(Random random) {
+        Tag[] tags = new Tag[1 + random.nextInt(4)];
+        for (int i = 0; i < tags.length; i++)
+            tags[i] = new Tag(KEYS[random.nextInt(KEYS.length)], VALUES[random.nextInt(VALUES.length)]);
+        return tags;
+    }
+}
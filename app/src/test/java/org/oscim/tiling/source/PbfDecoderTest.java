@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.tiling.source;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.oscim.core.GeometryBuffer;
+import org.oscim.core.Tile;
+import org.oscim.tiling.ITileDataSink;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that messages are decoded equally from stream, array and byte buffer.
+ */
+public class PbfDecoderTest {
+    private static final int TAG_STRING = 1;
+    private static final int TAG_VARINT = 2;
+    private static final int TAG_POINTS = 3;
+
+    /**
+     * Decodes test message to list of values.
+     */
+    static class TestDecoder extends PbfDecoder {
+        final List<Object> values = new ArrayList<>();
+        boolean collect = true;
+        private final GeometryBuffer mGeom = new GeometryBuffer(1000, 1);
+
+        @Override
+        public boolean decode(Tile tile, ITileDataSink sink, InputStream is) throws IOException {
+            setInputStream(is);
+            return decode();
+        }
+
+        boolean decode() throws IOException {
+            values.clear();
+            int val;
+            while (hasData() && (val = decodeVarint32()) > 0) {
+                switch (val >> 3) {
+                    case TAG_STRING:
+                        String string = decodeString();
+                        if (collect)
+                            values.add(string);
+                        break;
+                    case TAG_VARINT:
+                        int value = decodeVarint32();
+                        if (collect)
+                            values.add(value);
+                        break;
+                    case TAG_POINTS:
+                        int n = decodeInterleavedPoints(mGeom, 1f);
+                        if (!collect)
+                            break;
+                        StringBuilder sb = new StringBuilder();
+                        for (int i = 0; i < n * 2; i++)
+                            sb.append(mGeom.points[i]).append(',');
+                        values.add(sb.toString());
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void testInputs() throws IOException {
+        byte[] message = createMessage(new Random(42), 2000);
+        TestDecoder decoder = new TestDecoder();
+
+        assertTrue(decoder.decode(null, null, new ByteArrayInputStream(message)));
+        List<Object> expected = new ArrayList<>(decoder.values);
+        assertEquals(6000, expected.size());
+
+        // message in the middle of array
+        byte[] data = new byte[message.length + 20];
+        System.arraycopy(message, 0, data, 10, message.length);
+        decoder.setInput(data, 10, message.length);
+        assertTrue(decoder.decode());
+        assertEquals(expected, decoder.values);
+        assertEquals(message.length, decoder.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        direct.put(message).flip();
+        decoder.setInput(direct);
+        assertTrue(decoder.decode());
+        assertEquals(expected, decoder.values);
+
+        // decoder buffer has to be restored after array input
+        assertTrue(decoder.decode(null, null, new ByteArrayInputStream(message)));
+        assertEquals(expected, decoder.values);
+        // source array is not modified
+        for (int i = 0; i < message.length; i++)
+            assertEquals(message[i], data[10 + i]);
+    }
+
+    @Test
+    public void testTruncatedArray() throws IOException {
+        byte[] message = createMessage(new Random(42), 10);
+        TestDecoder decoder = new TestDecoder();
+        decoder.setInput(message, 0, message.length - 3);
+        try {
+            decoder.decode();
+            fail("Truncated message decoded");
+        } catch (PbfDecoder.ProtobufException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares stream and in place decoding of tile sized messages. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkDecoding() throws IOException {
+        Random random = new Random(42);
+        byte[][] messages = new byte[200][];
+        for (int i = 0; i < messages.length; i++)
+            messages[i] = createMessage(random, 1000 + random.nextInt(3000));
+        TestDecoder decoder = new TestDecoder();
+        decoder.collect = false;
+
+        for (int pass = 0; pass < 10; pass++) {
+            long start = System.nanoTime();
+            for (byte[] message : messages)
+                decoder.decode(null, null, new ByteArrayInputStream(message));
+            long stream = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] message : messages) {
+                decoder.setInput(message, 0, message.length);
+                decoder.decode();
+            }
+            long array = System.nanoTime() - start;
+            System.out.println("stream: " + stream / messages.length / 1000 + "us, array: " + array / messages.length / 1000 + "us");
+        }
+    }
+
+    private static byte[] createMessage(Random random, int elements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < elements; i++) {
+            writeVarint(out, TAG_STRING << 3 | 2);
+            byte[] string = ("name " + random.nextInt(100000) + " имя").getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, string.length);
+            out.write(string, 0, string.length);
+
+            writeVarint(out, TAG_VARINT << 3);
+            writeVarint(out, random.nextInt(Integer.MAX_VALUE));
+
+            ByteArrayOutputStream points = new ByteArrayOutputStream();
+            for (int j = 0, n = 2 * (1 + random.nextInt(50)); j < n; j++) {
+                int delta = random.nextInt(2000) - 1000;
+                writeVarint(points, (delta << 1) ^ (delta >> 31));
+            }
+            writeVarint(out, TAG_POINTS << 3 | 2);
+            writeVarint(out, points.size());
+            byte[] bytes = points.toByteArray();
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2024 Andrey Novikov
+ *
+ * This file is part of the OpenScienceMap project (http://www.opensciencemap.org).
+ *
+ * This program is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.oscim.utils;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that triangulation covers exactly the polygon area (as libtess output does) and
+ * keeps orientation of the outer ring.
+ */
+public class EarcutTest {
+    private final Earcut mEarcut = new Earcut();
+
+    @Test
+    public void testSquare() {
+        float[] points = {0, 0, 10, 0, 10, 10, 0, 10};
+        int[] index = {8, -1};
+        assertEquals(6, mEarcut.triangulate(points, 0, index, 0, 1));
+        check(points, 0, index, 0, 1, 6);
+    }
+
+    @Test
+    public void testHole() {
+        float[] points = {
+                0, 0, 10, 0, 10, 10, 0, 10,
+                3, 3, 3, 7, 7, 7, 7, 3
+        };
+        int[] index = {8, 8, -1};
+        /* n + 2h - 2 triangles */
+        assertEquals(8 * 3, mEarcut.triangulate(points, 0, index, 0, 2));
+        check(points, 0, index, 0, 2, 24);
+    }
+
+    @Test
+    public void testOffsetAndOrientation() {
+        /* clockwise outer ring of the second polygon */
+        float[] points = {
+                0, 0, 1, 0, 1, 1,
+                0, 0, 0, 10, 5, 12, 10, 10, 10, 0, 5, 5
+        };
+        int[] index = {6, 0, 12, -1};
+        int nelems = mEarcut.triangulate(points, 6, index, 2, 1);
+        assertEquals(4 * 3, nelems);
+        check(points, 6, index, 2, 1, nelems);
+    }
+
+    @Test
+    public void testRandomPolygons() {
+        Random random = new Random(42);
+        for (int n = 0; n < 1000; n++) {
+            int numRings = 1 + random.nextInt(4);
+            int numPoints = 8 + random.nextInt(n % 10 == 0 ? 300 : 20);
+            float[] points = new float[numPoints * 2 + (numRings - 1) * 8];
+            int[] index = new int[numRings + 1];
+            star(points, 0, numPoints, 0, 0, random);
+            index[0] = numPoints * 2;
+            /* square holes along x axis inside star inner radius */
+            for (int i = 1; i < numRings; i++) {
+                int p = numPoints * 2 + (i - 1) * 8;
+                float x = -45 + (i - 1) * 30;
+                float[] hole = {x, -10, x, 10, x + 20, 10, x + 20, -10};
+                System.arraycopy(hole, 0, points, p, 8);
+                index[i] = 8;
+            }
+            index[numRings] = -1;
+            int nelems = mEarcut.triangulate(points, 0, index, 0, numRings);
+            /* at most n + 2h - 2 triangles (collinear points are dropped), each hole has four points */
+            assertTrue(nelems > 0 && nelems / 3 <= numPoints + 6 * (numRings - 1) - 2);
+            check(points, 0, index, 0, numRings, nelems);
+        }
+    }
+
+    /**
+     * Measures triangulation of building and landuse like polygons. Is not run by default.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkTriangulation() {
+        Random random = new Random(42);
+        float[][] polygons = new float[10000][];
+        for (int i = 0; i < polygons.length; i++) {
+            int numPoints = i % 10 == 0 ? 50 + random.nextInt(200) : 4 + random.nextInt(12);
+            polygons[i] = new float[numPoints * 2];
+            star(polygons[i], 0, numPoints, random.nextInt(4000), random.nextInt(4000), random);
+        }
+        int[] index = {0, -1};
+        for (int pass = 0; pass < 10; pass++) {
+            long start = System.nanoTime();
+            int triangles = 0;
+            for (float[] polygon : polygons) {
+                index[0] = polygon.length;
+                triangles += Earcut.get().triangulate(polygon, 0, index, 0, 1) / 3;
+            }
+            long time = System.nanoTime() - start;
+            System.out.println(time / polygons.length + "ns per polygon, " + triangles + " triangles");
+        }
+    }
+
+    /**
+     * Creates counter-clockwise star shaped ring with inner radius 60 and outer radius 100.
+     */
+    private static void star(float[] points, int pos, int numPoints, float cx, float cy, Random random) {
+        for (int i = 0; i < numPoints; i++) {
+            double angle = 2 * Math.PI * i / numPoints;
+            double radius = 60 + random.nextInt(41);
+            points[pos + i * 2] = (float) (cx + radius * Math.cos(angle));
+            points[pos + i * 2 + 1] = (float) (cy + radius * Math.sin(angle));
+        }
+    }
+
+    private void check(float[] points, int ppos, int[] index, int ipos, int numRings, int nelems) {
+        int numPoints = 0;
+        for (int i = 0; i < numRings; i++)
+            numPoints += index[ipos + i];
+        double expected = 0;
+        for (int i = 0, start = ppos; i < numRings; i++) {
+            int end = start + index[ipos + i];
+            expected += Math.abs(ringArea(points, start, end)) * (i == 0 ? 1 : -1);
+            start = end;
+        }
+        double outer = ringArea(points, ppos, ppos + index[ipos]);
+
+        int[] indices = mEarcut.getIndices();
+        double actual = 0;
+        for (int i = 0; i < nelems; i += 3) {
+            for (int j = 0; j < 3; j++)
+                assertTrue(indices[i + j] >= 0 && indices[i + j] < numPoints / 2);
+            int a = ppos + indices[i] * 2, b = ppos + indices[i + 1] * 2, c = ppos + indices[i + 2] * 2;
+            double area = ((points[b] - points[a]) * (points[c + 1] - points[a + 1])
+                    - (points[c] - points[a]) * (points[b + 1] - points[a + 1])) / 2;
+            assertTrue("triangle orientation", area * outer >= 0);
+            actual += Math.abs(area);
+        }
+        assertEquals(expected, actual, expected * 1e-6);
+    }
+
+    private static double ringArea(float[] points, int start, int end) {
+        double sum = 0;
+        for (int i = start, j = end - 2; i < end; j = i, i += 2)
+            sum += (points[j] * points[i + 1] - points[i] * points[j + 1]);
+        return sum / 2;
+    }
+}